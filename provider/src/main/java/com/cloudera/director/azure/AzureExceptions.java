@@ -110,6 +110,27 @@ public class AzureExceptions {
       TENANT_NOT_FOUND
   );
 
+  // The set of error codes Azure uses for transient failures, worth retrying.
+  private static final Set<String> RETRYABLE_ERROR_CODES = ImmutableSet.of(
+      "TooManyRequests",
+      "ServerBusy",
+      "ServiceUnavailable",
+      "InternalServerError",
+      "GatewayTimeout",
+      "RetryableError",
+      "OperationPreempted",
+      "AnotherOperationInProgress"
+  );
+
+  // The set of error codes that retrying cannot fix.
+  private static final Set<String> NON_RETRYABLE_ERROR_CODES = ImmutableSet.<String>builder()
+      .addAll(AUTHORIZATION_ERROR_CODES)
+      .add(IMAGE_EULA_NOT_ACCEPTED)
+      .add(RESOURCE_QUOTA_EXCEEDED)
+      .add(OPERATION_NOT_ALLOWED)
+      .add(PUBLIC_IP_LIMIT_EXCEEDED)
+      .build();
+
   // The map of error code to message.
   private final static Map<String, String> AZURE_ERROR_CODE_TO_MESSAGE_MAP =
       ImmutableMap.<String, String>builder()
@@ -194,8 +215,14 @@ public class AzureExceptions {
     // Only report each error code once
     Map<String, CloudError> azureErrors = Maps.newHashMap();
     for (Exception e : exceptions) {
-      if (e instanceof CloudException) {
-        CloudError ce = ((CloudException) e).body();
+      // a CloudException may arrive wrapped, e.g. when a cached credentials validation failure is rethrown
+      CloudException cloudException = Throwables.getCausalChain(e).stream()
+          .filter(CloudException.class::isInstance)
+          .map(CloudException.class::cast)
+          .findFirst()
+          .orElse(null);
+      if (cloudException != null) {
+        CloudError ce = cloudException.body();
         if (ce == null) continue;
         // CloudError may contain a list of more detailed CloudErrors.
         // If so, only add errors from details since the top level error is too generic.
@@ -238,6 +265,89 @@ public class AzureExceptions {
     return azureErrors.keySet();
   }
 
+  /**
+   * Checks whether an exception, or anything in its causal chain, shows that the credentials are
+   * definitively invalid or not allowed to make the call: an authentication failure (see
+   * {@link #isAuthenticationFailure(Throwable)}), or a {@link CloudException} with an HTTP 401 or
+   * 403 status or an authorization error code. Network errors, throttling and server errors are
+   * not credentials failures.
+   *
+   * @param t the throwable to inspect
+   * @return true if the throwable is a credentials failure; false otherwise
+   */
+  public static boolean isCredentialsFailure(Throwable t) {
+    if (isAuthenticationFailure(t)) {
+      return true;
+    }
+    if (t == null) {
+      return false;
+    }
+
+    for (Throwable cause : Throwables.getCausalChain(t)) {
+      if (cause instanceof CloudException) {
+        CloudException cloudException = (CloudException) cause;
+        if (cloudException.response() != null &&
+            (cloudException.response().code() == 401 || cloudException.response().code() == 403)) {
+          return true;
+        }
+        CloudError ce = cloudException.body();
+        if (ce != null && AUTHORIZATION_ERROR_CODES.contains(ce.code())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether an exception, or anything in its causal chain, indicates that Azure rejected
+   * the credentials or the token used to make a call: either an AAD {@link AuthenticationException}
+   * or a {@link CloudException} with the {@link #INVALID_AUTHENTICATION_TOKEN} error code.
+   *
+   * @param t the throwable to inspect
+   * @return true if the throwable is an authentication failure; false otherwise
+   */
+  public static boolean isAuthenticationFailure(Throwable t) {
+    if (t == null) {
+      return false;
+    }
+
+    for (Throwable cause : Throwables.getCausalChain(t)) {
+      if (cause instanceof AuthenticationException) {
+        return true;
+      }
+      if (cause instanceof CloudException) {
+        CloudError ce = ((CloudException) cause).body();
+        if (ce != null && INVALID_AUTHENTICATION_TOKEN.equals(ce.code())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether an Azure error code denotes a transient failure, e.g. throttling, a busy or
+   * failing service or a conflicting operation in progress, that may succeed when retried.
+   *
+   * @param azureErrorCode the Azure error code, may be null
+   * @return true if the error is transient; false otherwise
+   */
+  public static boolean isRetryableErrorCode(String azureErrorCode) {
+    return azureErrorCode != null && RETRYABLE_ERROR_CODES.contains(azureErrorCode);
+  }
+
+  /**
+   * Checks whether an Azure error code denotes a failure that retrying cannot fix, e.g. an
+   * authorization failure, an exceeded quota or an image EULA that was not accepted.
+   *
+   * @param azureErrorCode the Azure error code, may be null
+   * @return true if the error is known to be permanent; false otherwise
+   */
+  public static boolean isNonRetryableErrorCode(String azureErrorCode) {
+    return azureErrorCode != null && NON_RETRYABLE_ERROR_CODES.contains(azureErrorCode);
+  }
+
   private static Map<String, String> toExceptionInfoMap(CloudError ce) {
     String azureErrorCode = ce.code();
     String message = AZURE_ERROR_CODE_TO_MESSAGE_MAP.getOrDefault(azureErrorCode, DEFAULT_MESSAGE);
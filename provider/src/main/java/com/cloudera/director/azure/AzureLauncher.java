@@ -19,6 +19,7 @@ package com.cloudera.director.azure;
 import com.cloudera.director.azure.compute.credentials.AzureCredentials;
 import com.cloudera.director.azure.compute.credentials.AzureCredentialsProvider;
 import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
+import com.cloudera.director.azure.utils.AzurePluginMetrics;
 import com.cloudera.director.spi.v2.common.http.HttpProxyParameters;
 import com.cloudera.director.spi.v2.model.Configured;
 import com.cloudera.director.spi.v2.model.LocalizationContext;
@@ -70,6 +71,7 @@ public class AzureLauncher extends AbstractLauncher {
 
     AzurePluginConfigHelper.validatePluginConfig(azurePluginConfig);
     AzurePluginConfigHelper.setAzurePluginConfig(azurePluginConfig);
+    AzurePluginMetrics.startSummaryLog();
 
     // Repeat the process with images.conf (skip validation)
     Config imagesConfig = AzurePluginConfigHelper
@@ -100,6 +102,10 @@ public class AzureLauncher extends AbstractLauncher {
     AzureCredentialsProvider credsProvider = new AzureCredentialsProvider();
     AzureCredentials creds = credsProvider.createCredentials(configuration, localizationContext);
 
+    if (AzurePluginConfigHelper.isWarmUpEnabled()) {
+      creds.warmUpInBackground();
+    }
+
     return new AzureCloudProvider(creds, localizationContext);
   }
 }
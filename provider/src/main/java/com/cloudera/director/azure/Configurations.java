@@ -71,7 +71,38 @@ public final class Configurations {
   public static final String AZURE_SDK_CONFIG_READ_TIMEOUT_SECONDS =
       "azure-sdk-read-timeout-seconds";
   public static final String AZURE_SDK_CONFIG_MAX_IDLE_CONN = "azure-sdk-max-idle-connections";
+  public static final String AZURE_SDK_CONFIG_KEEP_ALIVE_SECONDS = "azure-sdk-keep-alive-seconds";
+  public static final String AZURE_SDK_CONFIG_MAX_REQUESTS = "azure-sdk-max-requests";
+  public static final String AZURE_SDK_CONFIG_MAX_REQUESTS_PER_HOST = "azure-sdk-max-requests-per-host";
+  public static final String AZURE_SDK_CONFIG_POOL_STATS_LOG_INTERVAL_SECONDS =
+      "azure-sdk-pool-stats-log-interval-seconds";
   public static final String AZURE_HOST_KEY_FINGERPRINT_COMMAND = "azure-host-key-fingerprint-command";
+  public static final String AZURE_CREDENTIALS_VALIDATION_TTL_SECONDS =
+      "azure-credentials-validation-ttl-seconds";
+  public static final String AZURE_CREDENTIALS_VALIDATION_FAILURE_TTL_SECONDS =
+      "azure-credentials-validation-failure-ttl-seconds";
+  public static final String AZURE_TOKEN_REFRESH_MARGIN_SECONDS = "azure-token-refresh-margin-seconds";
+  public static final String AZURE_SHARED_CLIENTS_IDLE_TTL_SECONDS = "azure-shared-clients-idle-ttl-seconds";
+  public static final String AZURE_WARM_UP_ENABLED = "azure-warm-up-enabled";
+  public static final String AZURE_METRICS_LOG_INTERVAL_SECONDS = "azure-metrics-log-interval-seconds";
+  public static final String AZURE_ARM_RATE_LIMIT_ENABLED = "azure-arm-rate-limit-enabled";
+  public static final String AZURE_ARM_RATE_LIMIT_LOW_REMAINING_PERCENT =
+      "azure-arm-rate-limit-low-remaining-percent";
+  public static final String AZURE_ARM_RETRY_MAX_RETRIES = "azure-arm-retry-max-retries";
+  public static final String AZURE_ARM_RETRY_INITIAL_BACKOFF_MILLIS = "azure-arm-retry-initial-backoff-millis";
+  public static final String AZURE_ARM_RETRY_MAX_BACKOFF_SECONDS = "azure-arm-retry-max-backoff-seconds";
+  public static final String AZURE_ARM_RETRY_DEADLINE_SECONDS = "azure-arm-retry-deadline-seconds";
+  public static final String AZURE_VM_IMAGE_CACHE_TTL_SECONDS = "azure-vm-image-cache-ttl-seconds";
+  public static final String AZURE_VM_IMAGE_CACHE_LATEST_TTL_SECONDS = "azure-vm-image-cache-latest-ttl-seconds";
+  public static final String AZURE_VM_IMAGE_CACHE_MAX_SIZE = "azure-vm-image-cache-max-size";
+  public static final String AZURE_COMMON_RESOURCE_CACHE_TTL_SECONDS = "azure-common-resource-cache-ttl-seconds";
+  public static final String AZURE_VM_CREATE_MAX_CONCURRENCY = "azure-vm-create-max-concurrency";
+  public static final String AZURE_VM_CLEANUP_MAX_CONCURRENCY = "azure-vm-cleanup-max-concurrency";
+  public static final String AZURE_DEPLOYMENT_BATCH_SIZE = "azure-deployment-batch-size";
+  public static final String AZURE_INSTANCE_VIEW_MAX_CONCURRENCY = "azure-instance-view-max-concurrency";
+  public static final String AZURE_INSTANCE_STATE_CACHE_TTL_SECONDS = "azure-instance-state-cache-ttl-seconds";
+  public static final String AZURE_VM_DELETE_MAX_CONCURRENCY = "azure-vm-delete-max-concurrency";
+  public static final String AZURE_METADATA_MAX_CONCURRENCY = "azure-metadata-max-concurrency";
 
   public static final String AZURE_CONFIG_INSTANCE = "instance";
   public static final String AZURE_CONFIG_INSTANCE_STORAGE_ACCOUNT_TYPES =
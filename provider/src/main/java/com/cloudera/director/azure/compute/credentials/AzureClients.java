@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.compute.credentials;
+
+import static java.util.Objects.requireNonNull;
+
+import com.microsoft.azure.management.Azure;
+import com.microsoft.azure.management.msi.implementation.MSIManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The set of authenticated Azure clients built for one set of credentials.
+ *
+ * All clients share the same token manager so that an AAD token acquired by one of them is
+ * reused by the others, and renewed in the background before it expires. The clients remember when
+ * they were last handed out, so that clients nobody uses anymore (e.g. built for a secret that has
+ * since been rotated) can be dropped. Other long-lived objects built on the clients (e.g. instance
+ * allocators) can be shared through them, and are released when the clients are dropped.
+ */
+final class AzureClients {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AzureClients.class);
+
+  private final AzureTokenManager credentials;
+  private final Azure.Authenticated authenticated;
+  private final Azure azure;
+  private final MSIManager msiManager;
+  private final long idleTtlNanos;
+  private volatile long lastAccessNanos;
+  private final Map<String, SharedValue<?>> shared = new HashMap<>();
+  private boolean closed;
+
+  /**
+   * Creates the set of clients.
+   *
+   * @param credentials   the token manager shared by the clients
+   * @param authenticated the Azure client, before selecting a subscription
+   * @param azure         the Azure client for the subscription
+   * @param msiManager    the MSIManager client
+   * @param idleTtlNanos  how long (in nanoseconds) the clients can go unused before they're
+   *                      considered idle; 0 to never consider them idle
+   * @param now           the current {@link System#nanoTime()}
+   */
+  AzureClients(
+      AzureTokenManager credentials,
+      Azure.Authenticated authenticated,
+      Azure azure,
+      MSIManager msiManager,
+      long idleTtlNanos,
+      long now) {
+    this.credentials = requireNonNull(credentials, "credentials is null");
+    this.authenticated = requireNonNull(authenticated, "authenticated is null");
+    this.azure = requireNonNull(azure, "azure is null");
+    this.msiManager = requireNonNull(msiManager, "msiManager is null");
+    this.idleTtlNanos = idleTtlNanos;
+    this.lastAccessNanos = now;
+  }
+
+  AzureTokenManager credentials() {
+    return credentials;
+  }
+
+  Azure.Authenticated authenticated() {
+    return authenticated;
+  }
+
+  Azure azure() {
+    return azure;
+  }
+
+  MSIManager msiManager() {
+    return msiManager;
+  }
+
+  /**
+   * Records that the clients were handed out.
+   *
+   * @param now the current {@link System#nanoTime()}
+   */
+  void touch(long now) {
+    lastAccessNanos = now;
+  }
+
+  /**
+   * @param now the current {@link System#nanoTime()}
+   * @return whether the clients haven't been handed out for longer than their idle TTL
+   */
+  boolean isIdle(long now) {
+    return idleTtlNanos > 0 && now - lastAccessNanos > idleTtlNanos;
+  }
+
+  /**
+   * Gets a value shared by every user of these clients, creating it on first use. Once these
+   * clients are closed no value is created, since nothing would release it; the caller has to get
+   * new clients instead.
+   *
+   * @param name    the name of the value
+   * @param factory creates the value
+   * @param onClose releases the value when these clients are closed
+   * @param <T>     the type of the value
+   * @return the shared value, or null if these clients have been closed
+   */
+  synchronized <T> T getShared(String name, Supplier<T> factory, Consumer<? super T> onClose) {
+    if (closed) {
+      LOG.debug("Not sharing {}; the Azure clients were closed.", name);
+      return null;
+    }
+    @SuppressWarnings("unchecked")
+    SharedValue<T> value = (SharedValue<T>) shared.get(name);
+    if (value == null) {
+      value = new SharedValue<>(requireNonNull(factory.get(), "factory returned null"), onClose);
+      if (closed) {
+        // the factory itself dropped these clients
+        value.close();
+        return null;
+      }
+      shared.put(name, value);
+    }
+    return value.value;
+  }
+
+  /**
+   * Stops the background token renewals of these clients, and releases the values shared through
+   * them.
+   */
+  void close() {
+    credentials.close();
+    List<SharedValue<?>> values;
+    synchronized (this) {
+      closed = true;
+      values = new ArrayList<>(shared.values());
+      shared.clear();
+    }
+    for (SharedValue<?> value : values) {
+      try {
+        value.close();
+      } catch (RuntimeException e) {
+        LOG.warn("Failed to release a value shared through the Azure clients.", e);
+      }
+    }
+  }
+
+  /**
+   * A shared value and how to release it.
+   */
+  private static final class SharedValue<T> {
+    private final T value;
+    private final Consumer<? super T> onClose;
+
+    SharedValue(T value, Consumer<? super T> onClose) {
+      this.value = value;
+      this.onClose = requireNonNull(onClose, "onClose is null");
+    }
+
+    void close() {
+      onClose.accept(value);
+    }
+  }
+}
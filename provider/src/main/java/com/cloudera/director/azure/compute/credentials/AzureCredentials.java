@@ -19,21 +19,45 @@ package com.cloudera.director.azure.compute.credentials;
 import static com.cloudera.director.azure.Configurations.AZURE_USER_AGENT_PREFIX;
 import static java.util.Objects.requireNonNull;
 
+import com.cloudera.director.azure.AzureExceptions;
+import com.cloudera.director.azure.utils.ArmRateLimitInterceptor;
+import com.cloudera.director.azure.utils.ArmRateLimiter;
+import com.cloudera.director.azure.utils.ArmRequestMetricsInterceptor;
+import com.cloudera.director.azure.utils.ArmRetryInterceptor;
+import com.cloudera.director.azure.utils.AzureHttpClients;
 import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
-import com.cloudera.director.azure.utils.SSLTunnelSocketFactory;
+import com.cloudera.director.azure.utils.AzurePluginMetrics;
 import com.cloudera.director.spi.v2.common.http.HttpProxyParameters;
 import com.cloudera.director.spi.v2.model.Configured;
 import com.cloudera.director.spi.v2.model.LocalizationContext;
 import com.cloudera.director.spi.v2.model.exception.InvalidCredentialsException;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.microsoft.azure.AzureEnvironment;
-import com.microsoft.azure.credentials.ApplicationTokenCredentials;
+import com.microsoft.azure.AzureResponseBuilder;
 import com.microsoft.azure.management.Azure;
 import com.microsoft.azure.management.msi.implementation.MSIManager;
+import com.microsoft.azure.management.resources.fluentcore.utils.ProviderRegistrationInterceptor;
+import com.microsoft.azure.serializer.AzureJacksonAdapter;
+import com.microsoft.rest.RestClient;
+import com.microsoft.rest.retry.RetryStrategy;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
@@ -44,9 +68,12 @@ import org.slf4j.LoggerFactory;
 
 import okhttp3.Authenticator;
 import okhttp3.Credentials;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.Route;
+import retrofit2.Retrofit;
 
 /**
  * Credentials for authenticating with Azure backend. Assuming service principal style
@@ -67,6 +94,39 @@ public class AzureCredentials {
       "[a-fA-F0-9]{8}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{12}";
   private static final Pattern UUID_PATTERN = Pattern.compile(UUID_REGEX);
 
+  // Authenticated clients shared by every AzureCredentials object with the same identity. Building
+  // the clients (and acquiring their AAD token) is expensive, so they're built once and reused
+  // across provider calls until Azure rejects the credentials, or until they go unused for
+  // azure-shared-clients-idle-ttl-seconds (e.g. after the secret was rotated).
+  private static final ConcurrentMap<ClientKey, AzureClients> CLIENTS = new ConcurrentHashMap<>();
+
+  // Drops idle clients, see evictIdleClients(). Started when the first clients are built.
+  private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("azure-clients-evictor-%d").setDaemon(true).build());
+  private static final AtomicBoolean EVICTOR_STARTED = new AtomicBoolean();
+  private static final long EVICTION_INTERVAL_SECONDS = 60;
+
+  // Results of recent credentials validations, see validateCached().
+  private static final CredentialsValidationCache<ClientKey> VALIDATIONS =
+      new CredentialsValidationCache<>(
+          AzurePluginConfigHelper::getCredentialsValidationTtl,
+          AzurePluginConfigHelper::getCredentialsValidationFailureTtl,
+          AzureExceptions::isCredentialsFailure,
+          System::nanoTime);
+
+  // Credentials that have already been warmed up, see warmUpInBackground().
+  private static final Set<ClientKey> WARMED_UP = ConcurrentHashMap.newKeySet();
+
+  // Disables the SDK retry handler; ArmRetryInterceptor retries ARM requests instead.
+  private static final RetryStrategy NO_RETRY = new RetryStrategy("no-retry", false) {
+    @Override
+    public boolean shouldRetry(int retryCount, Response response) {
+      return false;
+    }
+  };
+
+  private final ClientKey clientKey;
+
   /**
    * Builds credentials in a backwards compatible way by:
    * 1. If the "MGMT_URL" field (plugin v1) is set then map it to the corresponding Azure Cloud and
@@ -77,7 +137,7 @@ public class AzureCredentials {
    * @param local localization context to extract config
    */
   public AzureCredentials(Configured config, LocalizationContext local) {
-    LOG.info("Creating ApplicationTokenCredentials");
+    LOG.info("Creating AzureCredentials");
 
     // set to the Cloudera Altus Director user-agent GUID by default
     String userAgent = config.getConfigurationValue(AzureCredentialsConfiguration.USER_AGENT, local);
@@ -127,42 +187,130 @@ public class AzureCredentials {
     this.clientId = config.getConfigurationValue(AzureCredentialsConfiguration.CLIENT_ID, local);
     this.domain = config.getConfigurationValue(AzureCredentialsConfiguration.TENANT_ID, local);
     this.secret = config.getConfigurationValue(AzureCredentialsConfiguration.CLIENT_SECRET, local);
+
+    this.clientKey = new ClientKey(domain, clientId, secret, subId, azureEnvironment, userAgentPid,
+        AzurePluginConfigHelper.getHttpProxyParameters());
   }
 
-  private ApplicationTokenCredentials getCredentials() {
-    return new ApplicationTokenCredentials(clientId, domain, secret, azureEnvironment);
+  /**
+   * Creates the token manager that acquires, caches and renews AAD tokens for these credentials.
+   *
+   * @return a new token manager
+   */
+  private AzureTokenManager getCredentials() {
+    return new AzureTokenManager(clientId, domain, secret, azureEnvironment,
+        withHttpProxy(AzureHttpClients.newHttpClientBuilder()).build(),
+        AzurePluginConfigHelper.getAzureTokenRefreshMargin());
   }
 
-  private Azure.Authenticated getAuthenticatedAzureClient() {
-    HttpProxyParameters httpProxyParameters = AzurePluginConfigHelper.getHttpProxyParameters();
+  /**
+   * Gets the shared clients for these credentials, building them on first use.
+   *
+   * @return the shared, authenticated Azure clients
+   */
+  private AzureClients getClients() {
+    if (EVICTOR_STARTED.compareAndSet(false, true)) {
+      EVICTOR.scheduleWithFixedDelay(() -> evictIdleClients(System.nanoTime()),
+          EVICTION_INTERVAL_SECONDS, EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+    // touched under the map's lock, so that the evictor can't drop clients that are being handed out
+    return CLIENTS.compute(clientKey, (key, clients) -> {
+      long now = System.nanoTime();
+      if (clients == null) {
+        LOG.info("Building shared Azure clients for {}.", key);
+        return buildClients(now);
+      }
+      clients.touch(now);
+      return clients;
+    });
+  }
+
+  /**
+   * Drops the shared clients that haven't been used for azure-shared-clients-idle-ttl-seconds, and
+   * stops the background token renewals of their token managers. Credentials that are used again
+   * later simply build new clients.
+   *
+   * @param now the current {@link System#nanoTime()}
+   * @return the number of clients dropped
+   */
+  @VisibleForTesting
+  static int evictIdleClients(long now) {
+    int evicted = 0;
+    for (Map.Entry<ClientKey, AzureClients> entry : CLIENTS.entrySet()) {
+      ClientKey key = entry.getKey();
+      AzureClients clients = entry.getValue();
+      if (clients.isIdle(now) && CLIENTS.remove(key, clients)) {
+        VALIDATIONS.invalidate(key);
+        WARMED_UP.remove(key);
+        LOG.info("Dropped idle shared Azure clients for {}.", key);
+        clients.close();
+        evicted++;
+      }
+    }
+    return evicted;
+  }
 
-    Azure.Configurable azureConfigurable = Azure.configure()
+  /**
+   * Builds the Azure and MSIManager clients. Both clients are built on one REST client, which uses
+   * the HTTP connection pool and dispatcher shared by all clients of the plugin, and one token
+   * manager, so the AAD token is acquired once, reused by both, and renewed in the background
+   * before it expires.
+   *
+   * @param now the current {@link System#nanoTime()}
+   * @return the newly built clients
+   */
+  private AzureClients buildClients(long now) {
+    AzureTokenManager credentials = getCredentials();
+
+    // Mirrors what Azure.configure() sets up, but on the shared connection pool and dispatcher.
+    // Requests are executed on the dispatcher so its concurrency limits apply.
+    // Retries run outside the rate limiter, so every attempt waits for a permit. The SDK retry
+    // handlers are replaced by ArmRetryInterceptor.
+    OkHttpClient.Builder httpClientBuilder = withHttpProxy(AzureHttpClients.newHttpClientBuilder())
+        .addInterceptor(ArmRetryInterceptor.fromConfig(AzurePluginMetrics.getInstance()))
+        .addNetworkInterceptor(new ArmRequestMetricsInterceptor(AzurePluginMetrics.getInstance()));
+    if (AzurePluginConfigHelper.isArmRateLimitEnabled()) {
+      // one limiter for all clients, so they share the subscription's ARM quota
+      httpClientBuilder.addInterceptor(
+          new ArmRateLimitInterceptor(ArmRateLimiter.getInstance(), AzurePluginMetrics.getInstance()));
+    }
+    RestClient restClient = new RestClient.Builder(httpClientBuilder, new Retrofit.Builder())
+        .withBaseUrl(azureEnvironment, AzureEnvironment.Endpoint.RESOURCE_MANAGER)
+        .withCredentials(credentials)
+        .withSerializerAdapter(new AzureJacksonAdapter())
+        .withResponseBuilderFactory(new AzureResponseBuilder.Factory())
         .withUserAgent(userAgentPid)
         .withConnectionTimeout(AzurePluginConfigHelper.getAzureSdkConnectionTimeout(),
             TimeUnit.SECONDS)
         .withReadTimeout(AzurePluginConfigHelper.getAzureSdkReadTimeout(), TimeUnit.SECONDS)
-        .withMaxIdleConnections(AzurePluginConfigHelper.getAzureSdkMaxIdleConn());
+        .withInterceptor(new ProviderRegistrationInterceptor(credentials))
+        .withRetryStrategy(NO_RETRY)
+        .useHttpClientThreadPool(true)
+        .build();
 
-    boolean hasHost = httpProxyParameters != null && httpProxyParameters.getHost() != null;
-    if (hasHost) {
-      azureConfigurable = azureConfigurable.withProxy(new Proxy(Proxy.Type.HTTP,
-          new InetSocketAddress(httpProxyParameters.getHost(), httpProxyParameters.getPort())));
+    Azure.Authenticated authenticated = Azure.authenticate(restClient, domain);
+    MSIManager msiManager = MSIManager.authenticate(restClient, subId);
 
+    return new AzureClients(credentials, authenticated, authenticated.withSubscription(subId), msiManager,
+        TimeUnit.SECONDS.toNanos(AzurePluginConfigHelper.getSharedClientsIdleTtl()), now);
+  }
+
+  /**
+   * Configures the HTTP proxy, if one is set, on an OkHttpClient builder.
+   *
+   * @param builder the OkHttpClient builder
+   * @return the builder
+   */
+  private static OkHttpClient.Builder withHttpProxy(OkHttpClient.Builder builder) {
+    HttpProxyParameters httpProxyParameters = AzurePluginConfigHelper.getHttpProxyParameters();
+    if (httpProxyParameters != null && httpProxyParameters.getHost() != null) {
+      builder.proxy(new Proxy(Proxy.Type.HTTP,
+          new InetSocketAddress(httpProxyParameters.getHost(), httpProxyParameters.getPort())));
       if (httpProxyParameters.getUsername() != null) {
-        azureConfigurable = azureConfigurable.withProxyAuthenticator(
-            new HttpProxyParametersAuthenticator(httpProxyParameters));
+        builder.proxyAuthenticator(new HttpProxyParametersAuthenticator(httpProxyParameters));
       }
     }
-
-    ApplicationTokenCredentials credentials = getCredentials();
-    Azure.Authenticated azure = azureConfigurable.authenticate(credentials);
-
-    if (hasHost && httpProxyParameters.getUsername() != null) {
-      credentials.withSslSocketFactory(new SSLTunnelSocketFactory(httpProxyParameters))
-          .withProxy(null);
-    }
-
-    return azure;
+    return builder;
   }
 
   /**
@@ -172,13 +320,15 @@ public class AzureCredentials {
    * until it is used for a call that requires authentication (i.e. until calling a backend
    * service). This means that this method can't be used to test for valid credentials.
    *
-   * N.b. it is unknown how long this object stays authenticated for, if it gets automatically
-   * refreshed, etc
+   * The returned object is shared between all callers using the same credentials. The underlying
+   * AAD token is reused and renewed in the background before it expires. If Azure rejects the
+   * credentials call {@link #invalidateClientsOnAuthenticationFailure(Throwable, Azure)} so that
+   * the next call builds new clients.
    *
    * @return base Azure object used to access resource management APIs in Azure
    */
   public Azure authenticate() {
-    return getAuthenticatedAzureClient().withSubscription(subId);
+    return getClients().azure();
   }
 
   /**
@@ -189,7 +339,28 @@ public class AzureCredentials {
    */
   public void validate() throws Exception {
     LOG.info("Validating credentials by authenticating with Azure.");
-    getAuthenticatedAzureClient().withDefaultSubscription();
+    AzureClients clients = getClients();
+    try {
+      clients.authenticated().withDefaultSubscription();
+    } catch (Exception e) {
+      if (AzureExceptions.isAuthenticationFailure(e)) {
+        invalidateClients(clients);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Validates the credentials like {@link #validate()}, but reuses the result of a recent
+   * validation of the same credentials. Concurrent callers share a single validation round trip.
+   * How long results are reused is controlled by the plugin config. Only failures showing that the
+   * credentials are invalid are reused (see {@link AzureExceptions#isCredentialsFailure(Throwable)});
+   * a reused failure is rethrown wrapping the exception thrown by the original validation.
+   *
+   * @throws Exception if there are any problems authenticating
+   */
+  public void validateCached() throws Exception {
+    VALIDATIONS.validate(clientKey, this::validate);
   }
 
   /**
@@ -201,34 +372,198 @@ public class AzureCredentials {
    *
    * To validate that credentials are correct call the validate() method.
    *
+   * The returned object is shared between all callers using the same credentials, and shares its
+   * AAD token with the object returned by {@link #authenticate()}.
+   *
    * @return base MSIManager object used to access MSI APIs in Azure
    */
   public MSIManager getMsiManager() {
-    HttpProxyParameters httpProxyParameters = AzurePluginConfigHelper.getHttpProxyParameters();
-    ApplicationTokenCredentials credentials = getCredentials();
+    return getClients().msiManager();
+  }
 
-    MSIManager.Configurable msiManagerConfigurable = MSIManager.configure()
-        .withUserAgent(userAgentPid);
+  /**
+   * Gets a value shared by every caller using the same credentials, e.g. across provider calls,
+   * creating it on first use from the shared clients. The value lives as long as the shared
+   * clients: when they're invalidated or dropped for being idle, the value is released with
+   * {@code onClose}, and the next call creates a new value on the new clients.
+   *
+   * @param name    the name of the value, unique among the values shared through the credentials
+   * @param factory creates the value from the shared Azure and MSIManager clients
+   * @param onClose releases the value
+   * @param <T>     the type of the value
+   * @return the shared value
+   */
+  public <T> T getShared(String name, BiFunction<Azure, MSIManager, T> factory, Consumer<? super T> onClose) {
+    while (true) {
+      AzureClients clients = getClients();
+      T value = clients.getShared(name, () -> factory.apply(clients.azure(), clients.msiManager()), onClose);
+      if (value != null) {
+        return value;
+      }
+      // the clients were dropped after they were handed out; dropped clients are no longer in CLIENTS
+      LOG.debug("The shared Azure clients for {} were dropped while getting {}; retrying.", clientKey, name);
+    }
+  }
 
-    boolean hasHost = httpProxyParameters != null && httpProxyParameters.getHost() != null;
-    if (hasHost) {
-      msiManagerConfigurable = msiManagerConfigurable.withProxy(new Proxy(Proxy.Type.HTTP,
-          new InetSocketAddress(httpProxyParameters.getHost(), httpProxyParameters.getPort())));
+  /**
+   * Warms up the connections used by these credentials on a background thread so that the first
+   * real operation doesn't pay for DNS lookups, TLS handshakes, AAD token acquisition and SDK class
+   * loading. Warm-up resolves the AAD and resource manager endpoints, builds the shared clients,
+   * acquires a token and validates the credentials (which also populates the validation cache).
+   * Each set of credentials is only warmed up once. Failures are logged and otherwise ignored.
+   */
+  public void warmUpInBackground() {
+    if (!WARMED_UP.add(clientKey)) {
+      return;
+    }
 
-      if (httpProxyParameters.getUsername() != null) {
-        msiManagerConfigurable = msiManagerConfigurable.withProxyAuthenticator(
-            new HttpProxyParametersAuthenticator(httpProxyParameters));
+    Thread thread = new Thread(this::warmUp, "azure-warm-up");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void warmUp() {
+    LOG.info("Warming up connections to Azure for {}.", clientKey);
+    long start = System.currentTimeMillis();
+    AzureClients clients = null;
+    try {
+      for (String endpoint : Arrays.asList(azureEnvironment.activeDirectoryEndpoint(),
+          azureEnvironment.resourceManagerEndpoint())) {
+        String host = HttpUrl.parse(endpoint).host();
+        InetAddress.getAllByName(host);
+        LOG.debug("Resolved {} after {} ms.", host, System.currentTimeMillis() - start);
+      }
+
+      clients = getClients();
+      clients.credentials().getToken(azureEnvironment.managementEndpoint());
+      LOG.debug("Acquired AAD token after {} ms.", System.currentTimeMillis() - start);
+
+      validateCached();
+      LOG.info("Warmed up connections to Azure in {} ms.", System.currentTimeMillis() - start);
+    } catch (Exception e) {
+      if (clients != null && AzureExceptions.isAuthenticationFailure(e)) {
+        invalidateClients(clients);
       }
+      LOG.warn("Failed to warm up connections to Azure after {} ms; continuing without warm-up.",
+          System.currentTimeMillis() - start, e);
     }
+  }
 
-    MSIManager msiManager = msiManagerConfigurable.authenticate(credentials, subId);
+  /**
+   * Drops the shared clients for these credentials if the throwable shows that Azure rejected the
+   * credentials or the token (see {@link AzureExceptions#isAuthenticationFailure(Throwable)}). The
+   * next call to {@link #authenticate()} or {@link #getMsiManager()} builds new clients with new
+   * tokens. Only the clients the failed call used are dropped: if they have already been replaced,
+   * e.g. by a concurrent caller that saw the same failure, the new clients are kept.
+   *
+   * @param t     the throwable encountered while using the clients
+   * @param azure the Azure client the failed call used, as returned by {@link #authenticate()}
+   * @return true if the clients were invalidated; false otherwise
+   */
+  public boolean invalidateClientsOnAuthenticationFailure(Throwable t, Azure azure) {
+    requireNonNull(azure, "azure is null");
+    if (!AzureExceptions.isAuthenticationFailure(t)) {
+      return false;
+    }
+    AzureClients clients = CLIENTS.get(clientKey);
+    return clients != null && clients.azure() == azure && invalidateClients(clients);
+  }
 
-    if (hasHost && httpProxyParameters.getUsername() != null) {
-      credentials.withSslSocketFactory(new SSLTunnelSocketFactory(httpProxyParameters))
-          .withProxy(null);
+  /**
+   * Drops the shared clients for these credentials, whichever they are. The next call to
+   * {@link #authenticate()} or {@link #getMsiManager()} builds new clients.
+   */
+  public void invalidateClients() {
+    AzureClients clients = CLIENTS.get(clientKey);
+    if (clients != null) {
+      invalidateClients(clients);
+    }
+  }
+
+  /**
+   * Drops the given shared clients for these credentials, unless they have already been replaced.
+   *
+   * @param clients the clients to drop
+   * @return true if the clients were dropped; false if they had already been replaced
+   */
+  private boolean invalidateClients(AzureClients clients) {
+    if (!CLIENTS.remove(clientKey, clients)) {
+      return false;
     }
+    VALIDATIONS.invalidate(clientKey);
+    LOG.warn("Invalidated shared Azure clients for {}.", clientKey);
+    clients.close();
+    return true;
+  }
 
-    return msiManager;
+  /**
+   * The identity that a set of shared clients authenticates as. Two AzureCredentials objects with
+   * equal keys share the same clients.
+   */
+  private static final class ClientKey {
+    private final String tenantId;
+    private final String clientId;
+    private final String secret;
+    private final String subscriptionId;
+    private final String resourceManagerEndpoint;
+    private final String activeDirectoryEndpoint;
+    private final String userAgent;
+    private final String proxyHost;
+    private final int proxyPort;
+    private final String proxyUsername;
+    private final String proxyPassword;
+
+    ClientKey(String tenantId, String clientId, String secret, String subscriptionId,
+        AzureEnvironment azureEnvironment, String userAgent, HttpProxyParameters httpProxyParameters) {
+      this.tenantId = tenantId;
+      this.clientId = clientId;
+      this.secret = secret;
+      this.subscriptionId = subscriptionId;
+      this.resourceManagerEndpoint = azureEnvironment.resourceManagerEndpoint();
+      this.activeDirectoryEndpoint = azureEnvironment.activeDirectoryEndpoint();
+      this.userAgent = userAgent;
+      boolean hasHost = httpProxyParameters != null && httpProxyParameters.getHost() != null;
+      this.proxyHost = hasHost ? httpProxyParameters.getHost() : null;
+      this.proxyPort = hasHost ? httpProxyParameters.getPort() : -1;
+      this.proxyUsername = hasHost ? httpProxyParameters.getUsername() : null;
+      this.proxyPassword = hasHost ? httpProxyParameters.getPassword() : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      ClientKey that = (ClientKey) o;
+      return proxyPort == that.proxyPort &&
+          Objects.equals(tenantId, that.tenantId) &&
+          Objects.equals(clientId, that.clientId) &&
+          Objects.equals(secret, that.secret) &&
+          Objects.equals(subscriptionId, that.subscriptionId) &&
+          Objects.equals(resourceManagerEndpoint, that.resourceManagerEndpoint) &&
+          Objects.equals(activeDirectoryEndpoint, that.activeDirectoryEndpoint) &&
+          Objects.equals(userAgent, that.userAgent) &&
+          Objects.equals(proxyHost, that.proxyHost) &&
+          Objects.equals(proxyUsername, that.proxyUsername) &&
+          Objects.equals(proxyPassword, that.proxyPassword);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(tenantId, clientId, secret, subscriptionId, resourceManagerEndpoint,
+          activeDirectoryEndpoint, userAgent, proxyHost, proxyPort, proxyUsername, proxyPassword);
+    }
+
+    // secrets are purposefully left out
+    @Override
+    public String toString() {
+      return String.format("tenant %s, client %s, subscription %s, environment %s%s",
+          tenantId, clientId, subscriptionId, resourceManagerEndpoint,
+          proxyHost == null ? "" : String.format(", proxy %s:%d", proxyHost, proxyPort));
+    }
   }
 
   /**
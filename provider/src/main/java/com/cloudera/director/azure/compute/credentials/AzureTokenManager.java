@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.compute.credentials;
+
+import static java.util.Objects.requireNonNull;
+
+import com.cloudera.director.azure.utils.AzurePluginMetrics;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.aad.adal4j.AuthenticationException;
+import com.microsoft.azure.AzureEnvironment;
+import com.microsoft.azure.credentials.AzureTokenCredentials;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.FormBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Service principal token credentials that acquire AAD tokens with the OAuth2 client credentials
+ * flow and renew them in the background before they expire.
+ *
+ * Callers (the Azure SDK clients) get the cached token without blocking as long as it's valid; a
+ * renewal is scheduled {@code refreshMarginSeconds} before each token expires so that ARM calls
+ * don't pay the AAD round trip inline. If a background renewal fails the current token keeps being
+ * used until it expires and the renewal is retried.
+ */
+class AzureTokenManager extends AzureTokenCredentials {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AzureTokenManager.class);
+
+  // Background renewals for all token managers run on this single daemon thread.
+  private static final ScheduledExecutorService REFRESHER;
+
+  static {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+        new ThreadFactoryBuilder().setNameFormat("azure-token-refresher-%d").setDaemon(true).build());
+    executor.setRemoveOnCancelPolicy(true);
+    REFRESHER = executor;
+  }
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final String TOKEN_LATENCY_METRIC = "aad.token.latency";
+  private static final String TOKEN_FAILURE_METRIC = "aad.token.failures";
+
+  // Tokens this close to expiry are never handed out, even if a renewal is still pending.
+  private static final long MIN_REMAINING_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  // How long to wait before retrying a failed background renewal.
+  private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final String clientId;
+  private final String secret;
+  private final String tokenEndpoint;
+  private final OkHttpClient httpClient;
+  private final long refreshMarginMillis;
+
+  private final Map<String, CachedToken> tokens = new ConcurrentHashMap<>();
+  private final Map<String, Object> locks = new ConcurrentHashMap<>();
+  private volatile boolean closed;
+
+  private final AtomicLong refreshCount = new AtomicLong();
+  private final AtomicLong refreshFailureCount = new AtomicLong();
+  private final AtomicLong totalRefreshLatencyMillis = new AtomicLong();
+  private final AtomicLong lastRefreshLatencyMillis = new AtomicLong();
+
+  /**
+   * Creates a token manager for a service principal.
+   *
+   * @param clientId             the client (application) id
+   * @param domain               the tenant id
+   * @param secret               the client secret
+   * @param environment          the Azure environment, used to find the AAD endpoint
+   * @param httpClient           the HTTP client used to call AAD
+   * @param refreshMarginSeconds how long (in seconds) before expiry a token is renewed
+   */
+  AzureTokenManager(String clientId, String domain, String secret, AzureEnvironment environment,
+      OkHttpClient httpClient, long refreshMarginSeconds) {
+    super(requireNonNull(environment, "environment is null"), requireNonNull(domain, "domain is null"));
+    this.clientId = requireNonNull(clientId, "clientId is null");
+    this.secret = requireNonNull(secret, "secret is null");
+    this.httpClient = requireNonNull(httpClient, "httpClient is null");
+    this.refreshMarginMillis = TimeUnit.SECONDS.toMillis(refreshMarginSeconds);
+
+    String authority = environment.activeDirectoryEndpoint();
+    this.tokenEndpoint = (authority.endsWith("/") ? authority : authority + "/") + domain + "/oauth2/token";
+  }
+
+  /**
+   * Gets a token for the resource, acquiring one only if there is no valid cached token.
+   *
+   * @param resource the resource the token is for
+   * @return the access token
+   * @throws IOException if a token could not be acquired
+   */
+  @Override
+  public String getToken(String resource) throws IOException {
+    CachedToken token = tokens.get(resource);
+    if (token != null && token.isUsable()) {
+      return token.accessToken;
+    }
+
+    synchronized (locks.computeIfAbsent(resource, r -> new Object())) {
+      token = tokens.get(resource);
+      if (token != null && token.isUsable()) {
+        return token.accessToken;
+      }
+      return refresh(resource).accessToken;
+    }
+  }
+
+  /**
+   * Stops background renewals and drops cached tokens.
+   */
+  void close() {
+    closed = true;
+    for (CachedToken token : tokens.values()) {
+      token.cancelRefresh();
+    }
+    tokens.clear();
+  }
+
+  /**
+   * @return number of successful token acquisitions
+   */
+  long getRefreshCount() {
+    return refreshCount.get();
+  }
+
+  /**
+   * @return number of failed token acquisitions
+   */
+  long getRefreshFailureCount() {
+    return refreshFailureCount.get();
+  }
+
+  /**
+   * @return latency (in milliseconds) of the last successful token acquisition
+   */
+  long getLastRefreshLatencyMillis() {
+    return lastRefreshLatencyMillis.get();
+  }
+
+  /**
+   * @return average latency (in milliseconds) of successful token acquisitions
+   */
+  long getAverageRefreshLatencyMillis() {
+    long count = refreshCount.get();
+    return count == 0 ? 0 : totalRefreshLatencyMillis.get() / count;
+  }
+
+  /**
+   * Acquires a new token from AAD, caches it and schedules its renewal. Callers must hold the lock
+   * for the resource.
+   */
+  private CachedToken refresh(String resource) throws IOException {
+    long start = System.currentTimeMillis();
+    CachedToken token;
+    try {
+      token = acquire(resource);
+    } catch (IOException | RuntimeException e) {
+      refreshFailureCount.incrementAndGet();
+      AzurePluginMetrics.getInstance().increment(TOKEN_FAILURE_METRIC);
+      throw e;
+    }
+
+    long latency = System.currentTimeMillis() - start;
+    AzurePluginMetrics.getInstance().recordLatency(TOKEN_LATENCY_METRIC, latency);
+    refreshCount.incrementAndGet();
+    lastRefreshLatencyMillis.set(latency);
+    totalRefreshLatencyMillis.addAndGet(latency);
+    LOG.debug("Acquired AAD token for resource {} in {} ms; it expires in {} seconds.",
+        resource, latency, TimeUnit.MILLISECONDS.toSeconds(token.expiresAtMillis - start));
+
+    CachedToken previous = tokens.put(resource, token);
+    if (previous != null) {
+      previous.cancelRefresh();
+    }
+    // renew refreshMargin before expiry, or half way through the lifetime of short-lived tokens
+    long lifetime = token.expiresAtMillis - System.currentTimeMillis();
+    scheduleRefresh(resource, token,
+        lifetime > refreshMarginMillis ? lifetime - refreshMarginMillis : lifetime / 2);
+    return token;
+  }
+
+  private void scheduleRefresh(String resource, CachedToken token, long delayMillis) {
+    if (closed) {
+      return;
+    }
+    token.refreshFuture = REFRESHER.schedule(() -> backgroundRefresh(resource, token),
+        Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+  }
+
+  private void backgroundRefresh(String resource, CachedToken token) {
+    synchronized (locks.computeIfAbsent(resource, r -> new Object())) {
+      if (closed || tokens.get(resource) != token) {
+        // closed, or someone else already replaced the token
+        return;
+      }
+      try {
+        refresh(resource);
+      } catch (Exception e) {
+        long remaining = token.expiresAtMillis - System.currentTimeMillis();
+        LOG.warn("Failed to renew AAD token for resource {} ({} failures so far); the current token " +
+            "expires in {} seconds. Retrying.", resource, refreshFailureCount.get(),
+            TimeUnit.MILLISECONDS.toSeconds(remaining), e);
+        if (remaining > MIN_REMAINING_MILLIS) {
+          scheduleRefresh(resource, token, Math.min(RETRY_DELAY_MILLIS, remaining / 2));
+        }
+      }
+    }
+  }
+
+  private CachedToken acquire(String resource) throws IOException {
+    Request request = new Request.Builder()
+        .url(tokenEndpoint)
+        .post(new FormBody.Builder()
+            .add("grant_type", "client_credentials")
+            .add("client_id", clientId)
+            .add("client_secret", secret)
+            .add("resource", resource)
+            .build())
+        .build();
+
+    try (Response response = httpClient.newCall(request).execute()) {
+      ResponseBody body = response.body();
+      String content = body == null ? "" : body.string();
+      if (!response.isSuccessful()) {
+        // AAD puts the AADSTS error code in the body; keep it in the message so AzureExceptions can
+        // classify the failure the same way it does for adal4j errors. Only 400 and 401 mean AAD
+        // rejected the credentials; throttling and server errors are transient.
+        String message = String.format("Unable to acquire AAD token from %s: HTTP %d %s",
+            tokenEndpoint, response.code(), content);
+        if (response.code() == 400 || response.code() == 401) {
+          throw new IOException(message, new AuthenticationException(message));
+        }
+        throw new IOException(message);
+      }
+
+      JsonNode json = MAPPER.readTree(content);
+      JsonNode accessToken = json.get("access_token");
+      JsonNode expiresIn = json.get("expires_in");
+      if (accessToken == null || expiresIn == null) {
+        throw new IOException("Unexpected AAD token response from " + tokenEndpoint);
+      }
+      long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiresIn.asLong());
+      return new CachedToken(accessToken.asText(), expiresAt);
+    }
+  }
+
+  /**
+   * An access token and its expiry.
+   */
+  private static final class CachedToken {
+    private final String accessToken;
+    private final long expiresAtMillis;
+    private volatile ScheduledFuture<?> refreshFuture;
+
+    CachedToken(String accessToken, long expiresAtMillis) {
+      this.accessToken = accessToken;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    boolean isUsable() {
+      return expiresAtMillis - System.currentTimeMillis() > MIN_REMAINING_MILLIS;
+    }
+
+    void cancelRefresh() {
+      ScheduledFuture<?> future = refreshFuture;
+      if (future != null) {
+        future.cancel(false);
+      }
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.compute.credentials;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the result of validating credentials so that a burst of provider calls does not turn into
+ * a burst of identical validation round trips to Azure.
+ *
+ * Successful validations are remembered for the success TTL. Failures that show the credentials
+ * are invalid are remembered for the (usually shorter) failure TTL; other failures (e.g. network
+ * errors or throttling) are not cached, so the next caller validates again. Concurrent callers for
+ * the same key wait on a single in-flight validation. A cached or shared failure is rethrown
+ * wrapped in a new exception for each caller, with the same message and the original failure as
+ * its cause, so callers surface the same error details as they would for a fresh validation
+ * without sharing one exception object.
+ *
+ * @param <K> the type of key identifying a set of credentials
+ */
+class CredentialsValidationCache<K> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CredentialsValidationCache.class);
+
+  /**
+   * A validation call that may throw.
+   */
+  interface Validation {
+    void validate() throws Exception;
+  }
+
+  private final ConcurrentMap<K, Result> results = new ConcurrentHashMap<>();
+  private final ConcurrentMap<K, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+  private final LongSupplier ttlSecondsSupplier;
+  private final LongSupplier failureTtlSecondsSupplier;
+  private final Predicate<? super Exception> isCredentialsFailure;
+  private final LongSupplier nanoClock;
+
+  /**
+   * Creates a validation cache.
+   *
+   * @param ttlSecondsSupplier        supplies how long (in seconds) a successful validation is cached; 0 to disable
+   * @param failureTtlSecondsSupplier supplies how long (in seconds) a failed validation is cached; 0 to disable
+   * @param isCredentialsFailure      whether a failure shows the credentials are invalid; only those are cached
+   * @param nanoClock                 the source of time, in nanoseconds
+   */
+  CredentialsValidationCache(LongSupplier ttlSecondsSupplier, LongSupplier failureTtlSecondsSupplier,
+      Predicate<? super Exception> isCredentialsFailure, LongSupplier nanoClock) {
+    this.ttlSecondsSupplier = requireNonNull(ttlSecondsSupplier, "ttlSecondsSupplier is null");
+    this.failureTtlSecondsSupplier =
+        requireNonNull(failureTtlSecondsSupplier, "failureTtlSecondsSupplier is null");
+    this.isCredentialsFailure = requireNonNull(isCredentialsFailure, "isCredentialsFailure is null");
+    this.nanoClock = requireNonNull(nanoClock, "nanoClock is null");
+  }
+
+  /**
+   * Validates the credentials identified by the key, reusing a cached or in-flight result if there
+   * is one.
+   *
+   * @param key        the key identifying the credentials
+   * @param validation the validation to run if there's no usable result
+   * @throws Exception the exception thrown by the (possibly cached) validation
+   */
+  void validate(K key, Validation validation) throws Exception {
+    Result cached = results.get(key);
+    if (cached != null && !cached.isExpired(nanoClock.getAsLong())) {
+      LOG.debug("Using cached credentials validation result for {}.", key);
+      cached.rethrowIfFailed();
+      return;
+    }
+
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    CompletableFuture<Void> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      LOG.debug("Waiting for in-flight credentials validation for {}.", key);
+      waitFor(existing);
+      return;
+    }
+
+    // another caller may have finished a validation between the lookup above and claiming the key
+    cached = results.get(key);
+    if (cached != null && !cached.isExpired(nanoClock.getAsLong())) {
+      inFlight.remove(key, future);
+      future.complete(null);
+      cached.rethrowIfFailed();
+      return;
+    }
+
+    try {
+      validation.validate();
+      cache(key, new Result(null, expiry(ttlSecondsSupplier)));
+      future.complete(null);
+    } catch (Exception e) {
+      if (isCredentialsFailure.test(e)) {
+        cache(key, new Result(e, expiry(failureTtlSecondsSupplier)));
+      } else {
+        LOG.debug("Not caching the credentials validation failure for {}; it isn't a credentials failure.", key);
+        results.remove(key);
+      }
+      future.completeExceptionally(e);
+      throw e;
+    } catch (Error e) {
+      // not cached, but the callers waiting on the in-flight validation still have to be released
+      results.remove(key);
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, future);
+    }
+  }
+
+  /**
+   * Forgets the cached result for the key, if any.
+   *
+   * @param key the key identifying the credentials
+   */
+  void invalidate(K key) {
+    results.remove(key);
+  }
+
+  private void cache(K key, Result result) {
+    if (result.expiresAtNanos == null) {
+      results.remove(key);
+    } else {
+      results.put(key, result);
+    }
+  }
+
+  private Long expiry(LongSupplier ttlSupplier) {
+    long ttlSeconds = ttlSupplier.getAsLong();
+    return ttlSeconds <= 0 ? null : nanoClock.getAsLong() + TimeUnit.SECONDS.toNanos(ttlSeconds);
+  }
+
+  private static void waitFor(CompletableFuture<Void> future) throws Exception {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw perCaller((Exception) cause);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Wraps a failure shared by several callers in a new exception for one caller, so that stack
+   * traces and suppressed exceptions added by that caller don't pile up on the shared failure.
+   *
+   * @param failure the shared failure
+   * @return a new exception with the same message, caused by the shared failure
+   */
+  private static Exception perCaller(Exception failure) {
+    return new Exception(failure.getMessage(), failure);
+  }
+
+  /**
+   * The outcome of a validation and when it stops being usable.
+   */
+  private static final class Result {
+    private final Exception failure;
+    private final Long expiresAtNanos;
+
+    Result(Exception failure, Long expiresAtNanos) {
+      this.failure = failure;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+
+    boolean isExpired(long nowNanos) {
+      return expiresAtNanos == null || nowNanos - expiresAtNanos >= 0;
+    }
+
+    void rethrowIfFailed() throws Exception {
+      if (failure != null) {
+        throw perCaller(failure);
+      }
+    }
+  }
+}
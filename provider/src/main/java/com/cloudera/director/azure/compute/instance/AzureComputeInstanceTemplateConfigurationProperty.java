@@ -357,6 +357,33 @@ public enum AzureComputeInstanceTemplateConfigurationProperty implements
       .widget(ConfigurationProperty.Widget.LIST)
       .required(false)
       .hidden(true)
+      .build()),
+
+  ALLOCATION_STRATEGY(new SimpleConfigurationPropertyBuilder()
+      .configKey("allocationStrategy")
+      .name("Allocation Strategy")
+      .defaultDescription("How VMs are created: one at a time (Individual), or in batches through ARM " +
+          "template deployments (Deployment). Ignored for Virtual Machine Scale Sets.")
+      .addValidValues(
+          "Individual",
+          "Deployment")
+      .defaultValue("Individual")
+      .widget(ConfigurationProperty.Widget.LIST)
+      .required(false)
+      .hidden(true)
+      .build()),
+
+  STANDBY_POOL_SIZE(new SimpleConfigurationPropertyBuilder()
+      .configKey("standbyPoolSize")
+      .name("Standby Pool Size")
+      .defaultDescription("The number of fully built, deallocated VMs to keep on standby for this " +
+          "template. Allocate starts standby VMs before creating new ones, then refills the pool in " +
+          "the background. 0 disables the pool. Ignored for Virtual Machine Scale Sets.")
+      .defaultValue("0")
+      .type(Property.Type.INTEGER)
+      .widget(ConfigurationProperty.Widget.NUMBER)
+      .required(false)
+      .hidden(true)
       .build());
 
   /**
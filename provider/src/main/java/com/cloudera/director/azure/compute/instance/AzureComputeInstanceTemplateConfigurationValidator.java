@@ -23,6 +23,7 @@ import static com.google.common.base.Throwables.getRootCause;
 import com.cloudera.director.azure.Configurations;
 import com.cloudera.director.azure.compute.credentials.AzureCredentials;
 import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
+import com.cloudera.director.azure.utils.VirtualMachineImageCache;
 import com.cloudera.director.spi.v2.compute.ComputeInstanceTemplate;
 import com.cloudera.director.spi.v2.model.ConfigurationPropertyToken;
 import com.cloudera.director.spi.v2.model.ConfigurationValidator;
@@ -114,7 +115,7 @@ public class AzureComputeInstanceTemplateConfigurationValidator implements Confi
 
     // Check the azure credentials first.
     try {
-      credentials.validate();
+      credentials.validateCached();
     } catch (Exception e) {
       // see if at it's root it's an AuthenticationException
       String exceptionMessage = getRootCause(e) instanceof AuthenticationException ?
@@ -131,8 +132,9 @@ public class AzureComputeInstanceTemplateConfigurationValidator implements Confi
 
     // Azure backend checks: These checks verifies the resources specified in instance template do
     // exist in Azure.
+    Azure azure = null;
     try {
-      Azure azure = credentials.authenticate();
+      azure = credentials.authenticate();
 
       checkComputeResourceGroup(directorConfig, accumulator, localizationContext, azure);
       checkNetwork(directorConfig, accumulator, localizationContext, azure);
@@ -144,6 +146,9 @@ public class AzureComputeInstanceTemplateConfigurationValidator implements Confi
       checkUseCustomImage(directorConfig, accumulator, localizationContext, azure);
       checkUserAssignedMsi(directorConfig, accumulator, localizationContext);
     } catch (Exception e) {
+      if (azure != null) {
+        credentials.invalidateClientsOnAuthenticationFailure(e, azure);
+      }
       LOG.debug(String.format(genericErrorMsg, e.getMessage()));
       // use null key to indicate generic error
       ConfigurationPropertyToken token = null;
@@ -803,7 +808,8 @@ public class AzureComputeInstanceTemplateConfigurationValidator implements Confi
 
     // regular image validation
     try {
-      if (azure.virtualMachineImages().getImage(region, publisher, offer, sku, version) == null) {
+      if (VirtualMachineImageCache.getInstance().getImage(region, publisher, offer, sku, version,
+          () -> azure.virtualMachineImages().getImage(region, publisher, offer, sku, version)) == null) {
         LOG.debug(String.format(imageMissingInAzureMsg, region, publisher, offer, sku, version));
         addError(accumulator,
             ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken.IMAGE,
@@ -23,6 +23,7 @@ import com.cloudera.director.azure.AzureExceptions;
 import com.cloudera.director.azure.compute.credentials.AzureCredentials;
 import com.cloudera.director.azure.compute.instance.AzureComputeInstance;
 import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplateConfigurationProperty;
 import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplateConfigurationValidator;
 import com.cloudera.director.azure.compute.instance.AzureInstance;
 import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
@@ -38,6 +39,7 @@ import com.cloudera.director.spi.v2.model.Resource;
 import com.cloudera.director.spi.v2.model.exception.PluginExceptionDetails;
 import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
 import com.cloudera.director.spi.v2.model.util.SimpleInstanceState;
+import com.cloudera.director.spi.v2.model.util.SimpleResourceTemplate;
 import com.cloudera.director.spi.v2.provider.ResourceProviderMetadata;
 import com.cloudera.director.spi.v2.provider.util.SimpleResourceProviderMetadata;
 import com.cloudera.director.spi.v2.util.ConfigurationPropertiesUtil;
@@ -189,7 +191,7 @@ public class AzureComputeProvider
       int minCount)
       throws InterruptedException {
     return withInstanceAllocator(
-        template.isAutomatic(),
+        allocatorType(template),
         allocator -> allocator.allocate(getLocalizationContext(), template, instanceIds, minCount),
         InterruptedException.class);
   }
@@ -217,7 +219,7 @@ public class AzureComputeProvider
       Collection<String> instanceIds)
       throws InterruptedException {
     return withInstanceAllocator(
-        template.isAutomatic(),
+        allocatorType(template),
         allocator -> allocator.find(getLocalizationContext(), template, instanceIds),
         InterruptedException.class);
   }
@@ -244,7 +246,7 @@ public class AzureComputeProvider
       AzureComputeInstanceTemplate template,
       Collection<String> instanceIds) {
     return withInstanceAllocator(
-        template.isAutomatic(),
+        allocatorType(template),
         allocator -> allocator.getInstanceState(getLocalizationContext(), template, instanceIds),
         RuntimeException.class)
         .entrySet()
@@ -256,7 +258,7 @@ public class AzureComputeProvider
   public void delete(AzureComputeInstanceTemplate template, Collection<String> instanceIds)
       throws InterruptedException {
     withInstanceAllocator(
-        template.isAutomatic(),
+        allocatorType(template),
         allocator -> {
           allocator.delete(getLocalizationContext(), template, instanceIds);
           return null;
@@ -281,7 +283,7 @@ public class AzureComputeProvider
   public Map<String, Set<String>> getHostKeyFingerprints(AzureComputeInstanceTemplate template,
       Collection<String> instanceIds) throws InterruptedException {
     return withInstanceAllocator(
-        template.isAutomatic(),
+        allocatorType(template),
         allocator -> allocator.getHostKeyFingerprints(getLocalizationContext(), template, instanceIds),
         InterruptedException.class);
   }
@@ -340,13 +342,13 @@ public class AzureComputeProvider
   }
 
   private <T, X extends Exception> T withInstanceAllocator(
-      boolean isAutoScaling,
+      AllocatorType allocatorType,
       FunctionX<InstanceAllocator, T, X> action,
       Class<X> exClass)
       throws X {
 
     try {
-      credentials.validate();
+      credentials.validateCached();
     } catch (Exception e) {
       // see if at it's root it's an AuthenticationException
       Exception rootException = getRootCause(e) instanceof AuthenticationException ?
@@ -357,15 +359,17 @@ public class AzureComputeProvider
       throw AzureExceptions.propagateUnrecoverable("Error validating credentials.", rootException);
     }
 
+    // the clients the shared allocator is built on, so that an authentication failure only drops those
+    Azure azure = credentials.authenticate();
     try {
-      Azure azure = credentials.authenticate();
-      MSIManager msiManager = credentials.getMsiManager();
-      InstanceAllocator instanceAllocator = createInstanceAllocator(
-          isAutoScaling, azure, msiManager, this::getConfigurationValue);
+      InstanceAllocator instanceAllocator = getInstanceAllocator(allocatorType);
 
       return action.apply(instanceAllocator);
 
     } catch (Exception e) {
+      // drop the shared clients if Azure rejected the token so the next call re-authenticates
+      credentials.invalidateClientsOnAuthenticationFailure(e, azure);
+
       // Azure synchronous call uses rx java toBlocking on top of async call
       // Using reflection here to workaround checked exception X
       if (Thread.interrupted() || isCausedByInterrupt(e)) {
@@ -411,17 +415,70 @@ public class AzureComputeProvider
         .anyMatch(ex -> InterruptedException.class.isInstance(e) || InterruptedIOException.class.isInstance(e));
   }
 
+  /**
+   * Gets the instance allocator for the given kind of template. Allocators are shared by every
+   * provider built with the same credentials and region, so that their caches and schedulers
+   * span provider calls (Director creates a new provider for each call). They live as long as the
+   * shared Azure clients they're built on, see {@link AzureCredentials#getShared}. The allocator
+   * reuses recently fetched instance states, see {@link StateCachingInstanceAllocator}.
+   *
+   * @param allocatorType the type of allocator the template needs
+   * @return the instance allocator
+   */
+  private InstanceAllocator getInstanceAllocator(AllocatorType allocatorType) {
+    // the region is the only provider configuration the allocators read
+    String region = getConfigurationValue(AzureComputeProviderConfigurationProperty.REGION, getLocalizationContext());
+    return credentials.getShared("instance-allocator/" + allocatorType + "/" + region,
+        (azure, msiManager) -> new StateCachingInstanceAllocator(createInstanceAllocator(
+            allocatorType, azure, msiManager, this::getConfigurationValue)),
+        InstanceAllocator::shutdown);
+  }
+
   @VisibleForTesting
   InstanceAllocator createInstanceAllocator(
-      boolean isAutoScaling,
+      AllocatorType allocatorType,
       Azure azure,
       MSIManager msiManager,
       BiFunction<AzureComputeProviderConfigurationProperty, LocalizationContext, String> configRetriever) {
 
-    if (isAutoScaling) {
-      return new VirtualMachineScaleSetAllocator(azure, msiManager, configRetriever);
+    switch (allocatorType) {
+      case VIRTUAL_MACHINE_SCALE_SET:
+        return new VirtualMachineScaleSetAllocator(azure, msiManager, configRetriever);
+      case TEMPLATE_DEPLOYMENT:
+        return new TemplateDeploymentAllocator(azure, msiManager, configRetriever);
+      default:
+        return new VirtualMachineAllocator(azure, msiManager, configRetriever);
     }
-    return new VirtualMachineAllocator(azure, msiManager, configRetriever);
+  }
+
+  /**
+   * Gets the type of allocator a template needs: auto scaling templates use Virtual Machine Scale
+   * Sets, other templates create VMs one at a time unless their allocation strategy is
+   * "Deployment".
+   *
+   * @param template the instance template
+   * @return the allocator type
+   */
+  private AllocatorType allocatorType(AzureComputeInstanceTemplate template) {
+    if (template.isAutomatic()) {
+      return AllocatorType.VIRTUAL_MACHINE_SCALE_SET;
+    }
+    String allocationStrategy = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.ALLOCATION_STRATEGY,
+        SimpleResourceTemplate.getTemplateLocalizationContext(getLocalizationContext()));
+    return "Deployment".equalsIgnoreCase(allocationStrategy) ?
+        AllocatorType.TEMPLATE_DEPLOYMENT :
+        AllocatorType.VIRTUAL_MACHINE;
+  }
+
+  /**
+   * The types of instance allocators.
+   */
+  @VisibleForTesting
+  enum AllocatorType {
+    VIRTUAL_MACHINE,
+    VIRTUAL_MACHINE_SCALE_SET,
+    TEMPLATE_DEPLOYMENT
   }
 
   @FunctionalInterface
@@ -21,6 +21,7 @@ import static org.apache.commons.lang3.StringUtils.isEmpty;
 
 import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
 import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplateConfigurationProperty;
+import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
 import com.cloudera.director.spi.v2.model.LocalizationContext;
 import com.cloudera.director.spi.v2.model.util.SimpleResourceTemplate;
 import com.google.common.base.Strings;
@@ -35,7 +36,12 @@ import com.microsoft.azure.management.storage.StorageAccount;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -45,6 +51,11 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import rx.Completable;
+import rx.Observable;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+
 /**
  * Encapsulation for the various Azure Resource Ids associated with a Virtual Machine / Instance Id.
  *
@@ -66,6 +77,7 @@ public class AzureVirtualMachineMetadata {
   private String pipId;
 
   private String instanceId;
+  private VirtualMachine vm;
   private boolean useManagedDisks = true; // default
   private boolean hasPublicIp;
 
@@ -85,11 +97,42 @@ public class AzureVirtualMachineMetadata {
    */
   AzureVirtualMachineMetadata(Azure azure, String instanceId, AzureComputeInstanceTemplate template,
       LocalizationContext localizationContext) {
+    this(azure, instanceId, instanceId, template.getInstanceNamePrefix(), template, localizationContext);
+  }
+
+  /**
+   * Populates the Azure Resource Ids associated with an instance id whose resources are named after
+   * another id, e.g. a claimed standby VM (see {@link StandbyPool}).
+   *
+   * @param azure the entry point object for accessing resource management APIs in Azure
+   * @param instanceId the instance identifier
+   * @param resourceInstanceId the id the VM and its resources are named after
+   * @param vmNamePrefix the VM name prefix
+   * @param template the template used to get fields
+   * @param localizationContext the localization context for the template
+   */
+  AzureVirtualMachineMetadata(Azure azure, String instanceId, String resourceInstanceId, String vmNamePrefix,
+      AzureComputeInstanceTemplate template, LocalizationContext localizationContext) {
+    this(new OperationResources(azure, template.getConfigurationValue(
+            AzureComputeInstanceTemplateConfigurationProperty.COMPUTE_RESOURCE_GROUP,
+            SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext))),
+        instanceId, resourceInstanceId, vmNamePrefix, template, localizationContext);
+  }
+
+  /**
+   * Populates the Azure Resource Ids associated with an instance id, looking the resources up with
+   * the given lookup, e.g. the resources already fetched by the current operation.
+   *
+   * @param lookup the resource lookup
+   * @param instanceId the instance identifier
+   * @param resourceInstanceId the id the VM and its resources are named after
+   * @param vmNamePrefix the VM name prefix
+   * @param template the template used to get fields
+   * @param localizationContext the localization context for the template
+   */
+  AzureVirtualMachineMetadata(ResourceLookup lookup, String instanceId, String resourceInstanceId,
+      String vmNamePrefix, AzureComputeInstanceTemplate template, LocalizationContext localizationContext) {
     this.instanceId = instanceId;
-    String rgName = template.getConfigurationValue(
-        AzureComputeInstanceTemplateConfigurationProperty.COMPUTE_RESOURCE_GROUP,
-        SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext));
-    String prefix = template.getInstanceNamePrefix();
     useManagedDisks = template.getConfigurationValue(
         AzureComputeInstanceTemplateConfigurationProperty.MANAGED_DISKS,
         SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext))
@@ -99,11 +142,10 @@ public class AzureVirtualMachineMetadata {
         SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext)));
     hasPublicIp = template.getConfigurationValue(AzureComputeInstanceTemplateConfigurationProperty.PUBLIC_IP,
         SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext)).equalsIgnoreCase("yes");
-    String commonResourceNamePrefix = getFirstGroupOfUuid(instanceId);
+    String commonResourceNamePrefix = getFirstGroupOfUuid(resourceInstanceId);
 
     // Virtual Machines
-    VirtualMachine vm =
-        azure.virtualMachines().getByResourceGroup(rgName, getVmName(instanceId, prefix));
+    vm = lookup.getVm(getVmName(resourceInstanceId, vmNamePrefix));
     if (vm != null) {
       vmId = vm.id();
     }
@@ -112,60 +154,149 @@ public class AzureVirtualMachineMetadata {
     if (useManagedDisks) {
       // Managed Disks
       // OS
-      Disk osd = azure.disks()
-          .getByResourceGroup(rgName, commonResourceNamePrefix + MANAGED_OS_DISK_SUFFIX);
+      Disk osd = lookup.getDisk(commonResourceNamePrefix + MANAGED_OS_DISK_SUFFIX);
       if (osd != null) {
         mdIds.add(osd.id());
       }
       for (int i = 0; i < numberOfManagedDisks; i += 1) {
         // data disks
-        Disk dd = azure.disks().getByResourceGroup(rgName, commonResourceNamePrefix + "-" + i);
+        Disk dd = lookup.getDisk(commonResourceNamePrefix + "-" + i);
         if (dd != null) {
           mdIds.add(dd.id());
         }
       }
     } else {
       // Storage Account
-      StorageAccount sa = azure.storageAccounts().getByResourceGroup(rgName, commonResourceNamePrefix);
+      StorageAccount sa = lookup.getStorageAccount(commonResourceNamePrefix);
       if (sa != null) {
         saId = sa.id();
       } else if (vm != null) {
         // Director <= v2.5 used a different naming scheme for Storage Accounts which can't be inferred by the UUID
         String saName = getStorageAccountNameFromVM(vm);
-        sa = azure.storageAccounts().getByResourceGroup(rgName, saName);
+        sa = lookup.getStorageAccount(saName);
         if (sa != null) {
           saId = sa.id();
         }
       }
     }
 
+    // Director <= v2.5 used a different naming scheme for Network Interfaces and Public IPs which can't be
+    // inferred by the UUID; they're found through the VM's primary Network Interface instead
+    NetworkInterface primaryNic = null;
+    NetworkInterface ni = lookup.getNic(commonResourceNamePrefix);
+    PublicIPAddress pip = hasPublicIp ? lookup.getPip(commonResourceNamePrefix) : null;
+    if (vm != null && (ni == null || (hasPublicIp && pip == null))) {
+      primaryNic = lookup.getPrimaryNic(vm);
+      if (primaryNic == null) {
+        LOG.warn("NIC is already deleted but still appears to be attached to VM {}.", vm.id());
+      }
+    }
+
     // Network Interface
-    NetworkInterface ni = azure.networkInterfaces().getByResourceGroup(rgName, commonResourceNamePrefix);
     if (ni != null) {
       nicId = ni.id();
-    } else if (vm != null) {
-      // Director <= v2.5 used a different naming scheme for Network Interfaces which can't be inferred by the UUID
-      if (vm.getPrimaryNetworkInterface() != null) {
-        nicId = vm.primaryNetworkInterfaceId();
-      } else {
-        LOG.warn("NIC is already deleted but still appears to be attached to VM {}.", vm.id());
-      }
+    } else if (primaryNic != null) {
+      nicId = vm.primaryNetworkInterfaceId();
     }
 
     // Public IP
-    if (hasPublicIp) {
-      PublicIPAddress pip = azure.publicIPAddresses().getByResourceGroup(rgName, commonResourceNamePrefix);
-      if (pip != null) {
-        pipId = pip.id();
-      } else if (vm != null) {
-        // Director <= v2.5 used a different naming scheme for Public IPs which can't be inferred by the UUID
-        if (vm.getPrimaryNetworkInterface() != null) {
-          pipId = vm.getPrimaryPublicIPAddressId();
-        } else {
-          LOG.warn("NIC is already deleted but still appears to be attached to VM {}.", vm.id());
+    if (pip != null) {
+      pipId = pip.id();
+    } else if (hasPublicIp && primaryNic != null) {
+      pipId = primaryNic.primaryIPConfiguration().publicIPAddressId();
+    }
+  }
+
+  /**
+   * Builds the metadata of many instances from a single listing of each type of resource in the
+   * compute resource group, instead of looking up each resource of each instance. The resources are
+   * matched by name as in {@link #AzureVirtualMachineMetadata(Azure, String, AzureComputeInstanceTemplate,
+   * LocalizationContext)}, including the Director <= v2.5 fallbacks. An instance with no resources
+   * under its own name is matched to the standby VM claimed for it, if any (see {@link StandbyPool}).
+   *
+   * @param azure the entry point object for accessing resource management APIs in Azure
+   * @param instanceIds the instance identifiers
+   * @param template the template used to get fields
+   * @param localizationContext the localization context for the template
+   * @return the metadata of each instance, in the order of the instance ids; instances without
+   * resources are included
+   */
+  static List<AzureVirtualMachineMetadata> listByResourceGroup(Azure azure, Collection<String> instanceIds,
+      AzureComputeInstanceTemplate template, LocalizationContext localizationContext) {
+    return listByResourceGroup(new OperationResources(azure, template.getConfigurationValue(
+            AzureComputeInstanceTemplateConfigurationProperty.COMPUTE_RESOURCE_GROUP,
+            SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext))),
+        instanceIds, template, localizationContext);
+  }
+
+  /**
+   * Builds the metadata of many instances as {@link #listByResourceGroup(Azure, Collection,
+   * AzureComputeInstanceTemplate, LocalizationContext)} does, reusing the listings and resources
+   * already fetched by the current operation.
+   *
+   * @param resources the resources fetched by the current operation
+   * @param instanceIds the instance identifiers
+   * @param template the template used to get fields
+   * @param localizationContext the localization context for the template
+   * @return the metadata of each instance, in the order of the instance ids; instances without
+   * resources are included
+   */
+  static List<AzureVirtualMachineMetadata> listByResourceGroup(OperationResources resources,
+      Collection<String> instanceIds, AzureComputeInstanceTemplate template,
+      LocalizationContext localizationContext) {
+    if (instanceIds.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    String prefix = template.getInstanceNamePrefix();
+    ListedResources lookup = new ListedResources(resources, template, localizationContext);
+    // the resources not in the listings (e.g. the primary NIC of a Director <= v2.5 VM) are looked
+    // up one by one, so the instances are matched concurrently
+    AzureVirtualMachineMetadata[] metadatas = new AzureVirtualMachineMetadata[instanceIds.size()];
+    List<Action0> matches = new ArrayList<>();
+    for (String instanceId : instanceIds) {
+      int index = matches.size();
+      matches.add(() -> {
+        AzureVirtualMachineMetadata metadata =
+            new AzureVirtualMachineMetadata(lookup, instanceId, instanceId, prefix, template, localizationContext);
+        VirtualMachine claimed = lookup.claimedStandbyVms.get(instanceId);
+        if (!metadata.resourcesExist() && claimed != null) {
+          // instances allocated from the standby pool keep the standby VM's name
+          metadata = new AzureVirtualMachineMetadata(lookup, instanceId, StandbyPool.getPoolId(claimed, prefix),
+              StandbyPool.getVmNamePrefix(prefix), template, localizationContext);
         }
-      }
+        metadatas[index] = metadata;
+      });
     }
+    runConcurrently(matches);
+    return new ArrayList<>(Arrays.asList(metadatas));
+  }
+
+  /**
+   * Runs Azure lookups, at most azure-metadata-max-concurrency at a time, and waits for all of
+   * them. Fails with the first lookup that fails, so that callers never act on partial results.
+   *
+   * @param lookups the lookups
+   */
+  private static void runConcurrently(List<Action0> lookups) {
+    Completable.merge(Observable.from(lookups)
+            .map(lookup -> Completable.fromAction(lookup).subscribeOn(Schedulers.io())),
+        AzurePluginConfigHelper.getMetadataMaxConcurrency())
+        .await();
+  }
+
+  /**
+   * @return the instance id
+   */
+  String getInstanceId() {
+    return instanceId;
+  }
+
+  /**
+   * @return the VM found for the instance, or null if it doesn't exist
+   */
+  VirtualMachine getVirtualMachine() {
+    return vm;
   }
 
   /**
@@ -458,4 +589,130 @@ public class AzureVirtualMachineMetadata {
   public static boolean parseYesNo(String s) {
     return ((!Strings.isNullOrEmpty(s)) && s.equalsIgnoreCase("yes"));
   }
+
+  /**
+   * Finds the resources of an instance by name in the compute resource group.
+   */
+  interface ResourceLookup {
+    VirtualMachine getVm(String name);
+
+    Disk getDisk(String name);
+
+    StorageAccount getStorageAccount(String name);
+
+    NetworkInterface getNic(String name);
+
+    PublicIPAddress getPip(String name);
+
+    NetworkInterface getPrimaryNic(VirtualMachine vm);
+  }
+
+  /**
+   * Lists each type of resource the instances of a template can have in the compute resource group
+   * once, concurrently, and looks resources up in the listings. Azure resource names are case
+   * insensitive.
+   */
+  private static final class ListedResources implements ResourceLookup {
+    private final Map<String, VirtualMachine> vms = new HashMap<>();
+    private final Map<String, Disk> disks = new HashMap<>();
+    private final Map<String, StorageAccount> storageAccounts = new HashMap<>();
+    private final Map<String, NetworkInterface> nics = new HashMap<>();
+    private final Map<String, NetworkInterface> nicsById = new HashMap<>();
+    private final Map<String, PublicIPAddress> pips = new HashMap<>();
+    private final Map<String, VirtualMachine> claimedStandbyVms = new HashMap<>();
+    private final OperationResources resources;
+
+    ListedResources(OperationResources resources, AzureComputeInstanceTemplate template,
+        LocalizationContext localizationContext) {
+      this.resources = resources;
+      Azure azure = resources.getAzure();
+      String rgName = resources.getResourceGroupName();
+      LocalizationContext templateLocalizationContext =
+          SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext);
+      String standbyVmNamePrefix = StandbyPool.getVmNamePrefix(template.getInstanceNamePrefix()) + "-";
+
+      // the listings are independent of each other
+      List<Action0> listings = new ArrayList<>();
+      listings.add(() -> {
+        for (VirtualMachine vm : resources.listVms()) {
+          vms.put(key(vm.name()), vm);
+          String claimingInstanceId = StandbyPool.getClaimingInstanceId(vm);
+          if (claimingInstanceId != null && vm.name().startsWith(standbyVmNamePrefix)) {
+            claimedStandbyVms.put(claimingInstanceId, vm);
+          }
+        }
+      });
+      if (template.getConfigurationValue(AzureComputeInstanceTemplateConfigurationProperty.MANAGED_DISKS,
+          templateLocalizationContext).equalsIgnoreCase("yes")) {
+        listings.add(() -> {
+          for (Disk disk : resources.list("Microsoft.Compute/disks",
+              () -> azure.disks().listByResourceGroup(rgName))) {
+            disks.put(key(disk.name()), disk);
+          }
+        });
+      } else {
+        listings.add(() -> {
+          for (StorageAccount storageAccount : resources.list("Microsoft.Storage/storageAccounts",
+              () -> azure.storageAccounts().listByResourceGroup(rgName))) {
+            storageAccounts.put(key(storageAccount.name()), storageAccount);
+          }
+        });
+      }
+      listings.add(() -> {
+        for (NetworkInterface nic : resources.list("Microsoft.Network/networkInterfaces",
+            () -> azure.networkInterfaces().listByResourceGroup(rgName))) {
+          nics.put(key(nic.name()), nic);
+          nicsById.put(key(nic.id()), nic);
+        }
+      });
+      if (template.getConfigurationValue(AzureComputeInstanceTemplateConfigurationProperty.PUBLIC_IP,
+          templateLocalizationContext).equalsIgnoreCase("yes")) {
+        listings.add(() -> {
+          for (PublicIPAddress pip : resources.list("Microsoft.Network/publicIPAddresses",
+              () -> azure.publicIPAddresses().listByResourceGroup(rgName))) {
+            pips.put(key(pip.name()), pip);
+          }
+        });
+      }
+      runConcurrently(listings);
+    }
+
+    private static String key(String name) {
+      return name.toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public VirtualMachine getVm(String name) {
+      return vms.get(key(name));
+    }
+
+    @Override
+    public Disk getDisk(String name) {
+      return disks.get(key(name));
+    }
+
+    @Override
+    public StorageAccount getStorageAccount(String name) {
+      return storageAccounts.get(key(name));
+    }
+
+    @Override
+    public NetworkInterface getNic(String name) {
+      return nics.get(key(name));
+    }
+
+    @Override
+    public PublicIPAddress getPip(String name) {
+      return pips.get(key(name));
+    }
+
+    @Override
+    public NetworkInterface getPrimaryNic(VirtualMachine vm) {
+      NetworkInterface nic = vm.primaryNetworkInterfaceId() == null ?
+          null :
+          nicsById.get(key(vm.primaryNetworkInterfaceId()));
+      // the primary NIC of a VM created by Director <= v2.5 may live outside the compute resource group
+      return nic != null ? nic : resources.getPrimaryNic(vm);
+    }
+  }
 }
@@ -102,4 +102,12 @@ public interface InstanceAllocator {
       AzureComputeInstanceTemplate template,
       Collection<String> instanceIds)
       throws InterruptedException;
+
+  /**
+   * Releases any resources (e.g. executors and caches) held by this allocator. Allocators are
+   * reused across SPI calls and are shut down when the Azure clients they were built on are dropped.
+   * Calls already in progress are allowed to finish; new calls must not be made after shutdown.
+   */
+  default void shutdown() {
+  }
 }
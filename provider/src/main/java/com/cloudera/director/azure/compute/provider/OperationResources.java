@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.cloudera.director.azure.compute.provider;
+
+import static java.util.Objects.requireNonNull;
+
+import com.cloudera.director.azure.utils.AzurePluginMetrics;
+import com.google.common.base.Throwables;
+import com.microsoft.azure.management.Azure;
+import com.microsoft.azure.management.compute.Disk;
+import com.microsoft.azure.management.compute.VirtualMachine;
+import com.microsoft.azure.management.network.NetworkInterface;
+import com.microsoft.azure.management.network.PublicIPAddress;
+import com.microsoft.azure.management.storage.StorageAccount;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Azure resources fetched from a compute resource group during one SPI call, so that no
+ * resource is fetched twice by the same call. Resources are keyed by resource id, resources found
+ * not to exist are remembered as well, and each type of resource is listed at most once.
+ *
+ * Only meant to live as long as the call: resources that change during the call (e.g. deletes)
+ * are not refetched. The call may look resources up from several threads at once.
+ *
+ * Requests made and duplicate requests avoided are added up in the "operation-resources.requests" /
+ * "operation-resources.duplicates-avoided" metrics.
+ */
+final class OperationResources implements AzureVirtualMachineMetadata.ResourceLookup {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OperationResources.class);
+
+  static final String REQUESTS = "operation-resources.requests";
+  static final String DUPLICATES_AVOIDED = "operation-resources.duplicates-avoided";
+
+  private final Azure azure;
+  private final String rgName;
+
+  private final Map<String, Optional<Object>> resources = new ConcurrentHashMap<>();
+  private final AtomicInteger fetches = new AtomicInteger();
+  private final AtomicInteger duplicateFetchesAvoided = new AtomicInteger();
+  private final Map<String, CompletableFuture<List<?>>> listings = new ConcurrentHashMap<>();
+
+  OperationResources(Azure azure, String rgName) {
+    this.azure = requireNonNull(azure, "azure is null");
+    this.rgName = requireNonNull(rgName, "rgName is null");
+  }
+
+  Azure getAzure() {
+    return azure;
+  }
+
+  String getResourceGroupName() {
+    return rgName;
+  }
+
+  @Override
+  public VirtualMachine getVm(String name) {
+    return get(resourceId("Microsoft.Compute/virtualMachines", name),
+        () -> azure.virtualMachines().getByResourceGroup(rgName, name));
+  }
+
+  @Override
+  public Disk getDisk(String name) {
+    return get(resourceId("Microsoft.Compute/disks", name), () -> azure.disks().getByResourceGroup(rgName, name));
+  }
+
+  @Override
+  public StorageAccount getStorageAccount(String name) {
+    return get(resourceId("Microsoft.Storage/storageAccounts", name),
+        () -> azure.storageAccounts().getByResourceGroup(rgName, name));
+  }
+
+  @Override
+  public NetworkInterface getNic(String name) {
+    return get(resourceId("Microsoft.Network/networkInterfaces", name),
+        () -> azure.networkInterfaces().getByResourceGroup(rgName, name));
+  }
+
+  @Override
+  public PublicIPAddress getPip(String name) {
+    return get(resourceId("Microsoft.Network/publicIPAddresses", name),
+        () -> azure.publicIPAddresses().getByResourceGroup(rgName, name));
+  }
+
+  @Override
+  public NetworkInterface getPrimaryNic(VirtualMachine vm) {
+    return vm.primaryNetworkInterfaceId() == null ?
+        vm.getPrimaryNetworkInterface() :
+        get(vm.primaryNetworkInterfaceId(), vm::getPrimaryNetworkInterface);
+  }
+
+  /**
+   * Lists the VMs in the compute resource group, once per call.
+   *
+   * @return the VMs in the compute resource group
+   */
+  List<VirtualMachine> listVms() {
+    return list("Microsoft.Compute/virtualMachines", () -> azure.virtualMachines().listByResourceGroup(rgName));
+  }
+
+  /**
+   * Lists the resources of a type in the compute resource group, once per call. Listings of
+   * different types can run concurrently; a concurrent listing of the same type waits for the
+   * first one.
+   *
+   * @param type    the resource type, e.g. Microsoft.Compute/disks
+   * @param listing lists the resources
+   * @param <T>     the resource class
+   * @return the resources
+   */
+  <T> List<T> list(String type, Supplier<? extends Iterable<T>> listing) {
+    CompletableFuture<List<?>> listed = new CompletableFuture<>();
+    CompletableFuture<List<?>> inFlight = listings.putIfAbsent(type, listed);
+    if (inFlight != null) {
+      duplicateFetchesAvoided.incrementAndGet();
+      try {
+        @SuppressWarnings("unchecked")
+        List<T> resources = (List<T>) inFlight.join();
+        return resources;
+      } catch (CompletionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw e;
+      }
+    }
+
+    fetches.incrementAndGet();
+    List<T> resources = new ArrayList<>();
+    try {
+      for (T resource : listing.get()) {
+        resources.add(resource);
+      }
+    } catch (RuntimeException | Error e) {
+      // a failed listing isn't remembered
+      listings.remove(type, listed);
+      listed.completeExceptionally(e);
+      throw e;
+    }
+    resources = Collections.unmodifiableList(resources);
+    listed.complete(resources);
+    return resources;
+  }
+
+  /**
+   * Logs how many requests the call made and how many duplicate requests it avoided, and adds them
+   * to the plugin metrics.
+   *
+   * @param operation the SPI call, for the log message
+   */
+  void logStats(String operation) {
+    AzurePluginMetrics.getInstance().add(REQUESTS, fetches.get());
+    AzurePluginMetrics.getInstance().add(DUPLICATES_AVOIDED, duplicateFetchesAvoided.get());
+    LOG.info("{} in Resource Group {} made {} Azure requests and avoided {} duplicate requests.",
+        operation, rgName, fetches.get(), duplicateFetchesAvoided.get());
+  }
+
+  private String resourceId(String type, String name) {
+    return String.format("/subscriptions/%s/resourceGroups/%s/providers/%s/%s",
+        azure.subscriptionId(), rgName, type, name);
+  }
+
+  private <T> T get(String resourceId, Supplier<T> fetch) {
+    String key = resourceId.toLowerCase(Locale.ROOT);
+    Optional<Object> fetched = resources.get(key);
+    if (fetched != null) {
+      duplicateFetchesAvoided.incrementAndGet();
+      @SuppressWarnings("unchecked")
+      T resource = (T) fetched.orElse(null);
+      return resource;
+    }
+
+    fetches.incrementAndGet();
+    T resource = fetch.get();
+    resources.put(key, Optional.ofNullable(resource));
+    return resource;
+  }
+}
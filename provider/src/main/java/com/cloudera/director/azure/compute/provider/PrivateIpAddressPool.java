@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.cloudera.director.azure.compute.provider;
+
+import static java.util.Objects.requireNonNull;
+
+import com.microsoft.azure.management.Azure;
+import com.microsoft.azure.management.network.Network;
+import com.microsoft.azure.management.network.NetworkInterface;
+import com.microsoft.azure.management.network.NicIPConfiguration;
+import com.microsoft.azure.management.network.Subnet;
+import com.microsoft.azure.management.network.implementation.IPConfigurationInner;
+import com.microsoft.azure.management.resources.fluentcore.arm.ResourceUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The free private IP addresses of a subnet, handed out locally so that each NIC can be created
+ * with its static private IP in a single request.
+ *
+ * One pool is shared per subnet by every allocate in the plugin (see {@link #forSubnet}), so that
+ * concurrent allocates never hand out the same address. Reserved addresses stay in flight until
+ * the caller either releases them (the address wasn't used) or marks them used (a NIC may have
+ * been created with it). The pool is read from the subnet's address prefix and the addresses of
+ * the NIC IP configurations in the subnet whenever no reservation is in flight, so that addresses
+ * freed or taken by others since the last read are picked up. Addresses are reserved in ascending
+ * order. Azure keeps the first four and the last address of every subnet for itself; they are
+ * never handed out.
+ *
+ * Addresses taken by something other than a NIC (e.g. a load balancer frontend), or by a NIC
+ * created outside the plugin while reservations are in flight, are unknown to the pool: creating a
+ * NIC with such an address fails, and the VM is handled like any other failed create.
+ */
+final class PrivateIpAddressPool {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PrivateIpAddressPool.class);
+
+  // the network address, the default gateway and two addresses for Azure DNS
+  private static final int RESERVED_LEADING_ADDRESSES = 4;
+
+  private static final String NETWORK_INTERFACES = "/providers/microsoft.network/networkinterfaces/";
+
+  // keyed by the lower case subnet id
+  private static final ConcurrentMap<String, PrivateIpAddressPool> POOLS = new ConcurrentHashMap<>();
+
+  private final String addressPrefix;
+  private final long firstAddress;
+  private final long lastAddress;
+  private final Set<Long> usedAddresses = new HashSet<>();
+  private final Set<Long> inFlightAddresses = new HashSet<>();
+  private final NavigableSet<Long> releasedAddresses = new TreeSet<>();
+  private long nextAddress;
+
+  /**
+   * Gets the pool of a subnet shared by the whole plugin. If no reservation is in flight, the
+   * addresses in use are read again from the NICs of the resource groups that have IP
+   * configurations in the subnet.
+   *
+   * @param azure      the entry point for accessing resource management APIs in Azure
+   * @param vnet       the virtual network
+   * @param subnetName the subnet name
+   * @return the pool of free addresses in the subnet
+   * @throws IllegalArgumentException if the subnet does not exist or has no IPv4 address prefix
+   */
+  static PrivateIpAddressPool forSubnet(Azure azure, Network vnet, String subnetName) {
+    Subnet subnet = vnet.subnets().get(subnetName);
+    if (subnet == null) {
+      throw new IllegalArgumentException(String.format("Subnet '%s' not found in Virtual Network '%s'.",
+          subnetName, vnet.name()));
+    }
+
+    String addressPrefix = subnet.addressPrefix();
+    PrivateIpAddressPool pool = POOLS.compute((vnet.id() + "/subnets/" + subnetName).toLowerCase(),
+        (key, existing) -> existing != null && existing.addressPrefix.equals(addressPrefix) ?
+            existing :
+            new PrivateIpAddressPool(addressPrefix, Collections.emptyList()));
+    synchronized (pool) {
+      if (pool.inFlightAddresses.isEmpty()) {
+        pool.reset(readUsedAddresses(azure, vnet, subnet));
+        LOG.info("Subnet {} ({}) has {} addresses in use and {} free.", subnetName, addressPrefix,
+            pool.usedAddresses.size(), pool.available());
+      } else {
+        LOG.info("Subnet {} ({}) has {} addresses reserved by allocates in progress and {} free.", subnetName,
+            addressPrefix, pool.inFlightAddresses.size(), pool.available());
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * Reads the addresses of the NIC IP configurations in a subnet, listing only the NICs of the
+   * resource groups the subnet's IP configurations belong to.
+   */
+  private static Set<String> readUsedAddresses(Azure azure, Network vnet, Subnet subnet) {
+    Set<String> resourceGroups = new HashSet<>();
+    if (subnet.inner().ipConfigurations() != null) {
+      for (IPConfigurationInner ipConfig : subnet.inner().ipConfigurations()) {
+        String id = ipConfig.id() == null ? "" : ipConfig.id().toLowerCase();
+        if (id.contains(NETWORK_INTERFACES)) {
+          resourceGroups.add(ResourceUtils.groupFromResourceId(ipConfig.id()));
+        }
+      }
+    }
+
+    Set<String> usedAddresses = new HashSet<>();
+    for (String resourceGroup : resourceGroups) {
+      for (NetworkInterface nic : azure.networkInterfaces().listByResourceGroup(resourceGroup)) {
+        for (NicIPConfiguration ipConfig : nic.ipConfigurations().values()) {
+          if (vnet.id().equalsIgnoreCase(ipConfig.networkId()) &&
+              subnet.name().equalsIgnoreCase(ipConfig.subnetName()) &&
+              ipConfig.privateIPAddress() != null) {
+            usedAddresses.add(ipConfig.privateIPAddress());
+          }
+        }
+      }
+    }
+    return usedAddresses;
+  }
+
+  /**
+   * Creates a pool.
+   *
+   * @param addressPrefix the subnet's IPv4 address prefix, e.g. 10.0.0.0/24
+   * @param usedAddresses the addresses already in use in the subnet
+   * @throws IllegalArgumentException if the address prefix or an address is not valid IPv4
+   */
+  PrivateIpAddressPool(String addressPrefix, Collection<String> usedAddresses) {
+    this.addressPrefix = requireNonNull(addressPrefix, "addressPrefix is null");
+    requireNonNull(usedAddresses, "usedAddresses is null");
+
+    String[] parts = addressPrefix.trim().split("/");
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("Invalid subnet address prefix: " + addressPrefix);
+    }
+    int prefixLength;
+    try {
+      prefixLength = Integer.parseInt(parts[1]);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid subnet address prefix: " + addressPrefix, e);
+    }
+    if (prefixLength < 0 || prefixLength > 32) {
+      throw new IllegalArgumentException("Invalid subnet address prefix: " + addressPrefix);
+    }
+    long size = 1L << (32 - prefixLength);
+    long networkAddress = toLong(parts[0]) & ~(size - 1) & 0xFFFFFFFFL;
+
+    this.firstAddress = networkAddress + RESERVED_LEADING_ADDRESSES;
+    // the last address is the broadcast address
+    this.lastAddress = networkAddress + size - 2;
+    reset(usedAddresses);
+  }
+
+  /**
+   * Replaces the addresses in use with the given ones, keeping the reservations in flight.
+   *
+   * @param usedAddresses the addresses in use in the subnet
+   */
+  synchronized void reset(Collection<String> usedAddresses) {
+    this.usedAddresses.clear();
+    for (String address : usedAddresses) {
+      this.usedAddresses.add(toLong(address));
+    }
+    this.usedAddresses.addAll(inFlightAddresses);
+    releasedAddresses.clear();
+    nextAddress = firstAddress;
+  }
+
+  /**
+   * Reserves the lowest free address.
+   *
+   * @return the address
+   * @throws IllegalStateException if the subnet has no free address left
+   */
+  synchronized String reserve() {
+    Long released = releasedAddresses.pollFirst();
+    if (released != null) {
+      usedAddresses.add(released);
+      inFlightAddresses.add(released);
+      return toString(released);
+    }
+    while (nextAddress <= lastAddress && usedAddresses.contains(nextAddress)) {
+      nextAddress++;
+    }
+    if (nextAddress > lastAddress) {
+      throw new IllegalStateException("No free private IP address left in subnet " + addressPrefix + ".");
+    }
+    usedAddresses.add(nextAddress);
+    inFlightAddresses.add(nextAddress);
+    return toString(nextAddress++);
+  }
+
+  /**
+   * Returns a reserved address that ended up not being used to the pool.
+   *
+   * @param address the address
+   */
+  synchronized void release(String address) {
+    long value = toLong(address);
+    if (inFlightAddresses.remove(value) && usedAddresses.remove(value)) {
+      releasedAddresses.add(value);
+    }
+  }
+
+  /**
+   * Settles a reserved address that was handed to Azure: it stays in use until the pool is next
+   * read from the subnet.
+   *
+   * @param address the address
+   */
+  synchronized void markUsed(String address) {
+    inFlightAddresses.remove(toLong(address));
+  }
+
+  /**
+   * @return the number of addresses that can still be reserved
+   */
+  synchronized long available() {
+    long remaining = releasedAddresses.size();
+    for (long address = nextAddress; address <= lastAddress; address++) {
+      if (!usedAddresses.contains(address)) {
+        remaining++;
+      }
+    }
+    return remaining;
+  }
+
+  private static long toLong(String address) {
+    String[] octets = address.trim().split("\\.");
+    if (octets.length != 4) {
+      throw new IllegalArgumentException("Invalid IPv4 address: " + address);
+    }
+    long value = 0;
+    for (String octet : octets) {
+      int part;
+      try {
+        part = Integer.parseInt(octet);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid IPv4 address: " + address, e);
+      }
+      if (part < 0 || part > 255) {
+        throw new IllegalArgumentException("Invalid IPv4 address: " + address);
+      }
+      value = (value << 8) | part;
+    }
+    return value;
+  }
+
+  private static String toString(long address) {
+    return ((address >> 24) & 0xFF) + "." + ((address >> 16) & 0xFF) + "." + ((address >> 8) & 0xFF) + "." +
+        (address & 0xFF);
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.cloudera.director.azure.compute.provider;
+
+import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMetadata.getVmId;
+
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplateConfigurationProperty;
+import com.cloudera.director.spi.v2.compute.ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken;
+import com.cloudera.director.spi.v2.model.ConfigurationPropertyToken;
+import com.cloudera.director.spi.v2.model.LocalizationContext;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.microsoft.azure.management.Azure;
+import com.microsoft.azure.management.compute.VirtualMachine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Naming and tagging of the standby pool of a template: fully built, deallocated VMs that allocate
+ * starts instead of creating new ones.
+ *
+ * A standby VM is created like any other VM, from a random pool id instead of an instance id, and
+ * is named {@code <prefix>-standby-<pool id>}; its NIC, disks and public IP are named after the
+ * first group of the pool id, and its host name is {@code <prefix>-<first group of the pool id>}.
+ * It is tagged with a fingerprint of the template it was built from, so that it is only handed out
+ * to allocates of an identical template.
+ *
+ * Allocate claims a standby VM for an instance by tagging it with the instance id. The VM keeps its
+ * pool name, so find, getInstanceState and delete fall back to looking up claimed standby VMs for
+ * the instances whose VM does not exist under its regular name.
+ */
+final class StandbyPool {
+
+  static final String NAME_SUFFIX = "-standby";
+  static final String TEMPLATE_TAG = "directorStandbyTemplate";
+  static final String CLAIM_TAG = "directorInstanceId";
+
+  // template properties that don't change the VMs built from the template
+  private static final Set<AzureComputeInstanceTemplateConfigurationProperty> NOT_FINGERPRINTED = EnumSet.of(
+      AzureComputeInstanceTemplateConfigurationProperty.ALLOCATION_STRATEGY,
+      AzureComputeInstanceTemplateConfigurationProperty.STANDBY_POOL_SIZE);
+
+  private StandbyPool() {
+  }
+
+  /**
+   * Builds the prefix of the standby VM names of a template.
+   *
+   * @param instanceNamePrefix the template's instance name prefix
+   * @return the standby VM name prefix
+   */
+  static String getVmNamePrefix(String instanceNamePrefix) {
+    return instanceNamePrefix + NAME_SUFFIX;
+  }
+
+  /**
+   * Retrieves the pool id from a standby VM.
+   *
+   * @param vm                 the standby VM
+   * @param instanceNamePrefix the template's instance name prefix
+   * @return the pool id
+   */
+  static String getPoolId(VirtualMachine vm, String instanceNamePrefix) {
+    return getVmId(vm.name(), getVmNamePrefix(instanceNamePrefix));
+  }
+
+  /**
+   * @param vm the standby VM
+   * @return the id of the instance the VM was claimed for, or null if it is on standby
+   */
+  static String getClaimingInstanceId(VirtualMachine vm) {
+    return vm.tags() == null ? null : vm.tags().get(CLAIM_TAG);
+  }
+
+  /**
+   * @param vm          the standby VM
+   * @param fingerprint the template fingerprint
+   * @return whether the VM was built from a template with the given fingerprint
+   */
+  static boolean hasFingerprint(VirtualMachine vm, String fingerprint) {
+    return vm.tags() != null && fingerprint.equals(vm.tags().get(TEMPLATE_TAG));
+  }
+
+  /**
+   * Computes the fingerprint of the VMs built from a template, from every template property that
+   * shapes them, and from the template's tags.
+   *
+   * @param template                    the template
+   * @param templateLocalizationContext the template localization context
+   * @return the fingerprint
+   */
+  static String fingerprint(AzureComputeInstanceTemplate template, LocalizationContext templateLocalizationContext) {
+    Map<String, String> values = new TreeMap<>();
+    for (AzureComputeInstanceTemplateConfigurationProperty property :
+        AzureComputeInstanceTemplateConfigurationProperty.values()) {
+      if (!NOT_FINGERPRINTED.contains(property)) {
+        putValue(values, template, property, templateLocalizationContext);
+      }
+    }
+    putValue(values, template, ComputeInstanceTemplateConfigurationPropertyToken.SSH_USERNAME,
+        templateLocalizationContext);
+    putValue(values, template, ComputeInstanceTemplateConfigurationPropertyToken.SSH_OPENSSH_PUBLIC_KEY,
+        templateLocalizationContext);
+    new TreeMap<>(template.getTags()).forEach((key, value) -> values.put("tag:" + key, value));
+
+    Hasher hasher = Hashing.sha256().newHasher();
+    values.forEach((key, value) -> hasher.putString(key, StandardCharsets.UTF_8).putByte((byte) 0)
+        .putString(value, StandardCharsets.UTF_8).putByte((byte) 0));
+    return hasher.hash().toString().substring(0, 16);
+  }
+
+  private static void putValue(Map<String, String> values, AzureComputeInstanceTemplate template,
+      ConfigurationPropertyToken property, LocalizationContext templateLocalizationContext) {
+    String value = template.getConfigurationValue(property, templateLocalizationContext);
+    if (value != null) {
+      values.put(property.unwrap().getConfigKey(), value);
+    }
+  }
+
+  /**
+   * Lists the standby VMs of a template, claimed or not, with a single listing of the resource
+   * group's VMs.
+   *
+   * @param azure              the entry point for accessing resource management APIs in Azure
+   * @param rgName             the compute resource group
+   * @param instanceNamePrefix the template's instance name prefix
+   * @return the standby VMs
+   */
+  static List<VirtualMachine> listVms(Azure azure, String rgName, String instanceNamePrefix) {
+    String namePrefix = getVmNamePrefix(instanceNamePrefix) + "-";
+    List<VirtualMachine> vms = new ArrayList<>();
+    for (VirtualMachine vm : azure.virtualMachines().listByResourceGroup(rgName)) {
+      if (vm.name().startsWith(namePrefix) && vm.tags() != null && vm.tags().containsKey(TEMPLATE_TAG)) {
+        vms.add(vm);
+      }
+    }
+    return vms;
+  }
+
+  /**
+   * Finds the standby VMs claimed for the given instances.
+   *
+   * @param azure              the entry point for accessing resource management APIs in Azure
+   * @param rgName             the compute resource group
+   * @param instanceNamePrefix the template's instance name prefix
+   * @param instanceIds        the instance ids
+   * @return the claimed standby VM of each instance id that has one
+   */
+  static Map<String, VirtualMachine> findClaimedVms(Azure azure, String rgName, String instanceNamePrefix,
+      Collection<String> instanceIds) {
+    Map<String, VirtualMachine> claimed = new HashMap<>();
+    if (instanceIds.isEmpty()) {
+      return claimed;
+    }
+    for (VirtualMachine vm : listVms(azure, rgName, instanceNamePrefix)) {
+      String instanceId = getClaimingInstanceId(vm);
+      if (instanceId != null && instanceIds.contains(instanceId)) {
+        claimed.put(instanceId, vm);
+      }
+    }
+    return claimed;
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.cloudera.director.azure.compute.provider;
+
+import static java.util.Objects.requireNonNull;
+
+import com.cloudera.director.azure.compute.instance.AzureComputeInstance;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplateConfigurationProperty;
+import com.cloudera.director.azure.compute.instance.AzureInstance;
+import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
+import com.cloudera.director.azure.utils.AzurePluginMetrics;
+import com.cloudera.director.spi.v2.model.LocalizationContext;
+import com.cloudera.director.spi.v2.model.util.SimpleResourceTemplate;
+import com.google.common.base.Throwables;
+import com.microsoft.azure.management.compute.InstanceViewStatus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instance allocator that reuses the instance states fetched by getInstanceState for
+ * azure-instance-state-cache-ttl-seconds, and passes every other call through.
+ *
+ * Director polls the state of the same instances from several threads within seconds. A call only
+ * fetches the states of the instances that aren't cached; if another call is already fetching some
+ * of them, it waits for that fetch instead of starting its own. Allocate and delete drop the states
+ * of the instances they touch, both before and after they run, and a fetch that was in flight when
+ * its instances were dropped doesn't populate the cache.
+ *
+ * Instance states served from the cache, shared with a concurrent fetch, or fetched are counted in
+ * the "instance-state-cache.hits" / "instance-state-cache.shared" / "instance-state-cache.misses"
+ * metrics; getInstanceState calls, and the calls that reached the allocator, in the
+ * "instance-state-cache.calls" / "instance-state-cache.backend-calls" metrics.
+ */
+final class StateCachingInstanceAllocator implements InstanceAllocator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StateCachingInstanceAllocator.class);
+
+  static final String HITS = "instance-state-cache.hits";
+  static final String SHARED = "instance-state-cache.shared";
+  static final String MISSES = "instance-state-cache.misses";
+  static final String CALLS = "instance-state-cache.calls";
+  static final String BACKEND_CALLS = "instance-state-cache.backend-calls";
+
+  private final InstanceAllocator delegate;
+  private final AzurePluginMetrics metrics;
+
+  // keyed by compute resource group, instance name prefix and instance id
+  private final Map<String, CachedState> states = new ConcurrentHashMap<>();
+  private final Map<String, CompletableFuture<List<InstanceViewStatus>>> fetches = new ConcurrentHashMap<>();
+
+  StateCachingInstanceAllocator(InstanceAllocator delegate) {
+    this(delegate, AzurePluginMetrics.getInstance());
+  }
+
+  StateCachingInstanceAllocator(InstanceAllocator delegate, AzurePluginMetrics metrics) {
+    this.delegate = requireNonNull(delegate, "delegate is null");
+    this.metrics = requireNonNull(metrics, "metrics is null");
+  }
+
+  @Override
+  public Collection<? extends AzureComputeInstance<? extends AzureInstance>> allocate(
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template,
+      Collection<String> instanceIds,
+      int minCount)
+      throws InterruptedException {
+    invalidate(localizationContext, template, instanceIds);
+    try {
+      return delegate.allocate(localizationContext, template, instanceIds, minCount);
+    } finally {
+      invalidate(localizationContext, template, instanceIds);
+    }
+  }
+
+  @Override
+  public Collection<? extends AzureComputeInstance<? extends AzureInstance>> find(
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template,
+      Collection<String> instanceIds)
+      throws InterruptedException {
+    return delegate.find(localizationContext, template, instanceIds);
+  }
+
+  @Override
+  public Map<String, List<InstanceViewStatus>> getInstanceState(
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template,
+      Collection<String> instanceIds) {
+    long ttl = AzurePluginConfigHelper.getInstanceStateCacheTtl();
+    if (ttl <= 0) {
+      return delegate.getInstanceState(localizationContext, template, instanceIds);
+    }
+
+    String keyPrefix = getKeyPrefix(localizationContext, template);
+    Map<String, List<InstanceViewStatus>> result = new HashMap<>();
+    Map<String, CompletableFuture<List<InstanceViewStatus>>> ownFetches = new LinkedHashMap<>();
+    Map<String, CompletableFuture<List<InstanceViewStatus>>> sharedFetches = new HashMap<>();
+
+    long now = System.nanoTime();
+    for (String instanceId : instanceIds) {
+      String key = keyPrefix + instanceId;
+      CachedState cached = states.get(key);
+      if (cached != null && cached.isFresh(now)) {
+        result.put(instanceId, cached.statuses);
+        continue;
+      }
+      CompletableFuture<List<InstanceViewStatus>> fetch = new CompletableFuture<>();
+      CompletableFuture<List<InstanceViewStatus>> inFlight = fetches.putIfAbsent(key, fetch);
+      if (inFlight == null) {
+        ownFetches.put(instanceId, fetch);
+      } else {
+        sharedFetches.put(instanceId, inFlight);
+      }
+    }
+    int cachedCount = result.size();
+
+    // fetch this call's share before waiting on the others, so that calls waiting on each other's
+    // fetches can't deadlock
+    if (!ownFetches.isEmpty()) {
+      metrics.increment(BACKEND_CALLS);
+      Map<String, List<InstanceViewStatus>> fetched;
+      try {
+        fetched = delegate.getInstanceState(localizationContext, template, new ArrayList<>(ownFetches.keySet()));
+      } catch (RuntimeException | Error e) {
+        ownFetches.forEach((instanceId, fetch) -> {
+          fetches.remove(keyPrefix + instanceId, fetch);
+          fetch.completeExceptionally(e);
+        });
+        throw e;
+      }
+
+      long expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl);
+      states.values().removeIf(cached -> !cached.isFresh(now));
+      ownFetches.forEach((instanceId, fetch) -> {
+        String key = keyPrefix + instanceId;
+        List<InstanceViewStatus> statuses = fetched.get(instanceId);
+        // the fetch is no longer registered if an allocate or delete dropped the instance meanwhile
+        if (fetches.remove(key, fetch) && statuses != null) {
+          states.put(key, new CachedState(statuses, expiresAt));
+        }
+        fetch.complete(statuses);
+        if (statuses != null) {
+          result.put(instanceId, statuses);
+        }
+      });
+    }
+
+    for (Map.Entry<String, CompletableFuture<List<InstanceViewStatus>>> entry : sharedFetches.entrySet()) {
+      List<InstanceViewStatus> statuses;
+      try {
+        statuses = entry.getValue().join();
+      } catch (CompletionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw e;
+      }
+      if (statuses != null) {
+        result.put(entry.getKey(), statuses);
+      }
+    }
+
+    metrics.increment(CALLS);
+    metrics.add(HITS, cachedCount);
+    metrics.add(SHARED, sharedFetches.size());
+    metrics.add(MISSES, ownFetches.size());
+    LOG.debug("getInstanceState: {} instances requested, {} served from the cache, {} shared with concurrent " +
+        "fetches.", instanceIds.size(), cachedCount, sharedFetches.size());
+    return result;
+  }
+
+  @Override
+  public void delete(
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template,
+      Collection<String> instanceIds)
+      throws InterruptedException {
+    invalidate(localizationContext, template, instanceIds);
+    try {
+      delegate.delete(localizationContext, template, instanceIds);
+    } finally {
+      invalidate(localizationContext, template, instanceIds);
+    }
+  }
+
+  @Override
+  public Map<String, Set<String>> getHostKeyFingerprints(
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template,
+      Collection<String> instanceIds)
+      throws InterruptedException {
+    return delegate.getHostKeyFingerprints(localizationContext, template, instanceIds);
+  }
+
+  @Override
+  public void shutdown() {
+    states.clear();
+    delegate.shutdown();
+  }
+
+  /**
+   * Drops the cached states of the given instances, and detaches their in-flight fetches so that
+   * later calls fetch them again.
+   */
+  private void invalidate(LocalizationContext localizationContext, AzureComputeInstanceTemplate template,
+      Collection<String> instanceIds) {
+    String keyPrefix = getKeyPrefix(localizationContext, template);
+    for (String instanceId : instanceIds) {
+      states.remove(keyPrefix + instanceId);
+      fetches.remove(keyPrefix + instanceId);
+    }
+  }
+
+  private static String getKeyPrefix(LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template) {
+    String rgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.COMPUTE_RESOURCE_GROUP,
+        SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext));
+    return rgName + "/" + template.getInstanceNamePrefix() + "/";
+  }
+
+  /**
+   * The statuses of an instance and when they expire.
+   */
+  private static final class CachedState {
+    private final List<InstanceViewStatus> statuses;
+    private final long expiresAt;
+
+    CachedState(List<InstanceViewStatus> statuses, long expiresAt) {
+      this.statuses = statuses;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isFresh(long now) {
+      return now - expiresAt < 0;
+    }
+  }
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.cloudera.director.azure.compute.provider;
+
+import static com.cloudera.director.azure.compute.instance.VirtualMachine.create;
+import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMetadata.getBase64EncodedCustomData;
+import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMetadata.getFirstGroupOfUuid;
+import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMetadata.getVmName;
+import static java.util.Objects.requireNonNull;
+
+import com.cloudera.director.azure.AzureExceptions;
+import com.cloudera.director.azure.Configurations;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstance;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplateConfigurationProperty;
+import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
+import com.cloudera.director.spi.v2.compute.ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken;
+import com.cloudera.director.spi.v2.model.LocalizationContext;
+import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
+import com.cloudera.director.spi.v2.model.util.SimpleResourceTemplate;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.microsoft.azure.management.Azure;
+import com.microsoft.azure.management.compute.VirtualMachine;
+import com.microsoft.azure.management.msi.implementation.MSIManager;
+import com.microsoft.azure.management.network.Network;
+import com.microsoft.azure.management.resources.Deployment;
+import com.microsoft.azure.management.resources.DeploymentMode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rx.Completable;
+import rx.schedulers.Schedulers;
+
+/**
+ * Instance allocator that creates VMs through ARM template deployments: the VMs of an allocate are
+ * split into batches, and each batch is created by a single deployment of a template rendered by
+ * {@link VirtualMachineDeploymentTemplate}, instead of one chain of NIC, public IP, disk and VM
+ * requests per VM.
+ *
+ * The template creates the same resources, with the same names, as {@link VirtualMachineAllocator}
+ * does, so finding, getting the state of and deleting instances are inherited from it unchanged,
+ * and so is the cleanup after a failed allocate: failed instances are deleted, and everything is
+ * deleted if fewer than minCount instances were created. Templates with unmanaged disks are
+ * allocated one VM at a time, like {@link VirtualMachineAllocator} does. If the template has a
+ * standby pool, only the instances the pool can't supply are deployed.
+ *
+ * Selected by setting the template's allocation strategy to "Deployment".
+ */
+public class TemplateDeploymentAllocator extends VirtualMachineAllocator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TemplateDeploymentAllocator.class);
+
+  private static final String DEPLOYMENT_NAME_PREFIX = "director-vms-";
+
+  // provisioning states (in lower case) of a deployment that is no longer running
+  private static final Set<String> TERMINAL_STATES = ImmutableSet.of("succeeded", "failed", "canceled");
+  private static final long CANCEL_POLL_INTERVAL_SECONDS = 5;
+  private static final long CANCEL_TIMEOUT_SECONDS = 600;
+
+  private final Azure azure;
+  private final BiFunction<AzureComputeProviderConfigurationProperty, LocalizationContext, String> configRetriever;
+
+  public TemplateDeploymentAllocator(
+      Azure azure,
+      MSIManager msiManager,
+      BiFunction<AzureComputeProviderConfigurationProperty, LocalizationContext, String> configRetriever) {
+    super(azure, msiManager, configRetriever);
+    this.azure = requireNonNull(azure, "azure is null");
+    this.configRetriever = requireNonNull(configRetriever, "configRetriever is null");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>
+  createInstances(
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template,
+      Collection<String> instanceIds,
+      int minCount)
+      throws InterruptedException {
+
+    LocalizationContext templateLocalizationContext =
+        SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext);
+    boolean useManagedDisks = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.MANAGED_DISKS,
+        templateLocalizationContext).equalsIgnoreCase("yes");
+    if (!useManagedDisks) {
+      LOG.info("Template deployments only support managed disks; creating the VMs one at a time instead.");
+      return createInstancesOneAtATime(localizationContext, template, instanceIds, minCount);
+    }
+
+    final String computeRgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.COMPUTE_RESOURCE_GROUP,
+        templateLocalizationContext);
+    List<String> uniqueInstanceIds = new ArrayList<>(new LinkedHashSet<>(instanceIds));
+    LOG.info("Preparing to allocate the following instances through template deployments {}.", uniqueInstanceIds);
+
+    StopWatch stopwatch = new StopWatch();
+    stopwatch.start();
+
+    VirtualMachineDeploymentTemplate deploymentTemplate = buildDeploymentTemplate(localizationContext, template);
+    PrivateIpAddressPool privateIpAddressPool = privateIpAddressPool(template, templateLocalizationContext);
+    Map<String, String> privateIpAddresses = reservePrivateIpAddresses(privateIpAddressPool, uniqueInstanceIds);
+
+    // deploy the batches concurrently; a failed deployment fails the instances that weren't created
+    final Set<Exception> encounteredException = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    List<Completable> deployments = new ArrayList<>();
+    List<String> deploymentNames = new ArrayList<>();
+    for (List<String> batch : Lists.partition(uniqueInstanceIds, AzurePluginConfigHelper.getDeploymentBatchSize())) {
+      final String deploymentName = DEPLOYMENT_NAME_PREFIX + getFirstGroupOfUuid(batch.get(0)) + "-" + batch.size();
+      deploymentNames.add(deploymentName);
+      final ObjectNode rendered = deploymentTemplate.render(batch, privateIpAddresses);
+      deployments.add(Completable
+          .fromAction(() -> deploy(computeRgName, deploymentName, rendered))
+          .subscribeOn(Schedulers.io())
+          .onErrorComplete(t -> {
+            LOG.error("Deployment {} of instances {} failed:", deploymentName, batch, t);
+            if (t instanceof Exception) {
+              encounteredException.add((Exception) t);
+            }
+            return true;
+          }));
+    }
+
+    boolean finished;
+    boolean interrupted = false;
+    long timeoutMillis = TimeUnit.SECONDS.toMillis(AzurePluginConfigHelper.getAzureBackendOpPollingTimeOut());
+    try {
+      finished = Completable.merge(deployments).await(Math.max(0, timeoutMillis - stopwatch.getTime()),
+          TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      if (!(e.getCause() instanceof InterruptedException)) {
+        throw e;
+      }
+      // Handle interrupted deployments as a timeout event
+      LOG.error("VM deployment is interrupted.");
+      interrupted = true;
+      finished = false;
+    } finally {
+      // every deployment may have created its NICs, so their addresses stay taken until the pool is next read
+      if (privateIpAddressPool != null) {
+        privateIpAddresses.values().forEach(privateIpAddressPool::markUsed);
+      }
+    }
+    stopwatch.stop();
+
+    // deployments still running would keep creating resources while, and after, they're deleted below
+    if (!finished) {
+      cancelDeployments(computeRgName, deploymentNames);
+    }
+
+    // map the deployed VMs back to instances
+    Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>
+        successfullyCreatedInstances = new ArrayList<>();
+    List<String> successfullyCreatedInstanceIds = new ArrayList<>();
+    Map<String, VirtualMachine> vmsByName = new HashMap<>();
+    for (VirtualMachine vm : azure.virtualMachines().listByResourceGroup(computeRgName)) {
+      vmsByName.put(vm.name().toLowerCase(Locale.ROOT), vm);
+    }
+    for (String instanceId : uniqueInstanceIds) {
+      VirtualMachine vm = vmsByName.get(
+          getVmName(instanceId, template.getInstanceNamePrefix()).toLowerCase(Locale.ROOT));
+      if (vm != null && "Succeeded".equalsIgnoreCase(vm.provisioningState())) {
+        successfullyCreatedInstanceIds.add(instanceId);
+        successfullyCreatedInstances.add(new AzureComputeInstance<>(template, instanceId, create(vm)));
+      }
+    }
+
+    String errorMessage = "Failed to create enough instances.";
+    if (!finished) {
+      LOG.error("Deployment of the VMs {} after {} seconds.", interrupted ? "was interrupted" : "had timed out",
+          stopwatch.getTime() / 1000);
+      errorMessage = interrupted ?
+          "Failed to create enough instances: instance creation interrupted." :
+          "Failed to create enough instances: instance creation timed out.";
+    } else {
+      LOG.info("Create Virtual Machines: it took {} seconds to deploy {} out of {} VMs with the prefix {} from the " +
+              "group with instanceIds of: {}.", stopwatch.getTime() / 1000, successfullyCreatedInstanceIds.size(),
+          uniqueInstanceIds.size(), template.getInstanceNamePrefix(), uniqueInstanceIds);
+    }
+
+    if (successfullyCreatedInstanceIds.size() < minCount) {
+      LOG.error("Allocate failure: failed to create enough instances. {} instances out of {}. minCount is {}. " +
+              "Successfully created instance ids: {}. Cleaning up the following instance ids: {}.",
+          successfullyCreatedInstanceIds.size(), uniqueInstanceIds.size(), minCount, successfullyCreatedInstanceIds,
+          uniqueInstanceIds);
+      delete(localizationContext, template, uniqueInstanceIds);
+      LOG.info("Allocate failure: cleanup via delete() has succeeded.");
+      throw AzureExceptions.propagateUnrecoverable(errorMessage, encounteredException);
+    }
+
+    List<String> instanceIdsToDelete = new ArrayList<>(uniqueInstanceIds);
+    instanceIdsToDelete.removeAll(successfullyCreatedInstanceIds);
+    if (instanceIdsToDelete.isEmpty()) {
+      LOG.info("Allocate success: allocate successfully provisioned all {} instances. Successfully created " +
+          "instance ids: {}.", successfullyCreatedInstanceIds.size(), successfullyCreatedInstanceIds);
+    } else {
+      LOG.info("Allocate success: successfully provisioned {} instances out of {} (min count is {}). Successfully " +
+              "created instance ids: {}. Cleaning up the following failed instance ids: {}.",
+          successfullyCreatedInstanceIds.size(), uniqueInstanceIds.size(), minCount, successfullyCreatedInstanceIds,
+          instanceIdsToDelete);
+      delete(localizationContext, template, instanceIdsToDelete);
+      LOG.info("Allocate success: cleanup via delete() has succeeded.");
+    }
+    return successfullyCreatedInstances;
+  }
+
+  /**
+   * Creates the instances one VM at a time, like {@link VirtualMachineAllocator} does.
+   */
+  @VisibleForTesting
+  Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>
+  createInstancesOneAtATime(
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template,
+      Collection<String> instanceIds,
+      int minCount)
+      throws InterruptedException {
+    return super.createInstances(localizationContext, template, instanceIds, minCount);
+  }
+
+  /**
+   * Cancels the deployments that are still running, and waits (for up to
+   * {@value #CANCEL_TIMEOUT_SECONDS} seconds) for every deployment to reach a terminal state, so
+   * that no deployment creates resources after the allocate has cleaned up. Deployments that are
+   * gone (their record is deleted once they've succeeded) are taken as finished.
+   *
+   * @param rgName          the resource group
+   * @param deploymentNames the deployment names
+   */
+  @VisibleForTesting
+  void cancelDeployments(String rgName, Collection<String> deploymentNames) {
+    long deadlineMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(CANCEL_TIMEOUT_SECONDS);
+    Set<String> running = new LinkedHashSet<>(deploymentNames);
+    Set<String> cancelled = new HashSet<>();
+    while (true) {
+      for (Iterator<String> it = running.iterator(); it.hasNext(); ) {
+        String deploymentName = it.next();
+        try {
+          Deployment deployment = azure.deployments().getByResourceGroup(rgName, deploymentName);
+          String state = deployment == null ? null : deployment.provisioningState();
+          if (deployment == null || (state != null && TERMINAL_STATES.contains(state.toLowerCase(Locale.ROOT)))) {
+            it.remove();
+          } else if (cancelled.add(deploymentName)) {
+            LOG.info("Cancelling deployment {} in Resource Group {} ({}).", deploymentName, rgName, state);
+            deployment.cancel();
+          }
+        } catch (RuntimeException e) {
+          LOG.warn("Failed to cancel deployment {} in Resource Group {}.", deploymentName, rgName, e);
+          it.remove();
+        }
+      }
+      if (running.isEmpty()) {
+        return;
+      }
+      if (System.currentTimeMillis() >= deadlineMillis) {
+        LOG.error("Deployments {} in Resource Group {} are still running {} seconds after being cancelled.", running,
+            rgName, CANCEL_TIMEOUT_SECONDS);
+        return;
+      }
+      try {
+        TimeUnit.SECONDS.sleep(CANCEL_POLL_INTERVAL_SECONDS);
+      } catch (InterruptedException e) {
+        // Handle interrupted wait as a timeout event, like the deployments themselves
+        LOG.error("Waiting for deployments {} in Resource Group {} to be cancelled is interrupted.", running, rgName);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Deploys a template into a resource group in incremental mode, and waits for the deployment to
+   * finish. The deployment record is deleted once the deployment has succeeded, so that allocations
+   * don't fill up the resource group's deployment history.
+   *
+   * @param rgName         the resource group
+   * @param deploymentName the deployment name
+   * @param template       the deployment template
+   */
+  @VisibleForTesting
+  void deploy(String rgName, String deploymentName, ObjectNode template) {
+    LOG.info("Starting deployment {} in Resource Group {}.", deploymentName, rgName);
+    StopWatch stopwatch = new StopWatch();
+    stopwatch.start();
+    azure.deployments()
+        .define(deploymentName)
+        .withExistingResourceGroup(rgName)
+        .withTemplate(template)
+        .withParameters(JsonNodeFactory.instance.objectNode())
+        .withMode(DeploymentMode.INCREMENTAL)
+        .create();
+    stopwatch.stop();
+    LOG.info("Deployment {} succeeded in {} seconds.", deploymentName, stopwatch.getTime() / 1000);
+
+    try {
+      azure.deployments().deleteByResourceGroup(rgName, deploymentName);
+    } catch (Exception e) {
+      LOG.warn("Failed to delete the record of deployment {} in Resource Group {}.", deploymentName, rgName, e);
+    }
+  }
+
+  /**
+   * Builds the deployment template settings shared by every VM of the template.
+   */
+  @VisibleForTesting
+  VirtualMachineDeploymentTemplate buildDeploymentTemplate(
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template) {
+
+    LocalizationContext templateLocalizationContext =
+        SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext);
+    String subscriptionId = azure.subscriptionId();
+    String computeRgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.COMPUTE_RESOURCE_GROUP, templateLocalizationContext);
+    String availabilitySetName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.AVAILABILITY_SET, templateLocalizationContext);
+    String vnrgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.VIRTUAL_NETWORK_RESOURCE_GROUP, templateLocalizationContext);
+    String vnName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.VIRTUAL_NETWORK, templateLocalizationContext);
+    String subnetName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.SUBNET_NAME, templateLocalizationContext);
+    String nsgrgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.NETWORK_SECURITY_GROUP_RESOURCE_GROUP,
+        templateLocalizationContext);
+    String nsgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.NETWORK_SECURITY_GROUP, templateLocalizationContext);
+    boolean useCustomImage = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.USE_CUSTOM_MANAGED_IMAGE,
+        templateLocalizationContext).equalsIgnoreCase("yes");
+
+    ResolvedTemplateResources resolved = resolveTemplateResources(azure, localizationContext, template);
+
+    return new VirtualMachineDeploymentTemplate()
+        .withLocation(configRetriever.apply(AzureComputeProviderConfigurationProperty.REGION,
+            templateLocalizationContext))
+        .withTags(template.getTags())
+        .withNames(template.getInstanceNamePrefix(), template.getConfigurationValue(
+            AzureComputeInstanceTemplateConfigurationProperty.HOST_FQDN_SUFFIX, templateLocalizationContext))
+        .withVmSize(template.getConfigurationValue(
+            AzureComputeInstanceTemplateConfigurationProperty.VMSIZE, templateLocalizationContext))
+        .withLinuxProfile(
+            template.getConfigurationValue(ComputeInstanceTemplateConfigurationPropertyToken.SSH_USERNAME,
+                templateLocalizationContext),
+            template.getConfigurationValue(ComputeInstanceTemplateConfigurationPropertyToken.SSH_OPENSSH_PUBLIC_KEY,
+                templateLocalizationContext),
+            getBase64EncodedCustomData(
+                template.getConfigurationValue(AzureComputeInstanceTemplateConfigurationProperty.CUSTOM_DATA_UNENCODED,
+                    templateLocalizationContext),
+                template.getConfigurationValue(AzureComputeInstanceTemplateConfigurationProperty.CUSTOM_DATA_ENCODED,
+                    templateLocalizationContext)))
+        .withImage(
+            useCustomImage ? null : resolved.getImageReference(),
+            useCustomImage ? template.getConfigurationValue(AzureComputeInstanceTemplateConfigurationProperty.IMAGE,
+                templateLocalizationContext) : null,
+            resolved.getPlan())
+        .withUserAssignedIdentity(
+            resolved.getUserAssignedIdentity() == null ? null : resolved.getUserAssignedIdentity().id())
+        .withDisks(
+            Configurations.convertStorageAccountTypeString(template.getConfigurationValue(
+                AzureComputeInstanceTemplateConfigurationProperty.STORAGE_TYPE, templateLocalizationContext)),
+            Integer.parseInt(template.getConfigurationValue(
+                AzureComputeInstanceTemplateConfigurationProperty.DATA_DISK_COUNT, templateLocalizationContext)),
+            Integer.parseInt(template.getConfigurationValue(
+                AzureComputeInstanceTemplateConfigurationProperty.DATA_DISK_SIZE, templateLocalizationContext)))
+        .withNetwork(
+            String.format("/subscriptions/%s/resourceGroups/%s/providers/Microsoft.Network/virtualNetworks/%s" +
+                "/subnets/%s", subscriptionId, vnrgName, vnName, subnetName),
+            String.format("/subscriptions/%s/resourceGroups/%s/providers/Microsoft.Network/networkSecurityGroups/%s",
+                subscriptionId, nsgrgName, nsgName),
+            template.getConfigurationValue(AzureComputeInstanceTemplateConfigurationProperty.PUBLIC_IP,
+                templateLocalizationContext).equalsIgnoreCase("yes"),
+            template.getConfigurationValue(AzureComputeInstanceTemplateConfigurationProperty.WITH_ACCELERATED_NETWORKING,
+                templateLocalizationContext).equalsIgnoreCase("yes"))
+        .withAvailabilitySet(availabilitySetName == null || availabilitySetName.trim().isEmpty() ? null :
+            String.format("/subscriptions/%s/resourceGroups/%s/providers/Microsoft.Compute/availabilitySets/%s",
+                subscriptionId, computeRgName, availabilitySetName));
+  }
+
+  /**
+   * Gets the shared pool of free private IP addresses of the template's subnet if the template asks
+   * for static addresses.
+   *
+   * @return the pool, or null if the addresses are dynamic
+   */
+  private PrivateIpAddressPool privateIpAddressPool(
+      AzureComputeInstanceTemplate template,
+      LocalizationContext templateLocalizationContext) {
+
+    boolean withStaticPrivateIpAddress = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.WITH_STATIC_PRIVATE_IP_ADDRESS,
+        templateLocalizationContext).equalsIgnoreCase("yes");
+    if (!withStaticPrivateIpAddress) {
+      return null;
+    }
+
+    String vnrgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.VIRTUAL_NETWORK_RESOURCE_GROUP, templateLocalizationContext);
+    String vnName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.VIRTUAL_NETWORK, templateLocalizationContext);
+    String subnetName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.SUBNET_NAME, templateLocalizationContext);
+
+    try {
+      Network vnet = azure.networks().getByResourceGroup(vnrgName, vnName);
+      if (vnet == null) {
+        throw new IllegalArgumentException(String.format("Virtual Network '%s' not found in Resource Group '%s'.",
+            vnName, vnrgName));
+      }
+      return PrivateIpAddressPool.forSubnet(azure, vnet, subnetName);
+    } catch (RuntimeException e) {
+      String errorMessage = String.format("Unable to read the free private IP addresses of Subnet '%s' in Virtual " +
+          "Network '%s': %s", subnetName, vnName, e.getMessage());
+      LOG.error(errorMessage);
+      throw new UnrecoverableProviderException(errorMessage, e);
+    }
+  }
+
+  /**
+   * Reserves a static private IP address for each instance. If the subnet runs out of addresses,
+   * the addresses reserved so far are released.
+   *
+   * @param pool        the pool to reserve from, or null if the addresses are dynamic
+   * @param instanceIds the instance ids
+   * @return the address of each instance id, empty if the addresses are dynamic
+   */
+  private static Map<String, String> reservePrivateIpAddresses(PrivateIpAddressPool pool, List<String> instanceIds) {
+    if (pool == null) {
+      return Collections.emptyMap();
+    }
+
+    Map<String, String> privateIpAddresses = new HashMap<>();
+    try {
+      for (String instanceId : instanceIds) {
+        privateIpAddresses.put(instanceId, pool.reserve());
+      }
+    } catch (RuntimeException e) {
+      privateIpAddresses.values().forEach(pool::release);
+      String errorMessage = "Unable to reserve private IP addresses: " + e.getMessage();
+      LOG.error(errorMessage);
+      throw new UnrecoverableProviderException(errorMessage, e);
+    }
+    return privateIpAddresses;
+  }
+}
@@ -33,20 +33,17 @@ import com.cloudera.director.azure.compute.instance.AzureComputeInstance;
 import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
 import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplateConfigurationProperty;
 import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
+import com.cloudera.director.azure.utils.AzurePluginMetrics;
+import com.cloudera.director.azure.utils.VirtualMachineImageCache;
 import com.cloudera.director.spi.v2.compute.ComputeInstanceTemplate.ComputeInstanceTemplateConfigurationPropertyToken;
 import com.cloudera.director.spi.v2.model.LocalizationContext;
 import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
 import com.cloudera.director.spi.v2.model.util.SimpleResourceTemplate;
-import com.github.rholder.retry.RetryException;
-import com.github.rholder.retry.Retryer;
-import com.github.rholder.retry.RetryerBuilder;
-import com.github.rholder.retry.StopStrategies;
-import com.github.rholder.retry.WaitStrategies;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.microsoft.azure.CloudException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.microsoft.azure.management.Azure;
 import com.microsoft.azure.management.compute.AvailabilitySet;
 import com.microsoft.azure.management.compute.CachingTypes;
@@ -66,10 +63,9 @@ import com.microsoft.azure.management.msi.implementation.MSIManager;
 import com.microsoft.azure.management.network.Network;
 import com.microsoft.azure.management.network.NetworkInterface;
 import com.microsoft.azure.management.network.NetworkSecurityGroup;
-import com.microsoft.azure.management.network.NicIPConfiguration;
 import com.microsoft.azure.management.network.PublicIPAddress;
 import com.microsoft.azure.management.resources.fluentcore.arm.Region;
-import com.microsoft.azure.management.resources.fluentcore.arm.collection.SupportsDeletingByResourceGroup;
+import com.microsoft.azure.management.resources.fluentcore.arm.models.HasName;
 import com.microsoft.azure.management.resources.fluentcore.collection.SupportsDeletingById;
 import com.microsoft.azure.management.resources.fluentcore.model.CreatedResources;
 import com.microsoft.azure.management.storage.SkuName;
@@ -82,12 +78,30 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
@@ -98,7 +112,6 @@ import rx.Completable;
 import rx.Observable;
 import rx.Scheduler;
 import rx.functions.Action0;
-import rx.functions.Action1;
 import rx.schedulers.Schedulers;
 
 /**
@@ -106,9 +119,12 @@ import rx.schedulers.Schedulers;
  */
 public class VirtualMachineAllocator implements InstanceAllocator {
 
-  private static final int POLLING_INTERVAL_SECONDS = 5;
   private static final Logger LOG = LoggerFactory.getLogger(VirtualMachineAllocator.class);
 
+  static final String CLEANUP_LATENCY_METRIC = "vm-cleanup.latency";
+  static final String DELETE_LATENCY_METRIC = "vm-delete.latency";
+  static final String METADATA_LATENCY_METRIC = "vm-metadata.latency";
+
   public static final RunCommandInput GET_HOST_KEY_FINGERPRINT = new RunCommandInput()
       .withCommandId("RunShellScript")
       .withScript(Lists.newArrayList(
@@ -118,6 +134,23 @@ public class VirtualMachineAllocator implements InstanceAllocator {
   // custom scheduler for async operations.
   private final Scheduler scheduler = Schedulers.newThread();
 
+  // common Azure resources (VNET, NSG, AS) recently found by allocate, by resource id
+  private final ConcurrentMap<String, CachedResource> commonResources = new ConcurrentHashMap<>();
+
+  // runs the cleanup of failed VM creates off the SDK's callback threads; created on first use
+  private ThreadPoolExecutor cleanupExecutor = null;
+
+  // refills standby pools in the background, one pool at a time; created on first use
+  private ThreadPoolExecutor standbyRefillExecutor = null;
+
+  // Standby pools with a refill queued, by resource group, instance name prefix and template fingerprint. Shared by
+  // every allocator in the plugin, since allocators built on other clients may work on the same pools.
+  private static final Set<String> QUEUED_STANDBY_REFILLS = Sets.newConcurrentHashSet();
+
+  // Standby VMs being created, claimed or deleted by any allocator in the plugin, by resource group and VM name (see
+  // standbyVmKey); they're never handed out.
+  private static final Set<String> BUSY_STANDBY_VMS = Sets.newConcurrentHashSet();
+
   private final Azure azure;
   private final MSIManager msiManager;
   private final BiFunction<AzureComputeProviderConfigurationProperty, LocalizationContext, String> configRetriever;
@@ -133,6 +166,10 @@ public class VirtualMachineAllocator implements InstanceAllocator {
 
   /**
    * {@inheritDoc}
+   *
+   * If the template has a standby pool, standby VMs are claimed and started for as many instances
+   * as possible, new VMs are created for the rest, and the pool is refilled in the background. If
+   * the allocate fails, the claimed standby VMs are deleted along with the created ones.
    */
   @Override
   public Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>
@@ -143,6 +180,58 @@ public class VirtualMachineAllocator implements InstanceAllocator {
       int minCount)
       throws InterruptedException {
 
+    int standbyPoolSize = Integer.parseInt(template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.STANDBY_POOL_SIZE,
+        SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext)));
+    if (standbyPoolSize <= 0) {
+      return createInstances(localizationContext, template, instanceIds, minCount);
+    }
+
+    Map<String, AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>> claimed =
+        claimStandbyVms(localizationContext, template, instanceIds);
+    Collection<String> shortfall = getNewSubset(instanceIds, claimed.keySet());
+    LOG.info("Started {} standby VMs for instances {}; creating VMs for the remaining instances {}.",
+        claimed.size(), claimed.keySet(), shortfall);
+
+    Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>> result =
+        new ArrayList<>(claimed.values());
+    try {
+      if (!shortfall.isEmpty()) {
+        result.addAll(createInstances(localizationContext, template, shortfall,
+            Math.max(0, minCount - claimed.size())));
+      }
+    } catch (RuntimeException | InterruptedException e) {
+      LOG.error("Allocate failure: deleting the standby VMs claimed for instances {}.", claimed.keySet());
+      try {
+        delete(localizationContext, template, claimed.keySet());
+      } catch (RuntimeException deleteException) {
+        e.addSuppressed(deleteException);
+      }
+      throw e;
+    } finally {
+      submitStandbyRefill(localizationContext, template, standbyPoolSize);
+    }
+    return result;
+  }
+
+  /**
+   * Creates new VMs for the given instances. Same contract as {@link #allocate}.
+   *
+   * @param localizationContext the localization context
+   * @param template            the instance template
+   * @param instanceIds         the instance ids
+   * @param minCount            the minimum number of VMs to create
+   * @return the created instances
+   * @throws InterruptedException if the operation is interrupted
+   */
+  protected Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>
+  createInstances(
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template,
+      Collection<String> instanceIds,
+      int minCount)
+      throws InterruptedException {
+
     LOG.info("Preparing to allocate the following instances {}.", instanceIds);
 
     // get config
@@ -172,6 +261,8 @@ public class VirtualMachineAllocator implements InstanceAllocator {
     final boolean withStaticPrivateIpAddress = template.getConfigurationValue(
         AzureComputeInstanceTemplateConfigurationProperty.WITH_STATIC_PRIVATE_IP_ADDRESS,
         templateLocalizationContext).equalsIgnoreCase("yes");
+    final String subnetName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.SUBNET_NAME, templateLocalizationContext);
 
     // Include time for preparing VM create into total VM create time
     final StopWatch stopwatch = new StopWatch();
@@ -193,186 +284,313 @@ public class VirtualMachineAllocator implements InstanceAllocator {
     NetworkSecurityGroup nsg;
     AvailabilitySet as = null;
 
-    // Get common Azure resources for: VNET, NSG, and AS (if applicable).
-    // Invoke name() call to trigger an Azure backend call to make sure the common resources are still present.
+    // Get common Azure resources for: VNET, NSG, and AS (if applicable), concurrently. Resources found by a recent
+    // allocate are reused; otherwise the lookup invokes name() to make sure the resources are still present.
+    String subscriptionId = azure.subscriptionId();
+    Future<Network> vnetLookup = lookupCommonResource(
+        resourceId(subscriptionId, vnrgName, "Microsoft.Network/virtualNetworks", vnName),
+        () -> azure.networks().getByResourceGroup(vnrgName, vnName));
+    Future<NetworkSecurityGroup> nsgLookup = lookupCommonResource(
+        resourceId(subscriptionId, nsgrgName, "Microsoft.Network/networkSecurityGroups", nsgName),
+        () -> azure.networkSecurityGroups().getByResourceGroup(nsgrgName, nsgName));
+    Future<AvailabilitySet> asLookup = !asSpecified ? null : lookupCommonResource(
+        resourceId(subscriptionId, computeRgName, "Microsoft.Compute/availabilitySets", availabilitySetName),
+        () -> azure.availabilitySets().getByResourceGroup(computeRgName, availabilitySetName));
+
     try {
-      vnet = azure.networks().getByResourceGroup(vnrgName, vnName);
-      vnet.name();
-    } catch (Exception e) {
+      vnet = vnetLookup.get();
+    } catch (ExecutionException e) {
       String errorMessage = String.format("Unable to locate common Azure Virtual Network '%s' in Resource Group '%s'.",
           vnName, vnrgName);
       LOG.error(errorMessage);
-      throw new UnrecoverableProviderException(errorMessage, e);
+      throw new UnrecoverableProviderException(errorMessage, e.getCause());
     }
 
     try {
-      nsg = azure.networkSecurityGroups().getByResourceGroup(nsgrgName, nsgName);
-      nsg.name();
-    } catch (Exception e) {
+      nsg = nsgLookup.get();
+    } catch (ExecutionException e) {
       String errorMessage = String.format("Unable to locate common Azure Network Security Group '%s' in Resource " +
           "Group '%s'.", nsgName, nsgrgName);
       LOG.error(errorMessage);
-      throw new UnrecoverableProviderException(errorMessage, e);
+      throw new UnrecoverableProviderException(errorMessage, e.getCause());
     }
 
     if (asSpecified) {
       try {
-        as = azure.availabilitySets().getByResourceGroup(computeRgName, availabilitySetName);
-        as.name();
-      } catch (Exception e) {
+        as = asLookup.get();
+      } catch (ExecutionException e) {
         String errorMessage = String.format("Unable to locate common Azure Availability Set '%s' in Resource Group '%s'",
-            vnName, computeRgName);
+            availabilitySetName, computeRgName);
         LOG.error(errorMessage);
-        throw new UnrecoverableProviderException(errorMessage, e);
+        throw new UnrecoverableProviderException(errorMessage, e.getCause());
       }
     }
     LOG.info("Successfully found common Azure resources.");
 
+    // Resolve the image, plan and user assigned identity once; they're the same for every VM.
+    final ResolvedTemplateResources resolved = resolveTemplateResources(azure, localizationContext, template);
 
-    Set<ServiceFuture> vmCreates = new HashSet<>();
+    // Hand out static private IPs from the subnet's free addresses, so that each NIC is created with its static IP
+    // directly instead of being updated from dynamic to static after the VM is created.
+    final PrivateIpAddressPool privateIpAddresses;
+    if (withStaticPrivateIpAddress) {
+      try {
+        privateIpAddresses = PrivateIpAddressPool.forSubnet(azure, vnet, subnetName);
+      } catch (RuntimeException e) {
+        String errorMessage = String.format("Unable to read the free private IP addresses of Subnet '%s' in Virtual " +
+            "Network '%s'.", subnetName, vnName);
+        LOG.error(errorMessage, e);
+        throw new UnrecoverableProviderException(errorMessage, e);
+      }
+    } else {
+      privateIpAddresses = null;
+    }
+
+    final Map<String, ServiceFuture> vmCreates = new ConcurrentHashMap<>();
     final List<String> successfullyCreatedInstanceIds = Collections
         .synchronizedList(new ArrayList<String>());
     final Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>
         successfullyCreatedInstances = Collections.synchronizedList(new ArrayList<>());
     final Set<Exception> encounteredException = Sets.newConcurrentHashSet();
+    final List<Future<Boolean>> cleanups = Collections.synchronizedList(new ArrayList<>());
+    final List<String> submittedPrivateIpAddresses = new ArrayList<>();
+
+    // The instance ids not yet submitted form the submission queue: each one waits for a free slot, which a create
+    // releases once its callback has run.
+    final int maxConcurrentCreates = AzurePluginConfigHelper.getVmCreateMaxConcurrency();
+    final Semaphore createSlots = new Semaphore(maxConcurrentCreates);
+
+    // A create is settled once its callback has run (or it couldn't be submitted at all). The callbacks count down a
+    // latch so that allocate stops waiting as soon as the last create settles, or as soon as so many creates have
+    // failed that minCount can no longer be reached, instead of polling the futures.
+    final Set<String> pendingInstanceIds = Sets.newConcurrentHashSet(instanceIds);
+    final int instanceCount = pendingInstanceIds.size();
+    final AtomicInteger failures = new AtomicInteger();
+    final AtomicBoolean minCountUnreachable = new AtomicBoolean();
+    final CountDownLatch createsDecided = new CountDownLatch(instanceCount == 0 ? 0 : 1);
+    final Consumer<String> settle = id -> {
+      if (pendingInstanceIds.remove(id) && pendingInstanceIds.isEmpty()) {
+        createsDecided.countDown();
+      }
+    };
+    final Consumer<String> fail = id -> {
+      int failed = failures.incrementAndGet();
+      if (failed > instanceCount - minCount && minCountUnreachable.compareAndSet(false, true)) {
+        LOG.error("{} out of {} VM creates have failed, the latest for instance {}: minCount {} can no longer be " +
+            "reached. Giving up on the remaining creates.", failed, instanceCount, id, minCount);
+        // wake up the submission loop so that it stops submitting, and allocate so that it starts cleaning up
+        createSlots.release(instanceCount);
+        createsDecided.countDown();
+      }
+    };
 
-    // Create VMs in parallel
-    LOG.info("Starting to create the following instances {}.", instanceIds);
-    for (final String instanceId : instanceIds) {
-      final StopWatch perVmStopWatch = new StopWatch();
-      perVmStopWatch.start();
+    // Create VMs in parallel, with at most maxConcurrentCreates in flight.
+    final long timeoutMillis = TimeUnit.SECONDS.toMillis(AzurePluginConfigHelper.getAzureBackendOpPollingTimeOut());
+    final long queuedAtMillis = stopwatch.getTime();
+    boolean interrupted = false;
+    LOG.info("Starting to create the following instances {}, {} at a time.", instanceIds, maxConcurrentCreates);
 
-      // Use the first 8 characters of the VM instance ID (UUID 4) to be the resource name.
-      // Per RFC4122, the first 8 chars of UUID 4 are randomly generated.
-      final String commonResourceNamePrefix = getFirstGroupOfUuid(instanceId);
+    // Default error message for failure to create VMs.
+    String errorMessage = "Failed to create enough instances.";
+    try {
+      for (final String instanceId : instanceIds) {
+        if (minCountUnreachable.get()) {
+          break;
+        }
 
-      // build a VM creatable with all necessary resources attached it (storage, nic, public ip)
-      final VirtualMachine.DefinitionStages.WithCreate vmCreatable;
-      try {
-        vmCreatable = buildVirtualMachineCreatable(azure, localizationContext, template, instanceId, as, vnet, nsg);
-      } catch (Exception e) {
-        LOG.error("Error while building VM Creatable with id {}: ", instanceId, e);
+        // wait for a free slot
+        boolean acquired;
+        try {
+          acquired = createSlots.tryAcquire(Math.max(0, timeoutMillis - stopwatch.getTime()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          // Handle interrupted create as a timeout event
+          interrupted = true;
+          LOG.error("VM create is interrupted while waiting to submit instance {}.", instanceId);
+          break;
+        }
+        if (!acquired) {
+          LOG.error("Timed out waiting to submit the create of instance {}.", instanceId);
+          break;
+        }
+        if (minCountUnreachable.get()) {
+          LOG.info("Not submitting the create of instance {}: minCount can no longer be reached.", instanceId);
+          break;
+        }
 
-        // skip the rest
-        continue;
-      }
+        final long queueWaitSeconds = (stopwatch.getTime() - queuedAtMillis) / 1000;
+        final StopWatch perVmStopWatch = new StopWatch();
+        perVmStopWatch.start();
 
-      final String vmName = vmCreatable.name();
-
-      ServiceFuture future = azure.virtualMachines()
-          .createAsync(
-              new ServiceCallback<CreatedResources<VirtualMachine>>() {
-                @Override
-                public void failure(Throwable t) {
-                  perVmStopWatch.stop();
-                  LOG.error("Failed to create VM {} after {} seconds due to:", vmName,
-                      stopwatch.getTime() / 1000, t);
-                  if (t != null && t instanceof Exception) {
-                    encounteredException.add((Exception) t);
-                  }
-                  cleanupVmAndResourcesHelper(azure, localizationContext, template, vmName, commonResourceNamePrefix,
-                      createPublicIp);
-                }
+        // Use the first 8 characters of the VM instance ID (UUID 4) to be the resource name.
+        // Per RFC4122, the first 8 chars of UUID 4 are randomly generated.
+        final String commonResourceNamePrefix = getFirstGroupOfUuid(instanceId);
+
+        // build a VM creatable with all necessary resources attached it (storage, nic, public ip)
+        final VirtualMachine.DefinitionStages.WithCreate vmCreatable;
+        String privateIpAddress = null;
+        try {
+          if (privateIpAddresses != null) {
+            privateIpAddress = privateIpAddresses.reserve();
+          }
+          vmCreatable = buildVirtualMachineCreatable(azure, localizationContext, template, instanceId, as, vnet, nsg,
+              resolved, privateIpAddress);
+          if (privateIpAddress != null) {
+            submittedPrivateIpAddresses.add(privateIpAddress);
+          }
+        } catch (Exception e) {
+          LOG.error("Error while building VM Creatable with id {}: ", instanceId, e);
+          if (privateIpAddress != null) {
+            privateIpAddresses.release(privateIpAddress);
+          }
+          encounteredException.add(e);
+          createSlots.release();
+          fail.accept(instanceId);
+          settle.accept(instanceId);
+
+          // skip the rest
+          continue;
+        }
 
-                @Override
-                public void success(CreatedResources<VirtualMachine> result) {
-                  // set the nic's primary private IP to static - this has to be done after the nic is created
-                  if (withStaticPrivateIpAddress &&
-                      !setDynamicPrivateIPStatic(result.get(vmCreatable.key()).getPrimaryNetworkInterface())) {
-                    // short circuit return
-                    return;
+        final String vmName = vmCreatable.name();
+
+        ServiceFuture future = azure.virtualMachines()
+            .createAsync(
+                new ServiceCallback<CreatedResources<VirtualMachine>>() {
+                  @Override
+                  public void failure(Throwable t) {
+                    try {
+                      perVmStopWatch.stop();
+                      LOG.error("Failed to create VM {} after {} seconds (queued for {} seconds) due to:", vmName,
+                          perVmStopWatch.getTime() / 1000, queueWaitSeconds, t);
+                      if (t != null && t instanceof Exception) {
+                        encounteredException.add((Exception) t);
+                      }
+                      // register the cleanup first: failing may release the waiting allocate, which then
+                      // awaits the registered cleanups before deleting the same resources
+                      cleanups.add(submitCleanup(vmName, () -> cleanupVmAndResourcesHelper(azure, localizationContext,
+                          template, vmName, commonResourceNamePrefix, createPublicIp)));
+                      fail.accept(instanceId);
+                    } finally {
+                      createSlots.release();
+                      settle.accept(instanceId);
+                    }
                   }
 
-                  perVmStopWatch.stop();
-                  LOG.info("Successfully created VM: {} in {} seconds.", vmName,
-                      perVmStopWatch.getTime() / 1000);
+                  @Override
+                  public void success(CreatedResources<VirtualMachine> result) {
+                    try {
+                      perVmStopWatch.stop();
+                      LOG.info("Successfully created VM: {} in {} seconds (queued for {} seconds).", vmName,
+                          perVmStopWatch.getTime() / 1000, queueWaitSeconds);
+
+                      successfullyCreatedInstanceIds.add(instanceId);
+                      successfullyCreatedInstances
+                          .add(new AzureComputeInstance<>(template, instanceId, create(result.get(vmCreatable.key()))));
+                    } finally {
+                      createSlots.release();
+                      settle.accept(instanceId);
+                    }
+                  }
+                },
+                vmCreatable);
+        vmCreates.put(instanceId, future);
+      }
 
-                  successfullyCreatedInstanceIds.add(instanceId);
-                  successfullyCreatedInstances
-                      .add(new AzureComputeInstance<>(template, instanceId, create(result.get(vmCreatable.key()))));
-                }
-              },
-              vmCreatable);
-      vmCreates.add(future);
-    }
+      // block until every create has settled, or until the timeout
+      if (!interrupted) {
+        try {
+          createsDecided.await(Math.max(0, timeoutMillis - stopwatch.getTime()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          // Handle interrupted create as a timeout event
+          interrupted = true;
+          LOG.error("VM create is interrupted.");
+        }
+      }
 
-    // blocking poll
-    boolean interrupted = false;
-    while (vmCreates.size() > 0 &&
-        (stopwatch.getTime() / 1000) <= AzurePluginConfigHelper.getAzureBackendOpPollingTimeOut()) {
-      Set<ServiceFuture> completedCreates = new HashSet<>();
-      for (ServiceFuture future : vmCreates) {
-        if (future.isDone()) {
-          completedCreates.add(future);
+      stopwatch.stop();
+
+      // timeout handling
+      Set<String> unsettledInstanceIds = new HashSet<>(pendingInstanceIds);
+      if (!unsettledInstanceIds.isEmpty()) {
+        LOG.error("Creation for the following VMs {} after {} seconds: {}.",
+            minCountUnreachable.get() ? "was abandoned" : interrupted ? "was interrupted" : "had timed out",
+            stopwatch.getTime() / 1000, unsettledInstanceIds);
+        for (String instanceId : unsettledInstanceIds) {
+          ServiceFuture future = vmCreates.get(instanceId);
+          if (future != null) {
+            // cancelling future does not trigger error handling
+            future.cancel(true);
+          }
         }
+        errorMessage = interrupted ?
+            "Failed to create enough instances: instance creation interrupted." :
+            "Failed to create enough instances: instance creation timed out.";
+      } else {
+        LOG.info("Create Virtual Machines: it took {} seconds to create {} out of {} VMs with the " +
+                "prefix {} from the group with instanceIds of: {}.",
+            stopwatch.getTime() / 1000, successfullyCreatedInstanceIds.size(), instanceIds.size(),
+            template.getInstanceNamePrefix(), instanceIds);
       }
-      vmCreates.removeAll(completedCreates);
-      LOG.debug("Polling VM creates: {} completed, {} in progress, {} seconds have passed.",
-          successfullyCreatedInstanceIds.size(), vmCreates.size(), stopwatch.getTime() / 1000);
-      try {
-        Thread.sleep(POLLING_INTERVAL_SECONDS * 1000);
-      } catch (InterruptedException e) {
-        // Handle interrupted create as a timeout event
-        interrupted = true;
-        LOG.error("VM create is interrupted.");
-        break;
+    } finally {
+      // every submitted create may have created its NIC, so its address stays taken until the pool is next read;
+      // settling them even when allocate fails lets the shared pool re-read the subnet again
+      if (privateIpAddresses != null) {
+        submittedPrivateIpAddresses.forEach(privateIpAddresses::markUsed);
       }
     }
 
-    stopwatch.stop();
-
-    // Default error message for failure to create VMs.
-    String errorMessage = "Failed to create enough instances.";
-
-    // timeout handling
-    if (vmCreates.size() > 0) {
-      LOG.error("Creation for the following VMs {} after {} seconds: {}.",
-          interrupted ? "was interrupted" : "had timed out",
-          stopwatch.getTime() / 1000, getNewSubset(instanceIds, successfullyCreatedInstanceIds));
-      for (ServiceFuture future : vmCreates) {
-        // cancelling future does not trigger error handling
-        future.cancel(true);
-      }
-      errorMessage = interrupted ?
-          "Failed to create enough instances: instance creation interrupted." :
-          "Failed to create enough instances: instance creation timed out.";
-    } else {
-      LOG.info("Create Virtual Machines: it took {} seconds to create {} out of {} VMs with the " +
-              "prefix {} from the group with instanceIds of: {}.",
-          stopwatch.getTime() / 1000, successfullyCreatedInstanceIds.size(), instanceIds.size(),
-          template.getInstanceNamePrefix(), instanceIds);
+    // the cleanup of failed creates has to finish before the delete() calls below, which remove the same resources
+    boolean cleanupInterrupted = false;
+    try {
+      awaitCleanups(cleanups, timeoutMillis);
+    } catch (InterruptedException e) {
+      // Handle an interrupted cleanup as an interrupted create: the delete() calls below still run, and the
+      // interrupt is restored once they're done
+      cleanupInterrupted = true;
+      errorMessage = "Failed to create enough instances: instance creation interrupted.";
     }
 
-    if (successfullyCreatedInstanceIds.size() < minCount) {
-      LOG.error("Allocate failure: failed to create enough instances. {} instances out of {}. minCount is {}. " +
-              "Successfully created instance ids: {}. Cleaning up the following instance ids: {}.",
-          successfullyCreatedInstanceIds.size(), instanceIds.size(), minCount, successfullyCreatedInstanceIds,
-          instanceIds);
-
-      // Delete all the VMs that are still in flight (timed out).
-      delete(localizationContext, template, instanceIds);
-      LOG.info("Allocate failure: cleanup via delete() has succeeded.");
+    if (minCountUnreachable.get()) {
+      errorMessage = String.format("Failed to create enough instances: %d out of %d instance creates failed, so the " +
+          "minimum count of %d instances could not be reached.", failures.get(), instanceCount, minCount);
+    }
 
-      // failure
-      throw AzureExceptions.propagateUnrecoverable(errorMessage, encounteredException);
-    } else {
-      Collection<String> instanceIdsToDelete = getNewSubset(instanceIds, successfullyCreatedInstanceIds);
-      if (instanceIdsToDelete.isEmpty()) {
-        LOG.info("Allocate success: allocate successfully provisioned all {} instances. Successfully created " +
-                "instance ids: {}.",
-            successfullyCreatedInstanceIds.size(), successfullyCreatedInstanceIds);
-      } else {
-        LOG.info("Allocate success: successfully provisioned {} instances out of {} (min count is {}). Successfully " +
-                "created instance ids: {}. Cleaning up the following failed instance ids: {}.",
+    try {
+      if (successfullyCreatedInstanceIds.size() < minCount) {
+        LOG.error("Allocate failure: failed to create enough instances. {} instances out of {}. minCount is {}. " +
+                "Successfully created instance ids: {}. Cleaning up the following instance ids: {}.",
             successfullyCreatedInstanceIds.size(), instanceIds.size(), minCount, successfullyCreatedInstanceIds,
-            instanceIdsToDelete);
+            instanceIds);
 
         // Delete all the VMs that are still in flight (timed out).
-        delete(localizationContext, template, instanceIdsToDelete);
-        LOG.info("Allocate success: cleanup via delete() has succeeded.");
+        delete(localizationContext, template, instanceIds);
+        LOG.info("Allocate failure: cleanup via delete() has succeeded.");
+
+        // failure
+        throw AzureExceptions.propagateUnrecoverable(errorMessage, encounteredException);
+      } else {
+        Collection<String> instanceIdsToDelete = getNewSubset(instanceIds, successfullyCreatedInstanceIds);
+        if (instanceIdsToDelete.isEmpty()) {
+          LOG.info("Allocate success: allocate successfully provisioned all {} instances. Successfully created " +
+                  "instance ids: {}.",
+              successfullyCreatedInstanceIds.size(), successfullyCreatedInstanceIds);
+        } else {
+          LOG.info("Allocate success: successfully provisioned {} instances out of {} (min count is {}). " +
+                  "Successfully created instance ids: {}. Cleaning up the following failed instance ids: {}.",
+              successfullyCreatedInstanceIds.size(), instanceIds.size(), minCount, successfullyCreatedInstanceIds,
+              instanceIdsToDelete);
+
+          // Delete all the VMs that are still in flight (timed out).
+          delete(localizationContext, template, instanceIdsToDelete);
+          LOG.info("Allocate success: cleanup via delete() has succeeded.");
+        }
+        // success
+        return successfullyCreatedInstances;
+      }
+    } finally {
+      if (cleanupInterrupted) {
+        Thread.currentThread().interrupt();
       }
-      // success
-      return successfullyCreatedInstances;
     }
   }
 
@@ -390,12 +608,21 @@ public class VirtualMachineAllocator implements InstanceAllocator {
       AzureComputeInstanceTemplate template,
       Collection<String> instanceIds)
       throws InterruptedException {
+    OperationResources resources = newOperationResources(localizationContext, template);
+    Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>> result =
+        find(resources, localizationContext, template, instanceIds);
+    resources.logStats("find");
+    return result;
+  }
+
+  private Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>> find(
+      OperationResources resources,
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template,
+      Collection<String> instanceIds) {
     Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>> result =
         new ArrayList<>();
-    String rgName = template.getConfigurationValue(
-        AzureComputeInstanceTemplateConfigurationProperty.COMPUTE_RESOURCE_GROUP,
-        SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext));
-    String prefix = template.getInstanceNamePrefix();
+    String rgName = resources.getResourceGroupName();
 
     LOG.info("Finding in Resource Group {} with the instance prefix of {} the following VMs: {}.",
         rgName, template.getInstanceNamePrefix(), instanceIds);
@@ -403,31 +630,35 @@ public class VirtualMachineAllocator implements InstanceAllocator {
     // all resource ids that were found (used for logging)
     List<AzureVirtualMachineMetadata> metadatas = new ArrayList<>();
 
-    for (String instanceId : instanceIds) {
-      AzureVirtualMachineMetadata metadata = new AzureVirtualMachineMetadata(azure, instanceId, template,
-          localizationContext);
+    StopWatch stopwatch = new StopWatch();
+    stopwatch.start();
+    List<AzureVirtualMachineMetadata> listed =
+        AzureVirtualMachineMetadata.listByResourceGroup(resources, instanceIds, template, localizationContext);
+    stopwatch.stop();
+    AzurePluginMetrics.getInstance().recordLatency(METADATA_LATENCY_METRIC, stopwatch.getTime());
 
+    for (AzureVirtualMachineMetadata metadata : listed) {
+      LOG.debug(metadata.toString());
       if (metadata.resourcesExist()) {
-        LOG.debug(metadata.toString());
         metadatas.add(metadata);
-
-        // grab the vm object (which may or may not be null) to append to use in the result list
-        VirtualMachine vm = azure.virtualMachines().getByResourceGroup(rgName, getVmName(instanceId, prefix));
-        result.add(new AzureComputeInstance<>(template, instanceId, create(vm)));
-      } else {
-        LOG.debug(metadata.toString());
-        // no-op
+        // the vm object may be null if only its resources are left
+        result.add(new AzureComputeInstance<>(template, metadata.getInstanceId(),
+            create(metadata.getVirtualMachine())));
       }
     }
 
-    LOG.info("All Virtual Machines in Resource Group {} to find are gathered. {}",
-        rgName, AzureVirtualMachineMetadata.metadataListToString(metadatas));
+    LOG.info("All Virtual Machines in Resource Group {} to find are gathered in {} ms. {}",
+        rgName, stopwatch.getTime(), AzureVirtualMachineMetadata.metadataListToString(metadatas));
 
     return result;
   }
 
   /**
    * {@inheritDoc}
+   *
+   * Lists the compute resource group's VMs once, and fetches the instance views of the listed VMs
+   * of the instances, at most azure-instance-view-max-concurrency at a time. Only the instances
+   * whose VM isn't listed are looked up one at a time.
    */
   @Override
   public Map<String, List<InstanceViewStatus>> getInstanceState(
@@ -444,16 +675,41 @@ public class VirtualMachineAllocator implements InstanceAllocator {
     LOG.info("Getting instance state in Resource Group {} with the instance prefix of {} the " +
         "following VMs: {}", rgName, template.getInstanceNamePrefix(), instanceIds);
 
+    OperationResources resources = newOperationResources(localizationContext, template);
+
+    // resolve the instances against a single listing of the resource group's VMs
+    Map<String, VirtualMachine> listedVms = null;
+    try {
+      listedVms = listVmsByInstanceId(resources, prefix, instanceIds);
+      result.putAll(getInstanceViewStatuses(rgName, listedVms));
+      LOG.info("Found {} out of {} VMs by listing Resource Group {}.", listedVms.size(), instanceIds.size(), rgName);
+    } catch (Exception e) {
+      LOG.warn("Unable to list the Virtual Machines in Resource Group {}; getting the state of each VM separately. " +
+          "Error: {}", rgName, e.getMessage());
+    }
+
+    // standby VMs claimed for the instances; unless the listing already covered them, they're looked up once the
+    // first VM isn't found under its regular name
+    Map<String, VirtualMachine> claimedStandbyVms =
+        listedVms == null ? null : Collections.<String, VirtualMachine>emptyMap();
+
     for (String instanceId : instanceIds) {
+      if (result.containsKey(instanceId)) {
+        continue;
+      }
       try {
-        VirtualMachine virtualMachine = azure
-            .virtualMachines()
-            .getByResourceGroup(rgName, getVmName(instanceId, prefix));
+        VirtualMachine virtualMachine = resources.getVm(getVmName(instanceId, prefix));
+        if (virtualMachine == null) {
+          if (claimedStandbyVms == null) {
+            claimedStandbyVms = StandbyPool.findClaimedVms(azure, rgName, prefix, instanceIds);
+          }
+          virtualMachine = claimedStandbyVms.get(instanceId);
+        }
 
         // If the VM does not exist, but its associated resources exist, then assume that the VM is in a FAILED state.
         if (virtualMachine == null) {
-          AzureVirtualMachineMetadata metadata = new AzureVirtualMachineMetadata(azure, instanceId, template,
-              localizationContext);
+          AzureVirtualMachineMetadata metadata = new AzureVirtualMachineMetadata(resources, instanceId, instanceId,
+              prefix, template, localizationContext);
 
           if (metadata.resourcesExist()) {
             // there are some resources which have failed to be deleted, mark the whole VM as failed
@@ -482,9 +738,81 @@ public class VirtualMachineAllocator implements InstanceAllocator {
       }
     }
 
+    resources.logStats("getInstanceState");
     return result;
   }
 
+  /**
+   * Lists the compute resource group's VMs once, and picks the VMs of the given instances: the VMs
+   * named after them, and the standby VMs claimed for them.
+   *
+   * @param resources   the resources fetched by the current operation
+   * @param prefix      the instance name prefix
+   * @param instanceIds the instance ids
+   * @return the listed VM of each instance id that has one
+   */
+  private Map<String, VirtualMachine> listVmsByInstanceId(OperationResources resources, String prefix,
+      Collection<String> instanceIds) {
+    Set<String> requestedInstanceIds = new HashSet<>(instanceIds);
+    String standbyNamePrefix = StandbyPool.getVmNamePrefix(prefix) + "-";
+    Map<String, VirtualMachine> vms = new HashMap<>();
+    Map<String, VirtualMachine> claimedStandbyVms = new HashMap<>();
+    for (VirtualMachine vm : resources.listVms()) {
+      if (vm.name().startsWith(standbyNamePrefix)) {
+        String instanceId = StandbyPool.getClaimingInstanceId(vm);
+        if (instanceId != null && requestedInstanceIds.contains(instanceId)) {
+          claimedStandbyVms.put(instanceId, vm);
+        }
+      } else if (vm.name().startsWith(prefix + "-")) {
+        String instanceId = getVmId(vm.name(), prefix);
+        if (requestedInstanceIds.contains(instanceId)) {
+          vms.put(instanceId, vm);
+        }
+      }
+    }
+    // a VM named after the instance takes precedence
+    claimedStandbyVms.forEach(vms::putIfAbsent);
+    return vms;
+  }
+
+  /**
+   * Fetches the instance view statuses of the given VMs, at most azure-instance-view-max-concurrency
+   * at a time. A VM whose instance view can't be fetched is marked as UNKNOWN (no status).
+   *
+   * @param rgName the compute resource group
+   * @param vms    the VMs, by instance id
+   * @return the statuses, by instance id
+   */
+  private Map<String, List<InstanceViewStatus>> getInstanceViewStatuses(String rgName,
+      Map<String, VirtualMachine> vms) {
+    Map<String, List<InstanceViewStatus>> statuses = new ConcurrentHashMap<>();
+    if (vms.isEmpty()) {
+      return statuses;
+    }
+
+    Observable.from(vms.entrySet())
+        .flatMap(entry -> azure.virtualMachines().inner().instanceViewAsync(rgName, entry.getValue().name())
+                .doOnNext(instanceView -> {
+                  List<InstanceViewStatus> status = instanceView.statuses() == null ?
+                      Collections.emptyList() :
+                      instanceView.statuses();
+                  LOG.debug("Virtual Machine {} in Resource Group {} found. Marking state as: {} ",
+                      entry.getKey(), rgName, status.stream().map(InstanceViewStatus::code).toArray());
+                  statuses.put(entry.getKey(), status);
+                })
+                .onErrorResumeNext(t -> {
+                  LOG.error("Virtual Machine {} in Resource Group {} not found due to error. Marking the VM state " +
+                      "as UNKNOWN. Error: {}", entry.getKey(), rgName, t.getMessage());
+                  statuses.put(entry.getKey(), Collections.emptyList());
+                  return Observable.empty();
+                }),
+            AzurePluginConfigHelper.getInstanceViewMaxConcurrency())
+        .toList()
+        .toBlocking()
+        .single();
+    return statuses;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -516,10 +844,17 @@ public class VirtualMachineAllocator implements InstanceAllocator {
 
     // collect the resource ids for deletion
     List<AzureVirtualMachineMetadata> metadatas = new ArrayList<>();
+    StopWatch gatherStopwatch = new StopWatch();
+    gatherStopwatch.start();
     try {
-      for (String instanceId : instanceIds) {
-        metadatas.add(new AzureVirtualMachineMetadata(azure, instanceId, template, localizationContext));
+      OperationResources resources = newOperationResources(localizationContext, template);
+      for (AzureVirtualMachineMetadata metadata :
+          AzureVirtualMachineMetadata.listByResourceGroup(resources, instanceIds, template, localizationContext)) {
+        if (metadata.resourcesExist()) {
+          metadatas.add(metadata);
+        }
       }
+      resources.logStats("delete");
     } catch (Exception e) {
       // throw an Unrecoverable if there's any problems getting resource ids
       LOG.error("Error occurred while collecting resource ids for deletion. No resources deleted and an " +
@@ -527,90 +862,605 @@ public class VirtualMachineAllocator implements InstanceAllocator {
       String errorMessage = "Error occurred while collecting resource ids for deletion.";
       throw new UnrecoverableProviderException(errorMessage, e);
     }
-    LOG.info("All Resource Ids in Resource Group {} to delete are gathered. {}",
-        rgName, AzureVirtualMachineMetadata.metadataListToString(metadatas)
+    gatherStopwatch.stop();
+    AzurePluginMetrics.getInstance().recordLatency(METADATA_LATENCY_METRIC, gatherStopwatch.getTime());
+    LOG.info("All Resource Ids in Resource Group {} to delete are gathered in {} ms. {}",
+        rgName, gatherStopwatch.getTime(), AzureVirtualMachineMetadata.metadataListToString(metadatas)
     );
 
     StopWatch stopwatch = new StopWatch();
     stopwatch.start();
 
-    // Log a detailed error message if any of the deletes failed
-    StringBuilder deleteFailedBuilder = new StringBuilder(
-        String.format("Delete Failure - not all resources in Resource Group %s were deleted:", rgName));
+    // Tear each instance down on its own, so that one slow VM delete doesn't hold up the disks, NICs
+    // and Public IPs of the other instances. At most azure-vm-delete-max-concurrency instances are
+    // torn down, and as many resource deletes are in flight, at a time.
+    int maxConcurrency = AzurePluginConfigHelper.getVmDeleteMaxConcurrency();
+    Semaphore deleteSlots = new Semaphore(maxConcurrency);
+    DeleteFailures failures = new DeleteFailures();
+    List<Completable> instanceDeletes = new ArrayList<>();
+    for (AzureVirtualMachineMetadata metadata : metadatas) {
+      instanceDeletes.add(deleteInstanceResources(metadata, useManagedDisks, hasPublicIp, deleteSlots, failures));
+    }
+    try {
+      Completable.merge(Observable.from(instanceDeletes), maxConcurrency)
+          .await();
+    } catch (RuntimeException e) {
+      if (e.getCause() instanceof InterruptedException) {
+        throw (InterruptedException) e.getCause();
+      }
+      throw e;
+    }
+
+    stopwatch.stop();
+
+    // Throw an UnrecoverableProviderException if any of the deletes failed
+    if (!failures.isEmpty()) {
+      LOG.error(failures.toString(rgName));
+      String errorMessage = "Failed to delete cluster resources due to an Azure provider error. " +
+          "These resources may still be running. Try deleting the cluster again, or contact support if this error persists.";
+      throw new UnrecoverableProviderException(errorMessage);
+    }
 
-    // Delete VMs
-    boolean successfulVmDeletes = asyncDeleteByIdHelper(azure.virtualMachines(),
-        "Virtual Machines", AzureVirtualMachineMetadata.getVmIds(metadatas), deleteFailedBuilder);
+    LOG.info("Successfully deleted all {} of {} VMs + dependent resources in Resource Group {} in {} seconds. " +
+            "Instance prefix: {}. VMs Ids: {}.", instanceIds.size(), instanceIds.size(), rgName, stopwatch.getTime() / 1000,
+        template.getInstanceNamePrefix(), instanceIds);
+  }
 
-    // Delete Storage
-    boolean successfulStorageDeletes;
-    if (useManagedDisks) {
-      // Delete Managed Disks
-      successfulStorageDeletes = asyncDeleteByIdHelper(azure.disks(), "Managed Disks",
-          AzureVirtualMachineMetadata.getMdIds(metadatas), deleteFailedBuilder);
-    } else {
-      // Delete Storage Accounts
-      successfulStorageDeletes = asyncDeleteByIdHelper(azure.storageAccounts(), "Storage Accounts",
-          AzureVirtualMachineMetadata.getSaIds(metadatas), deleteFailedBuilder);
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Map<String, Set<String>> getHostKeyFingerprints(
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template,
+      Collection<String> instanceIds) throws InterruptedException {
+    Map<String, Set<String>> instanceIdsToHostKeyFingerprints = Maps.newHashMap();
+    Map<String, Observable<RunCommandResult>> hostKeyObservables = Maps.newHashMap();
+
+    OperationResources resources = newOperationResources(localizationContext, template);
+    for (AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine> azureComputeInstance :
+        find(resources, localizationContext, template, instanceIds)) {
+      com.cloudera.director.azure.compute.instance.VirtualMachine vm = azureComputeInstance.unwrap();
+      // the instance id, rather than the VM name, since a standby VM keeps its pool name once claimed
+      hostKeyObservables.put(azureComputeInstance.getId(), vm.runCommandAsync(GET_HOST_KEY_FINGERPRINT));
+    }
+
+    for (Map.Entry<String, Observable<RunCommandResult>> keyAndResult : hostKeyObservables.entrySet()) {
+      RunCommandResult runCommandResult = keyAndResult.getValue().toBlocking().first();
+      Set<String> fingerprints =
+          AzureVirtualMachineMetadata.getHostKeysFromCommandOutput(runCommandResult.value().get(0).message());
+      instanceIdsToHostKeyFingerprints.put(keyAndResult.getKey(), fingerprints);
+    }
+
+    resources.logStats("getHostKeyFingerprints");
+    return instanceIdsToHostKeyFingerprints;
+  }
+
+  /**
+   * Starts tracking the Azure resources fetched from the template's compute resource group by one
+   * SPI call, so that the call fetches each of them once.
+   *
+   * @param localizationContext the localization context
+   * @param template            the instance template
+   * @return the resources of the call
+   */
+  private OperationResources newOperationResources(LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template) {
+    return new OperationResources(azure, template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.COMPUTE_RESOURCE_GROUP,
+        SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext)));
+  }
+
+  /**
+   * Looks up a common Azure resource (VNET, NSG or AS) asynchronously, unless it was found within
+   * the last azure-common-resource-cache-ttl-seconds.
+   *
+   * @param resourceId the Azure resource id, used as the cache key
+   * @param lookup     the Azure backend call; returns null if the resource does not exist
+   * @return the pending or cached resource; fails if the resource does not exist
+   */
+  private <T extends HasName> Future<T> lookupCommonResource(String resourceId, Callable<T> lookup) {
+    long ttlNanos = TimeUnit.SECONDS.toNanos(AzurePluginConfigHelper.getCommonResourceCacheTtl());
+    CachedResource cached = commonResources.get(resourceId);
+    if (cached != null && System.nanoTime() - cached.foundAtNanos < ttlNanos) {
+      LOG.debug("Using {} found {} ms ago.", resourceId,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cached.foundAtNanos));
+      @SuppressWarnings("unchecked")
+      T resource = (T) cached.resource;
+      return CompletableFuture.completedFuture(resource);
+    }
+
+    return Observable
+        .fromCallable(() -> {
+          T resource = lookup.call();
+          // invoke name() to make sure the resource is present
+          requireNonNull(resource, resourceId + " not found").name();
+          if (ttlNanos > 0) {
+            commonResources.put(resourceId, new CachedResource(resource, System.nanoTime()));
+          }
+          return resource;
+        })
+        .subscribeOn(scheduler)
+        .toBlocking()
+        .toFuture();
+  }
+
+  /**
+   * Queues the cleanup of a VM whose create failed, and of its resources, on the cleanup executor. The
+   * cleanup runs on the calling thread if the allocator has been shut down.
+   *
+   * @param vmName  the VM name
+   * @param cleanup deletes the VM and its resources; returns whether they were all deleted
+   * @return the future result of the cleanup
+   */
+  private Future<Boolean> submitCleanup(String vmName, Callable<Boolean> cleanup) {
+    Callable<Boolean> timedCleanup = () -> {
+      StopWatch cleanupStopWatch = new StopWatch();
+      cleanupStopWatch.start();
+      boolean cleanedUp = false;
+      try {
+        cleanedUp = cleanup.call();
+        return cleanedUp;
+      } finally {
+        cleanupStopWatch.stop();
+        AzurePluginMetrics.getInstance().recordLatency(CLEANUP_LATENCY_METRIC, cleanupStopWatch.getTime());
+        if (cleanedUp) {
+          LOG.info("Finished the cleanup of failed VM {} in {} seconds.", vmName, cleanupStopWatch.getTime() / 1000);
+        } else {
+          LOG.error("The cleanup of failed VM {} did not delete all its resources in {} seconds; check the Resource " +
+              "Group for orphaned resources.", vmName, cleanupStopWatch.getTime() / 1000);
+        }
+      }
+    };
+
+    ThreadPoolExecutor executor = getCleanupExecutor();
+    try {
+      Future<Boolean> future = executor.submit(timedCleanup);
+      LOG.info("Queued the cleanup of failed VM {} ({} cleanups queued, {} running).", vmName,
+          executor.getQueue().size(), executor.getActiveCount());
+      return future;
+    } catch (RejectedExecutionException e) {
+      LOG.warn("The cleanup executor has been shut down; cleaning up failed VM {} in place.", vmName);
+      FutureTask<Boolean> task = new FutureTask<>(timedCleanup);
+      task.run();
+      return task;
+    }
+  }
+
+  private synchronized ThreadPoolExecutor getCleanupExecutor() {
+    if (cleanupExecutor == null) {
+      int threads = AzurePluginConfigHelper.getVmCleanupMaxConcurrency();
+      cleanupExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+          new ThreadFactoryBuilder().setNameFormat("azure-vm-cleanup-%d").setDaemon(true).build());
+      cleanupExecutor.allowCoreThreadTimeOut(true);
+    }
+    return cleanupExecutor;
+  }
+
+  /**
+   * Waits for the given cleanups of failed VM creates to finish, logging their progress.
+   *
+   * @param cleanups      the cleanups
+   * @param timeoutMillis how long to wait for all of them
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private static void awaitCleanups(List<Future<Boolean>> cleanups, long timeoutMillis)
+      throws InterruptedException {
+    List<Future<Boolean>> outstanding;
+    synchronized (cleanups) {
+      outstanding = new ArrayList<>(cleanups);
+    }
+    if (outstanding.isEmpty()) {
+      return;
+    }
+
+    LOG.info("Waiting for the cleanup of {} failed VMs to finish.", outstanding.size());
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    int finished = 0;
+    int incomplete = 0;
+    for (Future<Boolean> cleanup : outstanding) {
+      try {
+        if (!cleanup.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+          incomplete++;
+        }
+      } catch (ExecutionException e) {
+        LOG.error("Cleanup of a failed VM threw an exception:", e.getCause());
+        incomplete++;
+      } catch (TimeoutException e) {
+        LOG.error("Timed out waiting for the cleanup of failed VMs: {} out of {} finished.", finished,
+            outstanding.size());
+        return;
+      } catch (InterruptedException e) {
+        LOG.error("Interrupted waiting for the cleanup of failed VMs: {} out of {} finished.", finished,
+            outstanding.size());
+        throw e;
+      }
+      finished++;
+    }
+    LOG.info("Cleanup of {} failed VMs finished; {} of them were not fully cleaned up.", finished, incomplete);
+  }
+
+  /**
+   * Claims standby VMs of the template for as many of the given instances as possible, and starts
+   * them. A standby VM that fails to start, or that hasn't started by the Azure backend operation
+   * timeout, is deleted in the background, and its instance is left to be created.
+   *
+   * @param localizationContext the localization context
+   * @param template            the instance template
+   * @param instanceIds         the instance ids
+   * @return the started instances, by instance id
+   */
+  private Map<String, AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>
+  claimStandbyVms(
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template,
+      Collection<String> instanceIds) {
+
+    LocalizationContext templateLocalizationContext =
+        SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext);
+    final String rgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.COMPUTE_RESOURCE_GROUP, templateLocalizationContext);
+    final boolean hasPublicIp = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.PUBLIC_IP,
+        templateLocalizationContext).equalsIgnoreCase("yes");
+    final String prefix = template.getInstanceNamePrefix();
+    final String fingerprint = StandbyPool.fingerprint(template, templateLocalizationContext);
+
+    // pair the instances with standby VMs
+    Map<String, VirtualMachine> claims = new HashMap<>();
+    try {
+      Iterator<String> unpairedInstanceIds = instanceIds.iterator();
+      for (VirtualMachine vm : StandbyPool.listVms(azure, rgName, prefix)) {
+        if (!unpairedInstanceIds.hasNext()) {
+          break;
+        }
+        if (StandbyPool.getClaimingInstanceId(vm) == null && StandbyPool.hasFingerprint(vm, fingerprint) &&
+            BUSY_STANDBY_VMS.add(standbyVmKey(rgName, vm.name()))) {
+          claims.put(unpairedInstanceIds.next(), vm);
+        }
+      }
+    } catch (RuntimeException e) {
+      LOG.warn("Unable to list the standby VMs in Resource Group {}; creating VMs for all instances.", rgName, e);
+      claims.values().forEach(vm -> BUSY_STANDBY_VMS.remove(standbyVmKey(rgName, vm.name())));
+      return Collections.emptyMap();
+    }
+    if (claims.isEmpty()) {
+      LOG.info("No standby VM with the instance prefix of {} is available in Resource Group {}.", prefix, rgName);
+      return Collections.emptyMap();
+    }
+
+    // tag each standby VM with its instance id, then start it
+    final Map<String, AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>> started =
+        new HashMap<>();
+    final AtomicBoolean stoppedWaiting = new AtomicBoolean();
+    List<Completable> starts = new ArrayList<>();
+    for (Map.Entry<String, VirtualMachine> claim : claims.entrySet()) {
+      final String instanceId = claim.getKey();
+      final VirtualMachine standbyVm = claim.getValue();
+      final String vmName = standbyVm.name();
+      final String commonResourceNamePrefix = getFirstGroupOfUuid(StandbyPool.getPoolId(standbyVm, prefix));
+      starts.add(Completable
+          .fromAction(() -> {
+            StopWatch perVmStopWatch = new StopWatch();
+            perVmStopWatch.start();
+            // Another Director server may claim the same VM at the same time, and the last tag written wins: the
+            // claim is checked again once tagged and once started, and a VM claimed by another instance is left to it.
+            VirtualMachine vm = standbyVm.update().withTag(StandbyPool.CLAIM_TAG, instanceId).apply().refresh();
+            if (isClaimedByAnother(vm, instanceId)) {
+              return;
+            }
+            vm.start();
+            vm = vm.refresh();
+            if (isClaimedByAnother(vm, instanceId)) {
+              return;
+            }
+            perVmStopWatch.stop();
+            synchronized (started) {
+              if (!stoppedWaiting.get()) {
+                LOG.info("Started standby VM {} for instance {} in {} seconds.", vmName, instanceId,
+                    perVmStopWatch.getTime() / 1000);
+                started.put(instanceId, new AzureComputeInstance<>(template, instanceId, create(vm)));
+                BUSY_STANDBY_VMS.remove(standbyVmKey(rgName, vmName));
+                return;
+              }
+            }
+            throw new IllegalStateException("Standby VM " + vmName + " started after allocate stopped waiting.");
+          })
+          .subscribeOn(scheduler)
+          .doOnError(t -> {
+            LOG.error("Failed to start standby VM {} for instance {}; deleting it.", vmName, instanceId, t);
+            submitCleanup(vmName, () -> {
+              try {
+                return cleanupVmAndResourcesHelper(azure, localizationContext, template, vmName,
+                    commonResourceNamePrefix, hasPublicIp);
+              } finally {
+                BUSY_STANDBY_VMS.remove(standbyVmKey(rgName, vmName));
+              }
+            });
+          })
+          .onErrorComplete());
+    }
+
+    boolean allStarted;
+    try {
+      // at most azure-vm-create-max-concurrency starts (and threads) at a time, like the creates
+      allStarted = Completable.merge(Observable.from(starts), AzurePluginConfigHelper.getVmCreateMaxConcurrency())
+          .await(AzurePluginConfigHelper.getAzureBackendOpPollingTimeOut(), TimeUnit.SECONDS);
+    } catch (RuntimeException e) {
+      if (e.getCause() instanceof InterruptedException) {
+        // leave it to the creates to handle the interrupt
+        Thread.currentThread().interrupt();
+      }
+      LOG.error("Interrupted while starting standby VMs.", e);
+      allStarted = false;
+    }
+    synchronized (started) {
+      stoppedWaiting.set(true);
+      if (!allStarted) {
+        LOG.error("Stopped waiting for standby VMs to start: {} out of {} started. The others are deleted.",
+            started.size(), claims.size());
+      }
+      return new HashMap<>(started);
+    }
+  }
+
+  /**
+   * Queues a refill of the template's standby pool, unless one is already queued.
+   *
+   * @param localizationContext the localization context
+   * @param template            the instance template
+   * @param standbyPoolSize     the number of standby VMs to keep
+   */
+  private void submitStandbyRefill(LocalizationContext localizationContext, AzureComputeInstanceTemplate template,
+      int standbyPoolSize) {
+    LocalizationContext templateLocalizationContext =
+        SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext);
+    String rgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.COMPUTE_RESOURCE_GROUP, templateLocalizationContext);
+    String pool = String.format("%s/%s/%s", rgName, template.getInstanceNamePrefix(),
+        StandbyPool.fingerprint(template, templateLocalizationContext));
+
+    if (!QUEUED_STANDBY_REFILLS.add(pool.toLowerCase())) {
+      LOG.info("A refill of standby pool {} is already queued.", pool);
+      return;
+    }
+    try {
+      getStandbyRefillExecutor().submit(() -> {
+        // an allocate from now on needs another refill
+        QUEUED_STANDBY_REFILLS.remove(pool.toLowerCase());
+        try {
+          refillStandbyPool(localizationContext, template, standbyPoolSize);
+        } catch (Exception e) {
+          LOG.error("Failed to refill standby pool {}.", pool, e);
+        }
+      });
+      LOG.info("Queued a refill of standby pool {} to {} VMs.", pool, standbyPoolSize);
+    } catch (RejectedExecutionException e) {
+      QUEUED_STANDBY_REFILLS.remove(pool.toLowerCase());
+      LOG.warn("The standby refill executor has been shut down; not refilling standby pool {}.", pool);
+    }
+  }
+
+  /**
+   * @param rgName the resource group of the standby VM
+   * @param vmName the standby VM name
+   * @return the key of the standby VM in the set of busy standby VMs
+   */
+  private static String standbyVmKey(String rgName, String vmName) {
+    return (rgName + "/" + vmName).toLowerCase();
+  }
+
+  /**
+   * Checks, after claiming a standby VM, that the claim tag is still the one written for the instance,
+   * releasing the VM otherwise. The VM is left as it is: it belongs to the instance that claimed it.
+   *
+   * @param vm         the standby VM, as read after claiming it
+   * @param instanceId the instance the VM was claimed for
+   * @return whether the VM has since been claimed for another instance
+   */
+  private static boolean isClaimedByAnother(VirtualMachine vm, String instanceId) {
+    String claimingInstanceId = StandbyPool.getClaimingInstanceId(vm);
+    if (instanceId.equals(claimingInstanceId)) {
+      return false;
+    }
+    LOG.warn("Standby VM {} claimed for instance {} has since been claimed for instance {}; leaving it.", vm.name(),
+        instanceId, claimingInstanceId);
+    BUSY_STANDBY_VMS.remove(standbyVmKey(vm.resourceGroupName(), vm.name()));
+    return true;
+  }
+
+  private synchronized ThreadPoolExecutor getStandbyRefillExecutor() {
+    if (standbyRefillExecutor == null) {
+      standbyRefillExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+          new ThreadFactoryBuilder().setNameFormat("azure-standby-refill-%d").setDaemon(true).build());
+      standbyRefillExecutor.allowCoreThreadTimeOut(true);
+    }
+    return standbyRefillExecutor;
+  }
+
+  /**
+   * Brings the template's standby pool to the given size: creates the missing standby VMs and
+   * deallocates them once created, or deletes the surplus ones. Standby VMs built from another
+   * version of the template (or another template with the same instance name prefix) are left
+   * alone.
+   *
+   * @param localizationContext the localization context
+   * @param template            the instance template
+   * @param standbyPoolSize     the number of standby VMs to keep
+   * @throws Exception if the common Azure resources cannot be found
+   */
+  private void refillStandbyPool(LocalizationContext localizationContext, AzureComputeInstanceTemplate template,
+      int standbyPoolSize) throws Exception {
+
+    LocalizationContext templateLocalizationContext =
+        SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext);
+    final String computeRgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.COMPUTE_RESOURCE_GROUP, templateLocalizationContext);
+    final String availabilitySetName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.AVAILABILITY_SET, templateLocalizationContext);
+    final String vnrgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.VIRTUAL_NETWORK_RESOURCE_GROUP,
+        templateLocalizationContext);
+    final String vnName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.VIRTUAL_NETWORK, templateLocalizationContext);
+    final String nsgrgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.NETWORK_SECURITY_GROUP_RESOURCE_GROUP,
+        templateLocalizationContext);
+    final String nsgName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.NETWORK_SECURITY_GROUP, templateLocalizationContext);
+    final boolean hasPublicIp = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.PUBLIC_IP,
+        templateLocalizationContext).equalsIgnoreCase("yes");
+    final boolean withStaticPrivateIpAddress = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.WITH_STATIC_PRIVATE_IP_ADDRESS,
+        templateLocalizationContext).equalsIgnoreCase("yes");
+    final String subnetName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.SUBNET_NAME, templateLocalizationContext);
+    final String prefix = template.getInstanceNamePrefix();
+    final String vmNamePrefix = StandbyPool.getVmNamePrefix(prefix);
+    final String fingerprint = StandbyPool.fingerprint(template, templateLocalizationContext);
+
+    List<VirtualMachine> standbyVms = new ArrayList<>();
+    for (VirtualMachine vm : StandbyPool.listVms(azure, computeRgName, prefix)) {
+      if (StandbyPool.getClaimingInstanceId(vm) == null && StandbyPool.hasFingerprint(vm, fingerprint) &&
+          !BUSY_STANDBY_VMS.contains(standbyVmKey(computeRgName, vm.name()))) {
+        standbyVms.add(vm);
+      }
+    }
+
+    StopWatch stopwatch = new StopWatch();
+    stopwatch.start();
+    if (standbyVms.size() >= standbyPoolSize) {
+      for (VirtualMachine vm : standbyVms.subList(standbyPoolSize, standbyVms.size())) {
+        String key = standbyVmKey(computeRgName, vm.name());
+        if (BUSY_STANDBY_VMS.add(key)) {
+          try {
+            // the listing may be stale: another Director server may have claimed the VM since
+            String claimingInstanceId = StandbyPool.getClaimingInstanceId(vm.refresh());
+            if (claimingInstanceId != null) {
+              LOG.info("Not deleting surplus standby VM {}: it has been claimed by instance {}.", vm.name(),
+                  claimingInstanceId);
+              continue;
+            }
+            LOG.info("Deleting surplus standby VM {}.", vm.name());
+            if (!cleanupVmAndResourcesHelper(azure, localizationContext, template, vm.name(),
+                getFirstGroupOfUuid(StandbyPool.getPoolId(vm, prefix)), hasPublicIp)) {
+              LOG.warn("Surplus standby VM {} was not fully deleted; check Resource Group {} for orphaned resources.",
+                  vm.name(), computeRgName);
+            }
+          } catch (RuntimeException e) {
+            LOG.warn("Failed to delete surplus standby VM {}.", vm.name(), e);
+          } finally {
+            BUSY_STANDBY_VMS.remove(key);
+          }
+        }
+      }
+      LOG.info("Standby pool of {} VMs with the instance prefix of {} in Resource Group {} is full.",
+          standbyPoolSize, prefix, computeRgName);
+      return;
     }
 
-    // Delete NICs
-    boolean successfulNicDeletes = asyncDeleteByIdHelper(azure.networkInterfaces(),
-        "Network Interfaces", AzureVirtualMachineMetadata.getNicIds(metadatas), deleteFailedBuilder);
-
-    // Delete PublicIPs
-    boolean successfulPipDeletes = true; // default to true
-    if (hasPublicIp) {
-      successfulPipDeletes = asyncDeleteByIdHelper(azure.publicIPAddresses(), "Public IPs",
-          AzureVirtualMachineMetadata.getpipIds(metadatas), deleteFailedBuilder);
+    int missing = standbyPoolSize - standbyVms.size();
+    LOG.info("Standby pool with the instance prefix of {} in Resource Group {} has {} out of {} VMs; creating {}.",
+        prefix, computeRgName, standbyVms.size(), standbyPoolSize, missing);
+
+    String subscriptionId = azure.subscriptionId();
+    final Network vnet = lookupCommonResource(
+        resourceId(subscriptionId, vnrgName, "Microsoft.Network/virtualNetworks", vnName),
+        () -> azure.networks().getByResourceGroup(vnrgName, vnName)).get();
+    final NetworkSecurityGroup nsg = lookupCommonResource(
+        resourceId(subscriptionId, nsgrgName, "Microsoft.Network/networkSecurityGroups", nsgName),
+        () -> azure.networkSecurityGroups().getByResourceGroup(nsgrgName, nsgName)).get();
+    final AvailabilitySet as = StringUtils.isBlank(availabilitySetName) ? null : lookupCommonResource(
+        resourceId(subscriptionId, computeRgName, "Microsoft.Compute/availabilitySets", availabilitySetName),
+        () -> azure.availabilitySets().getByResourceGroup(computeRgName, availabilitySetName)).get();
+    final ResolvedTemplateResources resolved = resolveTemplateResources(azure, localizationContext, template);
+    final PrivateIpAddressPool privateIpAddresses = withStaticPrivateIpAddress ?
+        PrivateIpAddressPool.forSubnet(azure, vnet, subnetName) :
+        null;
+
+    final AtomicInteger created = new AtomicInteger();
+    List<Completable> creates = new ArrayList<>();
+    for (int i = 0; i < missing; i++) {
+      final String poolId = UUID.randomUUID().toString();
+      final String vmName = getVmName(poolId, vmNamePrefix);
+      creates.add(Completable
+          .fromAction(() -> {
+            BUSY_STANDBY_VMS.add(standbyVmKey(computeRgName, vmName));
+            String privateIpAddress = null;
+            try {
+              privateIpAddress = privateIpAddresses == null ? null : privateIpAddresses.reserve();
+              VirtualMachine vm = buildVirtualMachineCreatable(azure, localizationContext, template, poolId, as,
+                  vnet, nsg, resolved, privateIpAddress, vmNamePrefix)
+                  .withTag(StandbyPool.TEMPLATE_TAG, fingerprint)
+                  .create();
+              if (privateIpAddress != null) {
+                privateIpAddresses.markUsed(privateIpAddress);
+              }
+              vm.deallocate();
+              created.incrementAndGet();
+              LOG.info("Standby VM {} is created and deallocated.", vmName);
+            } catch (RuntimeException e) {
+              LOG.error("Failed to create standby VM {}; deleting it.", vmName, e);
+              boolean deleted = cleanupVmAndResourcesHelper(azure, localizationContext, template, vmName,
+                  getFirstGroupOfUuid(poolId), hasPublicIp);
+              if (privateIpAddress != null) {
+                // the NIC may be left behind if the cleanup failed
+                if (deleted) {
+                  privateIpAddresses.release(privateIpAddress);
+                } else {
+                  privateIpAddresses.markUsed(privateIpAddress);
+                }
+              }
+            } finally {
+              BUSY_STANDBY_VMS.remove(standbyVmKey(computeRgName, vmName));
+            }
+          })
+          .subscribeOn(scheduler));
     }
 
+    boolean finished = Completable.merge(Observable.from(creates), AzurePluginConfigHelper.getVmCreateMaxConcurrency())
+        .await(AzurePluginConfigHelper.getAzureBackendOpPollingTimeOut(), TimeUnit.SECONDS);
     stopwatch.stop();
-
-    // Throw an UnrecoverableProviderException if any of the deletes failed
-    if (!successfulVmDeletes || !successfulStorageDeletes || !successfulNicDeletes || !successfulPipDeletes) {
-      // last bit of error string formatting
-      deleteFailedBuilder.setLength(deleteFailedBuilder.length() - 1); // delete trailing ";"
-      deleteFailedBuilder.append(".");
-
-      LOG.error(deleteFailedBuilder.toString());
-      String errorMessage = "Failed to delete cluster resources due to an Azure provider error. " +
-          "These resources may still be running. Try deleting the cluster again, or contact support if this error persists.";
-      throw new UnrecoverableProviderException(errorMessage);
-    }
-
-    LOG.info("Successfully deleted all {} of {} VMs + dependent resources in Resource Group {} in {} seconds. " +
-            "Instance prefix: {}. VMs Ids: {}.", instanceIds.size(), instanceIds.size(), rgName, stopwatch.getTime() / 1000,
-        template.getInstanceNamePrefix(), instanceIds);
+    LOG.info("Refill of the standby pool with the instance prefix of {} in Resource Group {} {} after {} seconds: " +
+            "{} out of {} standby VMs created.", prefix, computeRgName, finished ? "finished" : "timed out",
+        stopwatch.getTime() / 1000, created.get(), missing);
   }
 
   /**
    * {@inheritDoc}
+   *
+   * Stops the cleanup and standby refill executors; cleanups and refills already queued still run.
    */
   @Override
-  public Map<String, Set<String>> getHostKeyFingerprints(
-      LocalizationContext localizationContext,
-      AzureComputeInstanceTemplate template,
-      Collection<String> instanceIds) throws InterruptedException {
-    Map<String, Set<String>> instanceIdsToHostKeyFingerprints = Maps.newHashMap();
-    Map<String, Observable<RunCommandResult>> hostKeyObservables = Maps.newHashMap();
+  public synchronized void shutdown() {
+    if (cleanupExecutor != null) {
+      cleanupExecutor.shutdown();
+    }
+    if (standbyRefillExecutor != null) {
+      standbyRefillExecutor.shutdown();
+    }
+  }
 
-    String prefix = template.getInstanceNamePrefix();
+  /**
+   * Builds the (lower case) Azure resource id of a resource.
+   */
+  private static String resourceId(String subscriptionId, String rgName, String type, String name) {
+    return String.format("/subscriptions/%s/resourceGroups/%s/providers/%s/%s", subscriptionId, rgName, type, name)
+        .toLowerCase();
+  }
 
-    for (AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine> azureComputeInstance :
-        find(localizationContext, template, instanceIds)) {
-      com.cloudera.director.azure.compute.instance.VirtualMachine vm = azureComputeInstance.unwrap();
-      hostKeyObservables.put(getVmId(vm.name(), prefix), vm.runCommandAsync(GET_HOST_KEY_FINGERPRINT));
-    }
+  /**
+   * A common Azure resource and when it was found.
+   */
+  private static final class CachedResource {
+    private final Object resource;
+    private final long foundAtNanos;
 
-    for (Map.Entry<String, Observable<RunCommandResult>> keyAndResult : hostKeyObservables.entrySet()) {
-      RunCommandResult runCommandResult = keyAndResult.getValue().toBlocking().first();
-      Set<String> fingerprints =
-          AzureVirtualMachineMetadata.getHostKeysFromCommandOutput(runCommandResult.value().get(0).message());
-      instanceIdsToHostKeyFingerprints.put(keyAndResult.getKey(), fingerprints);
+    CachedResource(Object resource, long foundAtNanos) {
+      this.resource = resource;
+      this.foundAtNanos = foundAtNanos;
     }
-
-    return instanceIdsToHostKeyFingerprints;
   }
 
   /**
@@ -682,6 +1532,8 @@ public class VirtualMachineAllocator implements InstanceAllocator {
    * @param vnet                     the virtual network to connect to
    * @param nsg                      the network security group to use
    * @param instanceId               used in setting the Public IP domain
+   * @param privateIpAddress         the static private IP address of the
+   *                                 NIC, or null for a dynamic one
    * @return a Network Interface Creatable to attach to a VM
    */
   @VisibleForTesting
@@ -692,7 +1544,8 @@ public class VirtualMachineAllocator implements InstanceAllocator {
       String commonResourceNamePrefix,
       Network vnet,
       NetworkSecurityGroup nsg,
-      String instanceId) {
+      String instanceId,
+      String privateIpAddress) {
 
     LocalizationContext templateLocalizationContext =
         SimpleResourceTemplate.getTemplateLocalizationContext(localizationContext);
@@ -713,15 +1566,16 @@ public class VirtualMachineAllocator implements InstanceAllocator {
         template.getTags().isEmpty() ? null : new HashMap<>(template.getTags());
 
     LOG.debug("NetworkInterface Creatable {} building.", commonResourceNamePrefix);
-    NetworkInterface.DefinitionStages.WithCreate nicCreatable = azure
+    NetworkInterface.DefinitionStages.WithPrimaryPrivateIP nicWithSubnet = azure
         .networkInterfaces()
         .define(commonResourceNamePrefix)
         .withRegion(location)
         .withExistingResourceGroup(computeRgName)
         .withExistingPrimaryNetwork(vnet)
-        .withSubnet(subnetName)
-        // AZURE_SDK there is no way to set the IP allocation method to static
-        .withPrimaryPrivateIPAddressDynamic()
+        .withSubnet(subnetName);
+    NetworkInterface.DefinitionStages.WithCreate nicCreatable = (privateIpAddress == null ?
+        nicWithSubnet.withPrimaryPrivateIPAddressDynamic() :
+        nicWithSubnet.withPrimaryPrivateIPAddressStatic(privateIpAddress))
         .withExistingNetworkSecurityGroup(nsg);
 
     if (withAcceleratedNetworking) {
@@ -840,6 +1694,144 @@ public class VirtualMachineAllocator implements InstanceAllocator {
     return mdCreatable;
   }
 
+  /**
+   * The image reference, purchase plan and user assigned identity of a template. They are the same
+   * for every VM allocated from the template, so they're resolved once per allocate.
+   */
+  @VisibleForTesting
+  static final class ResolvedTemplateResources {
+    private final ImageReference imageReference;
+    private final PurchasePlan plan;
+    private final Identity userAssignedIdentity;
+
+    ResolvedTemplateResources(ImageReference imageReference, PurchasePlan plan, Identity userAssignedIdentity) {
+      this.imageReference = imageReference;
+      this.plan = plan;
+      this.userAssignedIdentity = userAssignedIdentity;
+    }
+
+    /**
+     * @return the image reference, or null if the template uses a custom image
+     */
+    ImageReference getImageReference() {
+      return imageReference;
+    }
+
+    /**
+     * @return the purchase plan, or null if the image has none
+     */
+    PurchasePlan getPlan() {
+      return plan;
+    }
+
+    /**
+     * @return the user assigned identity, or null if the template doesn't use one
+     */
+    Identity getUserAssignedIdentity() {
+      return userAssignedIdentity;
+    }
+  }
+
+  /**
+   * Resolves the image reference, purchase plan and user assigned identity of a template. This
+   * makes the Azure backend calls that used to be made for every VM.
+   *
+   * @param azure    the entry point for accessing resource management APIs
+   *                 in Azure
+   * @param template Azure compute instance template used to get user
+   *                 provided fields
+   * @return the resolved image, plan and identity
+   * @throws UnrecoverableProviderException if the image or identity cannot be found
+   */
+  @VisibleForTesting
+  ResolvedTemplateResources resolveTemplateResources(
+      Azure azure,
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template) {
+
+    LocalizationContext templateLocalizationContext = SimpleResourceTemplate
+        .getTemplateLocalizationContext(localizationContext);
+    String location = configRetriever.apply(
+        AzureComputeProviderConfigurationProperty.REGION, templateLocalizationContext);
+    Region region = Region.findByLabelOrName(location);
+    String imageString = template.getConfigurationValue(AzureComputeInstanceTemplateConfigurationProperty.IMAGE,
+        templateLocalizationContext);
+    final boolean useCustomImage = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.USE_CUSTOM_MANAGED_IMAGE,
+        templateLocalizationContext).equalsIgnoreCase("yes");
+    String userAssignedMsiName = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.USER_ASSIGNED_MSI_NAME,
+        templateLocalizationContext);
+    String userAssignedMsiRg = template.getConfigurationValue(
+        AzureComputeInstanceTemplateConfigurationProperty.USER_ASSIGNED_MSI_RESOURCE_GROUP,
+        templateLocalizationContext);
+
+    // get the image and plan
+    ImageReference imageReference = null;
+    PurchasePlan plan;
+    if (useCustomImage) {
+      plan = Configurations.parseCustomImagePurchasePlanFromConfig(template,
+          templateLocalizationContext);
+      if (plan != null) {
+        LOG.info("Constructed purchase plan where publisher={}, product={}, name={} for custom " +
+            "image.", plan.publisher(), plan.product(), plan.name());
+      } else {
+        LOG.info("No purchase plan configured for custom image.");
+      }
+    } else {
+      try {
+        imageReference = Configurations.parseImageFromConfig(template, templateLocalizationContext);
+        String publisher = imageReference.publisher();
+        String offer = imageReference.offer();
+        String sku = imageReference.sku();
+        String version = imageReference.version();
+
+        // if it's a preview image construct the image and plan manually
+        if (Configurations.isPreviewImage(imageReference)) {
+          LOG.info("Image '{}' is a preview image with the fields publisher: {}; offer: {}; sku: {}; version: {}",
+              imageString, publisher, offer, sku, version);
+          plan = new PurchasePlan()
+              .withName(sku)
+              .withProduct(offer)
+              .withPublisher(publisher);
+        } else {
+          VirtualMachineImage vmImage = VirtualMachineImageCache.getInstance().getImage(
+              location, publisher, offer, sku, version,
+              () -> azure.virtualMachineImages().getImage(region, publisher, offer, sku, version));
+
+          imageReference = vmImage.imageReference();
+          plan = vmImage.plan();
+        }
+      } catch (Exception e) {
+        String errorMessage = String.format("Error while getting the VM Image and Plan: %s",
+            e.getMessage());
+        LOG.error(errorMessage);
+        throw new UnrecoverableProviderException(errorMessage, e);
+      }
+    }
+
+    // get the user assigned identity
+    Identity identity = null;
+    if (!StringUtils.isEmpty(userAssignedMsiName) && !StringUtils.isEmpty(userAssignedMsiRg)) {
+      try {
+        identity = msiManager.identities().getByResourceGroup(userAssignedMsiRg, userAssignedMsiName);
+      } catch (Exception e) {
+        String errorMessage = String.format("Error while getting the User Assigned MSI '%s' in Resource Group " +
+            "'%s': %s", userAssignedMsiName, userAssignedMsiRg, e.getMessage());
+        LOG.error(errorMessage);
+        throw new UnrecoverableProviderException(errorMessage, e);
+      }
+      if (identity == null) {
+        String errorMessage = String.format("Unable to locate User Assigned MSI '%s' in Resource Group '%s'.",
+            userAssignedMsiName, userAssignedMsiRg);
+        LOG.error(errorMessage);
+        throw new UnrecoverableProviderException(errorMessage);
+      }
+    }
+
+    return new ResolvedTemplateResources(imageReference, plan, identity);
+  }
+
   /**
    * Builds the Virtual Machine Creatable and all other resources to attach to
    * it (e.g. networking, storage)
@@ -852,6 +1844,9 @@ public class VirtualMachineAllocator implements InstanceAllocator {
    * @param as         the Availability Set to use
    * @param vnet       the virtual network to connect to
    * @param nsg        the network security group to use
+   * @param resolved   the image, plan and identity resolved for the template
+   * @param privateIpAddress the static private IP address of the VM, or null
+   *                   for a dynamic one
    * @return the Virtual Machine Creatable used to build VMs
    */
   @VisibleForTesting
@@ -862,14 +1857,37 @@ public class VirtualMachineAllocator implements InstanceAllocator {
       String instanceId,
       AvailabilitySet as,
       Network vnet,
-      NetworkSecurityGroup nsg) {
+      NetworkSecurityGroup nsg,
+      ResolvedTemplateResources resolved,
+      String privateIpAddress) {
+    return buildVirtualMachineCreatable(azure, localizationContext, template, instanceId, as, vnet, nsg, resolved,
+        privateIpAddress, template.getInstanceNamePrefix());
+  }
+
+  /**
+   * Builds the Virtual Machine Creatable and all other resources to attach to
+   * it, with a VM name prefix other than the template's instance name prefix
+   * (e.g. for standby VMs). The host name still uses the instance name prefix.
+   * The other parameters are the same as for the overload without a VM name
+   * prefix.
+   *
+   * @param vmNamePrefix the VM name prefix
+   * @return the Virtual Machine Creatable used to build VMs
+   */
+  private VirtualMachine.DefinitionStages.WithCreate buildVirtualMachineCreatable(
+      Azure azure,
+      LocalizationContext localizationContext,
+      AzureComputeInstanceTemplate template,
+      String instanceId,
+      AvailabilitySet as,
+      Network vnet,
+      NetworkSecurityGroup nsg,
+      ResolvedTemplateResources resolved,
+      String privateIpAddress,
+      String vmNamePrefix) {
 
     LocalizationContext templateLocalizationContext = SimpleResourceTemplate
         .getTemplateLocalizationContext(localizationContext);
-    Region region = Region.findByLabelOrName(configRetriever.apply(
-        AzureComputeProviderConfigurationProperty.REGION, templateLocalizationContext));
-    String imageString = template.getConfigurationValue(AzureComputeInstanceTemplateConfigurationProperty.IMAGE,
-        templateLocalizationContext);
     boolean useManagedDisks = template.getConfigurationValue(
         AzureComputeInstanceTemplateConfigurationProperty.MANAGED_DISKS,
         templateLocalizationContext).equalsIgnoreCase("yes");
@@ -901,12 +1919,6 @@ public class VirtualMachineAllocator implements InstanceAllocator {
     final boolean useCustomImage = template.getConfigurationValue(
         AzureComputeInstanceTemplateConfigurationProperty.USE_CUSTOM_MANAGED_IMAGE,
         templateLocalizationContext).equalsIgnoreCase("yes");
-    String userAssignedMsiName = template.getConfigurationValue(
-        AzureComputeInstanceTemplateConfigurationProperty.USER_ASSIGNED_MSI_NAME,
-        templateLocalizationContext);
-    String userAssignedMsiRg = template.getConfigurationValue(
-        AzureComputeInstanceTemplateConfigurationProperty.USER_ASSIGNED_MSI_RESOURCE_GROUP,
-        templateLocalizationContext);
     String customDataUnencoded = template.getConfigurationValue(
         AzureComputeInstanceTemplateConfigurationProperty.CUSTOM_DATA_UNENCODED,
         templateLocalizationContext);
@@ -917,51 +1929,12 @@ public class VirtualMachineAllocator implements InstanceAllocator {
 
     LOG.debug("VirtualMachine Creatable {} building.", instanceId);
 
-    // get the image and plan
-    ImageReference imageReference = null;
-    PurchasePlan plan;
-    if (useCustomImage) {
-      plan = Configurations.parseCustomImagePurchasePlanFromConfig(template,
-          templateLocalizationContext);
-      if (plan != null) {
-        LOG.info("Constructed purchase plan where publisher={}, product={}, name={} for custom " +
-            "image.", plan.publisher(), plan.product(), plan.name());
-      } else {
-        LOG.info("No purchase plan configured for custom image.");
-      }
-    } else {
-      try {
-        imageReference = Configurations.parseImageFromConfig(template, templateLocalizationContext);
-        String publisher = imageReference.publisher();
-        String offer = imageReference.offer();
-        String sku = imageReference.sku();
-        String version = imageReference.version();
-
-        // if it's a preview image construct the image and plan manually
-        if (Configurations.isPreviewImage(imageReference)) {
-          LOG.info("Image '{}' is a preview image with the fields publisher: {}; offer: {}; sku: {}; version: {}",
-              imageString, publisher, offer, sku, version);
-          plan = new PurchasePlan()
-              .withName(sku)
-              .withProduct(offer)
-              .withPublisher(publisher);
-        } else {
-          VirtualMachineImage vmImage = azure.virtualMachineImages().getImage(region, publisher, offer, sku, version);
-
-          imageReference = vmImage.imageReference();
-          plan = vmImage.plan();
-        }
-      } catch (Exception e) {
-        String errorMessage = String.format("Error while getting the VM Image and Plan: %s",
-            e.getMessage());
-        LOG.error(errorMessage);
-        throw new UnrecoverableProviderException(errorMessage, e);
-      }
-    }
+    ImageReference imageReference = resolved.getImageReference();
+    PurchasePlan plan = resolved.getPlan();
 
     // build a NIC creatable for this VM
     NetworkInterface.DefinitionStages.WithCreate nicCreatable = buildNicCreatable(azure, localizationContext, template,
-        commonResourceNamePrefix, vnet, nsg, instanceId);
+        commonResourceNamePrefix, vnet, nsg, instanceId, privateIpAddress);
 
     VirtualMachine.DefinitionStages.WithCreate finalVmCreatable;
 
@@ -974,7 +1947,7 @@ public class VirtualMachineAllocator implements InstanceAllocator {
 
       VirtualMachine.DefinitionStages.WithManagedCreate vmCreatable;
       VirtualMachine.DefinitionStages.WithOS vmCreatableBase = azure.virtualMachines()
-          .define(getVmName(instanceId, template.getInstanceNamePrefix()))
+          .define(getVmName(instanceId, vmNamePrefix))
           .withRegion(location)
           .withExistingResourceGroup(computeRgName)
           .withNewPrimaryNetworkInterface(nicCreatable);
@@ -1016,7 +1989,7 @@ public class VirtualMachineAllocator implements InstanceAllocator {
       }
     } else {
       VirtualMachine.DefinitionStages.WithUnmanagedCreate vmCreatable = azure.virtualMachines()
-          .define(getVmName(instanceId, template.getInstanceNamePrefix()))
+          .define(getVmName(instanceId, vmNamePrefix))
           .withRegion(location)
           .withExistingResourceGroup(computeRgName)
           .withNewPrimaryNetworkInterface(nicCreatable)
@@ -1052,9 +2025,8 @@ public class VirtualMachineAllocator implements InstanceAllocator {
       finalVmCreatable.withTags(tags);
     }
 
-    if (!StringUtils.isEmpty(userAssignedMsiName) && !StringUtils.isEmpty(userAssignedMsiRg)) {
-      Identity identity = msiManager.identities().getByResourceGroup(userAssignedMsiRg, userAssignedMsiName);
-      finalVmCreatable.withExistingUserAssignedManagedServiceIdentity(identity);
+    if (resolved.getUserAssignedIdentity() != null) {
+      finalVmCreatable.withExistingUserAssignedManagedServiceIdentity(resolved.getUserAssignedIdentity());
     }
 
     LOG.debug("VirtualMachine Creatable {} built successfully.", instanceId);
@@ -1116,17 +2088,37 @@ public class VirtualMachineAllocator implements InstanceAllocator {
 
     if (useManagedDisks) {
       // populate the list of disks to delete async
+      String subscriptionId = azure.subscriptionId();
       List<String> diskIds = new ArrayList<>();
-      diskIds.add(commonResourceNamePrefix + MANAGED_OS_DISK_SUFFIX);
+      diskIds.add(resourceId(subscriptionId, computeRgName, "Microsoft.Compute/disks",
+          commonResourceNamePrefix + MANAGED_OS_DISK_SUFFIX));
       for (int i = 0; i < dataDiskCount; i += 1) {
-        diskIds.add(commonResourceNamePrefix + "-" + i);
+        diskIds.add(resourceId(subscriptionId, computeRgName, "Microsoft.Compute/disks",
+            commonResourceNamePrefix + "-" + i));
       }
 
       // delete the disks async
       LOG.info("Start deleting {} Managed Disks.", diskIds);
-      int successfulMdDeletes =
-          asyncDeleteByResourceGroupHelper(azure.disks(), computeRgName, diskIds);
-      LOG.info("Completed deleting {} ManagedDisks.", successfulMdDeletes);
+      DeleteFailures diskFailures = new DeleteFailures();
+      Semaphore deleteSlots = new Semaphore(AzurePluginConfigHelper.getVmDeleteMaxConcurrency());
+      try {
+        deleteByIds(azure.disks(), "Managed Disks", diskIds, Collections.emptyMap(), deleteSlots, diskFailures)
+            .onErrorComplete()
+            .await();
+      } catch (RuntimeException e) {
+        if (e.getCause() instanceof InterruptedException) {
+          // stop here: the NIC and Public IP are left behind, and the cleanup is reported as incomplete
+          Thread.currentThread().interrupt();
+          LOG.error("Interrupted while deleting the Managed Disks of VM {}.", vmName);
+          return false;
+        }
+        LOG.error("Failed to delete the Managed Disks of VM {}.", vmName, e);
+        success = false;
+      }
+      if (!diskFailures.isEmpty()) {
+        LOG.error(diskFailures.toString(computeRgName));
+        success = false;
+      }
     } else {
       try {
         LOG.info("Deleting Storage Account {}.", commonResourceNamePrefix);
@@ -1166,208 +2158,176 @@ public class VirtualMachineAllocator implements InstanceAllocator {
   }
 
   /**
-   * Helper function for deleting VM and relevant resources using Azure SDK's
-   * async interfaces.
+   * Builds the delete of one instance's resources, in dependency order: the VM first, then its
+   * Managed Disks (or Storage Account) alongside its NIC, and the Public IP once the NIC is gone.
+   * Resources whose dependency failed to delete are not attempted, and are reported as not deleted.
+   * The returned Completable never fails: failures are added to {@code failures}.
    *
-   * @param endpoint         Azure endpoint for a particular type of resource
-   * @param resourceName     the human readable name of the endpoint
-   * @param resourceIds      list of resource IDs to be deleted
-   * @param errorAccumulator accumulates error messages   @return true if all
-   *                         deletes were successful; false otherwise
+   * @param metadata        the resources of the instance
+   * @param useManagedDisks whether the instance uses Managed Disks rather than a Storage Account
+   * @param hasPublicIp     whether the instance has a Public IP
+   * @param deleteSlots     bounds the resource deletes in flight
+   * @param failures        accumulates the resources that weren't deleted
+   * @return the delete of the instance's resources
    */
-  @VisibleForTesting
-  boolean asyncDeleteByIdHelper(
-      SupportsDeletingById endpoint,
-      String resourceName,
-      List<String> resourceIds,
-      StringBuilder errorAccumulator) {
+  private Completable deleteInstanceResources(AzureVirtualMachineMetadata metadata, boolean useManagedDisks,
+      boolean hasPublicIp, Semaphore deleteSlots, DeleteFailures failures) {
+    List<AzureVirtualMachineMetadata> instance = Collections.singletonList(metadata);
+    List<String> pipIds = hasPublicIp ?
+        AzureVirtualMachineMetadata.getpipIds(instance) :
+        Collections.emptyList();
+    List<String> nicIds = AzureVirtualMachineMetadata.getNicIds(instance);
+
+    Completable storageDelete;
+    Map<String, List<String>> afterVm = new LinkedHashMap<>();
+    if (useManagedDisks) {
+      List<String> mdIds = AzureVirtualMachineMetadata.getMdIds(instance);
+      storageDelete = deleteByIds(azure.disks(), "Managed Disks", mdIds, Collections.emptyMap(), deleteSlots,
+          failures);
+      afterVm.put("Managed Disks", mdIds);
+    } else {
+      List<String> saIds = AzureVirtualMachineMetadata.getSaIds(instance);
+      storageDelete = deleteByIds(azure.storageAccounts(), "Storage Accounts", saIds, Collections.emptyMap(),
+          deleteSlots, failures);
+      afterVm.put("Storage Accounts", saIds);
+    }
+    afterVm.put("Network Interfaces", nicIds);
+    afterVm.put("Public IPs", pipIds);
 
-    HashSet<Completable> deleteCompletables = new HashSet<>();
-    final List<String> successIds = Collections.synchronizedList(new ArrayList<String>());
-    StringBuffer specificErrorAccumulator =
-        new StringBuffer(" ").append(resourceName).append(": [");
+    Completable nicThenPipDelete = deleteByIds(azure.networkInterfaces(), "Network Interfaces", nicIds,
+        Collections.singletonMap("Public IPs", pipIds), deleteSlots, failures)
+        .andThen(deleteByIds(azure.publicIPAddresses(), "Public IPs", pipIds, Collections.emptyMap(), deleteSlots,
+            failures));
 
-    LOG.info("Start deleting these {} {}: {}.", resourceIds.size(), resourceName, resourceIds);
+    StopWatch stopwatch = new StopWatch();
+    return deleteByIds(azure.virtualMachines(), "Virtual Machines", AzureVirtualMachineMetadata.getVmIds(instance),
+        afterVm, deleteSlots, failures)
+        .andThen(Completable.mergeDelayError(storageDelete, nicThenPipDelete))
+        .doOnSubscribe(subscription -> stopwatch.start())
+        .doAfterTerminate(() -> {
+          stopwatch.stop();
+          AzurePluginMetrics.getInstance().recordLatency(DELETE_LATENCY_METRIC, stopwatch.getTime());
+          LOG.info("Finished the delete of instance {} and its resources in {} seconds.", metadata.getInstanceId(),
+              stopwatch.getTime() / 1000);
+        })
+        .onErrorComplete();
+  }
 
+  /**
+   * Deletes resources of one type concurrently. If any of them can't be deleted, the returned
+   * Completable fails once all the deletes are done, and the resources that depend on them are
+   * reported as not deleted.
+   *
+   * @param endpoint     Azure endpoint for a particular type of resource
+   * @param resourceName the human readable name of the endpoint
+   * @param resourceIds  the resource IDs to delete
+   * @param dependents   the IDs of the resources that can only be deleted after these, by human
+   *                     readable name
+   * @param deleteSlots  bounds the resource deletes in flight; each delete holds a permit until it's done
+   * @param failures     accumulates the resources that weren't deleted
+   * @return the deletes
+   */
+  private Completable deleteByIds(SupportsDeletingById endpoint, String resourceName, List<String> resourceIds,
+      Map<String, List<String>> dependents, Semaphore deleteSlots, DeleteFailures failures) {
     if (resourceIds.isEmpty()) {
-      LOG.info("No {} to delete - delete is successful.", resourceName);
-
-      // short-circuit return
-      return true;
+      return Completable.complete();
     }
 
-    for (final String id : resourceIds) {
-      // construct async operations
-      Completable c = endpoint.deleteByIdAsync(id)
-          .subscribeOn(scheduler)
-          // log ID on error for manual cleanup
-          .doOnError(new Action1<Throwable>() {
-            @Override
-            public void call(Throwable throwable) {
+    List<Completable> deletes = new ArrayList<>();
+    for (String id : resourceIds) {
+      deletes.add(deleteByIdWithin(deleteSlots, endpoint, id)
+          .doOnCompleted(() -> LOG.info("Successfully deleted: {}.", id))
+          .doOnError(throwable -> {
+            if (throwable instanceof TimeoutException) {
+              // the id string contains full info (region, resource group name etc) for the
+              // resource. this is sufficient to identify the potentially orphaned resources.
+              LOG.error("Deletion of {} has timed out, check the corresponding Azure " +
+                  "Resource Group for orphaned resources.", id);
+              failures.add(resourceName, id, String.format("Delete timed out after %d seconds.",
+                  AzurePluginConfigHelper.getAzureBackendOpPollingTimeOut()));
+            } else {
               LOG.error("Failed to delete: {}. Detailed reason: ", id, throwable);
-              specificErrorAccumulator.append(
-                  String.format(" { %s: %s },", id, throwable.getMessage()));
-            }
-          })
-          // count successful deletes
-          .doOnCompleted(new Action0() {
-            @Override
-            public void call() {
-              successIds.add(id);
-              LOG.info("Successfully deleted: {}.", id);
+              failures.add(resourceName, id, throwable.getMessage());
             }
-          })
-          // log ID on timeout for manual cleanup
-          .timeout(
-              AzurePluginConfigHelper.getAzureBackendOpPollingTimeOut(), TimeUnit.SECONDS,
-              Completable.fromAction(new Action0() {
-                @Override
-                public void call() {
-                  // the id string contains full info (region, resource group name etc) for the
-                  // resource. this is sufficient to identify the potentially orphaned resources.
-                  LOG.error("Deletion of {} has timed out, check the corresponding Azure " +
-                      "Resource Group for orphaned resources.", id);
-                  specificErrorAccumulator.append(
-                      String.format(" { %s: Delete timed out after %d seconds. },",
-                          id, AzurePluginConfigHelper.getAzureBackendOpPollingTimeOut()));
-                }
-              }));
-      deleteCompletables.add(c);
-    }
-
-    // block and wait on all async delete to complete or timeout
-    try {
-      Completable.mergeDelayError(deleteCompletables).await();
-    } catch (RuntimeException e) {
-      // FIXME handle InterruptedException
-      LOG.error("Combined error for async delete:", e);
-      // swallow exception, error already handled in the onError() callbacks
-    }
-
-    if (resourceIds.size() > successIds.size()) {
-      // cache the total number of resources
-      int totalResources = resourceIds.size();
-      // get the failed Ids
-      resourceIds.removeAll(successIds);
-      LOG.error("Deleted {} out of {} {}. Failed to delete these: {}.",
-          successIds.size(), totalResources, resourceName, resourceIds);
-      // delete trailing ","
-      specificErrorAccumulator.setLength(specificErrorAccumulator.length() - 1);
-      errorAccumulator.append(specificErrorAccumulator).append(" ];");
-
-      return false;
-    } else {
-      LOG.info("Successfully deleted all {}.", resourceName);
-
-      return true;
+          }));
     }
+    return Completable.mergeDelayError(deletes)
+        .doOnError(throwable -> dependents.forEach((dependentName, dependentIds) -> {
+          for (String dependentId : dependentIds) {
+            LOG.error("Not deleting {} because a resource it depends on wasn't deleted.", dependentId);
+            failures.add(dependentName, dependentId, "Not deleted because a resource it depends on wasn't deleted.");
+          }
+        }));
   }
 
   /**
-   * Helper function for deleting resources using Azure SDK's async
-   * interfaces.
+   * Deletes a single resource once one of the given slots is free, holding the slot until the delete
+   * is done. The wait for the slot happens on the allocator's scheduler.
    *
-   * @param endpoint Azure endpoint for a particular type of resource
-   * @param rgName   name of the Resource Group the resources are in
-   * @param names    names of the resources to delete
-   * @return number of successful deletions
+   * @param deleteSlots bounds the resource deletes in flight
+   * @param endpoint    Azure endpoint for a particular type of resource
+   * @param id          the resource ID
+   * @return the delete
    */
-  private int asyncDeleteByResourceGroupHelper(
-      SupportsDeletingByResourceGroup endpoint,
-      final String rgName,
-      List<String> names) {
-
-    HashSet<Completable> deleteCompletables = new HashSet<>();
-    final AtomicInteger successCount = new AtomicInteger(0);
-
-    LOG.info("Start deleting {} Azure resources.", names.size());
-
-    for (final String name : names) {
-      Completable c = endpoint.deleteByResourceGroupAsync(rgName, name)
-          .subscribeOn(scheduler)
-          // log name on error for manual cleanup
-          .doOnError(new Action1<Throwable>() {
-            @Override
-            public void call(Throwable throwable) {
-              LOG.error("Failed to delete: {}. Detailed reason: ", name, throwable);
-            }
-          })
-          .doOnCompleted(new Action0() {
-            @Override
-            public void call() {
-              successCount.incrementAndGet();
-              LOG.info("Successfully deleted: {}.", name);
+  private Completable deleteByIdWithin(Semaphore deleteSlots, SupportsDeletingById endpoint, String id) {
+    return Completable
+        .defer(() -> {
+          try {
+            deleteSlots.acquire();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Completable.error(e);
+          }
+          AtomicBoolean released = new AtomicBoolean();
+          Action0 release = () -> {
+            if (released.compareAndSet(false, true)) {
+              deleteSlots.release();
             }
-          })
-          // log name on timeout for manual cleanup
-          .timeout(AzurePluginConfigHelper.getAzureBackendOpPollingTimeOut(), TimeUnit.SECONDS,
-              Completable.fromAction(new Action0() {
-                @Override
-                public void call() {
-                  LOG.error("Deletion of {} has timed out, check the Resource Group {} for orphaned " +
-                      "resources.", name, rgName);
-                }
-              }));
-      deleteCompletables.add(c);
-    }
-    // block and wait on all async delete to complete or timeout
-    try {
-      Completable.mergeDelayError(deleteCompletables).await();
-    } catch (RuntimeException e) {
-      // FIXME handle InterruptedException
-      LOG.error("Combined error for async delete:", e);
-      // swallow exception, error already handled in the onError() callbacks
-    }
-
-    LOG.info("Successfully deleted {} of {} Azure resources.", successCount.get(), names.size());
-    return successCount.get();
+          };
+          return deleteByIdAsync(endpoint, id)
+              .doAfterTerminate(release)
+              .doOnUnsubscribe(release);
+        })
+        .subscribeOn(scheduler);
   }
 
   /**
-   * Sets a NIC's primary private IP from dynamic to static.
+   * Deletes a single resource, failing with a TimeoutException if the delete takes longer than
+   * azure-backend-operation-polling-timeout-second.
    *
-   * @param ni the NIC who's primary IP is being set
-   * @return whether or not the private IP was successfully set to static
+   * @param endpoint Azure endpoint for a particular type of resource
+   * @param id       the resource ID
+   * @return the delete
    */
-  private boolean setDynamicPrivateIPStatic(NetworkInterface ni) {
-    final AtomicInteger counter = new AtomicInteger(0);
-    Retryer<Void> retryer = RetryerBuilder.<Void>newBuilder()
-        .withWaitStrategy(WaitStrategies.exponentialWait(1000L, 15, TimeUnit.SECONDS))
-        .withStopStrategy(StopStrategies.stopAfterAttempt(10))
-        .retryIfExceptionOfType(CloudException.class)
-        .build();
+  @VisibleForTesting
+  Completable deleteByIdAsync(SupportsDeletingById endpoint, String id) {
+    return endpoint.deleteByIdAsync(id)
+        .subscribeOn(scheduler)
+        .timeout(AzurePluginConfigHelper.getAzureBackendOpPollingTimeOut(), TimeUnit.SECONDS);
+  }
 
-    try {
-      retryer.call(() -> {
-        LOG.debug("Network Interface {}: setting private IP to static attempt #{}.",
-            ni.id(), counter.incrementAndGet());
-        NicIPConfiguration ipConfig = ni.primaryIPConfiguration();
-        ni.update()
-            .updateIPConfiguration(ipConfig.name())
-            .withPrivateIPAddressStatic(ipConfig.privateIPAddress())
-            .parent()
-            .apply();
-        return null;
-      });
-    } catch (RetryException e) {
-      LOG.error("Network Interface {}: failed to set private IP to static after {} attempts, marking " +
-              "VM as failed.",
-          ni.id(),
-          e.getNumberOfFailedAttempts());
+  /**
+   * The resources a delete failed to delete, and why, by human readable resource type.
+   */
+  private static final class DeleteFailures {
+    private final Map<String, List<String>> failures = new LinkedHashMap<>();
 
-      // short-circuit return
-      return false;
-    } catch (Exception e) {
-      LOG.error("Network Interface {}: failed to set private IP to static, marking VM as failed.",
-          ni.id(), e);
+    synchronized void add(String resourceName, String id, String message) {
+      failures.computeIfAbsent(resourceName, name -> new ArrayList<>())
+          .add(String.format(" { %s: %s }", id, message));
+    }
 
-      // short-circuit return
-      return false;
+    synchronized boolean isEmpty() {
+      return failures.isEmpty();
     }
-    LOG.info("Network Interface {}: set private IP to static successfully after {} attempt(s).",
-        ni.id(),
-        counter.get());
 
-    return true;
+    synchronized String toString(String rgName) {
+      StringBuilder builder = new StringBuilder(
+          String.format("Delete Failure - not all resources in Resource Group %s were deleted:", rgName));
+      failures.forEach((resourceName, messages) -> builder.append(" ").append(resourceName).append(": [")
+          .append(String.join(",", messages)).append(" ];"));
+      builder.setLength(builder.length() - 1); // delete trailing ";"
+      return builder.append(".").toString();
+    }
   }
 }
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.cloudera.director.azure.compute.provider;
+
+import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMetadata.MANAGED_OS_DISK_SUFFIX;
+import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMetadata.getComputerName;
+import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMetadata.getDnsName;
+import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMetadata.getFirstGroupOfUuid;
+import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMetadata.getVmName;
+import static java.util.Objects.requireNonNull;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.azure.management.compute.ImageReference;
+import com.microsoft.azure.management.compute.PurchasePlan;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Renders the ARM deployment template that creates a batch of VMs, with the same resources, names
+ * and settings as the ones {@link VirtualMachineAllocator} creates one VM at a time: a NIC (and
+ * optionally a public IP) named after the first group of the instance id, managed data disks named
+ * {@code <prefix>-<n>}, and the VM with its managed OS disk named {@code <prefix>-OS}. Because the
+ * names are the same, VMs created from a template are found and deleted exactly like the others.
+ *
+ * Only managed disks are supported.
+ */
+final class VirtualMachineDeploymentTemplate {
+
+  static final String SCHEMA = "https://schema.management.azure.com/schemas/2015-01-01/deploymentTemplate.json#";
+
+  private static final String NETWORK_API_VERSION = "2018-08-01";
+  private static final String COMPUTE_API_VERSION = "2018-06-01";
+  private static final String PUBLIC_IP_TYPE = "Microsoft.Network/publicIPAddresses";
+  private static final String NIC_TYPE = "Microsoft.Network/networkInterfaces";
+  private static final String DISK_TYPE = "Microsoft.Compute/disks";
+  private static final String VM_TYPE = "Microsoft.Compute/virtualMachines";
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private String location;
+  private Map<String, String> tags = Collections.emptyMap();
+  private String instanceNamePrefix;
+  private String fqdnSuffix;
+  private String vmSize;
+  private String adminUsername;
+  private String sshPublicKey;
+  private String base64EncodedCustomData;
+  private ImageReference imageReference;
+  private String customImageId;
+  private PurchasePlan plan;
+  private String userAssignedIdentityId;
+  private String storageAccountType;
+  private int dataDiskCount;
+  private int dataDiskSizeGiB;
+  private String subnetId;
+  private String networkSecurityGroupId;
+  private String availabilitySetId;
+  private boolean publicIp;
+  private boolean acceleratedNetworking;
+
+  VirtualMachineDeploymentTemplate withLocation(String location) {
+    this.location = requireNonNull(location, "location is null");
+    return this;
+  }
+
+  VirtualMachineDeploymentTemplate withTags(Map<String, String> tags) {
+    this.tags = requireNonNull(tags, "tags is null");
+    return this;
+  }
+
+  VirtualMachineDeploymentTemplate withNames(String instanceNamePrefix, String fqdnSuffix) {
+    this.instanceNamePrefix = requireNonNull(instanceNamePrefix, "instanceNamePrefix is null");
+    this.fqdnSuffix = fqdnSuffix;
+    return this;
+  }
+
+  VirtualMachineDeploymentTemplate withVmSize(String vmSize) {
+    this.vmSize = requireNonNull(vmSize, "vmSize is null");
+    return this;
+  }
+
+  VirtualMachineDeploymentTemplate withLinuxProfile(String adminUsername, String sshPublicKey,
+      String base64EncodedCustomData) {
+    this.adminUsername = requireNonNull(adminUsername, "adminUsername is null");
+    this.sshPublicKey = requireNonNull(sshPublicKey, "sshPublicKey is null");
+    this.base64EncodedCustomData = base64EncodedCustomData;
+    return this;
+  }
+
+  /**
+   * @param imageReference the Marketplace image, or null if a custom image is used
+   * @param customImageId  the custom image resource id, or null if a Marketplace image is used
+   * @param plan           the purchase plan, may be null
+   */
+  VirtualMachineDeploymentTemplate withImage(ImageReference imageReference, String customImageId,
+      PurchasePlan plan) {
+    if ((imageReference == null) == (customImageId == null)) {
+      throw new IllegalArgumentException("Exactly one of imageReference and customImageId must be set");
+    }
+    this.imageReference = imageReference;
+    this.customImageId = customImageId;
+    this.plan = plan;
+    return this;
+  }
+
+  VirtualMachineDeploymentTemplate withUserAssignedIdentity(String userAssignedIdentityId) {
+    this.userAssignedIdentityId = userAssignedIdentityId;
+    return this;
+  }
+
+  VirtualMachineDeploymentTemplate withDisks(String storageAccountType, int dataDiskCount,
+      int dataDiskSizeGiB) {
+    this.storageAccountType = requireNonNull(storageAccountType, "storageAccountType is null");
+    this.dataDiskCount = dataDiskCount;
+    this.dataDiskSizeGiB = dataDiskSizeGiB;
+    return this;
+  }
+
+  VirtualMachineDeploymentTemplate withNetwork(String subnetId, String networkSecurityGroupId,
+      boolean publicIp, boolean acceleratedNetworking) {
+    this.subnetId = requireNonNull(subnetId, "subnetId is null");
+    this.networkSecurityGroupId = requireNonNull(networkSecurityGroupId, "networkSecurityGroupId is null");
+    this.publicIp = publicIp;
+    this.acceleratedNetworking = acceleratedNetworking;
+    return this;
+  }
+
+  VirtualMachineDeploymentTemplate withAvailabilitySet(String availabilitySetId) {
+    this.availabilitySetId = availabilitySetId;
+    return this;
+  }
+
+  /**
+   * Renders the template creating the VMs of the given instances.
+   *
+   * @param instanceIds       the instance ids
+   * @param privateIpAddresses the static private IP address of each instance id; instances
+   *                          without one get a dynamic address
+   * @return the deployment template
+   */
+  ObjectNode render(Collection<String> instanceIds, Map<String, String> privateIpAddresses) {
+    requireNonNull(location, "location is not set");
+    requireNonNull(vmSize, "vmSize is not set");
+    requireNonNull(adminUsername, "linux profile is not set");
+    requireNonNull(storageAccountType, "disks are not set");
+    requireNonNull(subnetId, "network is not set");
+    if (imageReference == null && customImageId == null) {
+      throw new IllegalStateException("image is not set");
+    }
+
+    ObjectNode template = MAPPER.createObjectNode();
+    template.put("$schema", SCHEMA);
+    template.put("contentVersion", "1.0.0.0");
+    ArrayNode resources = template.putArray("resources");
+    for (String instanceId : instanceIds) {
+      addInstance(resources, instanceId, privateIpAddresses.get(instanceId));
+    }
+    return template;
+  }
+
+  private void addInstance(ArrayNode resources, String instanceId, String privateIpAddress) {
+    String prefix = getFirstGroupOfUuid(instanceId);
+
+    if (publicIp) {
+      ObjectNode pip = resource(resources, PUBLIC_IP_TYPE, NETWORK_API_VERSION, prefix);
+      pip.putObject("properties")
+          .put("publicIPAllocationMethod", "Dynamic")
+          .putObject("dnsSettings")
+          .put("domainNameLabel", getDnsName(instanceId, instanceNamePrefix));
+    }
+
+    ObjectNode nic = resource(resources, NIC_TYPE, NETWORK_API_VERSION, prefix);
+    ObjectNode nicProperties = nic.putObject("properties");
+    ObjectNode ipConfigProperties = nicProperties.putArray("ipConfigurations").addObject()
+        .put("name", "primary")
+        .putObject("properties");
+    ipConfigProperties.putObject("subnet").put("id", subnetId);
+    if (privateIpAddress == null) {
+      ipConfigProperties.put("privateIPAllocationMethod", "Dynamic");
+    } else {
+      ipConfigProperties.put("privateIPAllocationMethod", "Static");
+      ipConfigProperties.put("privateIPAddress", privateIpAddress);
+    }
+    if (publicIp) {
+      nic.putArray("dependsOn").add(resourceIdExpression(PUBLIC_IP_TYPE, prefix));
+      ipConfigProperties.putObject("publicIPAddress").put("id", resourceIdExpression(PUBLIC_IP_TYPE, prefix));
+    }
+    nicProperties.putObject("networkSecurityGroup").put("id", networkSecurityGroupId);
+    nicProperties.put("enableAcceleratedNetworking", acceleratedNetworking);
+
+    for (int n = 0; n < dataDiskCount; n++) {
+      ObjectNode disk = resource(resources, DISK_TYPE, COMPUTE_API_VERSION, prefix + "-" + n);
+      disk.putObject("sku").put("name", storageAccountType);
+      ObjectNode diskProperties = disk.putObject("properties");
+      diskProperties.putObject("creationData").put("createOption", "Empty");
+      diskProperties.put("diskSizeGB", dataDiskSizeGiB);
+    }
+
+    ObjectNode vm = resource(resources, VM_TYPE, COMPUTE_API_VERSION, getVmName(instanceId, instanceNamePrefix));
+    ArrayNode dependsOn = vm.putArray("dependsOn");
+    dependsOn.add(resourceIdExpression(NIC_TYPE, prefix));
+    for (int n = 0; n < dataDiskCount; n++) {
+      dependsOn.add(resourceIdExpression(DISK_TYPE, prefix + "-" + n));
+    }
+    if (plan != null) {
+      vm.putObject("plan")
+          .put("name", plan.name())
+          .put("publisher", plan.publisher())
+          .put("product", plan.product());
+    }
+    if (userAssignedIdentityId != null) {
+      ObjectNode identity = vm.putObject("identity").put("type", "UserAssigned");
+      identity.putObject("userAssignedIdentities").putObject(userAssignedIdentityId);
+    }
+
+    ObjectNode vmProperties = vm.putObject("properties");
+    vmProperties.putObject("hardwareProfile").put("vmSize", vmSize);
+    if (availabilitySetId != null) {
+      vmProperties.putObject("availabilitySet").put("id", availabilitySetId);
+    }
+
+    ObjectNode osProfile = vmProperties.putObject("osProfile")
+        .put("computerName", getComputerName(instanceId, instanceNamePrefix, fqdnSuffix))
+        .put("adminUsername", adminUsername);
+    if (!StringUtils.isEmpty(base64EncodedCustomData)) {
+      osProfile.put("customData", base64EncodedCustomData);
+    }
+    ObjectNode linuxConfiguration = osProfile.putObject("linuxConfiguration")
+        .put("disablePasswordAuthentication", true);
+    linuxConfiguration.putObject("ssh").putArray("publicKeys").addObject()
+        .put("path", "/home/" + adminUsername + "/.ssh/authorized_keys")
+        .put("keyData", sshPublicKey);
+
+    ObjectNode storageProfile = vmProperties.putObject("storageProfile");
+    ObjectNode image = storageProfile.putObject("imageReference");
+    if (customImageId != null) {
+      image.put("id", customImageId);
+    } else {
+      image.put("publisher", imageReference.publisher())
+          .put("offer", imageReference.offer())
+          .put("sku", imageReference.sku())
+          .put("version", imageReference.version());
+    }
+    ObjectNode osDisk = storageProfile.putObject("osDisk")
+        .put("name", prefix + MANAGED_OS_DISK_SUFFIX)
+        .put("createOption", "FromImage")
+        .put("caching", "ReadWrite");
+    osDisk.putObject("managedDisk").put("storageAccountType", storageAccountType);
+    ArrayNode dataDisks = storageProfile.putArray("dataDisks");
+    for (int n = 0; n < dataDiskCount; n++) {
+      ObjectNode dataDisk = dataDisks.addObject()
+          .put("lun", n)
+          .put("name", prefix + "-" + n)
+          .put("createOption", "Attach")
+          .put("caching", "None");
+      dataDisk.putObject("managedDisk").put("id", resourceIdExpression(DISK_TYPE, prefix + "-" + n));
+    }
+
+    ObjectNode networkInterface = vmProperties.putObject("networkProfile").putArray("networkInterfaces").addObject()
+        .put("id", resourceIdExpression(NIC_TYPE, prefix));
+    networkInterface.putObject("properties").put("primary", true);
+  }
+
+  private ObjectNode resource(ArrayNode resources, String type, String apiVersion, String name) {
+    ObjectNode resource = resources.addObject()
+        .put("type", type)
+        .put("apiVersion", apiVersion)
+        .put("name", name)
+        .put("location", location);
+    if (!tags.isEmpty()) {
+      ObjectNode tagsNode = resource.putObject("tags");
+      tags.forEach(tagsNode::put);
+    }
+    return resource;
+  }
+
+  private static String resourceIdExpression(String type, String name) {
+    return String.format("[resourceId('%s', '%s')]", type, name);
+  }
+}
@@ -54,6 +54,7 @@ import com.cloudera.director.azure.Configurations;
 import com.cloudera.director.azure.compute.instance.AzureComputeInstance;
 import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
 import com.cloudera.director.azure.compute.instance.VirtualMachineScaleSetVM;
+import com.cloudera.director.azure.utils.VirtualMachineImageCache;
 import com.cloudera.director.spi.v2.model.LocalizationContext;
 import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
 import com.cloudera.director.spi.v2.model.util.SimpleResourceTemplate;
@@ -661,12 +662,18 @@ class VirtualMachineScaleSetAllocator implements InstanceAllocator {
             .withProduct(imageReference.offer())
             .withPublisher(imageReference.publisher());
       } else {
-        plan = virtualMachineImages.getImage(
+        plan = VirtualMachineImageCache.getInstance().getImage(
             inner.location(),
             imageReference.publisher(),
             imageReference.offer(),
             imageReference.sku(),
-            imageReference.version())
+            imageReference.version(),
+            () -> virtualMachineImages.getImage(
+                inner.location(),
+                imageReference.publisher(),
+                imageReference.offer(),
+                imageReference.sku(),
+                imageReference.version()))
             .plan();
       }
 
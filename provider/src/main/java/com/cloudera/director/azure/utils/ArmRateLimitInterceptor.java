@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.utils;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * An HTTP interceptor that makes Azure Resource Manager (ARM) requests wait for an
+ * {@link ArmRateLimiter} permit, and feeds the remaining quota ARM reports back into the limiter.
+ *
+ * Requests that are not made against a subscription (e.g. listing subscriptions) are not limited.
+ * Time spent waiting is recorded as the "arm.ratelimit.wait reads" / "arm.ratelimit.wait writes"
+ * latency histograms.
+ */
+public class ArmRateLimitInterceptor implements Interceptor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArmRateLimitInterceptor.class);
+
+  public static final String WAIT_PREFIX = "arm.ratelimit.wait ";
+
+  private static final String SUBSCRIPTIONS = "subscriptions";
+  private static final long LOG_WAIT_THRESHOLD_MILLIS = 1000;
+
+  private final ArmRateLimiter limiter;
+  private final AzurePluginMetrics metrics;
+
+  /**
+   * Creates an interceptor.
+   *
+   * @param limiter the limiter to acquire permits from
+   * @param metrics the registry to record wait times into
+   */
+  public ArmRateLimitInterceptor(ArmRateLimiter limiter, AzurePluginMetrics metrics) {
+    this.limiter = requireNonNull(limiter, "limiter is null");
+    this.metrics = requireNonNull(metrics, "metrics is null");
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    String subscriptionId = subscriptionId(request.url().pathSegments());
+    if (subscriptionId == null) {
+      return chain.proceed(request);
+    }
+
+    boolean write = isWrite(request.method());
+    String kind = write ? "writes" : "reads";
+    try {
+      long waitedMillis = limiter.acquire(subscriptionId, write);
+      metrics.recordLatency(WAIT_PREFIX + kind, waitedMillis);
+      if (waitedMillis >= LOG_WAIT_THRESHOLD_MILLIS) {
+        LOG.info("Waited {} ms for an ARM {} permit before {} {}.", waitedMillis, kind,
+            request.method(), request.url().encodedPath());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for an ARM " + kind + " permit");
+    }
+
+    Response response = chain.proceed(request);
+    String remaining = response.header(write ?
+        ArmRequestMetricsInterceptor.REMAINING_WRITES_HEADER :
+        ArmRequestMetricsInterceptor.REMAINING_READS_HEADER);
+    if (remaining != null) {
+      try {
+        limiter.onRemaining(subscriptionId, write, Long.parseLong(remaining.trim()));
+      } catch (NumberFormatException ignore) {
+        // not a number, nothing to adapt to
+      }
+    }
+    return response;
+  }
+
+  /**
+   * @param method the HTTP method
+   * @return whether ARM counts a request with this method against the write quota
+   */
+  static boolean isWrite(String method) {
+    return !"GET".equals(method) && !"HEAD".equals(method);
+  }
+
+  /**
+   * @param pathSegments the URL path segments
+   * @return the subscription id in the URL path, or null if the request is not made against a
+   * subscription
+   */
+  static String subscriptionId(List<String> pathSegments) {
+    int subscriptions = pathSegments.indexOf(SUBSCRIPTIONS);
+    if (subscriptions < 0 || subscriptions + 1 >= pathSegments.size()) {
+      return null;
+    }
+    String subscriptionId = pathSegments.get(subscriptions + 1);
+    return subscriptionId.isEmpty() ? null : subscriptionId.toLowerCase();
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.utils;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rate limiter for Azure Resource Manager (ARM) requests, driven by the remaining quota ARM
+ * reports, with separate read and write quotas per subscription.
+ *
+ * ARM limits the number of reads and writes a principal can make against a subscription per hour
+ * and reports the remaining quota in the x-ms-ratelimit-remaining-subscription-reads/writes
+ * response headers. Requests are never slowed down while the last reported remaining quota is
+ * above a low-water mark (a configurable share of the largest remaining quota seen, which stands in
+ * for the full hourly quota). Below the mark, requests are paced at the rate ARM refills the quota,
+ * so that the plugin slows down before ARM starts rejecting it with 429s. Each report replaces the
+ * previous one, less the requests of callers that are still waiting, so the limiter speeds up again
+ * as soon as ARM reports more quota.
+ *
+ * One limiter is shared by all clients of the plugin (see {@link #getInstance()}).
+ */
+public class ArmRateLimiter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArmRateLimiter.class);
+
+  private static final long NANOS_PER_HOUR = TimeUnit.HOURS.toNanos(1);
+
+  private static ArmRateLimiter instance = null;
+
+  private final int lowRemainingPercent;
+  private final LongSupplier nanoClock;
+
+  private final ConcurrentMap<String, Quota> quotas = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the limiter shared by all clients of the plugin, creating it from the plugin config on
+   * first use.
+   *
+   * @return the shared limiter
+   */
+  public static synchronized ArmRateLimiter getInstance() {
+    if (instance == null) {
+      instance = new ArmRateLimiter(AzurePluginConfigHelper.getArmRateLimitLowRemainingPercent(), System::nanoTime);
+      LOG.info("Pacing ARM requests once less than {}% of a subscription's quota is left.",
+          instance.lowRemainingPercent);
+    }
+    return instance;
+  }
+
+  /**
+   * Creates a limiter.
+   *
+   * @param lowRemainingPercent the share (0 to 99) of the quota below which requests are paced
+   * @param nanoClock           the source of time, in nanoseconds
+   */
+  ArmRateLimiter(int lowRemainingPercent, LongSupplier nanoClock) {
+    this.lowRemainingPercent = lowRemainingPercent;
+    this.nanoClock = requireNonNull(nanoClock, "nanoClock is null");
+  }
+
+  /**
+   * Waits until a request is allowed.
+   *
+   * @param subscriptionId the subscription the request is made against
+   * @param write          whether the request is a write (anything but GET or HEAD)
+   * @return how long (in milliseconds) the caller waited
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public long acquire(String subscriptionId, boolean write) throws InterruptedException {
+    long waitNanos = reserve(subscriptionId, write);
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+    return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+  }
+
+  /**
+   * Takes one request from the remaining quota.
+   *
+   * @param subscriptionId the subscription the request is made against
+   * @param write          whether the request is a write
+   * @return how long (in nanoseconds) the caller must wait before making the request
+   */
+  long reserve(String subscriptionId, boolean write) {
+    return quota(subscriptionId, write).reserve(nanoClock.getAsLong());
+  }
+
+  /**
+   * Records the remaining quota reported by ARM.
+   *
+   * @param subscriptionId the subscription the request was made against
+   * @param write          whether the request was a write
+   * @param remaining      the remaining quota reported by ARM
+   */
+  public void onRemaining(String subscriptionId, boolean write, long remaining) {
+    quota(subscriptionId, write).onRemaining(remaining, nanoClock.getAsLong());
+  }
+
+  private Quota quota(String subscriptionId, boolean write) {
+    String key = (write ? "writes " : "reads ") + subscriptionId;
+    return quotas.computeIfAbsent(key, k -> new Quota(lowRemainingPercent));
+  }
+
+  /**
+   * The remaining quota of one subscription, as last reported by ARM and counted down by the
+   * requests made since. Requests taken above the low-water mark are free; below it, they're
+   * spaced out at the refill rate (the largest remaining quota seen, per hour), and a caller that
+   * takes a request from an exhausted allowance waits until the refill catches up.
+   */
+  private static final class Quota {
+    private final int lowRemainingPercent;
+    private long maxRemaining;
+    // requests allowed before reaching the low-water mark, negative when callers are waiting
+    private double allowance = Double.MAX_VALUE;
+    private long lastRefillNanos;
+
+    Quota(int lowRemainingPercent) {
+      this.lowRemainingPercent = lowRemainingPercent;
+    }
+
+    synchronized long reserve(long nowNanos) {
+      if (maxRemaining == 0) {
+        // ARM hasn't reported this quota yet
+        return 0;
+      }
+      refill(nowNanos);
+      allowance -= 1;
+      return allowance >= 0 ? 0 : (long) Math.ceil(-allowance / tokensPerNano());
+    }
+
+    synchronized void onRemaining(long remaining, long nowNanos) {
+      // callers still waiting in acquire took their requests ahead of this report, so their debt carries over
+      double debt = 0;
+      if (maxRemaining > 0) {
+        refill(nowNanos);
+        debt = Math.min(0, allowance);
+      }
+      maxRemaining = Math.max(maxRemaining, remaining);
+      allowance = remaining - lowRemaining() + debt;
+      lastRefillNanos = nowNanos;
+    }
+
+    private void refill(long nowNanos) {
+      allowance = Math.min(maxRemaining - lowRemaining(), allowance + (nowNanos - lastRefillNanos) * tokensPerNano());
+      lastRefillNanos = nowNanos;
+    }
+
+    private long lowRemaining() {
+      return maxRemaining * lowRemainingPercent / 100;
+    }
+
+    private double tokensPerNano() {
+      return (double) maxRemaining / NANOS_PER_HOUR;
+    }
+  }
+}
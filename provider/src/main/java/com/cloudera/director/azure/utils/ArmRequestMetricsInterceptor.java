@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.utils;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * An HTTP network interceptor that records per-operation metrics for Azure Resource Manager (ARM)
+ * requests into an {@link AzurePluginMetrics} registry.
+ *
+ * Each request is classified by verb and ARM resource type (e.g. "GET
+ * Microsoft.Compute/virtualMachines", "POST Microsoft.Compute/virtualMachines/runCommand") and the
+ * interceptor records:
+ * - "arm.latency [operation]": a latency histogram
+ * - "arm.status [operation] [code]": a counter per response status code
+ * - "arm.ratelimit.remaining.reads" / "arm.ratelimit.remaining.writes": the latest remaining
+ *   subscription read/write quota reported by ARM
+ *
+ * As a network interceptor it sees every attempt, including the retries made by
+ * {@link ArmRetryInterceptor}, which counts the retries themselves.
+ */
+public class ArmRequestMetricsInterceptor implements Interceptor {
+
+  public static final String LATENCY_PREFIX = "arm.latency ";
+  public static final String STATUS_PREFIX = "arm.status ";
+  public static final String REMAINING_READS = "arm.ratelimit.remaining.reads";
+  public static final String REMAINING_WRITES = "arm.ratelimit.remaining.writes";
+
+  static final String REMAINING_READS_HEADER = "x-ms-ratelimit-remaining-subscription-reads";
+  static final String REMAINING_WRITES_HEADER = "x-ms-ratelimit-remaining-subscription-writes";
+
+  private static final String PROVIDERS = "providers";
+
+  private final AzurePluginMetrics metrics;
+
+  /**
+   * Creates an interceptor.
+   *
+   * @param metrics the registry to record into
+   */
+  public ArmRequestMetricsInterceptor(AzurePluginMetrics metrics) {
+    this.metrics = requireNonNull(metrics, "metrics is null");
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    String operation = classify(request.method(), request.url().pathSegments());
+
+    long start = System.nanoTime();
+    Response response;
+    try {
+      response = chain.proceed(request);
+    } catch (IOException e) {
+      metrics.increment(STATUS_PREFIX + operation + " " + e.getClass().getSimpleName());
+      throw e;
+    } finally {
+      metrics.recordLatency(LATENCY_PREFIX + operation,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    metrics.increment(STATUS_PREFIX + operation + " " + response.code());
+    recordRemaining(response, REMAINING_READS_HEADER, REMAINING_READS);
+    recordRemaining(response, REMAINING_WRITES_HEADER, REMAINING_WRITES);
+    return response;
+  }
+
+  private void recordRemaining(Response response, String header, String gauge) {
+    String value = response.header(header);
+    if (value != null) {
+      try {
+        metrics.setGauge(gauge, Long.parseLong(value.trim()));
+      } catch (NumberFormatException ignore) {
+        // not a number, nothing to record
+      }
+    }
+  }
+
+  /**
+   * Classifies an ARM request by verb and resource type. For example:
+   * - GET .../providers/Microsoft.Compute/virtualMachines/vm1 is "GET Microsoft.Compute/virtualMachines"
+   * - POST .../providers/Microsoft.Compute/virtualMachines/vm1/runCommand is
+   *   "POST Microsoft.Compute/virtualMachines/runCommand"
+   * - GET .../resourceGroups/rg1 is "GET resourceGroups"
+   *
+   * @param method       the HTTP method
+   * @param pathSegments the URL path segments
+   * @return the operation
+   */
+  public static String classify(String method, List<String> pathSegments) {
+    int providers = pathSegments.lastIndexOf(PROVIDERS);
+    List<String> types = new ArrayList<>();
+
+    if (providers >= 0 && providers + 1 < pathSegments.size()) {
+      // .../providers/{namespace}/{type}/{name}/{type}/{name}[/{type or action}]
+      String namespace = pathSegments.get(providers + 1);
+      for (int i = providers + 2; i < pathSegments.size(); i += 2) {
+        types.add(pathSegments.get(i));
+      }
+      return method + " " + namespace + (types.isEmpty() ? "" : "/" + String.join("/", types));
+    }
+
+    // no provider, e.g. /subscriptions/{id}/resourceGroups/{name}: use the last resource type
+    for (int i = 0; i < pathSegments.size(); i += 2) {
+      if (!pathSegments.get(i).isEmpty()) {
+        types.add(pathSegments.get(i));
+      }
+    }
+    return method + " " + (types.isEmpty() ? "/" : types.get(types.size() - 1));
+  }
+}
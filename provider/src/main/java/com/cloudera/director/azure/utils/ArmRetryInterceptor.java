@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.utils;
+
+import static java.util.Objects.requireNonNull;
+
+import com.cloudera.director.azure.AzureExceptions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * An HTTP interceptor that retries Azure Resource Manager (ARM) requests failing with a transient
+ * error. It is the single retry policy for all ARM calls the plugin makes; the SDK's own retry
+ * handlers are disabled.
+ *
+ * A failed attempt is retried when:
+ * - ARM throttled it (429), or the service was unavailable (503): the request was not processed,
+ *   so it is retried whatever its method
+ * - it failed with another 408 or 5xx status, or an I/O error, and its method is idempotent
+ *   (anything but POST or PATCH); interrupts are not retried, timeouts are
+ * - ARM returned an error code that {@link AzureExceptions#isRetryableErrorCode(String)} knows to
+ *   be transient (e.g. AnotherOperationInProgress)
+ * Error codes that {@link AzureExceptions#isNonRetryableErrorCode(String)} knows to be permanent
+ * (e.g. quota exceeded) are never retried.
+ *
+ * Retries wait for the Retry-After delay ARM asks for, or else for an exponentially growing delay
+ * with full jitter, and stop after a maximum number of retries or when the next attempt would start
+ * after the operation deadline; the last response (or error) is then returned to the caller.
+ *
+ * Retries are counted in the "arm.retries [operation] [reason]" counters, and requests that still
+ * failed after retrying in the "arm.retries.exhausted [operation]" counters.
+ */
+public class ArmRetryInterceptor implements Interceptor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ArmRetryInterceptor.class);
+
+  public static final String RETRIES_PREFIX = "arm.retries ";
+  public static final String EXHAUSTED_PREFIX = "arm.retries.exhausted ";
+
+  static final String RETRY_AFTER_HEADER = "Retry-After";
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final long MAX_ERROR_BODY_BYTES = 64 * 1024;
+
+  /**
+   * Waits between attempts.
+   */
+  interface Sleeper {
+    void sleep(long millis) throws InterruptedException;
+  }
+
+  private final int maxRetries;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final long deadlineMillis;
+  private final AzurePluginMetrics metrics;
+  private final Sleeper sleeper;
+  private final LongSupplier nanoClock;
+  private final Random random;
+
+  /**
+   * Creates an interceptor using the retry settings in the plugin config.
+   *
+   * @param metrics the registry to record retries into
+   * @return a new interceptor
+   */
+  public static ArmRetryInterceptor fromConfig(AzurePluginMetrics metrics) {
+    return new ArmRetryInterceptor(AzurePluginConfigHelper.getArmRetryMaxRetries(),
+        AzurePluginConfigHelper.getArmRetryInitialBackoffMillis(),
+        TimeUnit.SECONDS.toMillis(AzurePluginConfigHelper.getArmRetryMaxBackoff()),
+        TimeUnit.SECONDS.toMillis(AzurePluginConfigHelper.getArmRetryDeadline()), metrics);
+  }
+
+  /**
+   * Creates an interceptor.
+   *
+   * @param maxRetries           the maximum number of retries per request
+   * @param initialBackoffMillis the upper bound of the delay before the first retry, doubled for
+   *                             each further retry
+   * @param maxBackoffMillis     the maximum delay between two attempts
+   * @param deadlineMillis       the time after the first attempt past which no retry is started
+   * @param metrics              the registry to record retries into
+   */
+  public ArmRetryInterceptor(int maxRetries, long initialBackoffMillis, long maxBackoffMillis,
+      long deadlineMillis, AzurePluginMetrics metrics) {
+    this(maxRetries, initialBackoffMillis, maxBackoffMillis, deadlineMillis, metrics, Thread::sleep,
+        System::nanoTime, new Random());
+  }
+
+  ArmRetryInterceptor(int maxRetries, long initialBackoffMillis, long maxBackoffMillis,
+      long deadlineMillis, AzurePluginMetrics metrics, Sleeper sleeper, LongSupplier nanoClock,
+      Random random) {
+    this.maxRetries = maxRetries;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+    this.deadlineMillis = deadlineMillis;
+    this.metrics = requireNonNull(metrics, "metrics is null");
+    this.sleeper = requireNonNull(sleeper, "sleeper is null");
+    this.nanoClock = requireNonNull(nanoClock, "nanoClock is null");
+    this.random = requireNonNull(random, "random is null");
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    String operation = ArmRequestMetricsInterceptor.classify(request.method(),
+        request.url().pathSegments());
+    long deadlineNanos = nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+
+    for (int retry = 0; ; retry++) {
+      Response response = null;
+      IOException failure = null;
+      String reason;
+      try {
+        response = chain.proceed(request);
+        reason = retryReason(request, response);
+      } catch (IOException e) {
+        failure = e;
+        boolean interrupted = e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException);
+        reason = !interrupted && isIdempotent(request.method()) ? e.getClass().getSimpleName() : null;
+      }
+
+      if (reason == null) {
+        return returnOrThrow(response, failure);
+      }
+
+      long delayMillis = response == null ? -1 : retryAfterMillis(response.header(RETRY_AFTER_HEADER));
+      if (delayMillis < 0) {
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(retry, 20));
+        delayMillis = (long) (random.nextDouble() * ceiling);
+      }
+
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - nanoClock.getAsLong());
+      if (retry >= maxRetries || delayMillis > remainingMillis) {
+        metrics.increment(EXHAUSTED_PREFIX + operation);
+        LOG.warn("Giving up on {} {} after {} retries ({}).", request.method(),
+            request.url().encodedPath(), retry, reason);
+        return returnOrThrow(response, failure);
+      }
+
+      metrics.increment(RETRIES_PREFIX + operation + " " + reason);
+      LOG.info("Retrying {} {} in {} ms ({}, retry {} of {}).", request.method(),
+          request.url().encodedPath(), delayMillis, reason, retry + 1, maxRetries);
+      if (response != null) {
+        response.close();
+      }
+      try {
+        sleeper.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException interrupted =
+            new InterruptedIOException("Interrupted while waiting to retry " + operation);
+        if (failure != null) {
+          interrupted.addSuppressed(failure);
+        }
+        throw interrupted;
+      }
+    }
+  }
+
+  private static Response returnOrThrow(Response response, IOException failure) throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    return response;
+  }
+
+  /**
+   * Decides whether a response is worth retrying.
+   *
+   * @param request  the request
+   * @param response the response
+   * @return why the response should be retried (the status code, and the Azure error code when
+   * there is one), or null if it should not be retried
+   */
+  static String retryReason(Request request, Response response) {
+    int code = response.code();
+    if (code < 400) {
+      return null;
+    }
+
+    String azureErrorCode = azureErrorCode(response);
+    String reason = azureErrorCode == null ? String.valueOf(code) : code + " " + azureErrorCode;
+    if (AzureExceptions.isNonRetryableErrorCode(azureErrorCode)) {
+      return null;
+    }
+    if (code == 429 || code == 503 || AzureExceptions.isRetryableErrorCode(azureErrorCode)) {
+      return reason;
+    }
+    if ((code == 408 || code >= 500) && code != 501 && code != 505 && isIdempotent(request.method())) {
+      return reason;
+    }
+    return null;
+  }
+
+  /**
+   * @param method the HTTP method
+   * @return whether repeating a request with this method is safe; ARM PUT and DELETE are
+   * idempotent, POST actions are not assumed to be
+   */
+  static boolean isIdempotent(String method) {
+    return !"POST".equals(method) && !"PATCH".equals(method);
+  }
+
+  /**
+   * Parses the Retry-After header, either a number of seconds or an HTTP date.
+   *
+   * @param retryAfter the Retry-After header value, may be null
+   * @return the delay in milliseconds, or -1 if the header is missing or invalid
+   */
+  static long retryAfterMillis(String retryAfter) {
+    if (retryAfter == null || retryAfter.trim().isEmpty()) {
+      return -1;
+    }
+    try {
+      return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+    } catch (NumberFormatException e) {
+      try {
+        ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+        return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+      } catch (DateTimeParseException ignore) {
+        return -1;
+      }
+    }
+  }
+
+  /**
+   * Reads the Azure error code from an error response body, either {"error": {"code": ...}} or
+   * {"code": ...}, without consuming the body.
+   *
+   * @param response the error response
+   * @return the error code, or null if there is none
+   */
+  private static String azureErrorCode(Response response) {
+    if (response.body() == null) {
+      return null;
+    }
+    try {
+      JsonNode root = MAPPER.readTree(response.peekBody(MAX_ERROR_BODY_BYTES).string());
+      if (root == null) {
+        return null;
+      }
+      JsonNode error = root.has("error") ? root.get("error") : root;
+      JsonNode code = error.get("code");
+      return code == null || !code.isTextual() ? null : code.asText();
+    } catch (IOException e) {
+      // unreadable or not JSON
+      return null;
+    }
+  }
+}
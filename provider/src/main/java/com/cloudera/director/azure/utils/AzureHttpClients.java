@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.utils;
+
+import com.cloudera.director.azure.Configurations;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * Holds the HTTP connection pool and dispatcher shared by every HTTP client the plugin creates.
+ *
+ * Sharing them means that concurrent requests from all Azure clients are bounded by one set of
+ * limits (see the azure-sdk-* settings in the plugin config) and reuse the same pooled connections,
+ * instead of each client opening its own connections. The pool and dispatcher are created from the
+ * plugin config on first use.
+ */
+public final class AzureHttpClients {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AzureHttpClients.class);
+
+  private static ConnectionPool connectionPool = null;
+  private static Dispatcher dispatcher = null;
+  private static ScheduledExecutorService statsLogger = null;
+
+  /**
+   * Returns a new OkHttpClient builder that uses the shared connection pool and dispatcher and the
+   * configured timeouts.
+   *
+   * @return a new OkHttpClient builder
+   */
+  public static OkHttpClient.Builder newHttpClientBuilder() {
+    return new OkHttpClient.Builder()
+        .connectionPool(getConnectionPool())
+        .dispatcher(getDispatcher())
+        .connectTimeout(AzurePluginConfigHelper.getAzureSdkConnectionTimeout(), TimeUnit.SECONDS)
+        .readTimeout(AzurePluginConfigHelper.getAzureSdkReadTimeout(), TimeUnit.SECONDS);
+  }
+
+  /**
+   * Returns the shared connection pool, creating it on first use.
+   *
+   * @return the shared connection pool
+   */
+  public static synchronized ConnectionPool getConnectionPool() {
+    if (connectionPool == null) {
+      int maxIdleConnections = AzurePluginConfigHelper.getAzureSdkMaxIdleConn();
+      long keepAliveSeconds = AzurePluginConfigHelper.getAzureSdkKeepAlive();
+      LOG.info("Creating shared HTTP connection pool with {} max idle connections and a {} second " +
+          "keep-alive.", maxIdleConnections, keepAliveSeconds);
+      connectionPool = new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS);
+      startStatsLogger();
+    }
+    return connectionPool;
+  }
+
+  /**
+   * Returns the shared dispatcher, creating it on first use.
+   *
+   * @return the shared dispatcher
+   */
+  public static synchronized Dispatcher getDispatcher() {
+    if (dispatcher == null) {
+      Dispatcher newDispatcher = new Dispatcher();
+      newDispatcher.setMaxRequests(AzurePluginConfigHelper.getAzureSdkMaxRequests());
+      newDispatcher.setMaxRequestsPerHost(AzurePluginConfigHelper.getAzureSdkMaxRequestsPerHost());
+      LOG.info("Creating shared HTTP dispatcher with {} max concurrent requests and {} max " +
+          "concurrent requests per host.", newDispatcher.getMaxRequests(),
+          newDispatcher.getMaxRequestsPerHost());
+      dispatcher = newDispatcher;
+      startStatsLogger();
+    }
+    return dispatcher;
+  }
+
+  /**
+   * Logs the current usage of the shared connection pool and dispatcher. Logs at info level when the
+   * dispatcher is saturated (requests are queued waiting for a free slot), at debug level
+   * otherwise.
+   *
+   * @return the logged stats, or null if the pool and dispatcher haven't been created yet
+   */
+  @VisibleForTesting
+  static synchronized String logStats() {
+    if (connectionPool == null || dispatcher == null) {
+      return null;
+    }
+
+    int running = dispatcher.runningCallsCount();
+    int queued = dispatcher.queuedCallsCount();
+    String stats = String.format("HTTP pool stats: %d/%d requests running, %d queued; %d " +
+            "connections open, %d idle.", running, dispatcher.getMaxRequests(), queued,
+        connectionPool.connectionCount(), connectionPool.idleConnectionCount());
+    if (queued > 0) {
+      LOG.info("{} The dispatcher is saturated; consider raising {} or {}.", stats,
+          Configurations.AZURE_SDK_CONFIG_MAX_REQUESTS,
+          Configurations.AZURE_SDK_CONFIG_MAX_REQUESTS_PER_HOST);
+    } else {
+      LOG.debug(stats);
+    }
+    return stats;
+  }
+
+  private static void startStatsLogger() {
+    long intervalSeconds = AzurePluginConfigHelper.getAzureSdkPoolStatsLogInterval();
+    if (statsLogger != null || intervalSeconds <= 0) {
+      return;
+    }
+    statsLogger = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("azure-http-pool-stats-%d")
+        .setDaemon(true)
+        .build());
+    statsLogger.scheduleWithFixedDelay(AzureHttpClients::logStats, intervalSeconds, intervalSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private AzureHttpClients() {
+  }
+}
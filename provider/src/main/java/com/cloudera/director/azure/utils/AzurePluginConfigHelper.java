@@ -144,6 +144,60 @@ public class AzurePluginConfigHelper {
       } catch (ConfigException | IllegalArgumentException e) {
         errors.add(e.getMessage());
       }
+
+      try {
+        validateAzureSdkSharedPool(providerSection);
+      } catch (ConfigException | IllegalArgumentException e) {
+        errors.add(e.getMessage());
+      }
+
+      try {
+        validateCredentialsValidationTtls(providerSection);
+      } catch (ConfigException | IllegalArgumentException e) {
+        errors.add(e.getMessage());
+      }
+
+      try {
+        validateAzureTokenRefreshMargin(providerSection);
+      } catch (ConfigException | IllegalArgumentException e) {
+        errors.add(e.getMessage());
+      }
+
+      try {
+        validateMetricsLogInterval(providerSection);
+      } catch (ConfigException | IllegalArgumentException e) {
+        errors.add(e.getMessage());
+      }
+
+      try {
+        validateArmRateLimit(providerSection);
+      } catch (ConfigException | IllegalArgumentException e) {
+        errors.add(e.getMessage());
+      }
+
+      try {
+        validateArmRetry(providerSection);
+      } catch (ConfigException | IllegalArgumentException e) {
+        errors.add(e.getMessage());
+      }
+
+      try {
+        validateVmImageCache(providerSection);
+      } catch (ConfigException | IllegalArgumentException e) {
+        errors.add(e.getMessage());
+      }
+
+      try {
+        validateCacheTtls(providerSection);
+      } catch (ConfigException | IllegalArgumentException e) {
+        errors.add(e.getMessage());
+      }
+
+      try {
+        validateVmConcurrency(providerSection);
+      } catch (ConfigException | IllegalArgumentException e) {
+        errors.add(e.getMessage());
+      }
     } catch (ConfigException e) {
       errors.add(e.getMessage());
     }
@@ -447,6 +501,195 @@ public class AzurePluginConfigHelper {
     }
   }
 
+  /**
+   * Validates that the passed in config object contains valid shared connection pool and dispatcher
+   * settings, if they are set, by checking that:
+   * - the params are not null or wrong type
+   * - the max requests and max requests per host are greater than 0
+   * - the keep-alive and stats log interval are greater than or equal to 0
+   *
+   * @param providerSection the provider section of the Azure Plugin config
+   * @throws IllegalArgumentException if a config value is out of range
+   * @throws ConfigException if a config value has the wrong type
+   */
+  static void validateAzureSdkSharedPool(Config providerSection) throws
+      IllegalArgumentException, ConfigException {
+    for (String key : Arrays.asList(Configurations.AZURE_SDK_CONFIG_MAX_REQUESTS,
+        Configurations.AZURE_SDK_CONFIG_MAX_REQUESTS_PER_HOST)) {
+      if (providerSection.hasPath(key) && providerSection.getInt(key) <= 0) {
+        throw new IllegalArgumentException(String.format("Azure Plugin Config field \"%s\" must " +
+            "have a value that is greater than 0.", key));
+      }
+    }
+    for (String key : Arrays.asList(Configurations.AZURE_SDK_CONFIG_KEEP_ALIVE_SECONDS,
+        Configurations.AZURE_SDK_CONFIG_POOL_STATS_LOG_INTERVAL_SECONDS)) {
+      if (providerSection.hasPath(key) && providerSection.getLong(key) < 0) {
+        throw new IllegalArgumentException(String.format("Azure Plugin Config field \"%s\" must " +
+            "have a value in seconds that is greater than or equal to 0.", key));
+      }
+    }
+  }
+
+  /**
+   * Validates that the passed in config object contains valid credentials validation TTLs, if they
+   * are set, by checking that the params are:
+   * - not null or wrong type
+   * - greater than or equal to 0
+   *
+   * @param providerSection the provider section of the Azure Plugin config
+   * @throws IllegalArgumentException if a config value is less than zero
+   * @throws ConfigException if a config value has the wrong type
+   */
+  static void validateCredentialsValidationTtls(Config providerSection) throws
+      IllegalArgumentException, ConfigException {
+    for (String key : Arrays.asList(Configurations.AZURE_CREDENTIALS_VALIDATION_TTL_SECONDS,
+        Configurations.AZURE_CREDENTIALS_VALIDATION_FAILURE_TTL_SECONDS)) {
+      if (providerSection.hasPath(key) && providerSection.getLong(key) < 0) {
+        throw new IllegalArgumentException(String.format("Azure Plugin Config field \"%s\" must " +
+            "have a value in seconds that is greater than or equal to 0.", key));
+      }
+    }
+  }
+
+  /**
+   * Validates that the passed in config object contains a valid AAD token refresh margin, if it is
+   * set, by checking that the param is:
+   * - not null or wrong type
+   * - greater than or equal to 0
+   *
+   * @param providerSection the provider section of the Azure Plugin config
+   * @throws IllegalArgumentException if the config value is less than zero
+   * @throws ConfigException if the config value has the wrong type
+   */
+  static void validateAzureTokenRefreshMargin(Config providerSection) throws
+      IllegalArgumentException, ConfigException {
+    if (providerSection.hasPath(Configurations.AZURE_TOKEN_REFRESH_MARGIN_SECONDS) &&
+        providerSection.getLong(Configurations.AZURE_TOKEN_REFRESH_MARGIN_SECONDS) < 0) {
+      throw new IllegalArgumentException(String.format("Azure Plugin Config field \"%s\" must " +
+              "have a value in seconds that is greater than or equal to 0.",
+          Configurations.AZURE_TOKEN_REFRESH_MARGIN_SECONDS));
+    }
+  }
+
+  /**
+   * Validates that the passed in config object contains a valid metrics log interval, if it is
+   * set, by checking that the param is:
+   * - not null or wrong type
+   * - greater than or equal to 0
+   *
+   * @param providerSection the provider section of the Azure Plugin config
+   * @throws IllegalArgumentException if the config value is less than zero
+   * @throws ConfigException if the config value has the wrong type
+   */
+  static void validateMetricsLogInterval(Config providerSection) throws
+      IllegalArgumentException, ConfigException {
+    if (providerSection.hasPath(Configurations.AZURE_METRICS_LOG_INTERVAL_SECONDS) &&
+        providerSection.getLong(Configurations.AZURE_METRICS_LOG_INTERVAL_SECONDS) < 0) {
+      throw new IllegalArgumentException(String.format("Azure Plugin Config field \"%s\" must " +
+              "have a value in seconds that is greater than or equal to 0.",
+          Configurations.AZURE_METRICS_LOG_INTERVAL_SECONDS));
+    }
+  }
+
+  /**
+   * Checks that the ARM rate limit low-water mark is between 0 and 99 percent.
+   *
+   * @param providerSection the provider section of the Azure Plugin config
+   * @throws IllegalArgumentException if a value is out of range
+   * @throws ConfigException if a value is not a number
+   */
+  static void validateArmRateLimit(Config providerSection) throws
+      IllegalArgumentException, ConfigException {
+    if (providerSection.hasPath(Configurations.AZURE_ARM_RATE_LIMIT_LOW_REMAINING_PERCENT)) {
+      int lowRemainingPercent = providerSection.getInt(Configurations.AZURE_ARM_RATE_LIMIT_LOW_REMAINING_PERCENT);
+      if (lowRemainingPercent < 0 || lowRemainingPercent > 99) {
+        throw new IllegalArgumentException(String.format("Azure Plugin Config field \"%s\" must " +
+            "have a value between 0 and 99.", Configurations.AZURE_ARM_RATE_LIMIT_LOW_REMAINING_PERCENT));
+      }
+    }
+  }
+
+  /**
+   * Checks that the ARM retry max retries is not negative and the backoffs and deadline are positive.
+   *
+   * @param providerSection the provider section of the Azure Plugin config
+   * @throws IllegalArgumentException if a value is out of range
+   * @throws ConfigException if a value is not a number
+   */
+  static void validateArmRetry(Config providerSection) throws
+      IllegalArgumentException, ConfigException {
+    if (providerSection.hasPath(Configurations.AZURE_ARM_RETRY_MAX_RETRIES) &&
+        providerSection.getInt(Configurations.AZURE_ARM_RETRY_MAX_RETRIES) < 0) {
+      throw new IllegalArgumentException(String.format("Azure Plugin Config field \"%s\" must " +
+          "have a value that is greater than or equal to 0.", Configurations.AZURE_ARM_RETRY_MAX_RETRIES));
+    }
+    for (String key : new String[] {Configurations.AZURE_ARM_RETRY_INITIAL_BACKOFF_MILLIS,
+        Configurations.AZURE_ARM_RETRY_MAX_BACKOFF_SECONDS, Configurations.AZURE_ARM_RETRY_DEADLINE_SECONDS}) {
+      if (providerSection.hasPath(key) && providerSection.getLong(key) <= 0) {
+        throw new IllegalArgumentException(String.format("Azure Plugin Config field \"%s\" must " +
+            "have a value that is greater than 0.", key));
+      }
+    }
+  }
+
+  /**
+   * Checks that the VM image cache TTLs and max size are not negative.
+   *
+   * @param providerSection the provider section of the Azure Plugin config
+   * @throws IllegalArgumentException if a value is negative
+   * @throws ConfigException if a value is not a number
+   */
+  static void validateVmImageCache(Config providerSection) throws
+      IllegalArgumentException, ConfigException {
+    for (String key : new String[] {Configurations.AZURE_VM_IMAGE_CACHE_TTL_SECONDS,
+        Configurations.AZURE_VM_IMAGE_CACHE_LATEST_TTL_SECONDS, Configurations.AZURE_VM_IMAGE_CACHE_MAX_SIZE}) {
+      if (providerSection.hasPath(key) && providerSection.getLong(key) < 0) {
+        throw new IllegalArgumentException(String.format("Azure Plugin Config field \"%s\" must " +
+            "have a value that is greater than or equal to 0.", key));
+      }
+    }
+  }
+
+  /**
+   * Checks that the common resource cache, instance state cache and shared clients idle TTLs are
+   * not negative.
+   *
+   * @param providerSection the provider section of the Azure Plugin config
+   * @throws IllegalArgumentException if a TTL is negative
+   * @throws ConfigException if a TTL is not a number
+   */
+  static void validateCacheTtls(Config providerSection) throws
+      IllegalArgumentException, ConfigException {
+    for (String key : new String[] {Configurations.AZURE_COMMON_RESOURCE_CACHE_TTL_SECONDS,
+        Configurations.AZURE_INSTANCE_STATE_CACHE_TTL_SECONDS, Configurations.AZURE_SHARED_CLIENTS_IDLE_TTL_SECONDS}) {
+      if (providerSection.hasPath(key) && providerSection.getLong(key) < 0) {
+        throw new IllegalArgumentException(String.format("Azure Plugin Config field \"%s\" must " +
+            "have a value in seconds that is greater than or equal to 0.", key));
+      }
+    }
+  }
+
+  /**
+   * Checks that the maximum numbers of concurrent VM creates, cleanups, deletes, instance view
+   * fetches and metadata requests, and the deployment batch size, are at least 1.
+   *
+   * @param providerSection the provider section of the Azure Plugin config
+   * @throws IllegalArgumentException if the value is less than 1
+   * @throws ConfigException if the value is not a number
+   */
+  static void validateVmConcurrency(Config providerSection) throws
+      IllegalArgumentException, ConfigException {
+    for (String key : new String[] {Configurations.AZURE_VM_CREATE_MAX_CONCURRENCY,
+        Configurations.AZURE_VM_CLEANUP_MAX_CONCURRENCY, Configurations.AZURE_DEPLOYMENT_BATCH_SIZE,
+        Configurations.AZURE_INSTANCE_VIEW_MAX_CONCURRENCY, Configurations.AZURE_VM_DELETE_MAX_CONCURRENCY,
+        Configurations.AZURE_METADATA_MAX_CONCURRENCY}) {
+      if (providerSection.hasPath(key) && providerSection.getInt(key) < 1) {
+        throw new IllegalArgumentException(String.format("Azure Plugin Config field \"%s\" must " +
+            "have a value that is greater than or equal to 1.", key));
+      }
+    }
+  }
+
   /**
    * Helper to parse the specified configuration file from the classpath.
    *
@@ -526,8 +769,342 @@ public class AzurePluginConfigHelper {
         .getInt(Configurations.AZURE_SDK_CONFIG_MAX_IDLE_CONN);
   }
 
+  /**
+   * Helper function to get the keep-alive (in seconds) of pooled Azure SDK connections. Defaults to
+   * 300 seconds if not set.
+   *
+   * @return Azure SDK connection keep-alive (in seconds)
+   */
+  public static synchronized long getAzureSdkKeepAlive() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_SDK_CONFIG_KEEP_ALIVE_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_SDK_CONFIG_KEEP_ALIVE_SECONDS) :
+        300;
+  }
+
+  /**
+   * Helper function to get the maximum number of concurrent Azure SDK requests. Defaults to 128 if
+   * not set.
+   *
+   * @return maximum number of concurrent Azure SDK requests
+   */
+  public static synchronized int getAzureSdkMaxRequests() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_SDK_CONFIG_MAX_REQUESTS) ?
+        providerConfig.getInt(Configurations.AZURE_SDK_CONFIG_MAX_REQUESTS) :
+        128;
+  }
+
+  /**
+   * Helper function to get the maximum number of concurrent Azure SDK requests per host. Defaults
+   * to 64 if not set.
+   *
+   * @return maximum number of concurrent Azure SDK requests per host
+   */
+  public static synchronized int getAzureSdkMaxRequestsPerHost() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_SDK_CONFIG_MAX_REQUESTS_PER_HOST) ?
+        providerConfig.getInt(Configurations.AZURE_SDK_CONFIG_MAX_REQUESTS_PER_HOST) :
+        64;
+  }
+
+  /**
+   * Helper function to get how often (in seconds) the shared connection pool usage is logged.
+   * Defaults to 60 seconds if not set.
+   *
+   * @return the pool stats log interval (in seconds), 0 if disabled
+   */
+  public static synchronized long getAzureSdkPoolStatsLogInterval() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_SDK_CONFIG_POOL_STATS_LOG_INTERVAL_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_SDK_CONFIG_POOL_STATS_LOG_INTERVAL_SECONDS) :
+        60;
+  }
+
   public static synchronized String getHostKeyFingerprintCommand() {
     return azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER)
         .getString(Configurations.AZURE_HOST_KEY_FINGERPRINT_COMMAND);
   }
+
+  /**
+   * Helper function to get how long (in seconds) a successful credentials validation is cached.
+   * Defaults to 0 (no caching) if not set.
+   *
+   * @return the credentials validation TTL (in seconds)
+   */
+  public static synchronized long getCredentialsValidationTtl() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_CREDENTIALS_VALIDATION_TTL_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_CREDENTIALS_VALIDATION_TTL_SECONDS) :
+        0;
+  }
+
+  /**
+   * Helper function to get how long (in seconds) a failed credentials validation is cached.
+   * Defaults to 0 (no caching) if not set.
+   *
+   * @return the failed credentials validation TTL (in seconds)
+   */
+  public static synchronized long getCredentialsValidationFailureTtl() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_CREDENTIALS_VALIDATION_FAILURE_TTL_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_CREDENTIALS_VALIDATION_FAILURE_TTL_SECONDS) :
+        0;
+  }
+
+  /**
+   * Helper function to get how long (in seconds) before expiry an AAD token is renewed. Defaults to
+   * 300 seconds if not set.
+   *
+   * @return the AAD token refresh margin (in seconds)
+   */
+  public static synchronized long getAzureTokenRefreshMargin() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_TOKEN_REFRESH_MARGIN_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_TOKEN_REFRESH_MARGIN_SECONDS) :
+        300;
+  }
+
+  /**
+   * Helper function to get whether to warm up connections to Azure when a cloud provider is
+   * created. Defaults to false if not set.
+   *
+   * @return true if connections should be warmed up
+   */
+  public static synchronized boolean isWarmUpEnabled() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_WARM_UP_ENABLED) &&
+        providerConfig.getBoolean(Configurations.AZURE_WARM_UP_ENABLED);
+  }
+
+  /**
+   * Helper function to get how often (in seconds) the plugin metrics summary is logged. Defaults to
+   * 300 seconds if not set.
+   *
+   * @return the metrics log interval (in seconds), 0 if disabled
+   */
+  public static synchronized long getMetricsLogInterval() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_METRICS_LOG_INTERVAL_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_METRICS_LOG_INTERVAL_SECONDS) :
+        300;
+  }
+
+  /**
+   * Gets whether ARM requests are paced per subscription when little quota is left.
+   *
+   * @return true if ARM requests are rate limited
+   */
+  public static synchronized boolean isArmRateLimitEnabled() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return !providerConfig.hasPath(Configurations.AZURE_ARM_RATE_LIMIT_ENABLED) ||
+        providerConfig.getBoolean(Configurations.AZURE_ARM_RATE_LIMIT_ENABLED);
+  }
+
+  /**
+   * Gets the share (in percent) of the ARM quota below which requests are paced.
+   *
+   * @return the low-water mark of the ARM quota, in percent
+   */
+  public static synchronized int getArmRateLimitLowRemainingPercent() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_ARM_RATE_LIMIT_LOW_REMAINING_PERCENT) ?
+        providerConfig.getInt(Configurations.AZURE_ARM_RATE_LIMIT_LOW_REMAINING_PERCENT) :
+        10;
+  }
+
+  /**
+   * Gets the maximum number of retries of a failed ARM request.
+   *
+   * @return the maximum number of retries
+   */
+  public static synchronized int getArmRetryMaxRetries() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_ARM_RETRY_MAX_RETRIES) ?
+        providerConfig.getInt(Configurations.AZURE_ARM_RETRY_MAX_RETRIES) :
+        5;
+  }
+
+  /**
+   * Gets the upper bound (in milliseconds) of the delay before the first retry of an ARM request.
+   *
+   * @return the initial backoff in milliseconds
+   */
+  public static synchronized long getArmRetryInitialBackoffMillis() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_ARM_RETRY_INITIAL_BACKOFF_MILLIS) ?
+        providerConfig.getLong(Configurations.AZURE_ARM_RETRY_INITIAL_BACKOFF_MILLIS) :
+        1000;
+  }
+
+  /**
+   * Gets the maximum delay (in seconds) between two attempts of an ARM request.
+   *
+   * @return the max backoff in seconds
+   */
+  public static synchronized long getArmRetryMaxBackoff() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_ARM_RETRY_MAX_BACKOFF_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_ARM_RETRY_MAX_BACKOFF_SECONDS) :
+        60;
+  }
+
+  /**
+   * Gets the time (in seconds) after the first attempt of an ARM request past which it is not retried.
+   *
+   * @return the retry deadline in seconds
+   */
+  public static synchronized long getArmRetryDeadline() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_ARM_RETRY_DEADLINE_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_ARM_RETRY_DEADLINE_SECONDS) :
+        600;
+  }
+
+  /**
+   * Gets how long (in seconds) image metadata with a pinned version is cached.
+   *
+   * @return the VM image cache TTL in seconds
+   */
+  public static synchronized long getVmImageCacheTtl() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_VM_IMAGE_CACHE_TTL_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_VM_IMAGE_CACHE_TTL_SECONDS) :
+        21600;
+  }
+
+  /**
+   * Gets how long (in seconds) image metadata with the latest version is cached.
+   *
+   * @return the VM image cache TTL for latest versions in seconds
+   */
+  public static synchronized long getVmImageCacheLatestTtl() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_VM_IMAGE_CACHE_LATEST_TTL_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_VM_IMAGE_CACHE_LATEST_TTL_SECONDS) :
+        300;
+  }
+
+  /**
+   * Gets the maximum number of images of each kind kept in the VM image cache.
+   *
+   * @return the VM image cache max size
+   */
+  public static synchronized long getVmImageCacheMaxSize() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_VM_IMAGE_CACHE_MAX_SIZE) ?
+        providerConfig.getLong(Configurations.AZURE_VM_IMAGE_CACHE_MAX_SIZE) :
+        500;
+  }
+
+  /**
+   * Gets how long (in seconds) common network resources found by an allocate are reused.
+   *
+   * @return the common resource cache TTL in seconds
+   */
+  public static synchronized long getCommonResourceCacheTtl() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_COMMON_RESOURCE_CACHE_TTL_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_COMMON_RESOURCE_CACHE_TTL_SECONDS) :
+        60;
+  }
+
+  /**
+   * Gets the maximum number of VM creates an allocate has in flight at once.
+   *
+   * @return the maximum number of concurrent VM creates
+   */
+  public static synchronized int getVmCreateMaxConcurrency() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_VM_CREATE_MAX_CONCURRENCY) ?
+        providerConfig.getInt(Configurations.AZURE_VM_CREATE_MAX_CONCURRENCY) :
+        32;
+  }
+
+  /**
+   * Gets the maximum number of failed VM creates an allocator cleans up at once.
+   *
+   * @return the maximum number of concurrent VM cleanups
+   */
+  public static synchronized int getVmCleanupMaxConcurrency() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_VM_CLEANUP_MAX_CONCURRENCY) ?
+        providerConfig.getInt(Configurations.AZURE_VM_CLEANUP_MAX_CONCURRENCY) :
+        8;
+  }
+
+  /**
+   * Gets the number of VMs created by each ARM template deployment.
+   *
+   * @return the deployment batch size
+   */
+  public static synchronized int getDeploymentBatchSize() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_DEPLOYMENT_BATCH_SIZE) ?
+        providerConfig.getInt(Configurations.AZURE_DEPLOYMENT_BATCH_SIZE) :
+        50;
+  }
+
+  /**
+   * Gets the maximum number of VM instance views fetched at once by getInstanceState.
+   *
+   * @return the maximum number of concurrent instance view fetches
+   */
+  public static synchronized int getInstanceViewMaxConcurrency() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_INSTANCE_VIEW_MAX_CONCURRENCY) ?
+        providerConfig.getInt(Configurations.AZURE_INSTANCE_VIEW_MAX_CONCURRENCY) :
+        16;
+  }
+
+  /**
+   * Gets how long (in seconds) instance states fetched by getInstanceState are reused.
+   *
+   * @return the instance state cache TTL in seconds
+   */
+  public static synchronized long getInstanceStateCacheTtl() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_INSTANCE_STATE_CACHE_TTL_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_INSTANCE_STATE_CACHE_TTL_SECONDS) :
+        5;
+  }
+
+  /**
+   * Gets the maximum number of instances whose VM, disks, NIC and public IP a delete tears down at
+   * once, which is also the maximum number of resource deletes it has in flight.
+   *
+   * @return the maximum number of instances, and of resources, deleted concurrently
+   */
+  public static synchronized int getVmDeleteMaxConcurrency() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_VM_DELETE_MAX_CONCURRENCY) ?
+        providerConfig.getInt(Configurations.AZURE_VM_DELETE_MAX_CONCURRENCY) :
+        64;
+  }
+
+  /**
+   * Gets the maximum number of Azure requests made at once while collecting the resources of the
+   * instances of a find or delete.
+   *
+   * @return the maximum number of concurrent metadata requests
+   */
+  public static synchronized int getMetadataMaxConcurrency() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_METADATA_MAX_CONCURRENCY) ?
+        providerConfig.getInt(Configurations.AZURE_METADATA_MAX_CONCURRENCY) :
+        8;
+  }
+
+  /**
+   * Gets how long (in seconds) the shared Azure clients of a set of credentials can go unused
+   * before they're dropped.
+   *
+   * @return the shared clients idle TTL in seconds; 0 to never drop them
+   */
+  public static synchronized long getSharedClientsIdleTtl() {
+    Config providerConfig = azurePluginConfig.getConfig(Configurations.AZURE_CONFIG_PROVIDER);
+    return providerConfig.hasPath(Configurations.AZURE_SHARED_CLIENTS_IDLE_TTL_SECONDS) ?
+        providerConfig.getLong(Configurations.AZURE_SHARED_CLIENTS_IDLE_TTL_SECONDS) :
+        3600;
+  }
 }
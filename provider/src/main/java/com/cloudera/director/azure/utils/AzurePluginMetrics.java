@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small in-plugin metrics registry holding named counters, gauges and latency histograms.
+ *
+ * The plugin uses a single shared registry (see {@link #getInstance()}); its contents are logged
+ * periodically as a one line summary (see azure-metrics-log-interval-seconds in the plugin config).
+ * Metrics are cumulative since the plugin was loaded.
+ */
+public final class AzurePluginMetrics {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AzurePluginMetrics.class);
+
+  private static final AzurePluginMetrics INSTANCE = new AzurePluginMetrics();
+
+  private static ScheduledExecutorService summaryLogger = null;
+
+  private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+  private final AtomicLong lastLoggedVersion = new AtomicLong(-1);
+
+  /**
+   * Returns the registry shared by the whole plugin.
+   *
+   * @return the shared registry
+   */
+  public static AzurePluginMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Starts logging a summary of the shared registry periodically, as configured in the plugin
+   * config. Does nothing if the summary log was already started.
+   */
+  public static synchronized void startSummaryLog() {
+    if (summaryLogger != null) {
+      return;
+    }
+    long intervalSeconds = AzurePluginConfigHelper.getMetricsLogInterval();
+    if (intervalSeconds <= 0) {
+      return;
+    }
+    summaryLogger = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("azure-metrics-%d")
+        .setDaemon(true)
+        .build());
+    summaryLogger.scheduleWithFixedDelay(INSTANCE::logSummaryIfChanged, intervalSeconds,
+        intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Increments a counter by one.
+   *
+   * @param name the counter name
+   */
+  public void increment(String name) {
+    add(name, 1);
+  }
+
+  /**
+   * Increments a counter.
+   *
+   * @param name  the counter name
+   * @param delta the amount to add
+   */
+  public void add(String name, long delta) {
+    counters.computeIfAbsent(name, n -> new AtomicLong()).addAndGet(delta);
+  }
+
+  /**
+   * Sets a gauge to its latest value.
+   *
+   * @param name  the gauge name
+   * @param value the latest value
+   */
+  public void setGauge(String name, long value) {
+    gauges.computeIfAbsent(name, n -> new AtomicLong()).set(value);
+  }
+
+  /**
+   * Records a latency.
+   *
+   * @param name   the histogram name
+   * @param millis the latency in milliseconds
+   */
+  public void recordLatency(String name, long millis) {
+    histograms.computeIfAbsent(name, n -> new Histogram()).record(millis);
+  }
+
+  /**
+   * @param name the counter name
+   * @return the counter value, 0 if it was never incremented
+   */
+  public long getCounter(String name) {
+    AtomicLong counter = counters.get(name);
+    return counter == null ? 0 : counter.get();
+  }
+
+  /**
+   * @param name the gauge name
+   * @return the latest gauge value, or null if it was never set
+   */
+  public Long getGauge(String name) {
+    AtomicLong gauge = gauges.get(name);
+    return gauge == null ? null : gauge.get();
+  }
+
+  /**
+   * @param name the histogram name
+   * @return the histogram, or null if nothing was recorded
+   */
+  public Histogram getHistogram(String name) {
+    return histograms.get(name);
+  }
+
+  /**
+   * Returns a one line summary of all metrics, sorted by name.
+   *
+   * @return the summary
+   */
+  public String summary() {
+    Map<String, String> entries = new TreeMap<>();
+    histograms.forEach((name, histogram) -> entries.put(name, histogram.toString()));
+    counters.forEach((name, counter) -> entries.put(name, String.valueOf(counter.get())));
+    gauges.forEach((name, gauge) -> entries.put(name, String.valueOf(gauge.get())));
+    return entries.entrySet().stream()
+        .map(e -> e.getKey() + ": " + e.getValue())
+        .collect(Collectors.joining("; "));
+  }
+
+  private void logSummaryIfChanged() {
+    // only log when something was recorded since the last summary
+    long version = histograms.values().stream().mapToLong(Histogram::getCount).sum() +
+        counters.values().stream().mapToLong(AtomicLong::get).sum();
+    if (lastLoggedVersion.getAndSet(version) != version) {
+      LOG.info("Azure plugin metrics: {}", summary());
+    }
+  }
+
+  /**
+   * A latency histogram with fixed buckets. Percentiles are reported as the upper bound of the
+   * bucket they fall in.
+   */
+  public static final class Histogram {
+
+    private static final long[] BUCKET_UPPER_BOUNDS_MILLIS =
+        {50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 120000, 300000, Long.MAX_VALUE};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_UPPER_BOUNDS_MILLIS.length);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    void record(long millis) {
+      int bucket = 0;
+      while (millis > BUCKET_UPPER_BOUNDS_MILLIS[bucket]) {
+        bucket++;
+      }
+      buckets.incrementAndGet(bucket);
+      count.incrementAndGet();
+      totalMillis.addAndGet(millis);
+      maxMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getMaxMillis() {
+      return maxMillis.get();
+    }
+
+    public long getMeanMillis() {
+      long n = count.get();
+      return n == 0 ? 0 : totalMillis.get() / n;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound (in milliseconds) of the bucket holding the percentile, capped at the
+     * max recorded latency
+     */
+    public long getPercentileMillis(double percentile) {
+      long n = count.get();
+      if (n == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(n * percentile / 100);
+      long seen = 0;
+      for (int i = 0; i < BUCKET_UPPER_BOUNDS_MILLIS.length; i++) {
+        seen += buckets.get(i);
+        if (seen >= rank) {
+          return Math.min(BUCKET_UPPER_BOUNDS_MILLIS[i], maxMillis.get());
+        }
+      }
+      return maxMillis.get();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("n=%d mean=%dms p50<=%dms p90<=%dms p99<=%dms max=%dms", getCount(),
+          getMeanMillis(), getPercentileMillis(50), getPercentileMillis(90), getPercentileMillis(99),
+          getMaxMillis());
+    }
+  }
+}
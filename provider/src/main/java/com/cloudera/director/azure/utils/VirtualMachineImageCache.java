@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.utils;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.microsoft.azure.management.compute.VirtualMachineImage;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide cache of Azure Marketplace image metadata (image reference and purchase plan), keyed
+ * by region, publisher, offer, SKU and version.
+ *
+ * Images with a pinned version never change, so they're cached for a long time. Images resolved
+ * from the "latest" version change when a new version is published, so they're cached for a short
+ * time only. Both are bounded in size; least recently used entries are evicted first. Missing
+ * images and failed lookups are not cached.
+ *
+ * Hits and misses are counted in the "vm-image-cache.hits" / "vm-image-cache.misses" metrics.
+ */
+public final class VirtualMachineImageCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(VirtualMachineImageCache.class);
+
+  public static final String HITS = "vm-image-cache.hits";
+  public static final String MISSES = "vm-image-cache.misses";
+
+  private static final String LATEST = "latest";
+
+  private static VirtualMachineImageCache instance = null;
+
+  private final Cache<List<String>, VirtualMachineImage> pinnedImages;
+  private final Cache<List<String>, VirtualMachineImage> latestImages;
+  private final AzurePluginMetrics metrics;
+
+  /**
+   * Returns the cache shared by the whole plugin, creating it from the plugin config on first use.
+   *
+   * @return the shared cache
+   */
+  public static synchronized VirtualMachineImageCache getInstance() {
+    if (instance == null) {
+      long ttlSeconds = AzurePluginConfigHelper.getVmImageCacheTtl();
+      long latestTtlSeconds = AzurePluginConfigHelper.getVmImageCacheLatestTtl();
+      long maxSize = AzurePluginConfigHelper.getVmImageCacheMaxSize();
+      LOG.info("Caching VM image metadata for {} seconds ({} seconds for latest versions), up to {} " +
+          "images.", ttlSeconds, latestTtlSeconds, maxSize);
+      instance = new VirtualMachineImageCache(ttlSeconds, latestTtlSeconds, maxSize,
+          AzurePluginMetrics.getInstance(), System::nanoTime);
+    }
+    return instance;
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param ttlSeconds       how long images with a pinned version are cached, 0 to not cache them
+   * @param latestTtlSeconds how long images with the latest version are cached, 0 to not cache them
+   * @param maxSize          the maximum number of images of each kind to cache
+   * @param metrics          the registry to count hits and misses into
+   * @param nanoClock        the source of time, in nanoseconds
+   */
+  VirtualMachineImageCache(long ttlSeconds, long latestTtlSeconds, long maxSize,
+      AzurePluginMetrics metrics, LongSupplier nanoClock) {
+    requireNonNull(nanoClock, "nanoClock is null");
+    Ticker ticker = new Ticker() {
+      @Override
+      public long read() {
+        return nanoClock.getAsLong();
+      }
+    };
+    this.pinnedImages = CacheBuilder.newBuilder()
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .maximumSize(maxSize)
+        .ticker(ticker)
+        .build();
+    this.latestImages = CacheBuilder.newBuilder()
+        .expireAfterWrite(latestTtlSeconds, TimeUnit.SECONDS)
+        .maximumSize(maxSize)
+        .ticker(ticker)
+        .build();
+    this.metrics = requireNonNull(metrics, "metrics is null");
+  }
+
+  /**
+   * Gets an image, from the cache if present, otherwise from the loader (which makes the Azure
+   * backend call).
+   *
+   * @param region    the region name or label
+   * @param publisher the image publisher
+   * @param offer     the image offer
+   * @param sku       the image SKU
+   * @param version   the image version, or "latest"
+   * @param loader    gets the image from Azure; may return null if the image does not exist
+   * @return the image, or null if it does not exist
+   */
+  public VirtualMachineImage getImage(String region, String publisher, String offer, String sku,
+      String version, Supplier<VirtualMachineImage> loader) {
+    requireNonNull(loader, "loader is null");
+    Cache<List<String>, VirtualMachineImage> cache =
+        LATEST.equalsIgnoreCase(version) ? latestImages : pinnedImages;
+    List<String> key = Arrays.asList(normalize(region), normalize(publisher), normalize(offer),
+        normalize(sku), normalize(version));
+
+    VirtualMachineImage image = cache.getIfPresent(key);
+    if (image != null) {
+      metrics.increment(HITS);
+      return image;
+    }
+
+    metrics.increment(MISSES);
+    image = loader.get();
+    if (image != null) {
+      cache.put(key, image);
+    }
+    return image;
+  }
+
+  /**
+   * Normalizes a key part: region labels ("West US") and names ("westus") map to the same key, and
+   * Azure compares image fields case insensitively.
+   */
+  private static String normalize(String value) {
+    return value == null ? "" : value.replace(" ", "").toLowerCase(Locale.ROOT);
+  }
+}
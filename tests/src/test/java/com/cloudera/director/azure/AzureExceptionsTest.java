@@ -6,6 +6,7 @@ import static com.cloudera.director.azure.AzureExceptions.AZURE_ERROR_CODE;
 import static com.cloudera.director.azure.AzureExceptions.AZURE_ERROR_MESSAGE;
 import static com.cloudera.director.azure.AzureExceptions.MESSAGE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Map;
@@ -19,6 +20,7 @@ import com.cloudera.director.spi.v2.model.exception.PluginExceptionDetails;
 import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.cloudera.director.azure.shaded.com.microsoft.aad.adal4j.AuthenticationException;
 import com.cloudera.director.azure.shaded.com.microsoft.azure.CloudError;
 import com.cloudera.director.azure.shaded.com.microsoft.azure.CloudException;
 import org.junit.Test;
@@ -176,6 +178,21 @@ public class AzureExceptionsTest {
     }
   }
 
+  @Test(expected = InvalidCredentialsException.class)
+  public void testWrappedAuthorizationFailedException() {
+    CloudException e = createCloudException(AzureExceptions.AUTHORIZATION_FAILED);
+    try {
+      throw AzureExceptions.propagateUnrecoverable(PLUGIN_ERROR_MESSAGE, new Exception(e.getMessage(), e));
+    } catch (InvalidCredentialsException ex) {
+      assertEquals(PLUGIN_ERROR_MESSAGE, ex.getMessage());
+      verifySingleError(ex,
+          "Service principal doesn't have sufficient access.",
+          AzureExceptions.AUTHORIZATION_FAILED,
+          AZURE_PROVIDER_ERROR_MESSAGE);
+      throw ex;
+    }
+  }
+
   @Test(expected = UnrecoverableProviderException.class)
   public void testNestedCloudExceptionWithDetails() {
     CloudException e = createCloudException("ResourceDeploymentFailure");
@@ -224,6 +241,34 @@ public class AzureExceptionsTest {
     }
   }
 
+  @Test
+  public void testIsAuthenticationFailure() {
+    assertTrue(AzureExceptions.isAuthenticationFailure(
+        createCloudException(AzureExceptions.INVALID_AUTHENTICATION_TOKEN)));
+    assertTrue(AzureExceptions.isAuthenticationFailure(new RuntimeException(
+        createCloudException(AzureExceptions.INVALID_AUTHENTICATION_TOKEN))));
+    assertTrue(AzureExceptions.isAuthenticationFailure(new RuntimeException(
+        new AuthenticationException("AADSTS70002: Error validating credentials."))));
+
+    assertFalse(AzureExceptions.isAuthenticationFailure(
+        createCloudException(AzureExceptions.AUTHORIZATION_FAILED)));
+    assertFalse(AzureExceptions.isAuthenticationFailure(createException("error message")));
+    assertFalse(AzureExceptions.isAuthenticationFailure(null));
+  }
+
+  @Test
+  public void testRetryableErrorCodes() {
+    assertTrue(AzureExceptions.isRetryableErrorCode("AnotherOperationInProgress"));
+    assertTrue(AzureExceptions.isRetryableErrorCode("TooManyRequests"));
+    assertFalse(AzureExceptions.isRetryableErrorCode(AzureExceptions.RESOURCE_QUOTA_EXCEEDED));
+    assertFalse(AzureExceptions.isRetryableErrorCode(null));
+
+    assertTrue(AzureExceptions.isNonRetryableErrorCode(AzureExceptions.RESOURCE_QUOTA_EXCEEDED));
+    assertTrue(AzureExceptions.isNonRetryableErrorCode(AzureExceptions.AUTHORIZATION_FAILED));
+    assertFalse(AzureExceptions.isNonRetryableErrorCode("ServerBusy"));
+    assertFalse(AzureExceptions.isNonRetryableErrorCode(null));
+  }
+
   private void verifySingleError(AbstractPluginException ex, String expectedMessage,
                                      String expectedErrorCode, String expectedErrorMessage) {
     Map<String, SortedSet<PluginExceptionCondition>> conditionsByKey =
@@ -17,14 +17,25 @@
 
 package com.cloudera.director.azure.compute.credentials;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 import com.cloudera.director.azure.AzureCreator;
 import com.cloudera.director.azure.AzureLauncher;
+import com.cloudera.director.azure.Configurations;
+import com.cloudera.director.azure.TestHelper;
+import com.cloudera.director.azure.shaded.com.microsoft.aad.adal4j.AuthenticationException;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.Azure;
+import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
 import com.cloudera.director.spi.v2.model.exception.InvalidCredentialsException;
 import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
 import com.cloudera.director.spi.v2.provider.Launcher;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -78,4 +89,109 @@ public class AzureCredentialsTest {
     Launcher launcher = new AzureLauncher();
     new AzureCredentials(new SimpleConfiguration(map), launcher.getLocalizationContext(Locale.getDefault()));
   }
+
+  @Test
+  public void idleSharedClientsAreDroppedAndRebuiltOnNextUse() throws Exception {
+    AzurePluginConfigHelper.setAzurePluginConfig(AzurePluginConfigHelper
+        .parseConfigFromClasspath(Configurations.AZURE_CONFIG_FILENAME));
+    try {
+      // building the clients doesn't call Azure, so any identity will do
+      Map<String, String> map = AzureCreator.newBuilder()
+          .setSubscriptionId("00000000-0000-0000-0000-000000000001")
+          .setTenantId("00000000-0000-0000-0000-000000000002")
+          .setClientId("00000000-0000-0000-0000-000000000003")
+          .setClientSecret("idle-clients-test")
+          .build()
+          .createMap();
+      Launcher launcher = new AzureLauncher();
+      AzureCredentials credentials =
+          new AzureCredentials(new SimpleConfiguration(map), launcher.getLocalizationContext(Locale.getDefault()));
+      Azure azure = credentials.authenticate();
+
+      // recently used clients are kept
+      AzureCredentials.evictIdleClients(System.nanoTime());
+      assertThat(credentials.authenticate()).isSameAs(azure);
+
+      long ttl = TimeUnit.SECONDS.toNanos(AzurePluginConfigHelper.getSharedClientsIdleTtl());
+      assertThat(AzureCredentials.evictIdleClients(System.nanoTime() + ttl + 1)).isGreaterThanOrEqualTo(1);
+      assertThat(credentials.authenticate()).isNotSameAs(azure);
+    } finally {
+      TestHelper.setAzurePluginConfigNull();
+    }
+  }
+
+  @Test
+  public void sharedValuesAreReleasedWithTheirClientsAndNeverHandedOutFromClosedClients() throws Exception {
+    AzurePluginConfigHelper.setAzurePluginConfig(AzurePluginConfigHelper
+        .parseConfigFromClasspath(Configurations.AZURE_CONFIG_FILENAME));
+    try {
+      // building the clients doesn't call Azure, so any identity will do
+      Map<String, String> map = AzureCreator.newBuilder()
+          .setSubscriptionId("00000000-0000-0000-0000-000000000001")
+          .setTenantId("00000000-0000-0000-0000-000000000002")
+          .setClientId("00000000-0000-0000-0000-000000000003")
+          .setClientSecret("shared-values-test")
+          .build()
+          .createMap();
+      Launcher launcher = new AzureLauncher();
+      AzureCredentials credentials =
+          new AzureCredentials(new SimpleConfiguration(map), launcher.getLocalizationContext(Locale.getDefault()));
+      List<Object> released = new ArrayList<>();
+
+      Object value = credentials.getShared("value", (azure, msiManager) -> new Object(), released::add);
+      assertThat(credentials.getShared("value", (azure, msiManager) -> new Object(), released::add))
+          .isSameAs(value);
+
+      credentials.invalidateClients();
+      assertThat(released).hasSize(1).contains(value);
+
+      // the clients are dropped while the value is being created: it's released, and created again on new clients
+      AtomicInteger created = new AtomicInteger();
+      Object rebuilt = credentials.getShared("value", (azure, msiManager) -> {
+        if (created.incrementAndGet() == 1) {
+          credentials.invalidateClients();
+        }
+        return new Object();
+      }, released::add);
+      assertThat(created.get()).isEqualTo(2);
+      assertThat(released).hasSize(2).doesNotContain(rebuilt);
+      assertThat(credentials.getShared("value", (azure, msiManager) -> new Object(), released::add))
+          .isSameAs(rebuilt);
+    } finally {
+      TestHelper.setAzurePluginConfigNull();
+    }
+  }
+
+  @Test
+  public void authenticationFailureOnlyDropsTheClientsThatFailed() throws Exception {
+    AzurePluginConfigHelper.setAzurePluginConfig(AzurePluginConfigHelper
+        .parseConfigFromClasspath(Configurations.AZURE_CONFIG_FILENAME));
+    try {
+      // building the clients doesn't call Azure, so any identity will do
+      Map<String, String> map = AzureCreator.newBuilder()
+          .setSubscriptionId("00000000-0000-0000-0000-000000000001")
+          .setTenantId("00000000-0000-0000-0000-000000000002")
+          .setClientId("00000000-0000-0000-0000-000000000003")
+          .setClientSecret("stale-clients-test")
+          .build()
+          .createMap();
+      Launcher launcher = new AzureLauncher();
+      AzureCredentials credentials =
+          new AzureCredentials(new SimpleConfiguration(map), launcher.getLocalizationContext(Locale.getDefault()));
+      AuthenticationException failure = new AuthenticationException("invalid client secret");
+
+      Azure stale = credentials.authenticate();
+      assertThat(credentials.invalidateClientsOnAuthenticationFailure(new RuntimeException("throttled"), stale))
+          .isFalse();
+      assertThat(credentials.invalidateClientsOnAuthenticationFailure(failure, stale)).isTrue();
+
+      // a late failure from a caller still holding the stale clients keeps the rebuilt ones
+      Azure rebuilt = credentials.authenticate();
+      assertThat(rebuilt).isNotSameAs(stale);
+      assertThat(credentials.invalidateClientsOnAuthenticationFailure(failure, stale)).isFalse();
+      assertThat(credentials.authenticate()).isSameAs(rebuilt);
+    } finally {
+      TestHelper.setAzurePluginConfigNull();
+    }
+  }
 }
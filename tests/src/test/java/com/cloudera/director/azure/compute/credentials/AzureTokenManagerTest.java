@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.compute.credentials;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudera.director.azure.AzureExceptions;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.AzureEnvironment;
+import com.cloudera.director.azure.shaded.okhttp3.OkHttpClient;
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * AzureTokenManager tests against a local fake AAD token endpoint.
+ */
+public class AzureTokenManagerTest {
+
+  private static final String TENANT = "tenant";
+  private static final String RESOURCE = "https://management.core.windows.net/";
+
+  private final AtomicInteger tokenRequests = new AtomicInteger();
+  private volatile int status = 200;
+  private volatile String body;
+
+  private HttpServer server;
+  private AzureEnvironment environment;
+  private AzureTokenManager tokenManager;
+
+  @Before
+  public void setUp() throws Exception {
+    respondWithToken(3600);
+
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/" + TENANT + "/oauth2/token", exchange -> {
+      int n = tokenRequests.incrementAndGet();
+      byte[] response = body.replace("${n}", String.valueOf(n)).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, response.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(response);
+      }
+    });
+    server.start();
+
+    environment = new AzureEnvironment(ImmutableMap.of("activeDirectoryEndpointUrl",
+        "http://localhost:" + server.getAddress().getPort() + "/"));
+  }
+
+  @After
+  public void tearDown() {
+    if (tokenManager != null) {
+      tokenManager.close();
+    }
+    server.stop(0);
+  }
+
+  @Test
+  public void tokenIsAcquiredOnceAndReused() throws Exception {
+    tokenManager = newTokenManager(300);
+
+    assertEquals("token-1", tokenManager.getToken(RESOURCE));
+    assertEquals("token-1", tokenManager.getToken(RESOURCE));
+
+    assertEquals(1, tokenRequests.get());
+    assertEquals(1, tokenManager.getRefreshCount());
+    assertEquals(0, tokenManager.getRefreshFailureCount());
+  }
+
+  @Test
+  public void tokenIsRenewedInTheBackgroundBeforeExpiry() throws Exception {
+    // a 32 second token renewed 31 seconds before expiry is renewed after ~1 second
+    respondWithToken(32);
+    tokenManager = newTokenManager(31);
+
+    assertEquals("token-1", tokenManager.getToken(RESOURCE));
+
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+    while (tokenManager.getRefreshCount() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+
+    assertTrue(tokenManager.getRefreshCount() >= 2);
+    assertTrue(tokenRequests.get() >= 2);
+    assertNotEquals("token-1", tokenManager.getToken(RESOURCE));
+  }
+
+  @Test
+  public void failureIsReportedAsAuthenticationFailure() throws Exception {
+    status = 401;
+    body = "{\"error\":\"invalid_client\",\"error_description\":\"AADSTS70002: Error validating " +
+        "credentials. AADSTS50012: Invalid client secret is provided.\"}";
+    tokenManager = newTokenManager(300);
+
+    try {
+      tokenManager.getToken(RESOURCE);
+      fail("Expected token acquisition to fail.");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("AADSTS70002"));
+      assertTrue(AzureExceptions.isAuthenticationFailure(e));
+    }
+    assertEquals(0, tokenManager.getRefreshCount());
+    assertEquals(1, tokenManager.getRefreshFailureCount());
+  }
+
+  private AzureTokenManager newTokenManager(long refreshMarginSeconds) {
+    return new AzureTokenManager("client", TENANT, "secret", environment, new OkHttpClient(),
+        refreshMarginSeconds);
+  }
+
+  private void respondWithToken(long expiresInSeconds) {
+    status = 200;
+    body = "{\"token_type\":\"Bearer\",\"expires_in\":\"" + expiresInSeconds + "\"," +
+        "\"access_token\":\"token-${n}\"}";
+  }
+}
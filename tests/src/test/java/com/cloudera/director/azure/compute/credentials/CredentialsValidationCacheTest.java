@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.compute.credentials;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * CredentialsValidationCache tests.
+ */
+public class CredentialsValidationCacheTest {
+
+  private static final String KEY = "key";
+
+  private final AtomicLong now = new AtomicLong();
+  private final AtomicInteger calls = new AtomicInteger();
+
+  // only IOExceptions are treated as transient
+  private final CredentialsValidationCache<String> cache =
+      new CredentialsValidationCache<>(() -> 60, () -> 5, e -> !(e instanceof IOException), now::get);
+
+  @Test
+  public void successIsCachedUntilTtlExpires() throws Exception {
+    cache.validate(KEY, calls::incrementAndGet);
+    cache.validate(KEY, calls::incrementAndGet);
+    assertEquals(1, calls.get());
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+    cache.validate(KEY, calls::incrementAndGet);
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void failureIsCachedForFailureTtlAndRethrown() throws Exception {
+    Exception failure = new Exception("invalid credentials");
+    CredentialsValidationCache.Validation failing = () -> {
+      calls.incrementAndGet();
+      throw failure;
+    };
+
+    assertSame(failure, validateExpectingFailure(failing));
+    Exception cached = validateExpectingFailure(failing);
+    assertSame(failure, cached.getCause());
+    assertEquals(failure.getMessage(), cached.getMessage());
+    assertNotSame(cached, validateExpectingFailure(failing));
+    assertEquals(1, calls.get());
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+    cache.validate(KEY, calls::incrementAndGet);
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void transientFailureIsNotCached() throws Exception {
+    IOException failure = new IOException("connection reset");
+    CredentialsValidationCache.Validation failing = () -> {
+      calls.incrementAndGet();
+      throw failure;
+    };
+
+    assertSame(failure, validateExpectingFailure(failing));
+    cache.validate(KEY, calls::incrementAndGet);
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void invalidateForcesNewValidation() throws Exception {
+    cache.validate(KEY, calls::incrementAndGet);
+    cache.invalidate(KEY);
+    cache.validate(KEY, calls::incrementAndGet);
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void zeroTtlDisablesCaching() throws Exception {
+    CredentialsValidationCache<String> uncached =
+        new CredentialsValidationCache<>(() -> 0, () -> 0, e -> true, now::get);
+    uncached.validate(KEY, calls::incrementAndGet);
+    uncached.validate(KEY, calls::incrementAndGet);
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void concurrentCallersShareOneValidation() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CredentialsValidationCache.Validation slow = () -> {
+      calls.incrementAndGet();
+      started.countDown();
+      release.await();
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      futures.add(executor.submit(() -> {
+        cache.validate(KEY, slow);
+        return null;
+      }));
+      started.await();
+      for (int i = 0; i < 3; i++) {
+        futures.add(executor.submit(() -> {
+          cache.validate(KEY, slow);
+          return null;
+        }));
+      }
+      release.countDown();
+      for (Future<?> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void errorReleasesConcurrentCallers() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CredentialsValidationCache.Validation throwingError = () -> {
+      calls.incrementAndGet();
+      started.countDown();
+      release.await();
+      throw new AssertionError("validation error");
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<?> first = executor.submit(() -> {
+        cache.validate(KEY, throwingError);
+        return null;
+      });
+      started.await();
+      Future<?> waiting = executor.submit(() -> {
+        cache.validate(KEY, throwingError);
+        return null;
+      });
+      release.countDown();
+      for (Future<?> future : Arrays.asList(first, waiting)) {
+        try {
+          future.get(10, TimeUnit.SECONDS);
+          fail("Expected validation to fail.");
+        } catch (ExecutionException e) {
+          // expected
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // the error isn't cached
+    cache.validate(KEY, calls::incrementAndGet);
+  }
+
+  private Exception validateExpectingFailure(CredentialsValidationCache.Validation validation) {
+    try {
+      cache.validate(KEY, validation);
+    } catch (Exception e) {
+      return e;
+    }
+    fail("Expected validation to fail.");
+    return null;
+  }
+}
@@ -26,12 +26,16 @@ import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute
 import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.VirtualMachine;
 import com.cloudera.director.azure.shaded.com.microsoft.azure.management.network.NetworkInterface;
 import com.cloudera.director.azure.shaded.com.microsoft.azure.management.network.PublicIPAddress;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.resources.fluentcore.collection.SupportsDeletingById;
+import com.cloudera.director.azure.shaded.rx.Completable;
 import com.cloudera.director.spi.v2.provider.Launcher;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 import org.junit.Assume;
 import org.junit.BeforeClass;
@@ -120,9 +124,6 @@ public class AzureComputeProviderDeleteOrphanedResourcesTest {
     ArrayList<String> resourceIds = new ArrayList<>();
     ArrayList<String> vmIds = new ArrayList<>();
 
-    StringBuilder deleteFailedBuilder = new StringBuilder(
-        String.format("Delete Failure - not all resources deleted: "));
-
 
     // List all VMs in the RG, delete failed one and ones with specific tag/value pair
     // NOTE: we only delete failed VMs but not old VMs. There may be some long-lived VM in the RG
@@ -144,14 +145,12 @@ public class AzureComputeProviderDeleteOrphanedResourcesTest {
     }
     if (!resourceIds.isEmpty()) {
       LOG.info("Delete failed VMs: {}", resourceIds);
-      allocator.asyncDeleteByIdHelper(azure.virtualMachines(), "Virtual Machines",
-          resourceIds, deleteFailedBuilder);
+      deleteAll(allocator, azure.virtualMachines(), resourceIds);
       resourceIds.clear();
     }
     if (!vmIds.isEmpty()) {
       LOG.info("Delete VMs with tag key/value pair {}/{} : {}", tagName, tagValue, vmIds);
-      allocator.asyncDeleteByIdHelper(azure.virtualMachines(), "Virtual Machines",
-          vmIds, deleteFailedBuilder);
+      deleteAll(allocator, azure.virtualMachines(), vmIds);
     }
 
     // Find all orphaned Managed Disks and delete them
@@ -163,8 +162,7 @@ public class AzureComputeProviderDeleteOrphanedResourcesTest {
     }
     if (!resourceIds.isEmpty()) {
       LOG.info("Delete orphaned Disks");
-      allocator.asyncDeleteByIdHelper(azure.disks(), "Managed Disks", resourceIds,
-          deleteFailedBuilder);
+      deleteAll(allocator, azure.disks(), resourceIds);
       resourceIds.clear();
     }
 
@@ -177,8 +175,7 @@ public class AzureComputeProviderDeleteOrphanedResourcesTest {
     }
     if (!resourceIds.isEmpty()) {
       LOG.info("Delete orphaned NICs");
-      allocator.asyncDeleteByIdHelper(azure.networkInterfaces(), "Network Interfaces",
-          resourceIds, deleteFailedBuilder);
+      deleteAll(allocator, azure.networkInterfaces(), resourceIds);
       resourceIds.clear();
     }
 
@@ -191,8 +188,7 @@ public class AzureComputeProviderDeleteOrphanedResourcesTest {
     }
     if (!resourceIds.isEmpty()) {
       LOG.info("Delete orphaned PublicIPs");
-      allocator.asyncDeleteByIdHelper(azure.publicIPAddresses(), "Public IPs",
-          resourceIds, deleteFailedBuilder);
+      deleteAll(allocator, azure.publicIPAddresses(), resourceIds);
       resourceIds.clear();
     }
 
@@ -206,9 +202,21 @@ public class AzureComputeProviderDeleteOrphanedResourcesTest {
         });
     if (!resourceIds.isEmpty()) {
       LOG.info("Delete VMSS with tag key/value pair {}/{} : {}", tagName, tagValue, resourceIds);
-      allocator.asyncDeleteByIdHelper(azure.virtualMachineScaleSets(), "VMSS", resourceIds,
-          deleteFailedBuilder);
+      deleteAll(allocator, azure.virtualMachineScaleSets(), resourceIds);
       resourceIds.clear();
     }
   }
+
+  /**
+   * Deletes the resources through the allocator's delete path and logs the ones that could not be deleted.
+   */
+  private static void deleteAll(VirtualMachineAllocator allocator, SupportsDeletingById endpoint,
+      Collection<String> resourceIds) {
+    Completable.merge(resourceIds.stream()
+        .map(id -> allocator.deleteByIdAsync(endpoint, id)
+            .doOnError(e -> LOG.error("Failed to delete {}.", id, e))
+            .onErrorComplete())
+        .collect(Collectors.toList()))
+        .await();
+  }
 }
@@ -16,26 +16,37 @@
 
 package com.cloudera.director.azure.compute.provider;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 
 import com.cloudera.director.azure.AzureCloudProvider;
+import com.cloudera.director.azure.AzureCreator;
 import com.cloudera.director.azure.AzureLauncher;
 import com.cloudera.director.azure.Configurations;
 import com.cloudera.director.azure.TestHelper;
+import com.cloudera.director.azure.compute.credentials.AzureCredentials;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
 import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplateConfigurationValidator;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.InstanceViewStatus;
 import com.cloudera.director.azure.shaded.com.typesafe.config.ConfigFactory;
 import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
+import com.cloudera.director.spi.v2.model.InstanceStatus;
+import com.cloudera.director.spi.v2.model.LocalizationContext;
 import com.cloudera.director.spi.v2.model.util.DefaultConfigurationValidator;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
 import com.cloudera.director.spi.v2.provider.CloudProvider;
 import com.cloudera.director.spi.v2.provider.Launcher;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 /**
  * AzureComputeProvider tests.
@@ -89,4 +100,65 @@ public class AzureComputeProviderTest {
     assertEquals(AzureComputeInstanceTemplateConfigurationValidator.class,
         provider.getResourceTemplateConfigurationValidator().getClass());
   }
+
+  @Test
+  public void providersWithTheSameCredentialsShareTheInstanceAllocatorAndItsStateCache() throws Exception {
+    AzurePluginConfigHelper.setAzurePluginConfig(AzurePluginConfigHelper
+        .parseConfigFromClasspath(Configurations.AZURE_CONFIG_FILENAME));
+
+    // building the clients doesn't call Azure, so any identity will do
+    Map<String, String> credentialsMap = AzureCreator.newBuilder()
+        .setSubscriptionId("00000000-0000-0000-0000-000000000001")
+        .setTenantId("00000000-0000-0000-0000-000000000002")
+        .setClientId("00000000-0000-0000-0000-000000000003")
+        .setClientSecret("shared-allocator-test")
+        .build()
+        .createMap();
+    Map<String, String> providerMap = TestHelper.buildValidDirectorUnitTestMap();
+    providerMap.put(AzureComputeProviderConfigurationProperty.REGION.unwrap().getConfigKey(), TestHelper.TEST_REGION);
+    SimpleConfiguration providerConfig = new SimpleConfiguration(providerMap);
+    LocalizationContext localizationContext = new AzureLauncher().getLocalizationContext(Locale.getDefault());
+    AzureComputeInstanceTemplate template = new AzureComputeInstanceTemplate("template",
+        TestHelper.buildValidDirectorUnitTestConfig(), Collections.emptyMap(), localizationContext);
+
+    InstanceAllocator delegate = Mockito.mock(InstanceAllocator.class);
+    Map<String, List<InstanceViewStatus>> states = Collections.singletonMap("a", Collections.emptyList());
+    Mockito.doReturn(states).when(delegate).getInstanceState(Mockito.any(), Mockito.any(), Mockito.any());
+
+    // Director creates new credentials and a new provider for each call
+    AzureComputeProvider first = newProvider(credentialsMap, providerConfig, localizationContext, delegate);
+    AzureComputeProvider second = newProvider(credentialsMap, providerConfig, localizationContext, delegate);
+    try {
+      assertThat(first.getInstanceState(template, Collections.singletonList("a")).get("a").getInstanceStatus())
+          .isEqualTo(InstanceStatus.UNKNOWN);
+      assertThat(second.getInstanceState(template, Collections.singletonList("a")).get("a").getInstanceStatus())
+          .isEqualTo(InstanceStatus.UNKNOWN);
+
+      // the second provider reused the first one's allocator, and the state it cached
+      Mockito.verify(first).createInstanceAllocator(
+          Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+      Mockito.verify(second, Mockito.never()).createInstanceAllocator(
+          Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+      Mockito.verify(delegate).getInstanceState(Mockito.any(), Mockito.any(), Mockito.any());
+    } finally {
+      // drops the shared clients, and shuts down the allocator shared through them
+      new AzureCredentials(new SimpleConfiguration(credentialsMap), localizationContext).invalidateClients();
+    }
+    Mockito.verify(delegate).shutdown();
+  }
+
+  private static AzureComputeProvider newProvider(
+      Map<String, String> credentialsMap,
+      SimpleConfiguration providerConfig,
+      LocalizationContext localizationContext,
+      InstanceAllocator delegate) throws Exception {
+    AzureCredentials credentials = Mockito.spy(
+        new AzureCredentials(new SimpleConfiguration(credentialsMap), localizationContext));
+    Mockito.doNothing().when(credentials).validateCached();
+    AzureComputeProvider provider = Mockito.spy(
+        new AzureComputeProvider(providerConfig, credentials, localizationContext));
+    Mockito.doReturn(delegate).when(provider).createInstanceAllocator(
+        Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+    return provider;
+  }
 }
@@ -22,14 +22,49 @@ import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMe
 import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMetadata.getVmId;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.cloudera.director.azure.Configurations;
+import com.cloudera.director.azure.TestHelper;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.Page;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.PagedList;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.Azure;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.Disk;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.Disks;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.VirtualMachine;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.VirtualMachines;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.network.NetworkInterface;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.network.NetworkInterfaces;
+import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
+import com.cloudera.director.spi.v2.model.util.DefaultLocalizationContext;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.BaseEncoding;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 
 import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 public class AzureVirtualMachineMetadataTest {
+  @Before
+  public void setUp() throws Exception {
+    // listByResourceGroup reads azure-metadata-max-concurrency
+    AzurePluginConfigHelper.setAzurePluginConfig(AzurePluginConfigHelper
+        .parseConfigFromClasspath(Configurations.AZURE_CONFIG_FILENAME));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    TestHelper.setAzurePluginConfigNull();
+  }
+
   @Test
   public void testGetFirstGroupOfUuidIsNullSafe() {
     assertThat(getFirstGroupOfUuid(null)).isNull();
@@ -88,4 +123,107 @@ public class AzureVirtualMachineMetadataTest {
         "aa:bb:cc:dd:ee:ff:00:11:22:33:44:55:66:77:88:99",
         "bb:cc:dd:ee:ff:00:11:22:33:44:55:66:77:88:99:aa");
   }
+
+  @Test
+  public void listByResourceGroupJoinsListedResourcesByName() {
+    DefaultLocalizationContext localizationContext = new DefaultLocalizationContext(Locale.getDefault(), "");
+    AzureComputeInstanceTemplate template = new AzureComputeInstanceTemplate("template",
+        TestHelper.buildValidDirectorUnitTestConfig(), Collections.emptyMap(), localizationContext);
+    String prefix = template.getInstanceNamePrefix();
+
+    VirtualMachine vm = vm(prefix + "-11111111-aaaa", "/vms/1", null);
+    // created by Director <= v2.5: its NIC isn't named after the instance
+    VirtualMachine legacyVm = vm(prefix + "-22222222-bbbb", "/vms/2", "/nics/legacy");
+    VirtualMachine standbyVm = vm(prefix + "-standby-44444444-dddd", "/vms/4", null);
+    Mockito.when(standbyVm.tags()).thenReturn(ImmutableMap.of(StandbyPool.CLAIM_TAG, "33333333-cccc"));
+
+    VirtualMachines virtualMachines = Mockito.mock(VirtualMachines.class);
+    Mockito.when(virtualMachines.listByResourceGroup("computeRG"))
+        .thenReturn(pagedList(vm, legacyVm, standbyVm));
+    Disks disks = Mockito.mock(Disks.class);
+    Mockito.when(disks.listByResourceGroup("computeRG")).thenReturn(pagedList(
+        disk("11111111-OS", "/disks/1-os"), disk("11111111-1", "/disks/1-1"), disk("44444444-os", "/disks/4-os")));
+    NetworkInterfaces nics = Mockito.mock(NetworkInterfaces.class);
+    Mockito.when(nics.listByResourceGroup("computeRG")).thenReturn(pagedList(
+        nic("11111111", "/nics/1"), nic("legacy", "/NICS/LEGACY")));
+    Azure azure = Mockito.mock(Azure.class);
+    Mockito.when(azure.virtualMachines()).thenReturn(virtualMachines);
+    Mockito.when(azure.disks()).thenReturn(disks);
+    Mockito.when(azure.networkInterfaces()).thenReturn(nics);
+
+    List<AzureVirtualMachineMetadata> metadatas = AzureVirtualMachineMetadata.listByResourceGroup(azure,
+        Arrays.asList("11111111-aaaa", "22222222-bbbb", "33333333-cccc", "55555555-eeee"), template,
+        localizationContext);
+
+    assertThat(metadatas).hasSize(4);
+    assertThat(metadatas.get(3).resourcesExist()).isFalse();
+    assertThat(AzureVirtualMachineMetadata.getVmIds(metadatas)).containsExactly("/vms/1", "/vms/2", "/vms/4");
+    assertThat(AzureVirtualMachineMetadata.getMdIds(metadatas))
+        .containsExactly("/disks/1-os", "/disks/1-1", "/disks/4-os");
+    assertThat(AzureVirtualMachineMetadata.getNicIds(metadatas)).containsExactly("/nics/1", "/nics/legacy");
+    assertThat(metadatas.get(2).getVirtualMachine()).isSameAs(standbyVm);
+    Mockito.verify(virtualMachines, Mockito.never()).getByResourceGroup(Mockito.anyString(), Mockito.anyString());
+    Mockito.verify(disks, Mockito.never()).getByResourceGroup(Mockito.anyString(), Mockito.anyString());
+    Mockito.verify(legacyVm, Mockito.never()).getPrimaryNetworkInterface();
+  }
+
+  @Test
+  public void listByResourceGroupFailsIfAnyListingFails() {
+    DefaultLocalizationContext localizationContext = new DefaultLocalizationContext(Locale.getDefault(), "");
+    AzureComputeInstanceTemplate template = new AzureComputeInstanceTemplate("template",
+        TestHelper.buildValidDirectorUnitTestConfig(), Collections.emptyMap(), localizationContext);
+
+    VirtualMachines virtualMachines = Mockito.mock(VirtualMachines.class);
+    Mockito.when(virtualMachines.listByResourceGroup("computeRG")).thenReturn(pagedList());
+    Disks disks = Mockito.mock(Disks.class);
+    Mockito.when(disks.listByResourceGroup("computeRG")).thenReturn(pagedList());
+    NetworkInterfaces nics = Mockito.mock(NetworkInterfaces.class);
+    Mockito.when(nics.listByResourceGroup("computeRG")).thenThrow(new IllegalStateException("listing failed"));
+    Azure azure = Mockito.mock(Azure.class);
+    Mockito.when(azure.virtualMachines()).thenReturn(virtualMachines);
+    Mockito.when(azure.disks()).thenReturn(disks);
+    Mockito.when(azure.networkInterfaces()).thenReturn(nics);
+
+    try {
+      AzureVirtualMachineMetadata.listByResourceGroup(azure, Collections.singletonList("11111111-aaaa"), template,
+          localizationContext);
+      Assert.fail("listByResourceGroup returned although a listing failed");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("listing failed");
+    }
+  }
+
+  private static VirtualMachine vm(String name, String id, String primaryNicId) {
+    VirtualMachine vm = Mockito.mock(VirtualMachine.class);
+    Mockito.when(vm.name()).thenReturn(name);
+    Mockito.when(vm.id()).thenReturn(id);
+    Mockito.when(vm.primaryNetworkInterfaceId()).thenReturn(primaryNicId);
+    return vm;
+  }
+
+  private static Disk disk(String name, String id) {
+    Disk disk = Mockito.mock(Disk.class);
+    Mockito.when(disk.name()).thenReturn(name);
+    Mockito.when(disk.id()).thenReturn(id);
+    return disk;
+  }
+
+  private static NetworkInterface nic(String name, String id) {
+    NetworkInterface nic = Mockito.mock(NetworkInterface.class);
+    Mockito.when(nic.name()).thenReturn(name);
+    Mockito.when(nic.id()).thenReturn(id);
+    return nic;
+  }
+
+  @SafeVarargs
+  private static <T> PagedList<T> pagedList(T... items) {
+    PagedList<T> list = new PagedList<T>() {
+      @Override
+      public Page<T> nextPage(String nextPageLink) {
+        return null;
+      }
+    };
+    list.addAll(Arrays.asList(items));
+    return list;
+  }
 }
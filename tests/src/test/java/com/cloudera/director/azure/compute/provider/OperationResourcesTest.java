@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.cloudera.director.azure.compute.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.azure.shaded.com.microsoft.azure.Page;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.PagedList;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.Azure;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.VirtualMachine;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.VirtualMachines;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * OperationResources tests.
+ */
+public class OperationResourcesTest {
+
+  @Test
+  public void fetchesEachResourceAndListingOnce() {
+    VirtualMachine vm = Mockito.mock(VirtualMachine.class);
+    VirtualMachines virtualMachines = Mockito.mock(VirtualMachines.class);
+    Mockito.when(virtualMachines.getByResourceGroup("rg", "vm")).thenReturn(vm);
+    PagedList<VirtualMachine> list = new PagedList<VirtualMachine>() {
+      @Override
+      public Page<VirtualMachine> nextPage(String nextPageLink) {
+        return null;
+      }
+    };
+    list.add(vm);
+    Mockito.when(virtualMachines.listByResourceGroup("rg")).thenReturn(list);
+    Azure azure = Mockito.mock(Azure.class);
+    Mockito.when(azure.virtualMachines()).thenReturn(virtualMachines);
+
+    OperationResources resources = new OperationResources(azure, "rg");
+
+    assertThat(resources.getVm("vm")).isSameAs(vm);
+    // names are case insensitive
+    assertThat(resources.getVm("VM")).isSameAs(vm);
+    // missing resources are remembered too
+    assertThat(resources.getVm("missing")).isNull();
+    assertThat(resources.getVm("missing")).isNull();
+    assertThat(resources.listVms()).containsExactly(vm);
+    assertThat(resources.listVms()).containsExactly(vm);
+
+    Mockito.verify(virtualMachines).getByResourceGroup("rg", "vm");
+    Mockito.verify(virtualMachines).getByResourceGroup("rg", "missing");
+    Mockito.verify(virtualMachines).listByResourceGroup("rg");
+    Mockito.verifyNoMoreInteractions(virtualMachines);
+    assertThat(resources.list("Microsoft.Compute/virtualMachines", Collections::emptyList)).containsExactly(vm);
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.cloudera.director.azure.compute.provider;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * PrivateIpAddressPool tests.
+ */
+public class PrivateIpAddressPoolTest {
+
+  @Test
+  public void skipsAzureReservedAndUsedAddresses() {
+    PrivateIpAddressPool pool = new PrivateIpAddressPool("10.0.1.0/29",
+        Arrays.asList("10.0.1.4", "10.0.1.6"));
+
+    // .0-.3 are reserved by Azure, .7 is the broadcast address
+    assertEquals(1, pool.available());
+    assertEquals("10.0.1.5", pool.reserve());
+    assertEquals(0, pool.available());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void failsWhenTheSubnetIsFull() {
+    PrivateIpAddressPool pool = new PrivateIpAddressPool("10.0.1.0/29",
+        Arrays.asList("10.0.1.4", "10.0.1.5", "10.0.1.6"));
+    pool.reserve();
+  }
+
+  @Test
+  public void reusesReleasedAddressesFirst() {
+    PrivateIpAddressPool pool = new PrivateIpAddressPool("172.16.0.0/16", Collections.emptyList());
+
+    assertEquals("172.16.0.4", pool.reserve());
+    assertEquals("172.16.0.5", pool.reserve());
+    pool.release("172.16.0.4");
+    assertEquals("172.16.0.4", pool.reserve());
+    assertEquals("172.16.0.6", pool.reserve());
+    assertEquals(65536 - 5 - 3, pool.available());
+  }
+
+  @Test
+  public void keepsReservationsInFlightAcrossResets() {
+    PrivateIpAddressPool pool = new PrivateIpAddressPool("10.0.1.0/28", Collections.singletonList("10.0.1.4"));
+    assertEquals("10.0.1.5", pool.reserve());
+    assertEquals("10.0.1.6", pool.reserve());
+    pool.markUsed("10.0.1.6");
+
+    // re-read from the subnet: .4 and .6 were deleted, .7 was taken by someone else, .5 is still in flight
+    pool.reset(Collections.singletonList("10.0.1.7"));
+    assertEquals("10.0.1.4", pool.reserve());
+    assertEquals("10.0.1.6", pool.reserve());
+    assertEquals("10.0.1.8", pool.reserve());
+
+    // a used address isn't handed out again when released late
+    pool.markUsed("10.0.1.4");
+    pool.release("10.0.1.4");
+    pool.release("10.0.1.5");
+    assertEquals("10.0.1.5", pool.reserve());
+    assertEquals("10.0.1.9", pool.reserve());
+  }
+
+  @Test
+  public void crossesOctetBoundaries() {
+    PrivateIpAddressPool pool = new PrivateIpAddressPool("10.0.0.0/23",
+        Collections.singletonList("10.0.0.255"));
+    for (int i = 4; i < 255; i++) {
+      pool.reserve();
+    }
+    assertEquals("10.0.1.0", pool.reserve());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidAddressPrefixes() {
+    new PrivateIpAddressPool("10.0.0.0", Collections.emptyList());
+  }
+}
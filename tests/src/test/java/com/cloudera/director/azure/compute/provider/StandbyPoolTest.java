@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.cloudera.director.azure.compute.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.azure.TestHelper;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplateConfigurationProperty;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.Page;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.PagedList;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.Azure;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.VirtualMachine;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.VirtualMachines;
+import com.cloudera.director.spi.v2.model.util.DefaultLocalizationContext;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * StandbyPool tests.
+ */
+public class StandbyPoolTest {
+
+  private static final DefaultLocalizationContext DEFAULT_LOCALIZATION_CONTEXT =
+      new DefaultLocalizationContext(Locale.getDefault(), "");
+
+  @Test
+  public void fingerprintIgnoresPoolSettingsButNotVmSettings() {
+    String fingerprint = fingerprint(TestHelper.buildValidDirectorUnitTestMap());
+
+    Map<String, String> biggerPool = TestHelper.buildValidDirectorUnitTestMap();
+    biggerPool.put(AzureComputeInstanceTemplateConfigurationProperty.STANDBY_POOL_SIZE.unwrap().getConfigKey(), "5");
+    assertThat(fingerprint(biggerPool)).isEqualTo(fingerprint);
+
+    Map<String, String> moreDisks = TestHelper.buildValidDirectorUnitTestMap();
+    moreDisks.put(AzureComputeInstanceTemplateConfigurationProperty.DATA_DISK_COUNT.unwrap().getConfigKey(), "3");
+    assertThat(fingerprint(moreDisks)).isNotEqualTo(fingerprint);
+  }
+
+  @Test
+  public void findsOnlyTheStandbyVmsClaimedForTheInstances() {
+    VirtualMachine claimed = vm("director-standby-11111111-aaaa",
+        ImmutableMap.of(StandbyPool.TEMPLATE_TAG, "f", StandbyPool.CLAIM_TAG, "instance-1"));
+    VirtualMachine claimedElsewhere = vm("director-standby-22222222-bbbb",
+        ImmutableMap.of(StandbyPool.TEMPLATE_TAG, "f", StandbyPool.CLAIM_TAG, "instance-2"));
+    VirtualMachine onStandby = vm("director-standby-33333333-cccc",
+        ImmutableMap.of(StandbyPool.TEMPLATE_TAG, "f"));
+    VirtualMachine regular = vm("director-instance-3",
+        ImmutableMap.of(StandbyPool.CLAIM_TAG, "instance-3"));
+    Azure azure = azureListing(claimed, claimedElsewhere, onStandby, regular);
+
+    Map<String, VirtualMachine> found = StandbyPool.findClaimedVms(azure, "rg", "director",
+        Arrays.asList("instance-1", "instance-3"));
+
+    assertThat(found.keySet()).containsOnly("instance-1");
+    assertThat(StandbyPool.getPoolId(found.get("instance-1"), "director")).isEqualTo("11111111-aaaa");
+    assertThat(StandbyPool.listVms(azure, "rg", "director")).containsExactly(claimed, claimedElsewhere, onStandby);
+    assertThat(StandbyPool.findClaimedVms(azure, "rg", "director", Collections.emptyList())).isEmpty();
+  }
+
+  private static String fingerprint(Map<String, String> config) {
+    AzureComputeInstanceTemplate template = new AzureComputeInstanceTemplate("template",
+        new SimpleConfiguration(config), Collections.emptyMap(), DEFAULT_LOCALIZATION_CONTEXT);
+    return StandbyPool.fingerprint(template, DEFAULT_LOCALIZATION_CONTEXT);
+  }
+
+  private static VirtualMachine vm(String name, Map<String, String> tags) {
+    VirtualMachine vm = Mockito.mock(VirtualMachine.class);
+    Mockito.when(vm.name()).thenReturn(name);
+    Mockito.when(vm.tags()).thenReturn(tags);
+    return vm;
+  }
+
+  private static Azure azureListing(VirtualMachine... vms) {
+    PagedList<VirtualMachine> list = new PagedList<VirtualMachine>() {
+      @Override
+      public Page<VirtualMachine> nextPage(String nextPageLink) {
+        return null;
+      }
+    };
+    list.addAll(Arrays.asList(vms));
+    VirtualMachines virtualMachines = Mockito.mock(VirtualMachines.class);
+    Mockito.when(virtualMachines.listByResourceGroup("rg")).thenReturn(list);
+    Azure azure = Mockito.mock(Azure.class);
+    Mockito.when(azure.virtualMachines()).thenReturn(virtualMachines);
+    return azure;
+  }
+}
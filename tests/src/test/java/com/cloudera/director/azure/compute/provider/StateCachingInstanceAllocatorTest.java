@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.cloudera.director.azure.compute.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.azure.Configurations;
+import com.cloudera.director.azure.TestHelper;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.InstanceViewStatus;
+import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
+import com.cloudera.director.azure.utils.AzurePluginMetrics;
+import com.cloudera.director.spi.v2.model.util.DefaultLocalizationContext;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+
+/**
+ * StateCachingInstanceAllocator tests.
+ */
+public class StateCachingInstanceAllocatorTest {
+
+  private static final DefaultLocalizationContext DEFAULT_LOCALIZATION_CONTEXT =
+      new DefaultLocalizationContext(Locale.getDefault(), "");
+
+  private final AzurePluginMetrics metrics = new AzurePluginMetrics();
+  private InstanceAllocator delegate;
+  private StateCachingInstanceAllocator allocator;
+  private AzureComputeInstanceTemplate template;
+
+  @Before
+  public void setUp() throws Exception {
+    AzurePluginConfigHelper.setAzurePluginConfig(AzurePluginConfigHelper
+        .parseConfigFromClasspath(Configurations.AZURE_CONFIG_FILENAME));
+
+    delegate = Mockito.mock(InstanceAllocator.class);
+    Mockito.when(delegate.getInstanceState(Mockito.any(), Mockito.any(), Mockito.any()))
+        .thenAnswer(running());
+    allocator = new StateCachingInstanceAllocator(delegate, metrics);
+    template = new AzureComputeInstanceTemplate("template", TestHelper.buildValidDirectorUnitTestConfig(),
+        Collections.emptyMap(), DEFAULT_LOCALIZATION_CONTEXT);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    TestHelper.setAzurePluginConfigNull();
+  }
+
+  @Test
+  public void fetchesOnlyTheStatesThatArentCachedUntilTheInstancesAreDeleted() throws Exception {
+    allocator.getInstanceState(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList("a", "b"));
+    Map<String, List<InstanceViewStatus>> states =
+        allocator.getInstanceState(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList("a", "b", "c"));
+
+    assertThat(states.keySet()).containsOnly("a", "b", "c");
+    Mockito.verify(delegate).getInstanceState(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList("a", "b"));
+    Mockito.verify(delegate).getInstanceState(DEFAULT_LOCALIZATION_CONTEXT, template, Collections.singletonList("c"));
+
+    allocator.delete(DEFAULT_LOCALIZATION_CONTEXT, template, Collections.singletonList("a"));
+    allocator.getInstanceState(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList("a", "b"));
+
+    Mockito.verify(delegate).delete(DEFAULT_LOCALIZATION_CONTEXT, template, Collections.singletonList("a"));
+    Mockito.verify(delegate).getInstanceState(DEFAULT_LOCALIZATION_CONTEXT, template, Collections.singletonList("a"));
+    Mockito.verify(delegate, Mockito.times(3)).getInstanceState(Mockito.any(), Mockito.any(), Mockito.any());
+    assertThat(metrics.getCounter(StateCachingInstanceAllocator.CALLS)).isEqualTo(3);
+    assertThat(metrics.getCounter(StateCachingInstanceAllocator.BACKEND_CALLS)).isEqualTo(3);
+    assertThat(metrics.getCounter(StateCachingInstanceAllocator.HITS)).isEqualTo(3);
+    assertThat(metrics.getCounter(StateCachingInstanceAllocator.MISSES)).isEqualTo(4);
+  }
+
+  @Test
+  public void concurrentCallsShareTheFetchesOfOverlappingInstances() throws Exception {
+    CountDownLatch firstFetchStarted = new CountDownLatch(1);
+    CountDownLatch releaseFirstFetch = new CountDownLatch(1);
+    Mockito.when(delegate.getInstanceState(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList("a", "b")))
+        .thenAnswer(invocation -> {
+          firstFetchStarted.countDown();
+          assertThat(releaseFirstFetch.await(10, TimeUnit.SECONDS)).isTrue();
+          return running().answer(invocation);
+        });
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Map<String, List<InstanceViewStatus>>> first = executor.submit(() ->
+          allocator.getInstanceState(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList("a", "b")));
+      assertThat(firstFetchStarted.await(10, TimeUnit.SECONDS)).isTrue();
+      Future<Map<String, List<InstanceViewStatus>>> second = executor.submit(() ->
+          allocator.getInstanceState(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList("b", "c")));
+
+      // the second call fetches only the instance nobody is fetching, then waits for the first fetch
+      Mockito.verify(delegate, Mockito.timeout(10000))
+          .getInstanceState(DEFAULT_LOCALIZATION_CONTEXT, template, Collections.singletonList("c"));
+      releaseFirstFetch.countDown();
+
+      assertThat(first.get(10, TimeUnit.SECONDS).keySet()).containsOnly("a", "b");
+      assertThat(second.get(10, TimeUnit.SECONDS).keySet()).containsOnly("b", "c");
+      Mockito.verify(delegate, Mockito.times(2)).getInstanceState(Mockito.any(), Mockito.any(), Mockito.any());
+      assertThat(metrics.getCounter(StateCachingInstanceAllocator.SHARED)).isEqualTo(1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static Answer<Map<String, List<InstanceViewStatus>>> running() {
+    return invocation -> {
+      Map<String, List<InstanceViewStatus>> states = new HashMap<>();
+      for (String instanceId : invocation.<Collection<String>>getArgument(2)) {
+        states.put(instanceId, Collections.singletonList(new InstanceViewStatus().withCode("PowerState/running")));
+      }
+      return states;
+    };
+  }
+}
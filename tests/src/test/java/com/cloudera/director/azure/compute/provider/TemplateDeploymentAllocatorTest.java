@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.cloudera.director.azure.compute.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudera.director.azure.Configurations;
+import com.cloudera.director.azure.TestHelper;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstance;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplateConfigurationProperty;
+import com.cloudera.director.azure.shaded.com.fasterxml.jackson.databind.JsonNode;
+import com.cloudera.director.azure.shaded.com.fasterxml.jackson.databind.ObjectMapper;
+import com.cloudera.director.azure.shaded.com.fasterxml.jackson.databind.node.ObjectNode;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.AzureResponseBuilder;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.Azure;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.ImageReference;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.msi.implementation.MSIManager;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.serializer.AzureJacksonAdapter;
+import com.cloudera.director.azure.shaded.com.microsoft.rest.RestClient;
+import com.cloudera.director.azure.shaded.com.microsoft.rest.credentials.TokenCredentials;
+import com.cloudera.director.azure.shaded.com.typesafe.config.ConfigFactory;
+import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
+import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
+import com.cloudera.director.spi.v2.model.util.DefaultLocalizationContext;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * TemplateDeploymentAllocator tests against a local ARM stub that accepts and records deployments,
+ * fails or keeps running the ones it's told to, and lists the VMs it's told exist.
+ */
+public class TemplateDeploymentAllocatorTest {
+
+  private static final String SUBSCRIPTION = "00000000-0000-0000-0000-000000000000";
+  private static final String RG = "rg";
+  private static final String ID_1 = "aaaaaaaa-1111-4111-8111-111111111111";
+  private static final String ID_2 = "bbbbbbbb-2222-4222-8222-222222222222";
+  private static final String DEPLOYMENT = "director-vms-aaaaaaaa-2";
+  private static final DefaultLocalizationContext DEFAULT_LOCALIZATION_CONTEXT =
+      new DefaultLocalizationContext(Locale.getDefault(), "");
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  // "METHOD path" of every request, and the body of every deployment PUT
+  private final List<String> requests = new CopyOnWriteArrayList<>();
+  private final List<JsonNode> deployments = new CopyOnWriteArrayList<>();
+
+  // deployments whose PUT fails, the provisioning state of the others (Succeeded if not set), and
+  // the names of the VMs in the compute resource group
+  private final Set<String> failingDeployments = ConcurrentHashMap.newKeySet();
+  private final Map<String, String> deploymentStates = new ConcurrentHashMap<>();
+  private final List<String> vmNames = new CopyOnWriteArrayList<>();
+
+  private HttpServer server;
+  private Azure azure;
+
+  @Before
+  public void setUp() throws Exception {
+    AzurePluginConfigHelper.setAzurePluginConfig(AzurePluginConfigHelper
+        .parseConfigFromClasspath(Configurations.AZURE_CONFIG_FILENAME));
+
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      String path = exchange.getRequestURI().getPath();
+      String method = exchange.getRequestMethod();
+      requests.add(method + " " + path);
+
+      byte[] body = new byte[0];
+      int status = 404;
+      if (path.contains("/providers/Microsoft.Resources/deployments/") && path.endsWith("/cancel")) {
+        String name = path.substring(0, path.lastIndexOf('/'));
+        deploymentStates.put(name.substring(name.lastIndexOf('/') + 1), "Canceled");
+        status = 204;
+      } else if (path.contains("/providers/Microsoft.Resources/deployments/")) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if ("PUT".equals(method)) {
+          deployments.add(mapper.readTree(ByteStreams.toByteArray(exchange.getRequestBody())));
+        }
+        if ("DELETE".equals(method)) {
+          status = 204;
+        } else if ("PUT".equals(method) && failingDeployments.contains(name)) {
+          status = 400;
+          body = "{\"error\":{\"code\":\"InvalidTemplateDeployment\",\"message\":\"Quota exceeded.\"}}"
+              .getBytes(StandardCharsets.UTF_8);
+        } else {
+          status = 200;
+          body = ("{\"id\":\"" + path + "\",\"name\":\"" + name + "\",\"properties\":{\"provisioningState\":\"" +
+              deploymentStates.getOrDefault(name, "Succeeded") + "\",\"mode\":\"Incremental\"}}")
+              .getBytes(StandardCharsets.UTF_8);
+        }
+      } else if (path.endsWith("/providers/Microsoft.Compute/virtualMachines") && "GET".equals(method)) {
+        List<String> vms = new ArrayList<>();
+        for (String vmName : vmNames) {
+          vms.add(vmJson(path + "/" + vmName, vmName));
+        }
+        status = 200;
+        body = ("{\"value\":[" + String.join(",", vms) + "]}").getBytes(StandardCharsets.UTF_8);
+      }
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+      if (body.length > 0) {
+        exchange.getResponseBody().write(body);
+      }
+      exchange.close();
+    });
+    server.start();
+
+    RestClient restClient = new RestClient.Builder()
+        .withBaseUrl("http://localhost:" + server.getAddress().getPort() + "/")
+        .withCredentials(new TokenCredentials("Bearer", "token"))
+        .withSerializerAdapter(new AzureJacksonAdapter())
+        .withResponseBuilderFactory(new AzureResponseBuilder.Factory())
+        .build();
+    azure = Azure.authenticate(restClient, "tenant").withSubscription(SUBSCRIPTION);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop(0);
+    TestHelper.setAzurePluginConfigNull();
+  }
+
+  @Test
+  public void deploysTheRenderedTemplateInIncrementalMode() throws Exception {
+    TemplateDeploymentAllocator allocator = new TemplateDeploymentAllocator(azure,
+        Mockito.mock(MSIManager.class), (property, context) -> null);
+    ObjectNode template = newTemplate().render(Arrays.asList(ID_1, ID_2), Collections.emptyMap());
+
+    allocator.deploy(RG, "director-vms-aaaaaaaa-2", template);
+
+    assertEquals(1, deployments.size());
+    JsonNode properties = deployments.get(0).get("properties");
+    assertEquals("Incremental", properties.get("mode").asText());
+    assertEquals(mapper.readTree(template.toString()), properties.get("template"));
+    String deploymentPath = "/subscriptions/" + SUBSCRIPTION + "/resourcegroups/" + RG +
+        "/providers/Microsoft.Resources/deployments/director-vms-aaaaaaaa-2";
+    assertTrue(requests.stream().anyMatch(r -> r.equalsIgnoreCase("PUT " + deploymentPath)));
+    // the deployment record is removed once the deployment has succeeded
+    assertTrue(requests.stream().anyMatch(r -> r.equalsIgnoreCase("DELETE " + deploymentPath)));
+  }
+
+  @Test
+  public void rendersTheResourcesTheIndividualPathCreates() {
+    Map<String, String> privateIps = ImmutableMap.of(ID_1, "10.0.0.4");
+    JsonNode resources = newTemplate().render(Arrays.asList(ID_1, ID_2), privateIps).get("resources");
+
+    // public IP, NIC, two data disks and the VM per instance
+    assertEquals(10, resources.size());
+    assertEquals("aaaaaaaa", resources.get(0).get("name").asText());
+    assertEquals("Microsoft.Network/publicIPAddresses", resources.get(0).get("type").asText());
+
+    JsonNode ipConfig = resources.get(1).get("properties").get("ipConfigurations").get(0).get("properties");
+    assertEquals("Static", ipConfig.get("privateIPAllocationMethod").asText());
+    assertEquals("10.0.0.4", ipConfig.get("privateIPAddress").asText());
+    assertEquals("aaaaaaaa-1", resources.get(3).get("name").asText());
+
+    JsonNode vm = resources.get(4);
+    assertEquals(AzureVirtualMachineMetadata.getVmName(ID_1, "director"), vm.get("name").asText());
+    assertEquals(3, vm.get("dependsOn").size());
+    JsonNode storageProfile = vm.get("properties").get("storageProfile");
+    assertEquals("aaaaaaaa" + AzureVirtualMachineMetadata.MANAGED_OS_DISK_SUFFIX,
+        storageProfile.get("osDisk").get("name").asText());
+    assertEquals(2, storageProfile.get("dataDisks").size());
+    assertEquals("prod", vm.get("tags").get("env").asText());
+
+    JsonNode secondIpConfig = resources.get(6).get("properties").get("ipConfigurations").get(0).get("properties");
+    assertEquals("Dynamic", secondIpConfig.get("privateIPAllocationMethod").asText());
+  }
+
+  @Test
+  public void keepsTheVmsOfAPartiallyFailedDeploymentAndDeletesTheOthers() throws Exception {
+    AzureComputeInstanceTemplate template = newInstanceTemplate("Yes");
+    TemplateDeploymentAllocator allocator = newAllocator();
+    failingDeployments.add(DEPLOYMENT);
+    vmNames.add(AzureVirtualMachineMetadata.getVmName(ID_1, template.getInstanceNamePrefix()));
+
+    Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>> instances =
+        allocator.createInstances(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList(ID_1, ID_2), 1);
+
+    assertEquals(1, instances.size());
+    assertEquals(ID_1, instances.iterator().next().getId());
+    assertEquals(1, deployments.size());
+    Mockito.verify(allocator).delete(DEFAULT_LOCALIZATION_CONTEXT, template, Collections.singletonList(ID_2));
+  }
+
+  @Test
+  public void deletesEverythingWhenFewerThanMinCountAreDeployed() throws Exception {
+    AzureComputeInstanceTemplate template = newInstanceTemplate("Yes");
+    TemplateDeploymentAllocator allocator = newAllocator();
+    failingDeployments.add(DEPLOYMENT);
+    vmNames.add(AzureVirtualMachineMetadata.getVmName(ID_1, template.getInstanceNamePrefix()));
+
+    try {
+      allocator.createInstances(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList(ID_1, ID_2), 2);
+      fail("expected an UnrecoverableProviderException");
+    } catch (UnrecoverableProviderException e) {
+      // expected
+    }
+    Mockito.verify(allocator).delete(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList(ID_1, ID_2));
+  }
+
+  @Test
+  public void createsTheVmsOneAtATimeWithUnmanagedDisks() throws Exception {
+    AzureComputeInstanceTemplate template = newInstanceTemplate("No");
+    TemplateDeploymentAllocator allocator = newAllocator();
+    Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>> created =
+        Collections.emptyList();
+    Mockito.doReturn(created).when(allocator).createInstancesOneAtATime(
+        Mockito.any(), Mockito.any(), Mockito.any(), Mockito.anyInt());
+
+    assertSame(created,
+        allocator.createInstances(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList(ID_1, ID_2), 1));
+
+    Mockito.verify(allocator).createInstancesOneAtATime(DEFAULT_LOCALIZATION_CONTEXT, template,
+        Arrays.asList(ID_1, ID_2), 1);
+    assertTrue(deployments.isEmpty());
+  }
+
+  @Test
+  public void cancelsRunningDeploymentsBeforeDeletingOnTimeout() throws Exception {
+    AzurePluginConfigHelper.setAzurePluginConfig(ConfigFactory
+        .parseMap(Collections.singletonMap(Configurations.AZURE_CONFIG_PROVIDER + "." +
+            Configurations.AZURE_CONFIG_PROVIDER_BACKEND_OPERATION_POLLING_TIMEOUT_SECONDS, 1))
+        .withFallback(AzurePluginConfigHelper.parseConfigFromClasspath(Configurations.AZURE_CONFIG_FILENAME)));
+    AzureComputeInstanceTemplate template = newInstanceTemplate("Yes");
+    TemplateDeploymentAllocator allocator = newAllocator();
+
+    // the deployment is still running when the allocate times out
+    deploymentStates.put(DEPLOYMENT, "Running");
+    CountDownLatch deploying = new CountDownLatch(1);
+    Mockito.doAnswer(invocation -> {
+      deploying.await();
+      return null;
+    }).when(allocator).deploy(Mockito.any(), Mockito.any(), Mockito.any());
+    AtomicBoolean cancelledBeforeDelete = new AtomicBoolean();
+    Mockito.doAnswer(invocation -> {
+      cancelledBeforeDelete.set("Canceled".equals(deploymentStates.get(DEPLOYMENT)));
+      return null;
+    }).when(allocator).delete(Mockito.any(), Mockito.any(), Mockito.any());
+
+    try {
+      allocator.createInstances(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList(ID_1, ID_2), 1);
+      fail("expected an UnrecoverableProviderException");
+    } catch (UnrecoverableProviderException e) {
+      // expected
+    } finally {
+      deploying.countDown();
+    }
+
+    assertTrue(requests.stream().anyMatch(r -> r.startsWith("POST ") && r.endsWith(DEPLOYMENT + "/cancel")));
+    assertTrue(cancelledBeforeDelete.get());
+    Mockito.verify(allocator).delete(DEFAULT_LOCALIZATION_CONTEXT, template, Arrays.asList(ID_1, ID_2));
+  }
+
+  @Test
+  public void doesNotCancelFinishedDeployments() {
+    TemplateDeploymentAllocator allocator = new TemplateDeploymentAllocator(azure,
+        Mockito.mock(MSIManager.class), (property, context) -> null);
+    deploymentStates.put("failed", "Failed");
+
+    allocator.cancelDeployments(RG, Arrays.asList("succeeded", "failed"));
+
+    assertFalse(requests.stream().anyMatch(r -> r.startsWith("POST ")));
+  }
+
+  /**
+   * Builds an allocator whose deployment template comes from {@link #newTemplate()}, and whose
+   * cleanup is only recorded.
+   */
+  private TemplateDeploymentAllocator newAllocator() throws Exception {
+    TemplateDeploymentAllocator allocator = Mockito.spy(new TemplateDeploymentAllocator(azure,
+        Mockito.mock(MSIManager.class), (property, context) -> "westus"));
+    Mockito.doReturn(newTemplate()).when(allocator).buildDeploymentTemplate(Mockito.any(), Mockito.any());
+    Mockito.doNothing().when(allocator).delete(Mockito.any(), Mockito.any(), Mockito.any());
+    return allocator;
+  }
+
+  private static AzureComputeInstanceTemplate newInstanceTemplate(String managedDisks) {
+    Map<String, String> map = TestHelper.buildValidDirectorUnitTestMap();
+    map.put(AzureComputeInstanceTemplateConfigurationProperty.MANAGED_DISKS.unwrap().getConfigKey(), managedDisks);
+    map.put(AzureComputeInstanceTemplateConfigurationProperty.WITH_STATIC_PRIVATE_IP_ADDRESS.unwrap().getConfigKey(),
+        "No");
+    return new AzureComputeInstanceTemplate("template", new SimpleConfiguration(map), Collections.emptyMap(),
+        DEFAULT_LOCALIZATION_CONTEXT);
+  }
+
+  private static String vmJson(String id, String name) {
+    return "{\"id\":\"" + id + "\",\"name\":\"" + name + "\",\"type\":\"Microsoft.Compute/virtualMachines\"," +
+        "\"location\":\"westus\",\"properties\":{\"provisioningState\":\"Succeeded\"," +
+        "\"hardwareProfile\":{\"vmSize\":\"Standard_DS12_v2\"}," +
+        "\"storageProfile\":{\"imageReference\":{\"publisher\":\"cloudera\",\"offer\":\"cloudera-centos-os\"," +
+        "\"sku\":\"7_4\",\"version\":\"1.0.0\"},\"osDisk\":{\"osType\":\"Linux\",\"name\":\"" + name + "-os\"," +
+        "\"createOption\":\"FromImage\",\"managedDisk\":{\"storageAccountType\":\"Premium_LRS\"}}," +
+        "\"dataDisks\":[]},\"networkProfile\":{\"networkInterfaces\":[]}}}";
+  }
+
+  private static VirtualMachineDeploymentTemplate newTemplate() {
+    return new VirtualMachineDeploymentTemplate()
+        .withLocation("westus")
+        .withTags(ImmutableMap.of("env", "prod"))
+        .withNames("director", "cdh-cluster.internal")
+        .withVmSize("STANDARD_DS12_V2")
+        .withLinuxProfile("cloudera", "ssh-rsa AAAA", null)
+        .withImage(new ImageReference().withPublisher("cloudera").withOffer("cloudera-centos-os")
+            .withSku("7_4").withVersion("1.0.0"), null, null)
+        .withDisks("Premium_LRS", 2, 512)
+        .withNetwork("/subscriptions/" + SUBSCRIPTION + "/resourceGroups/vnrg/providers/" +
+                "Microsoft.Network/virtualNetworks/vn/subnets/default",
+            "/subscriptions/" + SUBSCRIPTION + "/resourceGroups/nsgrg/providers/" +
+                "Microsoft.Network/networkSecurityGroups/nsg",
+            true, false);
+  }
+}
@@ -23,7 +23,6 @@ import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMe
 import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMetadata.getFirstGroupOfUuid;
 import static com.cloudera.director.azure.compute.provider.AzureVirtualMachineMetadata.getVmName;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
 
@@ -47,6 +46,7 @@ import com.cloudera.director.azure.shaded.com.microsoft.azure.management.resourc
 import com.cloudera.director.azure.shaded.com.microsoft.azure.management.storage.SkuName;
 import com.cloudera.director.azure.shaded.com.microsoft.azure.management.storage.StorageAccountSkuType;
 import com.cloudera.director.azure.shaded.com.microsoft.azure.management.storage.StorageAccount;
+import com.cloudera.director.azure.shaded.rx.Completable;
 import com.cloudera.director.spi.v2.model.LocalizationContext;
 import com.cloudera.director.spi.v2.model.exception.AbstractPluginException;
 import com.cloudera.director.spi.v2.model.exception.PluginExceptionCondition;
@@ -111,7 +111,8 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
     doReturn(allocator)
         .when(provider)
         .createInstanceAllocator(
-            anyBoolean(), any(Azure.class), any(MSIManager.class), any(BiFunction.class));
+            any(AzureComputeProvider.AllocatorType.class), any(Azure.class), any(MSIManager.class),
+            any(BiFunction.class));
 
     // the three VMs to use for this test
     Collection<String> instanceIds = new ArrayList<>();
@@ -131,7 +132,9 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
             ArgumentMatchers.anyString(),
             any(AvailabilitySet.class),
             any(Network.class),
-            any(NetworkSecurityGroup.class));
+            any(NetworkSecurityGroup.class),
+            any(VirtualMachineAllocator.ResolvedTemplateResources.class),
+            ArgumentMatchers.nullable(String.class));
 
 
     // 1. allocate
@@ -209,7 +212,8 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
     doReturn(allocator)
         .when(provider)
         .createInstanceAllocator(
-            anyBoolean(), any(Azure.class), any(MSIManager.class), any(BiFunction.class));
+            any(AzureComputeProvider.AllocatorType.class), any(Azure.class), any(MSIManager.class),
+            any(BiFunction.class));
 
     // the single VM to use for this test
     String instanceId = UUID.randomUUID().toString();
@@ -278,7 +282,8 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
             ArgumentMatchers.anyString(),
             any(Network.class),
             any(NetworkSecurityGroup.class),
-            ArgumentMatchers.anyString());
+            ArgumentMatchers.anyString(),
+            ArgumentMatchers.nullable(String.class));
 
     Collection<? extends AzureComputeInstance<?>> allocatedInstances =
         provider.allocate(template, instanceIds, instanceIds.size());
@@ -395,7 +400,8 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
     doReturn(allocator)
         .when(provider)
         .createInstanceAllocator(
-            anyBoolean(), any(Azure.class), any(MSIManager.class), any(BiFunction.class));
+            any(AzureComputeProvider.AllocatorType.class), any(Azure.class), any(MSIManager.class),
+            any(BiFunction.class));
 
     // the three VMs to use for this test
     Collection<String> instanceIds = new ArrayList<>();
@@ -417,7 +423,9 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
               ArgumentMatchers.anyString(),
               any(AvailabilitySet.class),
               any(Network.class),
-              any(NetworkSecurityGroup.class));
+              any(NetworkSecurityGroup.class),
+              any(VirtualMachineAllocator.ResolvedTemplateResources.class),
+              ArgumentMatchers.nullable(String.class));
     }
 
     if (failNic) {
@@ -432,7 +440,8 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
               ArgumentMatchers.anyString(),
               any(Network.class),
               any(NetworkSecurityGroup.class),
-              ArgumentMatchers.anyString());
+              ArgumentMatchers.anyString(),
+              ArgumentMatchers.nullable(String.class));
     }
 
     if (failPublicIp) {
@@ -641,7 +650,8 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
     doReturn(allocator)
         .when(provider)
         .createInstanceAllocator(
-            anyBoolean(), any(Azure.class), any(MSIManager.class), any(BiFunction.class));
+            any(AzureComputeProvider.AllocatorType.class), any(Azure.class), any(MSIManager.class),
+            any(BiFunction.class));
 
     // 1. allocate one instance
     LOG.info("1. allocate");
@@ -745,7 +755,8 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
               ArgumentMatchers.anyString(),
               any(Network.class),
               any(NetworkSecurityGroup.class),
-              ArgumentMatchers.anyString());
+              ArgumentMatchers.anyString(),
+              ArgumentMatchers.nullable(String.class));
     }
 
     // fail public IP create by having it use the same name as the existing public IP
@@ -827,7 +838,8 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
     doReturn(allocator)
         .when(provider)
         .createInstanceAllocator(
-            anyBoolean(), any(Azure.class), any(MSIManager.class), any(BiFunction.class));
+            any(AzureComputeProvider.AllocatorType.class), any(Azure.class), any(MSIManager.class),
+            any(BiFunction.class));
 
     // 1. allocate one instance
     LOG.info("1. allocate");
@@ -838,23 +850,19 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
 
     provider.allocate(template, instanceIds, instanceIds.size());
 
-    // 2. On purpose fail to delete just one of the VM's Managed Disks to verify that errors have been accumulated
-    StringBuilder deleteFailedBuilder = new StringBuilder();
-    List<String> resourceIds = new ArrayList<>();
-    resourceIds.add("/subscriptions/" + TestHelper.LIVE_TEST_SUBSCRIPTION_ID + "/resourceGroups/" +
+    // 2. On purpose fail to delete just one of the VM's Managed Disks (it's still attached) to verify that the
+    // error is surfaced
+    String diskId = "/subscriptions/" + TestHelper.LIVE_TEST_SUBSCRIPTION_ID + "/resourceGroups/" +
         TestHelper.TEST_RESOURCE_GROUP + "/providers/Microsoft.Compute/disks/" +
-        getFirstGroupOfUuid(instanceId) + "-0");
-
-    boolean successful = allocator.asyncDeleteByIdHelper(azure.disks(), "Managed Disks", resourceIds,
-        deleteFailedBuilder);
-    LOG.info(deleteFailedBuilder.toString());
+        getFirstGroupOfUuid(instanceId) + "-0";
+    Throwable diskDeleteError = allocator.deleteByIdAsync(azure.disks(), diskId).get();
+    LOG.info("Deleting the attached disk {} failed with: {}", diskId, String.valueOf(diskDeleteError));
 
     // 3. fake delete
     boolean deleteFailedOnPurpose = false;
-    doReturn(false)
+    doReturn(Completable.error(new RuntimeException("Fake delete failure.")))
         .when(allocator)
-        .asyncDeleteByIdHelper(any(SupportsDeletingById.class), ArgumentMatchers.anyString(),
-            any(List.class), any(StringBuilder.class));
+        .deleteByIdAsync(any(SupportsDeletingById.class), ArgumentMatchers.anyString());
 
     try {
       LOG.info("Fake delete.");
@@ -873,8 +881,7 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
     LOG.info("Real delete.");
     Mockito.doCallRealMethod()
         .when(allocator)
-        .asyncDeleteByIdHelper(any(SupportsDeletingById.class), ArgumentMatchers.anyString(),
-            any(List.class), any(StringBuilder.class));
+        .deleteByIdAsync(any(SupportsDeletingById.class), ArgumentMatchers.anyString());
 
     provider.delete(template, instanceIds);
 
@@ -885,10 +892,9 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
       LOG.error("Test did not clean up all resources.");
     }
 
-    // 5.a. fail the test if the string builder passed to asyncDeleteByIdHelper is empty
-    if (deleteFailedBuilder.toString().trim().isEmpty()) {
-      Assert.fail("The error accumulator passed to asyncDeleteByIdHelper is empty (it should contain error contents");
-    }
+    // 5.a. fail the test if deleting the attached disk worked
+    Assert.assertNotNull("The direct delete of an attached disk was successful (it should not have been).",
+        diskDeleteError);
 
     // 5.b. fail the test if the delete didn't fail on purpose and if the test cleanup didn't work
     if (!deleteFailedOnPurpose && !cleanedUp) {
@@ -900,11 +906,7 @@ public class VirtualMachineAllocatorLiveTest extends AzureComputeProviderLiveTes
     Assert.assertTrue("The failed delete did not throw an UnrecoverableProviderException (it should have).",
         deleteFailedOnPurpose);
 
-    // 5.d. verify asyncDeleteByIdHelper
-    Assert.assertFalse("The direct call to asyncDeleteByIdHelper was successful (it should not have been).",
-        successful);
-
-    // 5.e. fail the test if cleanup didn't work
+    // 5.d. fail the test if cleanup didn't work
     Assert.assertTrue("Test has failed to clean up all resources.", cleanedUp);
   }
 
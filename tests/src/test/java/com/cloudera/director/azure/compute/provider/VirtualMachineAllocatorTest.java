@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.cloudera.director.azure.compute.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import com.cloudera.director.azure.Configurations;
+import com.cloudera.director.azure.TestHelper;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstance;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplate;
+import com.cloudera.director.azure.compute.instance.AzureComputeInstanceTemplateConfigurationProperty;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.Page;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.PagedList;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.Azure;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.InstanceViewStatus;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.VirtualMachine;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.VirtualMachines;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.implementation.VirtualMachineInstanceViewInner;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.implementation.VirtualMachinesInner;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.msi.implementation.MSIManager;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.network.Network;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.network.NetworkInterfaces;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.network.NetworkSecurityGroup;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.network.NetworkSecurityGroups;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.network.Networks;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.resources.fluentcore.model.Creatable;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.resources.fluentcore.model.CreatedResources;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.storage.StorageAccounts;
+import com.cloudera.director.azure.shaded.com.microsoft.rest.ServiceCallback;
+import com.cloudera.director.azure.shaded.com.microsoft.rest.ServiceFuture;
+import com.cloudera.director.azure.shaded.com.typesafe.config.ConfigFactory;
+import com.cloudera.director.azure.shaded.rx.Observable;
+import com.cloudera.director.azure.utils.AzurePluginConfigHelper;
+import com.cloudera.director.spi.v2.model.exception.UnrecoverableProviderException;
+import com.cloudera.director.spi.v2.model.util.DefaultLocalizationContext;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * VirtualMachineAllocator tests that don't need Azure. The createInstances tests stub the VM
+ * creates: each create submitted to {@code virtualMachines().createAsync} is queued until the test
+ * settles it.
+ */
+public class VirtualMachineAllocatorTest {
+
+  private static final DefaultLocalizationContext DEFAULT_LOCALIZATION_CONTEXT =
+      new DefaultLocalizationContext(Locale.getDefault(), "");
+  private static final String RG = "computeRG";
+  private static final String ID_1 = "aaaaaaaa-1111-4111-8111-111111111111";
+  private static final String ID_2 = "bbbbbbbb-2222-4222-8222-222222222222";
+  private static final String ID_3 = "cccccccc-3333-4333-8333-333333333333";
+  private static final String ID_4 = "dddddddd-4444-4444-8444-444444444444";
+  private static final String ID_5 = "eeeeeeee-5555-4555-8555-555555555555";
+  private static final long WAIT_SECONDS = 10;
+
+  private Azure azure;
+  private VirtualMachines virtualMachines;
+  private VirtualMachinesInner virtualMachinesInner;
+  private VirtualMachineAllocator allocator;
+  private AzureComputeInstanceTemplate template;
+
+  // the creates submitted and not yet taken by the test, and how many were unsettled at once
+  private final BlockingQueue<SubmittedCreate> submittedCreates = new LinkedBlockingQueue<>();
+  private final AtomicInteger createsInFlight = new AtomicInteger();
+  private final AtomicInteger maxCreatesInFlight = new AtomicInteger();
+
+  // runs createInstances, which blocks until the creates settle
+  private final ExecutorService allocateExecutor = Executors.newSingleThreadExecutor();
+  private final AtomicReference<Thread> allocateThread = new AtomicReference<>();
+
+  @Before
+  public void setUp() throws Exception {
+    AzurePluginConfigHelper.setAzurePluginConfig(AzurePluginConfigHelper
+        .parseConfigFromClasspath(Configurations.AZURE_CONFIG_FILENAME));
+
+    virtualMachines = Mockito.mock(VirtualMachines.class);
+    virtualMachinesInner = Mockito.mock(VirtualMachinesInner.class);
+    Mockito.when(virtualMachines.inner()).thenReturn(virtualMachinesInner);
+    azure = Mockito.mock(Azure.class);
+    Mockito.when(azure.virtualMachines()).thenReturn(virtualMachines);
+
+    allocator = new VirtualMachineAllocator(azure, Mockito.mock(MSIManager.class), (property, context) -> null);
+    template = new AzureComputeInstanceTemplate("template", TestHelper.buildValidDirectorUnitTestConfig(),
+        Collections.emptyMap(), DEFAULT_LOCALIZATION_CONTEXT);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    allocateExecutor.shutdownNow();
+    TestHelper.setAzurePluginConfigNull();
+  }
+
+  @Test
+  public void getInstanceStateResolvesListedVmsWithoutGettingThemOneByOne() {
+    String prefix = template.getInstanceNamePrefix();
+    listVms(
+        vm(prefix + "-running", Collections.emptyMap()),
+        vm(prefix + "-standby-11111111", ImmutableMap.of(StandbyPool.CLAIM_TAG, "claimed")),
+        vm("other-running", Collections.emptyMap()),
+        vm(prefix + "-not-requested", Collections.emptyMap()));
+    instanceView(prefix + "-running", "PowerState/running");
+    instanceView(prefix + "-standby-11111111", "PowerState/starting");
+
+    Map<String, List<InstanceViewStatus>> states = allocator.getInstanceState(DEFAULT_LOCALIZATION_CONTEXT,
+        template, Arrays.asList("running", "claimed"));
+
+    assertThat(states.keySet()).containsOnly("running", "claimed");
+    assertThat(codes(states.get("running"))).containsExactly("PowerState/running");
+    assertThat(codes(states.get("claimed"))).containsExactly("PowerState/starting");
+
+    Mockito.verify(virtualMachines).listByResourceGroup(RG);
+    Mockito.verify(virtualMachines, Mockito.never()).getByResourceGroup(Mockito.anyString(), Mockito.anyString());
+    Mockito.verify(virtualMachinesInner, Mockito.never()).instanceViewAsync(RG, prefix + "-not-requested");
+  }
+
+  @Test
+  public void createInstancesReturnsAsSoonAsTheLastCreateSettles() throws Exception {
+    VirtualMachineAllocator createAllocator = newCreateAllocator();
+    template = newCreateTemplate();
+
+    Future<Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>> allocate =
+        createInstances(createAllocator, Arrays.asList(ID_1, ID_2, ID_3), 3);
+    SubmittedCreate first = takeCreate();
+    SubmittedCreate second = takeCreate();
+    SubmittedCreate third = takeCreate();
+
+    first.succeed();
+    second.succeed();
+    assertStillAllocating(allocate);
+
+    // well within the 2400 second timeout
+    third.succeed();
+    assertThat(ids(allocate.get(WAIT_SECONDS, TimeUnit.SECONDS))).containsOnly(ID_1, ID_2, ID_3);
+
+    assertThat(submittedCreates).isEmpty();
+    Mockito.verify(createAllocator, Mockito.never()).delete(Mockito.any(), Mockito.any(), Mockito.any());
+  }
+
+  @Test
+  public void createInstancesKeepsAtMostMaxConcurrencyCreatesInFlight() throws Exception {
+    setProviderConfig(Configurations.AZURE_VM_CREATE_MAX_CONCURRENCY, 2);
+    VirtualMachineAllocator createAllocator = newCreateAllocator();
+    template = newCreateTemplate();
+
+    Future<Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>> allocate =
+        createInstances(createAllocator, Arrays.asList(ID_1, ID_2, ID_3, ID_4, ID_5), 5);
+
+    // each settled create lets exactly one queued create in
+    SubmittedCreate older = takeCreate();
+    SubmittedCreate newer = takeCreate();
+    for (int i = 0; i < 3; i++) {
+      assertNoFurtherCreate();
+      older.succeed();
+      older = newer;
+      newer = takeCreate();
+    }
+    assertNoFurtherCreate();
+    older.succeed();
+    newer.succeed();
+
+    assertThat(ids(allocate.get(WAIT_SECONDS, TimeUnit.SECONDS))).containsOnly(ID_1, ID_2, ID_3, ID_4, ID_5);
+    assertThat(maxCreatesInFlight.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void createInstancesFailsFastOnceMinCountCanNoLongerBeReached() throws Exception {
+    setProviderConfig(Configurations.AZURE_VM_CREATE_MAX_CONCURRENCY, 2);
+    VirtualMachineAllocator createAllocator = newCreateAllocator();
+    template = newCreateTemplate();
+    List<String> instanceIds = Arrays.asList(ID_1, ID_2, ID_3, ID_4);
+
+    // minCount 3 out of 4 tolerates one failed create
+    Future<Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>> allocate =
+        createInstances(createAllocator, instanceIds, 3);
+    SubmittedCreate first = takeCreate();
+    SubmittedCreate second = takeCreate();
+    first.fail();
+    SubmittedCreate third = takeCreate();
+    second.fail();
+
+    UnrecoverableProviderException e = expectAllocateFailure(allocate);
+    assertThat(e.getMessage()).contains("2 out of 4 instance creates failed");
+
+    // the fourth create is never submitted, and the third is given up on
+    assertNoFurtherCreate();
+    Mockito.verify(third.future).cancel(true);
+    Mockito.verify(first.future, Mockito.never()).cancel(Mockito.anyBoolean());
+    Mockito.verify(second.future, Mockito.never()).cancel(Mockito.anyBoolean());
+
+    // the failed VMs are cleaned up before the allocate deletes all the instances
+    Mockito.verify(virtualMachines).deleteByResourceGroup(RG, vmName(ID_1));
+    Mockito.verify(virtualMachines).deleteByResourceGroup(RG, vmName(ID_2));
+    Mockito.verify(createAllocator).delete(DEFAULT_LOCALIZATION_CONTEXT, template, instanceIds);
+  }
+
+  @Test
+  public void createInstancesCancelsTheUnsettledCreatesWhenTimingOutWaitingForASlot() throws Exception {
+    setProviderConfig(Configurations.AZURE_VM_CREATE_MAX_CONCURRENCY, 1);
+    setProviderConfig(Configurations.AZURE_CONFIG_PROVIDER_BACKEND_OPERATION_POLLING_TIMEOUT_SECONDS, 1);
+    VirtualMachineAllocator createAllocator = newCreateAllocator();
+    template = newCreateTemplate();
+    List<String> instanceIds = Arrays.asList(ID_1, ID_2);
+
+    Future<Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>> allocate =
+        createInstances(createAllocator, instanceIds, 1);
+    SubmittedCreate first = takeCreate();
+
+    // the first create never settles, so the second never gets a slot
+    UnrecoverableProviderException e = expectAllocateFailure(allocate);
+    assertThat(e.getMessage()).contains("timed out");
+
+    assertNoFurtherCreate();
+    Mockito.verify(first.future).cancel(true);
+    Mockito.verify(createAllocator).delete(DEFAULT_LOCALIZATION_CONTEXT, template, instanceIds);
+  }
+
+  @Test
+  public void createInstancesCancelsTheUnsettledCreatesWhenInterrupted() throws Exception {
+    VirtualMachineAllocator createAllocator = newCreateAllocator();
+    template = newCreateTemplate();
+    List<String> instanceIds = Arrays.asList(ID_1, ID_2);
+
+    Future<Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>> allocate =
+        createInstances(createAllocator, instanceIds, 2);
+    SubmittedCreate first = takeCreate();
+    SubmittedCreate second = takeCreate();
+    first.succeed();
+    assertStillAllocating(allocate);
+
+    allocateThread.get().interrupt();
+    UnrecoverableProviderException e = expectAllocateFailure(allocate);
+    assertThat(e.getMessage()).contains("interrupted");
+
+    Mockito.verify(second.future).cancel(true);
+    Mockito.verify(first.future, Mockito.never()).cancel(Mockito.anyBoolean());
+    Mockito.verify(createAllocator).delete(DEFAULT_LOCALIZATION_CONTEXT, template, instanceIds);
+  }
+
+  private static List<String> codes(List<InstanceViewStatus> statuses) {
+    return statuses.stream().map(InstanceViewStatus::code).collect(Collectors.toList());
+  }
+
+  private void instanceView(String vmName, String code) {
+    Mockito.when(virtualMachinesInner.instanceViewAsync(RG, vmName)).thenReturn(Observable.just(
+        new VirtualMachineInstanceViewInner().withStatuses(
+            Collections.singletonList(new InstanceViewStatus().withCode(code)))));
+  }
+
+  private void listVms(VirtualMachine... vms) {
+    PagedList<VirtualMachine> list = new PagedList<VirtualMachine>() {
+      @Override
+      public Page<VirtualMachine> nextPage(String nextPageLink) {
+        return null;
+      }
+    };
+    list.addAll(Arrays.asList(vms));
+    Mockito.when(virtualMachines.listByResourceGroup(RG)).thenReturn(list);
+  }
+
+  private static VirtualMachine vm(String name, Map<String, String> tags) {
+    VirtualMachine vm = Mockito.mock(VirtualMachine.class);
+    Mockito.when(vm.name()).thenReturn(name);
+    Mockito.when(vm.tags()).thenReturn(tags);
+    return vm;
+  }
+
+  /**
+   * Overrides one setting of the provider section of the plugin config.
+   */
+  private static void setProviderConfig(String key, int value) {
+    AzurePluginConfigHelper.setAzurePluginConfig(ConfigFactory
+        .parseMap(Collections.singletonMap(Configurations.AZURE_CONFIG_PROVIDER + "." + key, value))
+        .withFallback(AzurePluginConfigHelper.getAzurePluginConfig()));
+  }
+
+  /**
+   * A template without an Availability Set, Managed Disks or static private IP addresses, so that
+   * the only Azure calls of an allocate are the VNET and NSG lookups, the creates and the cleanups.
+   */
+  private static AzureComputeInstanceTemplate newCreateTemplate() {
+    Map<String, String> map = TestHelper.buildValidDirectorUnitTestMap();
+    map.put(AzureComputeInstanceTemplateConfigurationProperty.AVAILABILITY_SET.unwrap().getConfigKey(), "");
+    map.put(AzureComputeInstanceTemplateConfigurationProperty.MANAGED_DISKS.unwrap().getConfigKey(), "No");
+    map.put(AzureComputeInstanceTemplateConfigurationProperty.WITH_STATIC_PRIVATE_IP_ADDRESS.unwrap().getConfigKey(),
+        "No");
+    return new AzureComputeInstanceTemplate("template", new SimpleConfiguration(map), Collections.emptyMap(),
+        DEFAULT_LOCALIZATION_CONTEXT);
+  }
+
+  /**
+   * An allocator whose VM creates are queued in {@link #submittedCreates}, and whose final delete
+   * does nothing.
+   */
+  @SuppressWarnings("unchecked")
+  private VirtualMachineAllocator newCreateAllocator() throws Exception {
+    Network vnet = Mockito.mock(Network.class);
+    Mockito.when(vnet.name()).thenReturn("vnet");
+    Networks networks = Mockito.mock(Networks.class);
+    Mockito.when(networks.getByResourceGroup(Mockito.anyString(), Mockito.anyString())).thenReturn(vnet);
+    NetworkSecurityGroup nsg = Mockito.mock(NetworkSecurityGroup.class);
+    Mockito.when(nsg.name()).thenReturn("nsg");
+    NetworkSecurityGroups nsgs = Mockito.mock(NetworkSecurityGroups.class);
+    Mockito.when(nsgs.getByResourceGroup(Mockito.anyString(), Mockito.anyString())).thenReturn(nsg);
+    Mockito.when(azure.subscriptionId()).thenReturn("00000000-0000-0000-0000-000000000000");
+    Mockito.when(azure.networks()).thenReturn(networks);
+    Mockito.when(azure.networkSecurityGroups()).thenReturn(nsgs);
+    // the cleanup of a failed create deletes its VM, Storage Account and NIC
+    Mockito.when(azure.storageAccounts()).thenReturn(Mockito.mock(StorageAccounts.class));
+    Mockito.when(azure.networkInterfaces()).thenReturn(Mockito.mock(NetworkInterfaces.class));
+
+    Mockito.doAnswer(invocation -> {
+      ServiceCallback<CreatedResources<VirtualMachine>> callback = invocation.getArgument(0);
+      Creatable<VirtualMachine> creatable = invocation.getArgument(1);
+      maxCreatesInFlight.accumulateAndGet(createsInFlight.incrementAndGet(), Math::max);
+      ServiceFuture<CreatedResources<VirtualMachine>> future = Mockito.mock(ServiceFuture.class);
+      submittedCreates.add(new SubmittedCreate(creatable.key(), callback, future));
+      return future;
+    }).when(virtualMachines).createAsync(Mockito.<ServiceCallback<CreatedResources<VirtualMachine>>>any(),
+        Mockito.<Creatable<VirtualMachine>>any());
+
+    VirtualMachineAllocator createAllocator = Mockito.spy(allocator);
+    Mockito.doReturn(new VirtualMachineAllocator.ResolvedTemplateResources(null, null, null))
+        .when(createAllocator).resolveTemplateResources(Mockito.any(), Mockito.any(), Mockito.any());
+    Mockito.doAnswer(invocation -> {
+      String instanceId = invocation.getArgument(3);
+      VirtualMachine.DefinitionStages.WithCreate creatable =
+          Mockito.mock(VirtualMachine.DefinitionStages.WithCreate.class);
+      Mockito.when(creatable.name()).thenReturn(vmName(instanceId));
+      Mockito.when(creatable.key()).thenReturn(instanceId);
+      return creatable;
+    }).when(createAllocator).buildVirtualMachineCreatable(Mockito.any(), Mockito.any(), Mockito.any(),
+        Mockito.anyString(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+    Mockito.doNothing().when(createAllocator).delete(Mockito.any(), Mockito.any(), Mockito.any());
+    return createAllocator;
+  }
+
+  private Future<Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>>>
+  createInstances(VirtualMachineAllocator createAllocator, List<String> instanceIds, int minCount) {
+    return allocateExecutor.submit(() -> {
+      allocateThread.set(Thread.currentThread());
+      return createAllocator.createInstances(DEFAULT_LOCALIZATION_CONTEXT, template, instanceIds, minCount);
+    });
+  }
+
+  private String vmName(String instanceId) {
+    return AzureVirtualMachineMetadata.getVmName(instanceId, template.getInstanceNamePrefix());
+  }
+
+  private SubmittedCreate takeCreate() throws InterruptedException {
+    SubmittedCreate create = submittedCreates.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+    assertThat(create).isNotNull();
+    return create;
+  }
+
+  private void assertNoFurtherCreate() throws InterruptedException {
+    assertThat(submittedCreates.poll(200, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  private static void assertStillAllocating(Future<?> allocate) throws Exception {
+    try {
+      allocate.get(200, TimeUnit.MILLISECONDS);
+      fail("expected the allocate to wait for the unsettled creates");
+    } catch (TimeoutException e) {
+      // expected
+    }
+  }
+
+  private static UnrecoverableProviderException expectAllocateFailure(Future<?> allocate) throws Exception {
+    try {
+      allocate.get(WAIT_SECONDS, TimeUnit.SECONDS);
+      fail("expected an UnrecoverableProviderException");
+      return null;
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(UnrecoverableProviderException.class);
+      return (UnrecoverableProviderException) e.getCause();
+    }
+  }
+
+  private static List<String> ids(
+      Collection<AzureComputeInstance<com.cloudera.director.azure.compute.instance.VirtualMachine>> instances) {
+    return instances.stream().map(AzureComputeInstance::getId).collect(Collectors.toList());
+  }
+
+  /**
+   * A create submitted to {@code virtualMachines().createAsync}, settled by the test.
+   */
+  private final class SubmittedCreate {
+    private final String instanceId;
+    private final ServiceCallback<CreatedResources<VirtualMachine>> callback;
+    private final ServiceFuture<CreatedResources<VirtualMachine>> future;
+
+    SubmittedCreate(String instanceId, ServiceCallback<CreatedResources<VirtualMachine>> callback,
+        ServiceFuture<CreatedResources<VirtualMachine>> future) {
+      this.instanceId = instanceId;
+      this.callback = callback;
+      this.future = future;
+    }
+
+    @SuppressWarnings("unchecked")
+    void succeed() {
+      createsInFlight.decrementAndGet();
+      CreatedResources<VirtualMachine> result = Mockito.mock(CreatedResources.class);
+      VirtualMachine vm = vm(vmName(instanceId), Collections.emptyMap());
+      Mockito.when(result.get(instanceId)).thenReturn(vm);
+      callback.success(result);
+    }
+
+    void fail() {
+      createsInFlight.decrementAndGet();
+      callback.failure(new RuntimeException("Operation results in exceeding quota limits of Core."));
+    }
+  }
+}
@@ -31,7 +31,6 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
@@ -128,7 +127,8 @@ public class VirtualMachineScaleSetAllocatorLiveTest extends AzureComputeProvide
     doReturn(allocator)
         .when(provider)
         .createInstanceAllocator(
-            anyBoolean(), any(Azure.class), any(MSIManager.class), any(BiFunction.class));
+            any(AzureComputeProvider.AllocatorType.class), any(Azure.class), any(MSIManager.class),
+            any(BiFunction.class));
 
     template = new AzureComputeInstanceTemplate("test-template", config, Collections.emptyMap(), context);
   }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * ArmRateLimiter and ArmRateLimitInterceptor tests.
+ */
+public class ArmRateLimiterTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final AtomicLong now = new AtomicLong();
+
+  @Test
+  public void doesNotWaitUntilArmReportsTheQuota() {
+    ArmRateLimiter limiter = new ArmRateLimiter(10, now::get);
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(0, limiter.reserve("sub", true));
+    }
+  }
+
+  @Test
+  public void pacesOnlyOnceTheRemainingQuotaIsLow() {
+    // 3600 reads left is taken as the hourly quota: refilled at one per second, low below 360
+    ArmRateLimiter limiter = new ArmRateLimiter(10, now::get);
+    limiter.onRemaining("sub", false, 3600);
+    assertEquals(0, limiter.reserve("sub", false));
+
+    // ARM says only 362 reads are left: 2 are free before pacing at the refill rate
+    limiter.onRemaining("sub", false, 362);
+    assertEquals(0, limiter.reserve("sub", false));
+    assertEquals(0, limiter.reserve("sub", false));
+    assertEquals(SECOND, limiter.reserve("sub", false), SECOND / 100);
+    assertEquals(2 * SECOND, limiter.reserve("sub", false), SECOND / 100);
+
+    // writes and other subscriptions have their own quotas
+    assertEquals(0, limiter.reserve("sub", true));
+    assertEquals(0, limiter.reserve("other", false));
+
+    // the refill repays the debt over time
+    now.addAndGet(10 * SECOND);
+    assertEquals(0, limiter.reserve("sub", false));
+  }
+
+  @Test
+  public void speedsUpAgainWhenArmReportsMoreQuota() {
+    ArmRateLimiter limiter = new ArmRateLimiter(10, now::get);
+    limiter.onRemaining("sub", true, 1200);
+    limiter.onRemaining("sub", true, 120);
+    assertEquals(3 * SECOND, limiter.reserve("sub", true), SECOND / 100);
+
+    // e.g. the request was served by another ARM instance with its own count
+    limiter.onRemaining("sub", true, 1000);
+    assertEquals(0, limiter.reserve("sub", true));
+  }
+
+  @Test
+  public void keepsPacingCallersQueuedBeforeANewReport() {
+    // 3600 writes left is taken as the hourly quota: refilled at one per second, low below 360
+    ArmRateLimiter limiter = new ArmRateLimiter(10, now::get);
+    limiter.onRemaining("sub", true, 3600);
+    limiter.onRemaining("sub", true, 360);
+    assertEquals(SECOND, limiter.reserve("sub", true), SECOND / 100);
+    assertEquals(2 * SECOND, limiter.reserve("sub", true), SECOND / 100);
+    assertEquals(3 * SECOND, limiter.reserve("sub", true), SECOND / 100);
+
+    // a report of one more request is used up by the three callers still waiting
+    limiter.onRemaining("sub", true, 361);
+    assertEquals(3 * SECOND, limiter.reserve("sub", true), SECOND / 100);
+  }
+
+  @Test
+  public void extractsSubscriptionAndRequestKind() {
+    assertEquals("sub1", ArmRateLimitInterceptor.subscriptionId(Arrays.asList("subscriptions", "SUB1",
+        "resourceGroups", "rg")));
+    assertNull(ArmRateLimitInterceptor.subscriptionId(Collections.singletonList("subscriptions")));
+    assertNull(ArmRateLimitInterceptor.subscriptionId(Arrays.asList("tenants", "t1")));
+
+    assertFalse(ArmRateLimitInterceptor.isWrite("GET"));
+    assertFalse(ArmRateLimitInterceptor.isWrite("HEAD"));
+    assertTrue(ArmRateLimitInterceptor.isWrite("PUT"));
+    assertTrue(ArmRateLimitInterceptor.isWrite("DELETE"));
+    assertTrue(ArmRateLimitInterceptor.isWrite("POST"));
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.cloudera.director.azure.shaded.okhttp3.OkHttpClient;
+import com.cloudera.director.azure.shaded.okhttp3.Request;
+import com.cloudera.director.azure.shaded.okhttp3.Response;
+import com.sun.net.httpserver.HttpServer;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ArmRequestMetricsInterceptor tests against a local stub ARM server.
+ */
+public class ArmRequestMetricsInterceptorTest {
+
+  private static final String VM_PATH = "/subscriptions/sub/resourceGroups/rg/providers/" +
+      "Microsoft.Compute/virtualMachines/vm1";
+
+  private final AzurePluginMetrics metrics = new AzurePluginMetrics();
+
+  private HttpServer server;
+  private OkHttpClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      int status = exchange.getRequestURI().getPath().endsWith("missing") ? 404 : 200;
+      exchange.getResponseHeaders().add(ArmRequestMetricsInterceptor.REMAINING_READS_HEADER, "11999");
+      exchange.sendResponseHeaders(status, -1);
+      exchange.close();
+    });
+    server.start();
+
+    client = new OkHttpClient.Builder()
+        .addNetworkInterceptor(new ArmRequestMetricsInterceptor(metrics))
+        .build();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void recordsLatencyStatusAndRemainingQuota() throws Exception {
+    String operation = "GET Microsoft.Compute/virtualMachines";
+
+    call(VM_PATH);
+    call(VM_PATH);
+    call(VM_PATH + "-missing");
+
+    assertEquals(3, metrics.getHistogram(ArmRequestMetricsInterceptor.LATENCY_PREFIX + operation)
+        .getCount());
+    assertEquals(2, metrics.getCounter(ArmRequestMetricsInterceptor.STATUS_PREFIX + operation + " 200"));
+    assertEquals(1, metrics.getCounter(ArmRequestMetricsInterceptor.STATUS_PREFIX + operation + " 404"));
+    assertEquals(Long.valueOf(11999), metrics.getGauge(ArmRequestMetricsInterceptor.REMAINING_READS));
+    assertTrue(metrics.summary().contains(ArmRequestMetricsInterceptor.LATENCY_PREFIX + operation));
+  }
+
+  @Test
+  public void classifiesRequestsByVerbAndResourceType() {
+    assertEquals("GET Microsoft.Compute/virtualMachines", ArmRequestMetricsInterceptor.classify("GET",
+        Arrays.asList("subscriptions", "sub", "resourceGroups", "rg", "providers", "Microsoft.Compute",
+            "virtualMachines", "vm1")));
+    assertEquals("POST Microsoft.Compute/virtualMachines/runCommand", ArmRequestMetricsInterceptor
+        .classify("POST", Arrays.asList("subscriptions", "sub", "resourceGroups", "rg", "providers",
+            "Microsoft.Compute", "virtualMachines", "vm1", "runCommand")));
+    assertEquals("DELETE Microsoft.Network/publicIPAddresses", ArmRequestMetricsInterceptor
+        .classify("DELETE", Arrays.asList("subscriptions", "sub", "resourceGroups", "rg", "providers",
+            "Microsoft.Network", "publicIPAddresses", "pip1")));
+    assertEquals("GET resourceGroups", ArmRequestMetricsInterceptor.classify("GET",
+        Arrays.asList("subscriptions", "sub", "resourceGroups", "rg")));
+    assertEquals("GET subscriptions", ArmRequestMetricsInterceptor.classify("GET",
+        Collections.singletonList("subscriptions")));
+  }
+
+  @Test
+  public void histogramReportsBucketedPercentiles() {
+    AzurePluginMetrics.Histogram histogram = new AzurePluginMetrics.Histogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(20);
+    }
+    histogram.record(4000);
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(50, histogram.getPercentileMillis(50));
+    assertEquals(50, histogram.getPercentileMillis(99));
+    assertEquals(4000, histogram.getPercentileMillis(100));
+    assertEquals(4000, histogram.getMaxMillis());
+  }
+
+  private void call(String path) throws Exception {
+    Request request = new Request.Builder()
+        .url("http://localhost:" + server.getAddress().getPort() + path)
+        .build();
+    try (Response ignored = client.newCall(request).execute()) {
+      // only the metrics matter
+    }
+  }
+}
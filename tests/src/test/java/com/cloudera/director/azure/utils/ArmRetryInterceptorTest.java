@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.cloudera.director.azure.shaded.okhttp3.MediaType;
+import com.cloudera.director.azure.shaded.okhttp3.OkHttpClient;
+import com.cloudera.director.azure.shaded.okhttp3.Request;
+import com.cloudera.director.azure.shaded.okhttp3.RequestBody;
+import com.cloudera.director.azure.shaded.okhttp3.Response;
+import com.sun.net.httpserver.HttpServer;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ArmRetryInterceptor tests against a local stub ARM server.
+ */
+public class ArmRetryInterceptorTest {
+
+  private static final String VM_PATH = "/subscriptions/sub/resourceGroups/rg/providers/" +
+      "Microsoft.Compute/virtualMachines/vm1";
+  private static final String GET_VM = "GET Microsoft.Compute/virtualMachines";
+
+  private final AzurePluginMetrics metrics = new AzurePluginMetrics();
+  private final List<Long> sleeps = new CopyOnWriteArrayList<>();
+
+  // canned responses served in order, then 200s: {status, Retry-After or null, body or null}
+  private final Queue<String[]> responses = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger requests = new AtomicInteger();
+
+  private HttpServer server;
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      requests.incrementAndGet();
+      String[] response = responses.poll();
+      if (response == null) {
+        response = new String[] {"200", null, null};
+      }
+      if (response[1] != null) {
+        exchange.getResponseHeaders().add(ArmRetryInterceptor.RETRY_AFTER_HEADER, response[1]);
+      }
+      byte[] body = response[2] == null ? new byte[0] : response[2].getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(Integer.parseInt(response[0]), body.length == 0 ? -1 : body.length);
+      if (body.length > 0) {
+        exchange.getResponseBody().write(body);
+      }
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void retriesThrottledRequestsAfterRetryAfter() throws Exception {
+    responses.add(new String[] {"429", "2", null});
+
+    assertEquals(200, call(newClient(5, 60000), "GET"));
+    assertEquals(2, requests.get());
+    assertEquals(1, sleeps.size());
+    assertEquals(2000L, (long) sleeps.get(0));
+    assertEquals(1, metrics.getCounter(ArmRetryInterceptor.RETRIES_PREFIX + GET_VM + " 429"));
+  }
+
+  @Test
+  public void retriesServerErrorsWithJitteredExponentialBackoff() throws Exception {
+    responses.add(new String[] {"500", null, null});
+    responses.add(new String[] {"502", null, null});
+    responses.add(new String[] {"500", null, null});
+
+    assertEquals(200, call(newClient(5, 60000), "GET"));
+    assertEquals(4, requests.get());
+    // full jitter below 1s, 2s and 4s
+    assertEquals(3, sleeps.size());
+    for (int i = 0; i < sleeps.size(); i++) {
+      assertTrue(sleeps.get(i) >= 0 && sleeps.get(i) < 1000L << i);
+    }
+  }
+
+  @Test
+  public void doesNotRetryPostOnServerErrorsOrPermanentErrorCodes() throws Exception {
+    responses.add(new String[] {"500", null, null});
+    assertEquals(500, call(newClient(5, 60000), "POST"));
+
+    responses.add(new String[] {"409", null, "{\"error\":{\"code\":\"OperationNotAllowed\"}}"});
+    assertEquals(409, call(newClient(5, 60000), "PUT"));
+
+    assertEquals(2, requests.get());
+    assertTrue(sleeps.isEmpty());
+  }
+
+  @Test
+  public void retriesTransientErrorCodesUntilMaxRetries() throws Exception {
+    String conflict = "{\"error\":{\"code\":\"AnotherOperationInProgress\"}}";
+    for (int i = 0; i < 3; i++) {
+      responses.add(new String[] {"409", "0", conflict});
+    }
+
+    assertEquals(409, call(newClient(2, 60000), "PUT"));
+    assertEquals(3, requests.get());
+    assertEquals(2, metrics.getCounter(ArmRetryInterceptor.RETRIES_PREFIX +
+        "PUT Microsoft.Compute/virtualMachines 409 AnotherOperationInProgress"));
+    assertEquals(1, metrics.getCounter(ArmRetryInterceptor.EXHAUSTED_PREFIX +
+        "PUT Microsoft.Compute/virtualMachines"));
+  }
+
+  @Test
+  public void givesUpWhenRetryAfterPassesTheDeadline() throws Exception {
+    responses.add(new String[] {"429", "30", null});
+
+    assertEquals(429, call(newClient(5, 10000), "GET"));
+    assertEquals(1, requests.get());
+    assertTrue(sleeps.isEmpty());
+    assertEquals(1, metrics.getCounter(ArmRetryInterceptor.EXHAUSTED_PREFIX + GET_VM));
+  }
+
+  @Test
+  public void parsesRetryAfter() {
+    assertEquals(5000, ArmRetryInterceptor.retryAfterMillis(" 5 "));
+    assertEquals(-1, ArmRetryInterceptor.retryAfterMillis(null));
+    assertEquals(-1, ArmRetryInterceptor.retryAfterMillis("soon"));
+    assertEquals(0, ArmRetryInterceptor.retryAfterMillis("Wed, 21 Oct 2015 07:28:00 GMT"));
+  }
+
+  private OkHttpClient newClient(int maxRetries, long deadlineMillis) {
+    return new OkHttpClient.Builder()
+        .addInterceptor(new ArmRetryInterceptor(maxRetries, 1000, 60000, deadlineMillis, metrics,
+            sleeps::add, System::nanoTime, new Random(42)))
+        .build();
+  }
+
+  private int call(OkHttpClient client, String method) throws Exception {
+    RequestBody body = "GET".equals(method) ? null :
+        RequestBody.create(MediaType.parse("application/json"), "{}");
+    Request request = new Request.Builder()
+        .url("http://localhost:" + server.getAddress().getPort() + VM_PATH)
+        .method(method, body)
+        .build();
+    try (Response response = client.newCall(request).execute()) {
+      return response.code();
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.cloudera.director.azure.AzureCreator;
+import com.cloudera.director.azure.AzureLauncher;
+import com.cloudera.director.azure.Configurations;
+import com.cloudera.director.azure.TestHelper;
+import com.cloudera.director.azure.compute.credentials.AzureCredentials;
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.Azure;
+import com.cloudera.director.azure.shaded.okhttp3.OkHttpClient;
+import com.cloudera.director.spi.v2.model.util.SimpleConfiguration;
+
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * AzureHttpClients tests.
+ */
+public class AzureHttpClientsTest {
+
+  @Before
+  public void setUp() {
+    AzurePluginConfigHelper.setAzurePluginConfig(AzurePluginConfigHelper
+        .parseConfigFromClasspath(Configurations.AZURE_CONFIG_FILENAME));
+  }
+
+  @After
+  public void tearDown() {
+    TestHelper.setAzurePluginConfigNull();
+  }
+
+  @Test
+  public void clientsBuiltForDifferentCredentialsShareThePoolAndDispatcher() {
+    AzureCredentials first = newCredentials("first-http-clients-test");
+    AzureCredentials second = newCredentials("second-http-clients-test");
+    try {
+      OkHttpClient firstClient = httpClient(first.authenticate());
+      OkHttpClient secondClient = httpClient(second.authenticate());
+
+      assertThat(firstClient).isNotSameAs(secondClient);
+      assertThat(firstClient.connectionPool())
+          .isSameAs(secondClient.connectionPool())
+          .isSameAs(AzureHttpClients.getConnectionPool());
+      assertThat(firstClient.dispatcher())
+          .isSameAs(secondClient.dispatcher())
+          .isSameAs(AzureHttpClients.getDispatcher());
+
+      // the stats report the limits of the shared dispatcher
+      assertThat(AzureHttpClients.logStats())
+          .startsWith("HTTP pool stats: 0/" + AzureHttpClients.getDispatcher().getMaxRequests() + " requests running")
+          .contains("0 queued");
+    } finally {
+      first.invalidateClients();
+      second.invalidateClients();
+    }
+  }
+
+  private static AzureCredentials newCredentials(String secret) {
+    // building the clients doesn't call Azure, so any identity will do
+    Map<String, String> map = AzureCreator.newBuilder()
+        .setSubscriptionId("00000000-0000-0000-0000-000000000001")
+        .setTenantId("00000000-0000-0000-0000-000000000002")
+        .setClientId("00000000-0000-0000-0000-000000000003")
+        .setClientSecret(secret)
+        .build()
+        .createMap();
+    return new AzureCredentials(new SimpleConfiguration(map),
+        new AzureLauncher().getLocalizationContext(Locale.getDefault()));
+  }
+
+  private static OkHttpClient httpClient(Azure azure) {
+    return azure.virtualMachines().manager().inner().restClient().httpClient();
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2019 Cloudera, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cloudera.director.azure.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.cloudera.director.azure.shaded.com.microsoft.azure.management.compute.VirtualMachineImage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * VirtualMachineImageCache tests.
+ */
+public class VirtualMachineImageCacheTest {
+
+  private final AtomicLong now = new AtomicLong();
+  private final AzurePluginMetrics metrics = new AzurePluginMetrics();
+  private final VirtualMachineImageCache cache = new VirtualMachineImageCache(3600, 60, 10, metrics,
+      now::get);
+
+  private final VirtualMachineImage image = Mockito.mock(VirtualMachineImage.class);
+  private final AtomicInteger loads = new AtomicInteger();
+  private final Supplier<VirtualMachineImage> loader = () -> {
+    loads.incrementAndGet();
+    return image;
+  };
+
+  @Test
+  public void cachesPinnedVersionsAcrossRegionLabelsAndNames() {
+    assertSame(image, cache.getImage("West US", "cloudera", "cloudera-centos-os", "7_4", "1.0.0", loader));
+    assertSame(image, cache.getImage("westus", "Cloudera", "cloudera-centos-os", "7_4", "1.0.0", loader));
+    assertSame(image, cache.getImage("westus", "cloudera", "cloudera-centos-os", "7_4", "1.0.0", loader));
+    assertEquals(1, loads.get());
+    assertEquals(2, metrics.getCounter(VirtualMachineImageCache.HITS));
+    assertEquals(1, metrics.getCounter(VirtualMachineImageCache.MISSES));
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(3601));
+    cache.getImage("westus", "cloudera", "cloudera-centos-os", "7_4", "1.0.0", loader);
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void expiresLatestVersionsSooner() {
+    cache.getImage("westus", "cloudera", "cloudera-centos-os", "7_4", "latest", loader);
+    now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+    cache.getImage("westus", "cloudera", "cloudera-centos-os", "7_4", "latest", loader);
+    assertEquals(1, loads.get());
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(31));
+    cache.getImage("westus", "cloudera", "cloudera-centos-os", "7_4", "latest", loader);
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void doesNotCacheMissingImages() {
+    Supplier<VirtualMachineImage> missing = () -> {
+      loads.incrementAndGet();
+      return null;
+    };
+    assertNull(cache.getImage("westus", "cloudera", "missing", "7_4", "1.0.0", missing));
+    assertNull(cache.getImage("westus", "cloudera", "missing", "7_4", "1.0.0", missing));
+    assertEquals(2, loads.get());
+  }
+}